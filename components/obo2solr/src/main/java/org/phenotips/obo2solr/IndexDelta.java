@@ -0,0 +1,144 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.obo2solr;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The differences between an indexed version of an ontology and a newer one, as found by
+ * {@link SolrIndexer#update(java.net.URL)}. Each term is counted once, under the most significant of its changes.
+ *
+ * @version $Id$
+ */
+public class IndexDelta
+{
+    /** The kinds of changes a term can go through between two versions of an ontology. */
+    public enum Change
+    {
+        /** The term is new. */
+        ADDED,
+        /** The term was marked as obsolete. */
+        OBSOLETED,
+        /** The parents of the term changed. */
+        MOVED,
+        /** Other data of the term, like its name, definition or synonyms, changed. */
+        CHANGED,
+        /** The term itself didn't change, but its ancestors or descendants did. */
+        CLOSURE_CHANGED,
+        /** The term is no longer in the ontology, and was deleted from the index. */
+        DELETED,
+        /** Nothing changed, the term wasn't sent again. */
+        UNCHANGED
+    }
+
+    private final Map<Change, AtomicInteger> counts = new EnumMap<Change, AtomicInteger>(Change.class);
+
+    private String previousVersion;
+
+    private String version;
+
+    IndexDelta()
+    {
+        for (Change change : Change.values()) {
+            this.counts.put(change, new AtomicInteger());
+        }
+    }
+
+    /**
+     * @return the version of the ontology that was in the index before the update, or {@code null} if the index was
+     *         empty or didn't declare its version
+     */
+    public String getPreviousVersion()
+    {
+        return this.previousVersion;
+    }
+
+    /**
+     * @return the version of the ontology that the index was updated to, or {@code null} if it doesn't declare one
+     */
+    public String getVersion()
+    {
+        return this.version;
+    }
+
+    /**
+     * @param change a kind of change
+     * @return how many terms went through that change
+     */
+    public int getCount(Change change)
+    {
+        return this.counts.get(change).get();
+    }
+
+    /**
+     * The size of the update, in documents.
+     *
+     * @return how many documents were sent to the index or deleted from it
+     */
+    public int getSize()
+    {
+        int result = 0;
+        for (Map.Entry<Change, AtomicInteger> count : this.counts.entrySet()) {
+            if (count.getKey() != Change.UNCHANGED) {
+                result += count.getValue().get();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return {@code true} if the index didn't change, {@code false} otherwise
+     */
+    public boolean isEmpty()
+    {
+        return getSize() == 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder();
+        result.append(this.previousVersion).append(" -> ").append(this.version).append(": ");
+        result.append(getSize()).append(" documents updated");
+        for (Map.Entry<Change, AtomicInteger> count : this.counts.entrySet()) {
+            result.append(", ").append(count.getValue().get()).append(' ');
+            result.append(count.getKey().name().toLowerCase(Locale.ROOT).replace('_', ' '));
+        }
+        return result.toString();
+    }
+
+    void setPreviousVersion(String previousVersion)
+    {
+        this.previousVersion = previousVersion;
+    }
+
+    void setVersion(String version)
+    {
+        this.version = version;
+    }
+
+    void record(Change change)
+    {
+        this.counts.get(change).incrementAndGet();
+    }
+}
@@ -19,7 +19,13 @@
  */
 package org.phenotips.obo2solr;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Locale;
 import java.util.Map;
 
 import org.apache.commons.cli.CommandLine;
@@ -27,6 +33,10 @@
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.PosixParser;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
 
 public class Main
 {
@@ -38,8 +48,22 @@
 
     public static final String DEFAULT_OUTPUT_XML_LOCATION = "out.xml";
 
+    public static final String OUTPUT_FORMAT_OPTION = "F";
+
+    public static final String SOLR_URL_OPTION = "u";
+
+    public static final String BATCH_SIZE_OPTION = "b";
+
+    public static final String THREADS_OPTION = "t";
+
+    public static final String XML_FORMAT = "xml";
+
     public static final String HELP_OPTION = "h";
 
+    private static final double MILLISECONDS_PER_SECOND = 1000.0;
+
+    private static final double BYTES_PER_MEGABYTE = 1024.0 * 1024.0;
+
     public static void main(String[] args)
     {
         Options options = generateOptions();
@@ -51,14 +75,40 @@ public static void main(String[] args)
                 System.exit(cmd.hasOption(HELP_OPTION) ? 0 : 1);
             }
             ParameterPreparer paramPrep = new ParameterPreparer();
-            SolrUpdateGenerator generator = new SolrUpdateGenerator();
             File input = paramPrep.getInputFileHandler(cmd.getOptionValue(OBO_DB_LOCATION_OPTION));
-            File output =
-                paramPrep.getOutputFileHandler(cmd.getOptionValue(OUTPUT_XML_LOCATION_OPTION,
-                    DEFAULT_OUTPUT_XML_LOCATION));
             Map<String, Double> fieldSelection =
                 paramPrep.getFieldSelection(cmd.getOptionValue(INDEX_FILEDS_OPTION, ""));
-            generator.transform(input, output, fieldSelection);
+            String format = cmd.getOptionValue(OUTPUT_FORMAT_OPTION, XML_FORMAT).toLowerCase(Locale.ROOT);
+            long start = System.currentTimeMillis();
+            if (cmd.hasOption(SOLR_URL_OPTION)) {
+                HttpSolrServer server = new HttpSolrServer(cmd.getOptionValue(SOLR_URL_OPTION));
+                // Send the documents in the binary format, which Solr parses much faster than XML
+                server.setRequestWriter(new BinaryRequestWriter());
+                SolrIndexer indexer = createIndexer(server, fieldSelection, cmd);
+                server.setDefaultMaxConnectionsPerHost(indexer.getWorkersCount());
+                try {
+                    showStatistics(indexer.index(input.toURI().toURL()), start, -1);
+                } finally {
+                    server.shutdown();
+                }
+                return;
+            }
+            File output =
+                paramPrep.getOutputFileHandler(cmd.getOptionValue(OUTPUT_XML_LOCATION_OPTION,
+                    XML_FORMAT.equals(format) ? DEFAULT_OUTPUT_XML_LOCATION : "out." + format));
+            if (XML_FORMAT.equals(format)) {
+                new SolrUpdateGenerator().transform(input, output, fieldSelection);
+                showStatistics(-1, start, output.length());
+            } else {
+                SolrUpdateWriter.Format streamFormat = null;
+                try {
+                    streamFormat = SolrUpdateWriter.Format.valueOf(format.toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException ex) {
+                    failWithMessage("Unknown output format: " + format);
+                }
+                long count = write(input.toURI().toURL(), output, streamFormat, fieldSelection, cmd);
+                showStatistics(count, start, output.length());
+            }
         } catch (Exception ex) {
             ex.printStackTrace();
         }
@@ -71,13 +121,86 @@ protected static Options generateOptions()
         options.addOption(OBO_DB_LOCATION_OPTION, "obo-db-location", true,
             "Path or URL of the input database (MANDATORY).");
         options.addOption(OUTPUT_XML_LOCATION_OPTION, "output-file", true, "Path of the output file. Default: "
-            + DEFAULT_OUTPUT_XML_LOCATION);
+            + DEFAULT_OUTPUT_XML_LOCATION + ", or out.<format> for the other formats");
         options.addOption(INDEX_FILEDS_OPTION, "fields-to-index", true,
             "Fields to index. By default, all fields are marked for indexing.");
+        options.addOption(OUTPUT_FORMAT_OPTION, "format", true, "Format of the output file: " + XML_FORMAT
+            + ", javabin (post with the application/javabin content type) or json (post to /update/json). Default: "
+            + XML_FORMAT);
+        options.addOption(SOLR_URL_OPTION, "solr-url", true,
+            "URL of a Solr core to post the documents to directly, instead of writing them to a file.");
+        options.addOption(BATCH_SIZE_OPTION, "batch-size", true, "How many documents to send at once. Default: "
+            + SolrIndexer.DEFAULT_BATCH_SIZE);
+        options.addOption(THREADS_OPTION, "threads", true,
+            "How many documents are built and sent in parallel, each with its own connection to Solr."
+                + " With more than one, the order of the documents in an output file varies between runs.");
         options.addOption(HELP_OPTION, "help", false, "Displays help and exits.");
         return options;
     }
 
+    /**
+     * Write the documents in an update stream, through the same pipeline used for indexing them.
+     *
+     * @return the number of documents written
+     */
+    protected static long write(URL input, File output, SolrUpdateWriter.Format format,
+        Map<String, Double> fieldSelection, CommandLine cmd) throws IOException, SolrServerException
+    {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 65536);
+        try {
+            SolrUpdateWriter writer = new SolrUpdateWriter(out, format);
+            createIndexer(writer, fieldSelection, cmd).index(input);
+            writer.finish();
+            return writer.getDocumentsCount();
+        } finally {
+            out.close();
+        }
+    }
+
+    protected static SolrIndexer createIndexer(SolrServer server,
+        Map<String, Double> fieldSelection, CommandLine cmd)
+    {
+        SolrIndexer indexer = new SolrIndexer(server, fieldSelection);
+        indexer.setBatchSize(getIntOption(cmd, BATCH_SIZE_OPTION, SolrIndexer.DEFAULT_BATCH_SIZE));
+        indexer.setWorkersCount(getIntOption(cmd, THREADS_OPTION, indexer.getWorkersCount()));
+        return indexer;
+    }
+
+    protected static int getIntOption(CommandLine cmd, String option, int defaultValue)
+    {
+        String value = cmd.getOptionValue(option);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            failWithMessage("Invalid number for option -" + option + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Print how long the conversion took, and how fast it went.
+     *
+     * @param count the number of documents, or a negative number if unknown
+     * @param start when the conversion started, in milliseconds
+     * @param size the size of the output, in bytes, or a negative number if nothing was written
+     */
+    protected static void showStatistics(long count, long start, long size)
+    {
+        double seconds = Math.max(System.currentTimeMillis() - start, 1) / MILLISECONDS_PER_SECOND;
+        StringBuilder result = new StringBuilder(String.format(Locale.ROOT, "Done in %.2f s", seconds));
+        if (count >= 0) {
+            result.append(String.format(Locale.ROOT, ", %d documents, %.0f documents/s", count, count / seconds));
+        }
+        if (size >= 0) {
+            double megabytes = size / BYTES_PER_MEGABYTE;
+            result.append(String.format(Locale.ROOT, ", %.1f MB written, %.1f MB/s", megabytes, megabytes / seconds));
+        }
+        System.out.println(result);
+    }
+
     protected static void showUsage(Options options)
     {
         HelpFormatter formatter = new HelpFormatter();
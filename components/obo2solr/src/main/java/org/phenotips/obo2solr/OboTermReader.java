@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.obo2solr;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Reads the terms of an OBO file one at a time, without keeping the whole ontology in memory. The header of the file
+ * is returned first, as a term with the {@code HEADER_INFO} identifier, if it declares a date. Only the fields selected
+ * for indexing are read, and no fields are computed from the rest of the ontology.
+ *
+ * @version $Id$
+ */
+public class OboTermReader
+{
+    public static final String HEADER_INFO_ID = "HEADER_INFO";
+
+    public static final String VERSION_FIELD_NAME = "version";
+
+    private static final String TERM_MARKER = "[Term]";
+
+    private static final String FIELD_NAME_VALUE_SEPARATOR = "\\s*:\\s+";
+
+    private static final String DATE_FIELD_NAME = "date";
+
+    private final BufferedReader in;
+
+    private final Map<String, Double> fieldSelection;
+
+    private TermData crtTerm = new TermData();
+
+    /**
+     * @param in the source of the ontology, not closed by this reader
+     * @param fieldSelection the fields to read; if empty, all the fields are read
+     */
+    public OboTermReader(BufferedReader in, Map<String, Double> fieldSelection)
+    {
+        this.in = in;
+        this.fieldSelection = fieldSelection;
+    }
+
+    /**
+     * Read the next term.
+     *
+     * @return the next term that has an identifier, or {@code null} if the end of the source was reached
+     * @throws IOException if reading from the source fails
+     */
+    public TermData next() throws IOException
+    {
+        String line;
+        while ((line = this.in.readLine()) != null) {
+            if (line.trim().equalsIgnoreCase(TERM_MARKER)) {
+                TermData result = this.crtTerm;
+                this.crtTerm = new TermData();
+                if (result.getId() != null) {
+                    return result;
+                }
+                continue;
+            }
+            String[] pieces = line.split(FIELD_NAME_VALUE_SEPARATOR, 2);
+            if (pieces.length != 2) {
+                continue;
+            }
+            if (pieces[0].trim().equals(DATE_FIELD_NAME)) {
+                this.crtTerm.addTo(VERSION_FIELD_NAME, pieces[1]);
+                this.crtTerm.addTo(TermData.ID_FIELD_NAME, HEADER_INFO_ID);
+            }
+            if (isFieldSelected(pieces[0])) {
+                this.crtTerm.addTo(pieces[0], cleanValue(pieces[1]));
+            }
+        }
+        TermData result = this.crtTerm;
+        this.crtTerm = new TermData();
+        return result.getId() != null ? result : null;
+    }
+
+    /**
+     * Strip the quotes and the trailing qualifiers from a field value, for example
+     * {@code "Short stature" EXACT [HPO:skoehler]} becomes {@code Short stature}.
+     *
+     * @param value the raw value, as found in the OBO file
+     * @return the cleaned value
+     */
+    public static String cleanValue(String value)
+    {
+        return value.replaceFirst("^\"(.+)\"\\s*?(?:[A-Z]+|\\[).*", "$1").replace("\\\"", "\"");
+    }
+
+    private boolean isFieldSelected(String name)
+    {
+        return this.fieldSelection.isEmpty() || this.fieldSelection.containsKey(name);
+    }
+}
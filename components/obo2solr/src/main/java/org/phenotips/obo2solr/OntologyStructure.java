@@ -0,0 +1,247 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.obo2solr;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The is_a structure of an ontology, without any other term data, used for computing the fields that depend on the
+ * rest of the ontology while the terms themselves are streamed. Terms are numbered in the order they are first seen,
+ * and the parents of each term are stored as an array of term numbers, so that the structure stays small even for
+ * large ontologies.
+ *
+ * @version $Id$
+ */
+class OntologyStructure
+{
+    private final List<String> ids = new ArrayList<String>();
+
+    private final Map<String, Integer> numbers = new HashMap<String, Integer>();
+
+    private final List<int[]> parents = new ArrayList<int[]>();
+
+    private int[] childrenCounts;
+
+    private int[] descendantsCounts;
+
+    /** The number of terms read from the source, which doesn't include the parents referenced but not defined. */
+    private int termsCount;
+
+    /**
+     * Read the structure of an ontology.
+     *
+     * @param in the source of the ontology, not closed by this method
+     * @param fieldSelection the fields selected for indexing, the structure is read only if {@code is_a} is selected
+     * @return the structure of the ontology
+     * @throws IOException if reading from the source fails
+     */
+    static OntologyStructure read(BufferedReader in, Map<String, Double> fieldSelection) throws IOException
+    {
+        OntologyStructure result = new OntologyStructure();
+        OboTermReader reader = new OboTermReader(in, fieldSelection);
+        TermData term;
+        while ((term = reader.next()) != null) {
+            int number = result.getOrAddNumber(term.getId());
+            List<String> parentIds = term.getParentIds();
+            int[] termParents = new int[parentIds.size()];
+            int count = 0;
+            for (String parentId : parentIds) {
+                int parent = result.getOrAddNumber(parentId);
+                if (!contains(termParents, count, parent)) {
+                    termParents[count++] = parent;
+                }
+            }
+            result.parents.set(number, Arrays.copyOf(termParents, count));
+            ++result.termsCount;
+        }
+        result.countDescendants();
+        return result;
+    }
+
+    /**
+     * @return the number of terms read from the source
+     */
+    int getTermsCount()
+    {
+        return this.termsCount;
+    }
+
+    /**
+     * @param id a term identifier
+     * @return the number of the term, or {@code -1} if the term isn't part of the ontology
+     */
+    int getNumber(String id)
+    {
+        Integer result = this.numbers.get(id);
+        return result != null ? result : -1;
+    }
+
+    String getId(int term)
+    {
+        return this.ids.get(term);
+    }
+
+    int[] getParents(int term)
+    {
+        return this.parents.get(term);
+    }
+
+    int getChildrenCount(int term)
+    {
+        return this.childrenCounts[term];
+    }
+
+    int getDescendantsCount(int term)
+    {
+        return this.descendantsCounts[term];
+    }
+
+    /**
+     * @return the number of terms, including the parents referenced but not defined in the source
+     */
+    int size()
+    {
+        return this.ids.size();
+    }
+
+    private int getOrAddNumber(String id)
+    {
+        Integer result = this.numbers.get(id);
+        if (result == null) {
+            result = this.ids.size();
+            this.numbers.put(id, result);
+            this.ids.add(id);
+            this.parents.add(new int[0]);
+        }
+        return result;
+    }
+
+    private void countDescendants()
+    {
+        this.childrenCounts = new int[size()];
+        this.descendantsCounts = new int[size()];
+        AncestorWalker walker = new AncestorWalker();
+        for (int term = 0; term < size(); ++term) {
+            for (int parent : this.parents.get(term)) {
+                ++this.childrenCounts[parent];
+            }
+            walker.walk(term);
+            // The first ancestor is the term itself
+            for (int i = 1; i < walker.size(); ++i) {
+                ++this.descendantsCounts[walker.get(i)];
+            }
+        }
+    }
+
+    private static boolean contains(int[] values, int count, int value)
+    {
+        for (int i = 0; i < count; ++i) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walks up the ontology from a term, finding the distance to each ancestor following the shortest path through
+     * the parents. A walker can be reused for any number of terms, but not by several threads at the same time.
+     */
+    final class AncestorWalker
+    {
+        /** The distance to each term from the last walked term, {@code -1} for terms that aren't its ancestors. */
+        private final int[] distances;
+
+        private int[] ancestors = new int[16];
+
+        private int size;
+
+        AncestorWalker()
+        {
+            this.distances = new int[OntologyStructure.this.size()];
+            Arrays.fill(this.distances, -1);
+        }
+
+        /**
+         * Find the ancestors of a term.
+         *
+         * @param term the number of the term to start from
+         */
+        void walk(int term)
+        {
+            // Only reset what the previous walk touched, so that a walk costs as much as the ancestors it finds
+            for (int i = 0; i < this.size; ++i) {
+                this.distances[this.ancestors[i]] = -1;
+            }
+            this.size = 0;
+            add(term, 0);
+            for (int i = 0; i < this.size; ++i) {
+                int crt = this.ancestors[i];
+                for (int parent : getParents(crt)) {
+                    if (this.distances[parent] < 0) {
+                        add(parent, this.distances[crt] + 1);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the number of ancestors of the last walked term, including the term itself
+         */
+        int size()
+        {
+            return this.size;
+        }
+
+        /**
+         * @param i the position of the ancestor, in breadth first order; the first one is the term itself, and the
+         *            first one without parents is the closest root
+         * @return the number of the ancestor
+         */
+        int get(int i)
+        {
+            return this.ancestors[i];
+        }
+
+        /**
+         * @param i the position of the ancestor, in breadth first order
+         * @return the distance from the walked term to the ancestor
+         */
+        int getDistance(int i)
+        {
+            return this.distances[this.ancestors[i]];
+        }
+
+        private void add(int term, int distance)
+        {
+            if (this.size == this.ancestors.length) {
+                this.ancestors = Arrays.copyOf(this.ancestors, this.size * 2);
+            }
+            this.ancestors[this.size++] = term;
+            this.distances[term] = distance;
+        }
+    }
+}
@@ -0,0 +1,720 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.obo2solr;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Indexes an OBO ontology into a Solr server without loading the whole ontology in memory. The indexing is a pipeline:
+ * <ol>
+ * <li>if the ontology isn't a local file, it is first downloaded into a temporary file, so that it can be read twice
+ * without downloading it again;</li>
+ * <li>if the term categories are indexed, a first pass reads only the is_a structure of the ontology, which is needed
+ * for the ancestors, distances and descendant counts of each term;</li>
+ * <li>a second pass streams the terms into a bounded queue, blocking when the queue is full;</li>
+ * <li>several workers take terms from the queue, build their Solr documents, and send them to the server in batches;
+ * since the workers wait for the server, a slow server also slows down the parser instead of filling up memory;</li>
+ * <li>the index is committed once, after all the batches were sent.</li>
+ * </ol>
+ * Peak memory use is thus bounded by the size of the structure, plus the queue and one batch for each worker.
+ * <p>
+ * Each document also gets a hash of the term's own data and a hash of the data computed from the rest of the ontology,
+ * so that an index can later be {@link #update(URL) updated} to a new version of the ontology by sending only the
+ * terms that changed.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class SolrIndexer
+{
+    /** How many documents each worker sends to the server at once, unless {@link #setBatchSize(int)} is called. */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /** How often the parser and the workers check whether the indexing failed, while waiting for the queue. */
+    private static final long WAIT_TIMEOUT_MILLISECONDS = 100;
+
+    /** Marks the end of the terms in the queue, one for each worker. */
+    private static final TermData END = new TermData();
+
+    private static final String FILE_PROTOCOL = "file";
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final Charset CHARSET = Charset.forName(ENCODING);
+
+    private static final String OBSOLETE_FIELD_NAME = "is_obsolete";
+
+    /** The fields computed from the rest of the ontology, hashed separately from the data of the term itself. */
+    private static final Set<String> STRUCTURE_FIELDS = new HashSet<String>(Arrays.asList(
+        TermData.TERM_CATEGORY_FIELD_NAME, TermData.ANCESTOR_DISTANCE_FIELD_NAME, TermData.DEPTH_FIELD_NAME,
+        TermData.CHILD_COUNT_FIELD_NAME, TermData.DESCENDANT_COUNT_FIELD_NAME));
+
+    private final Logger logger = LoggerFactory.getLogger(SolrIndexer.class);
+
+    private final SolrServer server;
+
+    private final Map<String, Double> fieldSelection;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private int workersCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+
+    private int queueSize = 2 * DEFAULT_BATCH_SIZE;
+
+    /**
+     * @param server the Solr server where the terms are sent
+     * @param fieldSelection the fields to index, with their boosts; if empty, all the fields are indexed, using the
+     *            default boost
+     */
+    public SolrIndexer(SolrServer server, Map<String, Double> fieldSelection)
+    {
+        this.server = server;
+        this.fieldSelection = fieldSelection;
+    }
+
+    /**
+     * @param batchSize how many documents each worker sends to the server at once
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @param workersCount how many workers build and send documents in parallel
+     */
+    public void setWorkersCount(int workersCount)
+    {
+        this.workersCount = Math.max(1, workersCount);
+    }
+
+    /**
+     * @return how many workers build and send documents in parallel
+     */
+    public int getWorkersCount()
+    {
+        return this.workersCount;
+    }
+
+    /**
+     * @param queueSize how many parsed terms can wait for a worker before the parser blocks
+     */
+    public void setQueueSize(int queueSize)
+    {
+        this.queueSize = Math.max(1, queueSize);
+    }
+
+    /**
+     * Index an ontology and commit the changes. The header, which holds the version of the ontology, is sent last,
+     * after all the terms. If the indexing fails, the documents already sent are not committed explicitly, but the
+     * server may still commit them automatically.
+     *
+     * @param source where to read the ontology from
+     * @return the number of indexed documents, including the header
+     * @throws IOException if reading the ontology or communicating with the server fails
+     * @throws SolrServerException if the server rejects the documents
+     */
+    public int index(URL source) throws IOException, SolrServerException
+    {
+        long start = System.currentTimeMillis();
+        int count = process(source, null, null);
+        this.logger.info("Indexed {} documents in {} ms", count, System.currentTimeMillis() - start);
+        return count;
+    }
+
+    /**
+     * Update the index to a new version of an ontology, sending only the terms that changed since the indexed version:
+     * the new terms, the terms whose own data changed, and the terms whose ancestors or descendants changed, for
+     * example because an ancestor was moved. The terms which are no longer in the ontology are deleted.
+     * <p>
+     * The changes are found by comparing the hashes stored in the index with the ones computed for the new version, and
+     * not just the versions, so if the index was built without the hashes, all the terms are sent again.
+     * </p>
+     * <p>
+     * The changes are committed once, at the end, but the server may commit the documents already sent on its own, so
+     * an update that fails midway can leave the index partly updated. The header, which holds the version of the
+     * ontology, is only sent after all the other changes were accepted, so a partly updated index still declares the
+     * previous version, and running the update again completes it.
+     * </p>
+     *
+     * @param source where to read the new version of the ontology from
+     * @return the changes made to the index
+     * @throws IOException if reading the ontology or communicating with the server fails
+     * @throws SolrServerException if querying the index fails, or if the server rejects the documents
+     */
+    public IndexDelta update(URL source) throws IOException, SolrServerException
+    {
+        long start = System.currentTimeMillis();
+        IndexDelta delta = new IndexDelta();
+        Map<String, IndexedTerm> previous = readIndexedTerms(delta);
+        process(source, previous, delta);
+        this.logger.info("Updated the index in {} ms, {}", System.currentTimeMillis() - start, delta);
+        return delta;
+    }
+
+    /**
+     * Index an ontology, or update an existing index.
+     *
+     * @param source where to read the ontology from
+     * @param previous the terms already in the index, for an update, or {@code null} to index all the terms; the terms
+     *            still present in the ontology are removed from this map, and the remaining ones are deleted from the
+     *            index
+     * @param delta where to record the changes, for an update, or {@code null} to index all the terms
+     * @return the number of documents sent to the server
+     */
+    private int process(URL source, Map<String, IndexedTerm> previous, IndexDelta delta)
+        throws IOException, SolrServerException
+    {
+        File file = getLocalFile(source);
+        boolean temporary = file == null;
+        if (temporary) {
+            file = download(source);
+        }
+        try {
+            if (delta != null) {
+                delta.setVersion(readVersion(file));
+            }
+            OntologyStructure structure = null;
+            if (isFieldSelected(TermData.TERM_CATEGORY_FIELD_NAME)) {
+                BufferedReader in = open(file);
+                try {
+                    structure = OntologyStructure.read(in, this.fieldSelection);
+                } finally {
+                    in.close();
+                }
+            }
+            Pipeline pipeline = new Pipeline(structure, previous, delta);
+            int count = pipeline.run(file);
+            if (previous != null && !previous.isEmpty()) {
+                this.server.deleteById(new ArrayList<String>(previous.keySet()));
+                for (int i = 0; i < previous.size(); ++i) {
+                    delta.record(IndexDelta.Change.DELETED);
+                }
+            }
+            // The header marks the index as holding the new version, so it goes in only after everything else did
+            SolrInputDocument header = pipeline.header.get();
+            if (header != null) {
+                this.server.add(header);
+                ++count;
+            }
+            if (delta == null || !delta.isEmpty()) {
+                this.server.commit();
+            }
+            return count;
+        } finally {
+            if (temporary && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Read the identifier, the hashes and the parents of all the terms in the index, page by page.
+     *
+     * @param delta where to record the version of the indexed ontology
+     * @return the indexed terms, by identifier
+     */
+    private Map<String, IndexedTerm> readIndexedTerms(IndexDelta delta) throws SolrServerException
+    {
+        Map<String, IndexedTerm> result = new ConcurrentHashMap<String, IndexedTerm>();
+        SolrQuery query = new SolrQuery("*:*");
+        query.setFields(TermData.ID_FIELD_NAME, OboTermReader.VERSION_FIELD_NAME, TermData.CONTENT_HASH_FIELD_NAME,
+            TermData.STRUCTURE_HASH_FIELD_NAME, TermData.PARENT_FIELD_NAME);
+        query.addSortField(TermData.ID_FIELD_NAME, SolrQuery.ORDER.asc);
+        query.setRows(this.batchSize);
+        int start = 0;
+        SolrDocumentList page;
+        do {
+            query.setStart(start);
+            page = this.server.query(query).getResults();
+            for (SolrDocument doc : page) {
+                String id = (String) doc.getFieldValue(TermData.ID_FIELD_NAME);
+                if (OboTermReader.HEADER_INFO_ID.equals(id)) {
+                    Object version = doc.getFirstValue(OboTermReader.VERSION_FIELD_NAME);
+                    delta.setPreviousVersion(version != null ? String.valueOf(version) : null);
+                }
+                result.put(id, new IndexedTerm(doc));
+            }
+            start += page.size();
+        } while (!page.isEmpty() && start < page.getNumFound());
+        return result;
+    }
+
+    private String readVersion(File file) throws IOException
+    {
+        BufferedReader in = open(file);
+        try {
+            TermData header = new OboTermReader(in, this.fieldSelection).next();
+            if (header != null && OboTermReader.HEADER_INFO_ID.equals(header.getId())) {
+                Collection<String> version = header.get(OboTermReader.VERSION_FIELD_NAME);
+                return version != null && !version.isEmpty() ? version.iterator().next() : null;
+            }
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    private File getLocalFile(URL source)
+    {
+        if (FILE_PROTOCOL.equals(source.getProtocol())) {
+            try {
+                return new File(source.toURI());
+            } catch (URISyntaxException ex) {
+                // Not a valid local file, download it instead
+            } catch (IllegalArgumentException ex) {
+                // Not a valid local file, download it instead
+            }
+        }
+        return null;
+    }
+
+    private File download(URL source) throws IOException
+    {
+        File result = File.createTempFile("ontology", ".obo");
+        InputStream in = source.openStream();
+        try {
+            OutputStream out = new FileOutputStream(result);
+            try {
+                byte[] buffer = new byte[65536];
+                int length;
+                while ((length = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, length);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException ex) {
+            result.delete();
+            throw ex;
+        } finally {
+            in.close();
+        }
+        return result;
+    }
+
+    private BufferedReader open(File file) throws IOException
+    {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+    }
+
+    private boolean isFieldSelected(String name)
+    {
+        return this.fieldSelection.isEmpty() || this.fieldSelection.containsKey(name);
+    }
+
+    private float getBoost(String name)
+    {
+        Double boost = this.fieldSelection.get(name);
+        return (boost == null ? ParameterPreparer.DEFAULT_BOOST : boost).floatValue();
+    }
+
+    /**
+     * What the index knows about a term, enough to tell whether it changed in a new version of the ontology.
+     */
+    private static final class IndexedTerm
+    {
+        private final String contentHash;
+
+        private final String structureHash;
+
+        private final Set<String> parentIds = new HashSet<String>();
+
+        IndexedTerm(SolrDocument doc)
+        {
+            this.contentHash = (String) doc.getFieldValue(TermData.CONTENT_HASH_FIELD_NAME);
+            this.structureHash = (String) doc.getFieldValue(TermData.STRUCTURE_HASH_FIELD_NAME);
+            Collection<Object> parents = doc.getFieldValues(TermData.PARENT_FIELD_NAME);
+            if (parents != null) {
+                for (Object parent : parents) {
+                    this.parentIds.add(TermData.getParentId(String.valueOf(parent)));
+                }
+            }
+        }
+    }
+
+    private static MessageDigest getDigest()
+    {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform supports MD5
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * One run of the indexing pipeline, holding the state shared by the parser and the workers.
+     */
+    private final class Pipeline
+    {
+        private final OntologyStructure structure;
+
+        /** The terms in the index, for an update; each term found in the new version is removed from it. */
+        private final Map<String, IndexedTerm> previous;
+
+        private final IndexDelta delta;
+
+        private final BlockingQueue<TermData> queue = new ArrayBlockingQueue<TermData>(SolrIndexer.this.queueSize);
+
+        /** The first error encountered by the parser or by a worker, which stops the whole pipeline. */
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        private final AtomicInteger indexed = new AtomicInteger();
+
+        /** The header document, held back until all the other changes were sent. */
+        private final AtomicReference<SolrInputDocument> header = new AtomicReference<SolrInputDocument>();
+
+        /** The expected number of documents, if known in advance, used for reporting progress. */
+        private final int total;
+
+        Pipeline(OntologyStructure structure, Map<String, IndexedTerm> previous, IndexDelta delta)
+        {
+            this.structure = structure;
+            this.previous = previous;
+            this.delta = delta;
+            this.total = structure != null ? structure.getTermsCount() : 0;
+        }
+
+        int run(File file) throws IOException, SolrServerException
+        {
+            ExecutorService executor = Executors.newFixedThreadPool(SolrIndexer.this.workersCount);
+            try {
+                List<Future<Object>> workers = new ArrayList<Future<Object>>();
+                for (int i = 0; i < SolrIndexer.this.workersCount; ++i) {
+                    workers.add(executor.submit(new Worker()));
+                }
+                parse(file);
+                for (Future<Object> worker : workers) {
+                    worker.get();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                this.failure.compareAndSet(null, new IOException("Indexing interrupted"));
+            } catch (ExecutionException ex) {
+                this.failure.compareAndSet(null, new IOException(ex.getCause()));
+            } finally {
+                executor.shutdownNow();
+            }
+            Throwable ex = this.failure.get();
+            if (ex instanceof IOException) {
+                throw (IOException) ex;
+            } else if (ex instanceof SolrServerException) {
+                throw (SolrServerException) ex;
+            } else if (ex instanceof RuntimeException) {
+                throw (RuntimeException) ex;
+            } else if (ex instanceof Error) {
+                throw (Error) ex;
+            } else if (ex != null) {
+                throw new IOException(ex);
+            }
+            return this.indexed.get();
+        }
+
+        private void parse(File file) throws InterruptedException
+        {
+            try {
+                BufferedReader in = open(file);
+                try {
+                    OboTermReader reader = new OboTermReader(in, SolrIndexer.this.fieldSelection);
+                    TermData term;
+                    while ((term = reader.next()) != null && enqueue(term)) {
+                        // The workers take it from here
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException ex) {
+                this.failure.compareAndSet(null, ex);
+            } catch (RuntimeException ex) {
+                this.failure.compareAndSet(null, ex);
+            } catch (Error ex) {
+                this.failure.compareAndSet(null, ex);
+            }
+            for (int i = 0; i < SolrIndexer.this.workersCount && enqueue(END); ++i) {
+                // One end marker for each worker
+            }
+        }
+
+        /**
+         * Wait until there's room in the queue for a term, or until the pipeline fails.
+         *
+         * @return {@code true} if the term was queued, {@code false} if the pipeline failed
+         */
+        private boolean enqueue(TermData term) throws InterruptedException
+        {
+            while (this.failure.get() == null) {
+                if (this.queue.offer(term, WAIT_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void send(List<SolrInputDocument> batch) throws IOException, SolrServerException
+        {
+            if (batch.isEmpty()) {
+                return;
+            }
+            SolrIndexer.this.server.add(batch);
+            int done = this.indexed.addAndGet(batch.size());
+            if (this.total > 0 && (done - batch.size()) * 10L / this.total < done * 10L / this.total) {
+                SolrIndexer.this.logger.info("Indexed {} of {} terms", done, this.total);
+            } else {
+                SolrIndexer.this.logger.debug("Indexed {} terms", done);
+            }
+            batch.clear();
+        }
+
+        /**
+         * Takes terms from the queue, builds their documents, and sends them in batches.
+         */
+        private final class Worker implements Callable<Object>
+        {
+            private final OntologyStructure.AncestorWalker walker =
+                Pipeline.this.structure != null ? Pipeline.this.structure.new AncestorWalker() : null;
+
+            private final MessageDigest digest = getDigest();
+
+            @Override
+            public Object call()
+            {
+                List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(SolrIndexer.this.batchSize);
+                try {
+                    while (Pipeline.this.failure.get() == null) {
+                        TermData term = Pipeline.this.queue.poll(WAIT_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+                        if (term == END) {
+                            send(batch);
+                            break;
+                        } else if (term != null) {
+                            SolrInputDocument doc = toDocument(term);
+                            if (Pipeline.this.delta != null && !isChanged(term)) {
+                                continue;
+                            }
+                            if (OboTermReader.HEADER_INFO_ID.equals(term.getId())) {
+                                Pipeline.this.header.set(doc);
+                                continue;
+                            }
+                            batch.add(doc);
+                            if (batch.size() >= SolrIndexer.this.batchSize) {
+                                send(batch);
+                            }
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    Pipeline.this.failure.compareAndSet(null, new IOException("Indexing interrupted"));
+                } catch (Throwable ex) {
+                    // Anything that stops a worker must stop the parser too, or it would wait forever for room in
+                    // the queue
+                    Pipeline.this.failure.compareAndSet(null, ex);
+                }
+                return null;
+            }
+
+            private SolrInputDocument toDocument(TermData term)
+            {
+                if (this.walker != null) {
+                    addStructureFields(term);
+                }
+                String contentHash = hash(term, false);
+                String structureHash = hash(term, true);
+                term.addTo(TermData.CONTENT_HASH_FIELD_NAME, contentHash);
+                term.addTo(TermData.STRUCTURE_HASH_FIELD_NAME, structureHash);
+                SolrInputDocument doc = new SolrInputDocument();
+                for (Map.Entry<String, Collection<String>> property : term.entrySet()) {
+                    String name = property.getKey();
+                    float fieldBoost = getBoost(name);
+                    for (String value : property.getValue()) {
+                        doc.addField(name, value, fieldBoost);
+                    }
+                }
+                return doc;
+            }
+
+            /**
+             * Compare a term with its indexed version, and record how it changed.
+             *
+             * @param term the new version of the term, with its hashes already computed
+             * @return {@code true} if the term must be sent to the index, {@code false} if it didn't change
+             */
+            private boolean isChanged(TermData term)
+            {
+                IndexedTerm old = Pipeline.this.previous.remove(term.getId());
+                String contentHash = term.get(TermData.CONTENT_HASH_FIELD_NAME).iterator().next();
+                String structureHash = term.get(TermData.STRUCTURE_HASH_FIELD_NAME).iterator().next();
+                IndexDelta.Change change;
+                if (old == null) {
+                    change = IndexDelta.Change.ADDED;
+                } else if (!StringUtils.equals(old.contentHash, contentHash)) {
+                    if (isObsolete(term)) {
+                        change = IndexDelta.Change.OBSOLETED;
+                    } else if (!old.parentIds.equals(new HashSet<String>(term.getParentIds()))) {
+                        change = IndexDelta.Change.MOVED;
+                    } else {
+                        change = IndexDelta.Change.CHANGED;
+                    }
+                } else if (!StringUtils.equals(old.structureHash, structureHash)) {
+                    change = IndexDelta.Change.CLOSURE_CHANGED;
+                } else {
+                    change = IndexDelta.Change.UNCHANGED;
+                }
+                Pipeline.this.delta.record(change);
+                return change != IndexDelta.Change.UNCHANGED;
+            }
+
+            private boolean isObsolete(TermData term)
+            {
+                Collection<String> values = term.get(OBSOLETE_FIELD_NAME);
+                return values != null && values.contains(Boolean.TRUE.toString());
+            }
+
+            /**
+             * Hash either the fields of the term itself, or the fields computed from the rest of the ontology, along
+             * with their boosts. Fields and values are sorted first, so that the hash doesn't depend on their order.
+             */
+            private String hash(TermData term, boolean structure)
+            {
+                this.digest.reset();
+                for (Map.Entry<String, Collection<String>> property : new TreeMap<String, Collection<String>>(term)
+                    .entrySet()) {
+                    String name = property.getKey();
+                    if (STRUCTURE_FIELDS.contains(name) != structure) {
+                        continue;
+                    }
+                    update(name);
+                    update(String.valueOf(getBoost(name)));
+                    List<String> values = new ArrayList<String>(property.getValue());
+                    Collections.sort(values);
+                    for (String value : values) {
+                        update(value);
+                    }
+                }
+                return String.format("%032x", new BigInteger(1, this.digest.digest()));
+            }
+
+            private void update(String value)
+            {
+                this.digest.update(value.getBytes(CHARSET));
+                // Separate the values, so that "ab", "c" and "a", "bc" don't give the same hash
+                this.digest.update((byte) 0);
+            }
+
+            /**
+             * Add the fields computed from the rest of the ontology, the same ones that {@link SolrUpdateGenerator}
+             * computes from the whole ontology loaded in memory.
+             */
+            private void addStructureFields(TermData term)
+            {
+                OntologyStructure structure = Pipeline.this.structure;
+                int number = structure.getNumber(term.getId());
+                if (number < 0) {
+                    return;
+                }
+                this.walker.walk(number);
+                List<String> ancestors = new ArrayList<String>(this.walker.size());
+                for (int i = 0; i < this.walker.size(); ++i) {
+                    ancestors.add(structure.getId(this.walker.get(i)));
+                }
+                term.addTo(TermData.TERM_CATEGORY_FIELD_NAME, ancestors);
+
+                if (isFieldSelected(TermData.ANCESTOR_DISTANCE_FIELD_NAME)
+                    || isFieldSelected(TermData.DEPTH_FIELD_NAME)) {
+                    addAncestorDistances(term);
+                }
+                if (isFieldSelected(TermData.CHILD_COUNT_FIELD_NAME)) {
+                    term.addTo(TermData.CHILD_COUNT_FIELD_NAME, String.valueOf(structure.getChildrenCount(number)));
+                }
+                if (isFieldSelected(TermData.DESCENDANT_COUNT_FIELD_NAME)) {
+                    term.addTo(TermData.DESCENDANT_COUNT_FIELD_NAME,
+                        String.valueOf(structure.getDescendantsCount(number)));
+                }
+            }
+
+            private void addAncestorDistances(TermData term)
+            {
+                OntologyStructure structure = Pipeline.this.structure;
+                int depth = -1;
+                Map<String, Integer> distances = new TreeMap<String, Integer>();
+                for (int i = 0; i < this.walker.size(); ++i) {
+                    int ancestor = this.walker.get(i);
+                    if (depth < 0 && structure.getParents(ancestor).length == 0) {
+                        // Breadth first, so the first root reached is the closest one
+                        depth = this.walker.getDistance(i);
+                    }
+                    if (i > 0) {
+                        distances.put(structure.getId(ancestor), this.walker.getDistance(i));
+                    }
+                }
+                if (isFieldSelected(TermData.ANCESTOR_DISTANCE_FIELD_NAME)) {
+                    for (Map.Entry<String, Integer> ancestor : distances.entrySet()) {
+                        term.addTo(TermData.ANCESTOR_DISTANCE_FIELD_NAME,
+                            ancestor.getKey() + ' ' + ancestor.getValue());
+                    }
+                }
+                // Kept with the distances, since a zero depth tells readers that a root term has no ancestor to walk
+                term.addTo(TermData.DEPTH_FIELD_NAME, String.valueOf(Math.max(depth, 0)));
+            }
+        }
+    }
+}
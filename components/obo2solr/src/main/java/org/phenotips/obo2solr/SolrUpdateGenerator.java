@@ -29,6 +29,8 @@
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -141,33 +143,15 @@ public Map<String, TermData> transform(String ontologyUrl, Map<String, Double> f
 
     public Map<String, TermData> transform(URL input, Map<String, Double> fieldSelection)
     {
-        Collection<String> dateVersion = null;
         this.fieldSelection = fieldSelection;
         try {
             BufferedReader in = new BufferedReader(new InputStreamReader(input.openConnection().getInputStream()));
-            this.atts = new AttributesImpl();
-            String line;
-            this.counter = 0;
-
-            while ((line = in.readLine()) != null) {
-                if (line.trim().equalsIgnoreCase(TERM_MARKER)) {
-                    storeCrtTerm();
-                    ++this.counter;
-                    continue;
-                }
-                String[] pieces = line.split(FIELD_NAME_VALUE_SEPARATOR, 2);
-                if (pieces.length != 2) {
-                    continue;
-                }
-                if (pieces[0].trim().equals("date")) {
-                    this.crtTerm.addTo("version", pieces[1]);
-                    this.crtTerm.addTo(TermData.ID_FIELD_NAME, "HEADER_INFO");
-                }
-                loadField(pieces[0], pieces[1]);
-            }
-            if (this.counter > 0) {
-                storeCrtTerm();
+            OboTermReader reader = new OboTermReader(in, fieldSelection);
+            TermData term;
+            while ((term = reader.next()) != null) {
+                this.data.put(term.getId(), term);
             }
+            in.close();
             if (isFieldSelected(TermData.TERM_CATEGORY_FIELD_NAME)) {
                 propagateAncestors();
             }
@@ -225,15 +209,71 @@ private void loadField(String name, String value)
         if (!(isFieldSelected(name))) {
             return;
         }
-        this.crtTerm.addTo(name, value.replaceFirst("^\"(.+)\"\\s*?(?:[A-Z]+|\\[).*", "$1").replace("\\\"", "\""));
+        this.crtTerm.addTo(name, OboTermReader.cleanValue(value));
     }
 
     private void propagateAncestors()
     {
-        for (String id : this.data.keySet()) {
-            TermData term = this.data.get(id);
-            term.expandTermCategories(this.data);
+        TermData.expandAllTermCategories(this.data);
+        if (isFieldSelected(TermData.ANCESTOR_DISTANCE_FIELD_NAME) || isFieldSelected(TermData.DEPTH_FIELD_NAME)) {
+            for (TermData term : this.data.values()) {
+                term.computeAncestorDistances(this.data);
+                // Kept with the distances, since a zero depth tells readers that a root term has no ancestor to walk
+                if (!isFieldSelected(TermData.ANCESTOR_DISTANCE_FIELD_NAME)) {
+                    term.remove(TermData.ANCESTOR_DISTANCE_FIELD_NAME);
+                }
+            }
+        }
+        if (isFieldSelected(TermData.CHILD_COUNT_FIELD_NAME)
+            || isFieldSelected(TermData.DESCENDANT_COUNT_FIELD_NAME)) {
+            countDescendants();
+        }
+    }
+
+    /**
+     * Store in each term the number of its children and of its descendants, so that checking whether a term can be
+     * refined further doesn't require a query. Must be called after the term categories were expanded, since
+     * descendants are counted from the ancestors of each term.
+     */
+    private void countDescendants()
+    {
+        Map<String, Integer> children = new HashMap<String, Integer>();
+        Map<String, Integer> descendants = new HashMap<String, Integer>();
+        for (TermData term : this.data.values()) {
+            for (String parentId : new HashSet<String>(term.getParentIds())) {
+                increment(children, parentId);
+            }
+            Collection<String> ancestors = term.get(TermData.TERM_CATEGORY_FIELD_NAME);
+            if (ancestors != null) {
+                for (String ancestorId : ancestors) {
+                    if (!ancestorId.equals(term.getId())) {
+                        increment(descendants, ancestorId);
+                    }
+                }
+            }
         }
+        for (TermData term : this.data.values()) {
+            if (isFieldSelected(TermData.CHILD_COUNT_FIELD_NAME)) {
+                term.remove(TermData.CHILD_COUNT_FIELD_NAME);
+                term.addTo(TermData.CHILD_COUNT_FIELD_NAME, String.valueOf(getCount(children, term.getId())));
+            }
+            if (isFieldSelected(TermData.DESCENDANT_COUNT_FIELD_NAME)) {
+                term.remove(TermData.DESCENDANT_COUNT_FIELD_NAME);
+                term.addTo(TermData.DESCENDANT_COUNT_FIELD_NAME, String.valueOf(getCount(descendants, term.getId())));
+            }
+        }
+    }
+
+    private static void increment(Map<String, Integer> counts, String id)
+    {
+        Integer count = counts.get(id);
+        counts.put(id, count == null ? 1 : count + 1);
+    }
+
+    private static int getCount(Map<String, Integer> counts, String id)
+    {
+        Integer count = counts.get(id);
+        return count == null ? 0 : count;
     }
 
     private void startElement(String qName) throws SAXException
@@ -0,0 +1,201 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.obo2solr;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.apache.solr.common.util.NamedList;
+
+/**
+ * A pseudo Solr server which writes the documents it receives into an update stream, which can be posted to a real
+ * Solr server later, so that the documents built by {@link SolrIndexer} can also be saved to a file. Two formats are
+ * supported:
+ * <ul>
+ * <li>{@link Format#JAVABIN JavaBin}, the binary format of Solr, which is much smaller and faster to parse than XML;
+ * each batch of documents is written as a separate JavaBin message, and Solr reads all the messages posted in one
+ * request, with the {@code application/javabin} content type;</li>
+ * <li>{@link Format#JSON JSON}, written as an array with one compact document on each line, which can be posted to the
+ * {@code /update/json} handler.</li>
+ * </ul>
+ * Queries are not supported, and deletions and commits are ignored, since a file can only add documents.
+ * <p>
+ * Documents are written in the order their batches arrive, so when several {@link SolrIndexer} workers share a writer,
+ * the order of the terms depends on how the workers are scheduled; only the header is always written last.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class SolrUpdateWriter extends SolrServer
+{
+    /** The supported update stream formats. */
+    public enum Format
+    {
+        /** Solr's binary format. */
+        JAVABIN,
+        /** A JSON array of documents, one on each line. */
+        JSON
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final transient OutputStream out;
+
+    private final transient Writer writer;
+
+    private final Format format;
+
+    private long documentsCount;
+
+    /**
+     * @param out where to write the documents, it should be buffered; it is not closed by this writer
+     * @param format the format to write the documents in
+     * @throws IOException if the output can't be written to
+     */
+    public SolrUpdateWriter(OutputStream out, Format format) throws IOException
+    {
+        this.out = out;
+        this.format = format;
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, ENCODING), BUFFER_SIZE);
+        if (format == Format.JSON) {
+            this.writer.write('[');
+        }
+    }
+
+    @Override
+    public synchronized NamedList<Object> request(SolrRequest request) throws SolrServerException, IOException
+    {
+        if (!(request instanceof UpdateRequest)) {
+            throw new SolrServerException("Only updates can be written to an update stream");
+        }
+        UpdateRequest update = (UpdateRequest) request;
+        List<SolrInputDocument> documents = update.getDocuments();
+        if (documents != null && !documents.isEmpty()) {
+            if (this.format == Format.JAVABIN) {
+                new JavaBinUpdateRequestCodec().marshal(update, this.out);
+                this.documentsCount += documents.size();
+            } else {
+                for (SolrInputDocument document : documents) {
+                    writeJson(document);
+                    ++this.documentsCount;
+                }
+            }
+        }
+        return new NamedList<Object>();
+    }
+
+    /**
+     * Complete the update stream and flush it; the documents received after this are ignored.
+     *
+     * @throws IOException if writing fails
+     */
+    public synchronized void finish() throws IOException
+    {
+        if (this.format == Format.JSON) {
+            this.writer.write("\n]\n");
+        }
+        this.writer.flush();
+        this.out.flush();
+    }
+
+    /**
+     * @return how many documents were written so far
+     */
+    public synchronized long getDocumentsCount()
+    {
+        return this.documentsCount;
+    }
+
+    @Override
+    public void shutdown()
+    {
+        // Nothing to release, the output stream belongs to the caller
+    }
+
+    private void writeJson(SolrInputDocument document) throws IOException
+    {
+        this.writer.write(this.documentsCount == 0 ? "\n{" : ",\n{");
+        boolean first = true;
+        for (SolrInputField field : document) {
+            if (!first) {
+                this.writer.write(',');
+            }
+            first = false;
+            writeJsonString(field.getName());
+            this.writer.write(':');
+            boolean boosted = field.getBoost() != 1.0f;
+            if (boosted) {
+                this.writer.write("{\"boost\":" + field.getBoost() + ",\"value\":");
+            }
+            Collection<Object> values = field.getValues();
+            if (values.size() == 1) {
+                writeJsonString(String.valueOf(values.iterator().next()));
+            } else {
+                this.writer.write('[');
+                boolean firstValue = true;
+                for (Object value : values) {
+                    if (!firstValue) {
+                        this.writer.write(',');
+                    }
+                    firstValue = false;
+                    writeJsonString(String.valueOf(value));
+                }
+                this.writer.write(']');
+            }
+            if (boosted) {
+                this.writer.write('}');
+            }
+        }
+        this.writer.write('}');
+    }
+
+    private void writeJsonString(String value) throws IOException
+    {
+        this.writer.write('"');
+        // Characters that don't need escaping are written in runs, not one by one
+        int start = 0;
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c < ' ') {
+                this.writer.write(value, start, i - start);
+                this.writer.write(c < ' ' ? String.format("\\u%04x", (int) c) : "\\" + c);
+                start = i + 1;
+            }
+        }
+        this.writer.write(value, start, value.length() - start);
+        this.writer.write('"');
+    }
+}
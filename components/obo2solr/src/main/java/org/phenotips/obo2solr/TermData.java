@@ -19,10 +19,18 @@
  */
 package org.phenotips.obo2solr;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.phenotips.obo2solr.maps.SetMap;
 
@@ -35,14 +43,39 @@ public class TermData extends SetMap<String, String>
 
     public static final String TERM_CATEGORY_FIELD_NAME = "term_category";
 
-    public static final String PARENT_ID_REGEX = "^(HP\\:[0-9]{7})\\s*!\\s*.*";
+    /** Each ancestor with the length of the shortest path to it, as {@code <ancestor id> <distance>}. */
+    public static final String ANCESTOR_DISTANCE_FIELD_NAME = "ancestor_distance";
+
+    /** The length of the shortest path from the term to a root of the ontology. */
+    public static final String DEPTH_FIELD_NAME = "depth";
+
+    /** The number of direct children of the term. */
+    public static final String CHILD_COUNT_FIELD_NAME = "child_count";
+
+    /** The number of direct and indirect descendants of the term. */
+    public static final String DESCENDANT_COUNT_FIELD_NAME = "descendant_count";
+
+    /** A hash of the data of the term itself, used for finding the terms that changed between two versions. */
+    public static final String CONTENT_HASH_FIELD_NAME = "content_hash";
+
+    /** A hash of the data computed from the rest of the ontology, like the categories and descendant counts. */
+    public static final String STRUCTURE_HASH_FIELD_NAME = "structure_hash";
+
+    /** Extracts the identifier from an is_a value, like {@code HP:0000118 ! Phenotypic abnormality}. */
+    public static final String PARENT_ID_REGEX = "^\\s*([^\\s!]+).*";
+
+    private static final Pattern PARENT_ID_PATTERN = Pattern.compile(PARENT_ID_REGEX);
 
     private String id;
 
+    /** The identifiers of the parents, extracted from the is_a values as they are added. */
+    private final List<String> parentIds = new ArrayList<String>();
+
     @Override
     public void clear()
     {
         this.id = null;
+        this.parentIds.clear();
         super.clear();
     };
 
@@ -57,7 +90,9 @@ public boolean addTo(String key, String value)
         if (ID_FIELD_NAME.equals(key)) {
             this.id = value;
         } else if (PARENT_FIELD_NAME.equals(key)) {
-            this.addTo(TERM_CATEGORY_FIELD_NAME, value.replaceAll(PARENT_ID_REGEX, "$1"));
+            String parentId = getParentId(value);
+            this.parentIds.add(parentId);
+            this.addTo(TERM_CATEGORY_FIELD_NAME, parentId);
         }
         return super.addTo(key, value);
     }
@@ -72,34 +107,167 @@ public boolean addTo(String key, Collection<String> values)
         return result;
     }
 
+    /**
+     * Add all the ancestors of this term, and the term itself, to its {@link #TERM_CATEGORY_FIELD_NAME categories}.
+     * When expanding all the terms of an ontology, use {@link #expandAllTermCategories(Map)} instead, which reuses the
+     * ancestors of each parent instead of walking up the ontology again for every term.
+     *
+     * @param data all the terms of the ontology
+     */
     public void expandTermCategories(Map<String, TermData> data)
     {
-        Set<String> result = new HashSet<String>();
-        Set<String> front = new HashSet<String>();
+        this.addTo(TERM_CATEGORY_FIELD_NAME, getClosure(this.id, data, new HashMap<String, Collection<String>>()));
+    }
 
-        if (this.get(TERM_CATEGORY_FIELD_NAME) == null) {
-            this.put(TERM_CATEGORY_FIELD_NAME, super.getEmptyCollection());
+    /**
+     * Add to each term all its ancestors, and the term itself, as {@link #TERM_CATEGORY_FIELD_NAME categories}. The
+     * ancestors of a term are computed only once, after the ancestors of all its parents, and then reused for all its
+     * descendants, so the cost is proportional to the number of categories added, and not to the number of terms times
+     * the depth of the ontology.
+     *
+     * @param data all the terms of the ontology
+     */
+    public static void expandAllTermCategories(Map<String, TermData> data)
+    {
+        Map<String, Collection<String>> closures = new HashMap<String, Collection<String>>(data.size() * 2);
+        for (TermData term : data.values()) {
+            term.addTo(TERM_CATEGORY_FIELD_NAME, getClosure(term.getId(), data, closures));
         }
+    }
 
-        front.addAll(this.get(TERM_CATEGORY_FIELD_NAME));
-        Set<String> newFront = new HashSet<String>();
+    /**
+     * Compute the distance from this term to each of its ancestors, following the shortest path up through the parents,
+     * and store it in the {@link #ANCESTOR_DISTANCE_FIELD_NAME} field, sorted by ancestor identifier, along with the
+     * {@link #DEPTH_FIELD_NAME depth} of the term, so that distances between terms can be computed without walking the
+     * ontology.
+     *
+     * @param data all the terms of the ontology
+     */
+    public void computeAncestorDistances(Map<String, TermData> data)
+    {
+        Map<String, Integer> distances = new HashMap<String, Integer>();
+        LinkedList<String> front = new LinkedList<String>();
+        distances.put(this.id, 0);
+        front.add(this.id);
+        int depth = -1;
         while (!front.isEmpty()) {
-            for (String nextTermId : front) {
-                if (data.get(nextTermId).get(TERM_CATEGORY_FIELD_NAME) == null) {
-                    continue;
+            String crtId = front.removeFirst();
+            int crtDistance = distances.get(crtId);
+            TermData crtTerm = data.get(crtId);
+            List<String> parents = crtTerm != null ? crtTerm.getParentIds() : new ArrayList<String>(0);
+            if (parents.isEmpty() && depth < 0) {
+                // Breadth first, so the first root reached is the closest one
+                depth = crtDistance;
+            }
+            for (String parentId : parents) {
+                if (!distances.containsKey(parentId)) {
+                    distances.put(parentId, crtDistance + 1);
+                    front.add(parentId);
                 }
-                for (String parentTermId : data.get(nextTermId).get(TERM_CATEGORY_FIELD_NAME)) {
-                    if (!result.contains(parentTermId)) {
-                        newFront.add(parentTermId);
-                        result.add(parentTermId);
+            }
+        }
+        distances.remove(this.id);
+        this.remove(ANCESTOR_DISTANCE_FIELD_NAME);
+        for (Map.Entry<String, Integer> ancestor : new TreeMap<String, Integer>(distances).entrySet()) {
+            this.addTo(ANCESTOR_DISTANCE_FIELD_NAME, ancestor.getKey() + ' ' + ancestor.getValue());
+        }
+        this.remove(DEPTH_FIELD_NAME);
+        this.addTo(DEPTH_FIELD_NAME, String.valueOf(Math.max(depth, 0)));
+    }
+
+    List<String> getParentIds()
+    {
+        return this.parentIds;
+    }
+
+    static String getParentId(String value)
+    {
+        Matcher matcher = PARENT_ID_PATTERN.matcher(value);
+        return matcher.matches() ? matcher.group(1) : value;
+    }
+
+    /**
+     * Find the ancestors of a term, including the term itself, reusing and filling a cache of already computed
+     * ancestors. The ontology is walked depth first without recursion, so that deep ontologies don't overflow the
+     * stack, and each term is completed only after all its parents; the terms of a cycle can't wait for all their
+     * parents, so they are walked {@link #walkClosure breadth first} instead.
+     *
+     * @param id the identifier of the term
+     * @param data all the terms of the ontology
+     * @param closures the ancestors already computed, indexed by term identifier
+     * @return the ancestors of the term, shared with the cache, so they must not be modified
+     */
+    private static Collection<String> getClosure(String id, Map<String, TermData> data,
+        Map<String, Collection<String>> closures)
+    {
+        LinkedList<String> stack = new LinkedList<String>();
+        Set<String> started = new HashSet<String>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            String crtId = stack.peek();
+            if (closures.containsKey(crtId)) {
+                stack.pop();
+                continue;
+            }
+            TermData crtTerm = data.get(crtId);
+            List<String> parents = crtTerm != null ? crtTerm.getParentIds() : Collections.<String>emptyList();
+            if (started.add(crtId)) {
+                // First visit, complete the parents before this term
+                for (String parentId : parents) {
+                    if (!closures.containsKey(parentId) && !started.contains(parentId)) {
+                        stack.push(parentId);
                     }
                 }
+                continue;
             }
-            front.clear();
-            front.addAll(newFront);
-            newFront.clear();
+            stack.pop();
+            Set<String> closure = new HashSet<String>();
+            closure.add(crtId);
+            for (String parentId : parents) {
+                Collection<String> parentClosure = closures.get(parentId);
+                if (parentClosure == null) {
+                    // The parent is still being processed, so this term is part of a cycle
+                    closure = walkClosure(crtId, data, closures);
+                    break;
+                }
+                closure.addAll(parentClosure);
+            }
+            closures.put(crtId, closure);
         }
-        result.add(this.id);
-        this.addTo(TERM_CATEGORY_FIELD_NAME, result);
+        return closures.get(id);
+    }
+
+    /**
+     * Find the ancestors of a term, including the term itself, by walking up the ontology breadth first. Used for the
+     * terms of a cycle, whose ancestors can't be computed from the ones of their parents; the ancestors already
+     * computed for other terms are complete, so they are reused without walking further.
+     *
+     * @param id the identifier of the term
+     * @param data all the terms of the ontology
+     * @param closures the ancestors already computed, indexed by term identifier
+     * @return the ancestors of the term
+     */
+    private static Set<String> walkClosure(String id, Map<String, TermData> data,
+        Map<String, Collection<String>> closures)
+    {
+        Set<String> result = new HashSet<String>();
+        LinkedList<String> front = new LinkedList<String>();
+        front.add(id);
+        while (!front.isEmpty()) {
+            String crtId = front.removeFirst();
+            if (!result.add(crtId)) {
+                continue;
+            }
+            Collection<String> closure = closures.get(crtId);
+            if (closure != null) {
+                result.addAll(closure);
+                continue;
+            }
+            TermData crtTerm = data.get(crtId);
+            if (crtTerm != null) {
+                front.addAll(crtTerm.getParentIds());
+            }
+        }
+        return result;
     }
 }
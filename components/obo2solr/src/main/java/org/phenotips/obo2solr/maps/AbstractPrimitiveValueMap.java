@@ -0,0 +1,534 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.obo2solr.maps;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Base class for maps from objects to primitive numbers. Entries are stored densely, in insertion order, in parallel
+ * key and value arrays, while an open-addressing hash table with linear probing maps keys to their entry position.
+ * Values are kept in subclasses as primitive arrays, so updating a value doesn't allocate anything. The entries holding
+ * the minimum and maximum values are tracked as values change, and only recomputed when one of them moves away from
+ * its extreme.
+ * <p>
+ * Iteration follows the insertion order, except that removing an entry moves the last entry into its place. Null keys
+ * are not supported. Not thread safe.
+ * </p>
+ *
+ * @param <K> the type of keys
+ * @version $Id$
+ */
+public abstract class AbstractPrimitiveValueMap<K>
+{
+    private static final int MIN_CAPACITY = 8;
+
+    /** Marks an empty slot in the hash table; other slots hold the entry position plus one. */
+    private static final int EMPTY_SLOT = 0;
+
+    /** The keys, in entry order. */
+    protected K[] keys;
+
+    /** The number of entries. */
+    protected int size;
+
+    private int[] table;
+
+    private int minEntry = -1;
+
+    private int maxEntry = -1;
+
+    private boolean extremesValid = true;
+
+    @SuppressWarnings("unchecked")
+    protected AbstractPrimitiveValueMap(int initialCapacity)
+    {
+        int capacity = MIN_CAPACITY;
+        while (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+        this.keys = (K[]) new Object[capacity];
+        this.table = new int[capacity << 1];
+    }
+
+    /**
+     * Resize the value storage, keeping the existing values.
+     *
+     * @param capacity the new capacity
+     */
+    protected abstract void resizeValues(int capacity);
+
+    /**
+     * Copy a value from one entry to another, used when compacting the entries after a removal.
+     *
+     * @param from the source entry
+     * @param to the target entry
+     */
+    protected abstract void moveValue(int from, int to);
+
+    /**
+     * Compare the values of two entries.
+     *
+     * @param entry1 the first entry
+     * @param entry2 the second entry
+     * @return a negative number, zero or a positive number if the first value is less than, equal to, or greater than
+     *         the second value
+     */
+    protected abstract int compareValues(int entry1, int entry2);
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    public boolean isEmpty()
+    {
+        return this.size == 0;
+    }
+
+    public boolean containsKey(K key)
+    {
+        return indexOf(key) >= 0;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(this.keys, 0, this.size, null);
+        Arrays.fill(this.table, EMPTY_SLOT);
+        this.size = 0;
+        this.minEntry = -1;
+        this.maxEntry = -1;
+        this.extremesValid = true;
+    }
+
+    /**
+     * A live view of the keys, in entry order. Removing keys through the view or its iterator is supported.
+     *
+     * @return the set of keys
+     */
+    public Set<K> keySet()
+    {
+        return new AbstractSet<K>()
+        {
+            @Override
+            public Iterator<K> iterator()
+            {
+                return new KeyIterator();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean contains(Object key)
+            {
+                return key != null && containsKey((K) key);
+            }
+
+            @Override
+            public boolean remove(Object key)
+            {
+                return removeKey(key);
+            }
+
+            @Override
+            public int size()
+            {
+                return AbstractPrimitiveValueMap.this.size;
+            }
+        };
+    }
+
+    /**
+     * List all the keys, ordered by their values. Keys with equal values keep their entry order.
+     *
+     * @param descending whether to sort from the highest to the lowest value, or the other way around
+     * @return the sorted keys
+     */
+    public List<K> sort(boolean descending)
+    {
+        Integer[] entries = new Integer[this.size];
+        for (int i = 0; i < this.size; ++i) {
+            entries[i] = i;
+        }
+        Arrays.sort(entries, getEntryComparator(descending));
+        List<K> result = new LinkedList<K>();
+        for (Integer entry : entries) {
+            result.add(this.keys[entry]);
+        }
+        return result;
+    }
+
+    public List<K> sort()
+    {
+        return sort(false);
+    }
+
+    /**
+     * Get the keys with the highest (or lowest) values, without sorting the whole map. Runs in
+     * {@code O(n log k)} time using a bounded heap. Keys with equal values keep their entry order.
+     *
+     * @param k the maximum number of keys to return
+     * @param descending {@code true} to get the keys with the highest values, {@code false} for the lowest values
+     * @return at most {@code k} keys, ordered by their values
+     */
+    public List<K> getTop(int k, boolean descending)
+    {
+        int limit = Math.min(k, this.size);
+        List<K> result = new LinkedList<K>();
+        if (limit <= 0) {
+            return result;
+        }
+        Comparator<Integer> order = getEntryComparator(descending);
+        // A heap with the worst selected entry at the root
+        int[] heap = new int[limit];
+        int heapSize = 0;
+        for (int i = 0; i < this.size; ++i) {
+            if (heapSize < limit) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++, order);
+            } else if (order.compare(i, heap[0]) < 0) {
+                heap[0] = i;
+                siftDown(heap, heapSize, order);
+            }
+        }
+        while (heapSize > 0) {
+            result.add(0, this.keys[heap[0]]);
+            heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize, order);
+        }
+        return result;
+    }
+
+    /**
+     * @return the key with the highest value, or {@code null} if the map is empty
+     */
+    public K getMax()
+    {
+        updateExtremes();
+        return this.maxEntry < 0 ? null : this.keys[this.maxEntry];
+    }
+
+    /**
+     * @return the key with the lowest value, or {@code null} if the map is empty
+     */
+    public K getMin()
+    {
+        updateExtremes();
+        return this.minEntry < 0 ? null : this.keys[this.minEntry];
+    }
+
+    protected int getMaxEntry()
+    {
+        updateExtremes();
+        return this.maxEntry;
+    }
+
+    protected int getMinEntry()
+    {
+        updateExtremes();
+        return this.minEntry;
+    }
+
+    /**
+     * Find the entry holding a key.
+     *
+     * @param key the key to look for
+     * @return the position of the entry, or {@code -1} if the key isn't in the map
+     */
+    protected int indexOf(Object key)
+    {
+        if (key == null) {
+            return -1;
+        }
+        return this.table[findSlot(key)] - 1;
+    }
+
+    /**
+     * Find the entry holding a key, adding a new entry if the key isn't in the map yet. Subclasses must initialize the
+     * value of new entries, and then call {@link #valueChanged(int, int)}.
+     *
+     * @param key the key to look for
+     * @return the position of the entry if the key was already in the map, or {@code -(position + 1)} for a new entry
+     */
+    protected int insert(K key)
+    {
+        if (key == null) {
+            throw new NullPointerException("Null keys are not supported");
+        }
+        int slot = findSlot(key);
+        if (this.table[slot] != EMPTY_SLOT) {
+            return this.table[slot] - 1;
+        }
+        if (this.size == this.keys.length) {
+            this.keys = Arrays.copyOf(this.keys, this.size << 1);
+            resizeValues(this.size << 1);
+        }
+        int entry = this.size++;
+        this.keys[entry] = key;
+        this.table[slot] = entry + 1;
+        if (this.size << 1 > this.table.length) {
+            rehash(this.table.length << 1);
+        }
+        return -(entry + 1);
+    }
+
+    /**
+     * Remove the entry holding a key.
+     *
+     * @param key the key to remove
+     * @return {@code true} if the key was in the map
+     */
+    protected boolean removeKey(Object key)
+    {
+        if (key == null) {
+            return false;
+        }
+        int slot = findSlot(key);
+        if (this.table[slot] == EMPTY_SLOT) {
+            return false;
+        }
+        removeSlot(slot);
+        return true;
+    }
+
+    /**
+     * Update the tracked extremes after the value of an entry changed.
+     *
+     * @param entry the entry that was updated, or added
+     * @param direction positive if the value increased, negative if it decreased, zero for a new entry
+     */
+    protected void valueChanged(int entry, int direction)
+    {
+        if (!this.extremesValid) {
+            return;
+        }
+        if (this.minEntry < 0) {
+            this.minEntry = entry;
+            this.maxEntry = entry;
+            return;
+        }
+        if (direction >= 0) {
+            if (entry == this.minEntry && direction > 0) {
+                this.extremesValid = false;
+                return;
+            } else if (compareValues(entry, this.maxEntry) > 0) {
+                this.maxEntry = entry;
+            }
+        }
+        if (direction <= 0) {
+            if (entry == this.maxEntry && direction < 0) {
+                this.extremesValid = false;
+            } else if (compareValues(entry, this.minEntry) < 0) {
+                this.minEntry = entry;
+            }
+        }
+    }
+
+    private void updateExtremes()
+    {
+        if (this.extremesValid) {
+            return;
+        }
+        this.minEntry = this.size > 0 ? 0 : -1;
+        this.maxEntry = this.minEntry;
+        for (int i = 1; i < this.size; ++i) {
+            if (compareValues(i, this.minEntry) < 0) {
+                this.minEntry = i;
+            } else if (compareValues(i, this.maxEntry) > 0) {
+                this.maxEntry = i;
+            }
+        }
+        this.extremesValid = true;
+    }
+
+    private void removeSlot(int slot)
+    {
+        int entry = this.table[slot] - 1;
+        int mask = this.table.length - 1;
+
+        // Backward shift deletion, so that no tombstones are needed
+        int gap = slot;
+        for (int i = (gap + 1) & mask; this.table[i] != EMPTY_SLOT; i = (i + 1) & mask) {
+            int ideal = hash(this.keys[this.table[i] - 1]) & mask;
+            if (((i - ideal) & mask) >= ((i - gap) & mask)) {
+                this.table[gap] = this.table[i];
+                gap = i;
+            }
+        }
+        this.table[gap] = EMPTY_SLOT;
+
+        if (entry == this.minEntry || entry == this.maxEntry) {
+            this.extremesValid = false;
+        }
+        int last = --this.size;
+        if (entry != last) {
+            // Move the last entry into the freed position
+            int lastSlot = hash(this.keys[last]) & mask;
+            while (this.table[lastSlot] != last + 1) {
+                lastSlot = (lastSlot + 1) & mask;
+            }
+            this.table[lastSlot] = entry + 1;
+            this.keys[entry] = this.keys[last];
+            moveValue(last, entry);
+            if (this.minEntry == last) {
+                this.minEntry = entry;
+            }
+            if (this.maxEntry == last) {
+                this.maxEntry = entry;
+            }
+        }
+        this.keys[last] = null;
+        if (this.size == 0) {
+            this.minEntry = -1;
+            this.maxEntry = -1;
+            this.extremesValid = true;
+        }
+    }
+
+    /**
+     * Find the hash table slot for a key: either the slot holding its entry, or the empty slot where it should go.
+     */
+    private int findSlot(Object key)
+    {
+        int mask = this.table.length - 1;
+        int slot = hash(key) & mask;
+        while (this.table[slot] != EMPTY_SLOT && !key.equals(this.keys[this.table[slot] - 1])) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity)
+    {
+        this.table = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < this.size; ++i) {
+            int slot = hash(this.keys[i]) & mask;
+            while (this.table[slot] != EMPTY_SLOT) {
+                slot = (slot + 1) & mask;
+            }
+            this.table[slot] = i + 1;
+        }
+    }
+
+    private static int hash(Object key)
+    {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Orders entries from the best to the worst, i.e. by value in the requested direction, then by position.
+     */
+    private Comparator<Integer> getEntryComparator(final boolean descending)
+    {
+        return new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                int result = compareValues(a, b);
+                if (descending) {
+                    result = -result;
+                }
+                return result != 0 ? result : a.compareTo(b);
+            }
+        };
+    }
+
+    /** Restore the heap after adding an item at the end; the root holds the item that compares last. */
+    private static void siftUp(int[] heap, int position, Comparator<Integer> order)
+    {
+        int item = heap[position];
+        int i = position;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (order.compare(item, heap[parent]) <= 0) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = item;
+    }
+
+    /** Restore the heap after replacing the root; the root holds the item that compares last. */
+    private static void siftDown(int[] heap, int heapSize, Comparator<Integer> order)
+    {
+        if (heapSize == 0) {
+            return;
+        }
+        int item = heap[0];
+        int i = 0;
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = (i << 1) + 1;
+            if (child + 1 < heapSize && order.compare(heap[child + 1], heap[child]) > 0) {
+                ++child;
+            }
+            if (order.compare(item, heap[child]) >= 0) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = item;
+    }
+
+    private final class KeyIterator implements Iterator<K>
+    {
+        private int next;
+
+        private int current = -1;
+
+        @Override
+        public boolean hasNext()
+        {
+            return this.next < AbstractPrimitiveValueMap.this.size;
+        }
+
+        @Override
+        public K next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            this.current = this.next++;
+            return AbstractPrimitiveValueMap.this.keys[this.current];
+        }
+
+        @Override
+        public void remove()
+        {
+            if (this.current < 0) {
+                throw new IllegalStateException();
+            }
+            removeKey(AbstractPrimitiveValueMap.this.keys[this.current]);
+            // The last entry was moved into the current position, visit it next
+            this.next = this.current;
+            this.current = -1;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.obo2solr.maps;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Open-addressing map from objects to primitive {@code double} values, with {@code O(1)} {@link #addTo(Object, double)
+ * accumulation}, running minimum and maximum, and partial {@link #getTop(int, boolean) top-k} extraction. Missing keys
+ * are considered to have the value {@code 0}. The {@link NumericValueMap} methods box their values, the primitive
+ * methods should be preferred in inner loops.
+ *
+ * @param <K> the type of keys
+ * @version $Id$
+ */
+public class ObjectDoubleMap<K> extends AbstractPrimitiveValueMap<K> implements NumericValueMap<K, Double>
+{
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private double[] values;
+
+    public ObjectDoubleMap()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ObjectDoubleMap(int initialCapacity)
+    {
+        super(initialCapacity);
+        this.values = new double[this.keys.length];
+    }
+
+    /**
+     * Add a value to the one already associated with a key.
+     *
+     * @param key the target key
+     * @param value the value to add
+     * @return the new value associated with the key
+     */
+    public double addTo(K key, double value)
+    {
+        int entry = insert(key);
+        if (entry < 0) {
+            entry = -entry - 1;
+            this.values[entry] = value;
+            valueChanged(entry, 0);
+        } else {
+            double old = this.values[entry];
+            this.values[entry] = old + value;
+            valueChanged(entry, Double.compare(this.values[entry], old));
+        }
+        return this.values[entry];
+    }
+
+    /**
+     * Set the value associated with a key.
+     *
+     * @param key the target key
+     * @param value the new value
+     */
+    public void set(K key, double value)
+    {
+        int entry = insert(key);
+        if (entry < 0) {
+            entry = -entry - 1;
+            this.values[entry] = value;
+            valueChanged(entry, 0);
+        } else {
+            double old = this.values[entry];
+            this.values[entry] = value;
+            valueChanged(entry, Double.compare(value, old));
+        }
+    }
+
+    /**
+     * Get the value associated with a key.
+     *
+     * @param key the key to look up
+     * @return the associated value, or {@code 0} if the key isn't in the map
+     */
+    public double getDouble(K key)
+    {
+        int entry = indexOf(key);
+        return entry < 0 ? 0 : this.values[entry];
+    }
+
+    /**
+     * @return the highest value in the map, or {@code 0} if the map is empty
+     */
+    public double getMaxDouble()
+    {
+        int entry = getMaxEntry();
+        return entry < 0 ? 0 : this.values[entry];
+    }
+
+    /**
+     * @return the lowest value in the map, or {@code 0} if the map is empty
+     */
+    public double getMinDouble()
+    {
+        int entry = getMinEntry();
+        return entry < 0 ? 0 : this.values[entry];
+    }
+
+    @Override
+    public Double addTo(K key, Double value)
+    {
+        Double old = get(key);
+        addTo(key, value.doubleValue());
+        return old;
+    }
+
+    @Override
+    public Double reset(K key)
+    {
+        return put(key, 0.0);
+    }
+
+    @Override
+    public Double get(K key)
+    {
+        int entry = indexOf(key);
+        return entry < 0 ? null : this.values[entry];
+    }
+
+    @Override
+    public Double safeGet(K key)
+    {
+        return getDouble(key);
+    }
+
+    @Override
+    public Double getMaxValue()
+    {
+        return getMaxDouble();
+    }
+
+    @Override
+    public Double getMinValue()
+    {
+        return getMinDouble();
+    }
+
+    @Override
+    public Double put(K key, Double value)
+    {
+        Double old = get(key);
+        set(key, value.doubleValue());
+        return old;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends Double> m)
+    {
+        for (Map.Entry<? extends K, ? extends Double> e : m.entrySet()) {
+            set(e.getKey(), e.getValue().doubleValue());
+        }
+    }
+
+    @Override
+    public Double remove(K key)
+    {
+        Double old = get(key);
+        if (old != null) {
+            removeKey(key);
+        }
+        return old;
+    }
+
+    @Override
+    protected void resizeValues(int capacity)
+    {
+        this.values = Arrays.copyOf(this.values, capacity);
+    }
+
+    @Override
+    protected void moveValue(int from, int to)
+    {
+        this.values[to] = this.values[from];
+    }
+
+    @Override
+    protected int compareValues(int entry1, int entry2)
+    {
+        return Double.compare(this.values[entry1], this.values[entry2]);
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.obo2solr.maps;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Open-addressing map from objects to primitive {@code int} values, with {@code O(1)} {@link #addTo(Object, int)
+ * accumulation} and {@link #increment(Object) counting}, running minimum and maximum, and partial
+ * {@link #getTop(int, boolean) top-k} extraction. Missing keys are considered to have the value {@code 0}. The
+ * {@link NumericValueMap} methods box their values, the primitive methods should be preferred in inner loops.
+ *
+ * @param <K> the type of keys
+ * @version $Id$
+ */
+public class ObjectIntMap<K> extends AbstractPrimitiveValueMap<K> implements NumericValueMap<K, Integer>
+{
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] values;
+
+    public ObjectIntMap()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ObjectIntMap(int initialCapacity)
+    {
+        super(initialCapacity);
+        this.values = new int[this.keys.length];
+    }
+
+    /**
+     * Add a value to the one already associated with a key.
+     *
+     * @param key the target key
+     * @param value the value to add
+     * @return the new value associated with the key
+     */
+    public int addTo(K key, int value)
+    {
+        int entry = insert(key);
+        if (entry < 0) {
+            entry = -entry - 1;
+            this.values[entry] = value;
+            valueChanged(entry, 0);
+        } else {
+            this.values[entry] += value;
+            valueChanged(entry, value);
+        }
+        return this.values[entry];
+    }
+
+    /**
+     * Set the value associated with a key.
+     *
+     * @param key the target key
+     * @param value the new value
+     */
+    public void set(K key, int value)
+    {
+        int entry = insert(key);
+        if (entry < 0) {
+            entry = -entry - 1;
+            this.values[entry] = value;
+            valueChanged(entry, 0);
+        } else {
+            int old = this.values[entry];
+            this.values[entry] = value;
+            valueChanged(entry, value < old ? -1 : (value == old ? 0 : 1));
+        }
+    }
+
+    /**
+     * Get the value associated with a key.
+     *
+     * @param key the key to look up
+     * @return the associated value, or {@code 0} if the key isn't in the map
+     */
+    public int getInt(K key)
+    {
+        int entry = indexOf(key);
+        return entry < 0 ? 0 : this.values[entry];
+    }
+
+    /**
+     * @return the highest value in the map, or {@code 0} if the map is empty
+     */
+    public int getMaxInt()
+    {
+        int entry = getMaxEntry();
+        return entry < 0 ? 0 : this.values[entry];
+    }
+
+    /**
+     * @return the lowest value in the map, or {@code 0} if the map is empty
+     */
+    public int getMinInt()
+    {
+        int entry = getMinEntry();
+        return entry < 0 ? 0 : this.values[entry];
+    }
+
+    /**
+     * Increment the value associated with a key.
+     *
+     * @param key the target key
+     * @return the new value associated with the key
+     */
+    public int increment(K key)
+    {
+        return addTo(key, 1);
+    }
+
+    @Override
+    public Integer addTo(K key, Integer value)
+    {
+        Integer old = get(key);
+        addTo(key, value.intValue());
+        return old;
+    }
+
+    @Override
+    public Integer reset(K key)
+    {
+        return put(key, 0);
+    }
+
+    @Override
+    public Integer get(K key)
+    {
+        int entry = indexOf(key);
+        return entry < 0 ? null : this.values[entry];
+    }
+
+    @Override
+    public Integer safeGet(K key)
+    {
+        return getInt(key);
+    }
+
+    @Override
+    public Integer getMaxValue()
+    {
+        return getMaxInt();
+    }
+
+    @Override
+    public Integer getMinValue()
+    {
+        return getMinInt();
+    }
+
+    @Override
+    public Integer put(K key, Integer value)
+    {
+        Integer old = get(key);
+        set(key, value.intValue());
+        return old;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends Integer> m)
+    {
+        for (Map.Entry<? extends K, ? extends Integer> e : m.entrySet()) {
+            set(e.getKey(), e.getValue().intValue());
+        }
+    }
+
+    @Override
+    public Integer remove(K key)
+    {
+        Integer old = get(key);
+        if (old != null) {
+            removeKey(key);
+        }
+        return old;
+    }
+
+    @Override
+    protected void resizeValues(int capacity)
+    {
+        this.values = Arrays.copyOf(this.values, capacity);
+    }
+
+    @Override
+    protected void moveValue(int from, int to)
+    {
+        this.values[to] = this.values[from];
+    }
+
+    @Override
+    protected int compareValues(int entry1, int entry2)
+    {
+        int a = this.values[entry1];
+        int b = this.values[entry2];
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.obo2solr;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+
+/**
+ * A Solr server keeping its documents in memory, enough for testing the {@link SolrIndexer}: added documents replace
+ * the ones with the same identifier, and every query returns all the documents, sorted by identifier, one page at a
+ * time. Adding batches can be made to fail, for testing how the indexing pipeline stops.
+ *
+ * @version $Id$
+ */
+class InMemorySolrServer extends SolrServer
+{
+    private static final long serialVersionUID = 1L;
+
+    private final transient Map<String, SolrInputDocument> documents = new TreeMap<String, SolrInputDocument>();
+
+    private final transient List<SolrInputDocument> sent = new ArrayList<SolrInputDocument>();
+
+    private final transient List<String> deleted = new ArrayList<String>();
+
+    private int commitsCount;
+
+    private int batchesCount;
+
+    private int acceptedBatchesCount = Integer.MAX_VALUE;
+
+    private transient Exception batchFailure;
+
+    /**
+     * Fail the batches sent after the next few are accepted.
+     *
+     * @param acceptedBatchesCount how many more batches are accepted before failing
+     * @param failure the exception thrown for the following batches, a {@link SolrServerException}, an
+     *            {@link IOException} or a {@link RuntimeException}, or {@code null} to accept all the batches again
+     */
+    synchronized void failBatchesAfter(int acceptedBatchesCount, Exception failure)
+    {
+        this.batchesCount = 0;
+        this.acceptedBatchesCount = failure != null ? acceptedBatchesCount : Integer.MAX_VALUE;
+        this.batchFailure = failure;
+    }
+
+    @Override
+    public synchronized UpdateResponse add(Collection<SolrInputDocument> docs) throws SolrServerException,
+        IOException
+    {
+        if (++this.batchesCount > this.acceptedBatchesCount) {
+            if (this.batchFailure instanceof SolrServerException) {
+                throw (SolrServerException) this.batchFailure;
+            } else if (this.batchFailure instanceof IOException) {
+                throw (IOException) this.batchFailure;
+            }
+            throw (RuntimeException) this.batchFailure;
+        }
+        for (SolrInputDocument doc : docs) {
+            store(doc);
+        }
+        return new UpdateResponse();
+    }
+
+    @Override
+    public synchronized UpdateResponse add(SolrInputDocument doc)
+    {
+        store(doc);
+        return new UpdateResponse();
+    }
+
+    @Override
+    public synchronized UpdateResponse deleteById(List<String> ids)
+    {
+        for (String id : ids) {
+            this.documents.remove(id);
+            this.deleted.add(id);
+        }
+        return new UpdateResponse();
+    }
+
+    @Override
+    public synchronized UpdateResponse commit()
+    {
+        ++this.commitsCount;
+        return new UpdateResponse();
+    }
+
+    @Override
+    public synchronized QueryResponse query(SolrParams params)
+    {
+        int start = params.getInt(CommonParams.START, 0);
+        int rows = params.getInt(CommonParams.ROWS, 10);
+        List<SolrInputDocument> all = new ArrayList<SolrInputDocument>(this.documents.values());
+        SolrDocumentList page = new SolrDocumentList();
+        page.setNumFound(all.size());
+        page.setStart(start);
+        for (SolrInputDocument doc : all.subList(Math.min(start, all.size()), Math.min(start + rows, all.size()))) {
+            page.add(toSolrDocument(doc));
+        }
+        NamedList<Object> response = new NamedList<Object>();
+        response.add("response", page);
+        QueryResponse result = new QueryResponse();
+        result.setResponse(response);
+        return result;
+    }
+
+    @Override
+    public NamedList<Object> request(SolrRequest request) throws SolrServerException
+    {
+        throw new SolrServerException("Only the update and query shortcuts are supported");
+    }
+
+    @Override
+    public void shutdown()
+    {
+        // Nothing to release
+    }
+
+    /**
+     * @return the indexed documents, by identifier
+     */
+    synchronized Map<String, SolrInputDocument> getDocuments()
+    {
+        return new TreeMap<String, SolrInputDocument>(this.documents);
+    }
+
+    /**
+     * @return all the documents received so far, in the order they arrived, including the ones later replaced
+     */
+    synchronized List<SolrInputDocument> getSent()
+    {
+        return new ArrayList<SolrInputDocument>(this.sent);
+    }
+
+    /**
+     * @return the identifiers of the deleted documents
+     */
+    synchronized List<String> getDeleted()
+    {
+        return Collections.unmodifiableList(new ArrayList<String>(this.deleted));
+    }
+
+    synchronized int getCommitsCount()
+    {
+        return this.commitsCount;
+    }
+
+    /**
+     * Forget the received documents, deletions and commits, but keep the index.
+     */
+    synchronized void resetHistory()
+    {
+        this.sent.clear();
+        this.deleted.clear();
+        this.commitsCount = 0;
+    }
+
+    private void store(SolrInputDocument doc)
+    {
+        this.documents.put(String.valueOf(doc.getFieldValue(TermData.ID_FIELD_NAME)), doc);
+        this.sent.add(doc);
+    }
+
+    private static SolrDocument toSolrDocument(SolrInputDocument doc)
+    {
+        SolrDocument result = new SolrDocument();
+        for (SolrInputField field : doc) {
+            if (field.getValueCount() == 1) {
+                result.setField(field.getName(), field.getFirstValue());
+            } else {
+                result.setField(field.getName(), new ArrayList<Object>(field.getValues()));
+            }
+        }
+        return result;
+    }
+}
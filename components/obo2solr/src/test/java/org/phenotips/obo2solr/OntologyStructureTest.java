@@ -0,0 +1,166 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.obo2solr;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link OntologyStructure} read by the {@link SolrIndexer} before streaming the terms.
+ *
+ * @version $Id$
+ */
+public class OntologyStructureTest
+{
+    @Test
+    public void testRead() throws IOException
+    {
+        OntologyStructure structure = read();
+        // Ten terms and the header, plus TST:0000099, which is only referenced as a parent
+        Assert.assertEquals(11, structure.getTermsCount());
+        Assert.assertEquals(12, structure.size());
+        Assert.assertEquals(-1, structure.getNumber("TST:0000100"));
+        int number = structure.getNumber("TST:0000099");
+        Assert.assertEquals("TST:0000099", structure.getId(number));
+        Assert.assertEquals(0, structure.getParents(number).length);
+
+        Assert.assertEquals(Arrays.asList("TST:0000003", "TST:0000004"), getParentIds(structure, "TST:0000005"));
+        Assert.assertEquals(Arrays.asList("TST:0000001"), getParentIds(structure, "TST:0000002"));
+        Assert.assertTrue(getParentIds(structure, "TST:0000001").isEmpty());
+    }
+
+    @Test
+    public void testCounts() throws IOException
+    {
+        OntologyStructure structure = read();
+        assertCounts(structure, "TST:0000001", 5, 8);
+        assertCounts(structure, "TST:0000002", 1, 3);
+        assertCounts(structure, "TST:0000003", 2, 2);
+        assertCounts(structure, "TST:0000004", 1, 1);
+        assertCounts(structure, "TST:0000005", 0, 0);
+        assertCounts(structure, "TST:0000099", 1, 1);
+        assertCounts(structure, OboTermReader.HEADER_INFO_ID, 0, 0);
+    }
+
+    @Test
+    public void testWalkIsBreadthFirst() throws IOException
+    {
+        OntologyStructure structure = read();
+        OntologyStructure.AncestorWalker walker = structure.new AncestorWalker();
+        walker.walk(structure.getNumber("TST:0000006"));
+        Assert.assertEquals(Arrays.asList("TST:0000006 0", "TST:0000003 1", "TST:0000002 2", "TST:0000001 3"),
+            getAncestors(structure, walker));
+
+        // Both TST:0000003 and TST:0000004 lead to the root, the shorter path wins
+        walker.walk(structure.getNumber("TST:0000005"));
+        Assert.assertEquals(
+            Arrays.asList("TST:0000005 0", "TST:0000003 1", "TST:0000004 1", "TST:0000002 2", "TST:0000001 2"),
+            getAncestors(structure, walker));
+    }
+
+    @Test
+    public void testWalkerCanBeReused() throws IOException
+    {
+        OntologyStructure structure = read();
+        OntologyStructure.AncestorWalker walker = structure.new AncestorWalker();
+        walker.walk(structure.getNumber("TST:0000005"));
+        walker.walk(structure.getNumber("TST:0000001"));
+        Assert.assertEquals(Arrays.asList("TST:0000001 0"), getAncestors(structure, walker));
+        walker.walk(structure.getNumber("TST:0000011"));
+        Assert.assertEquals(Arrays.asList("TST:0000011 0", "TST:0000099 1"), getAncestors(structure, walker));
+        walker.walk(structure.getNumber("TST:0000005"));
+        Assert.assertEquals(5, walker.size());
+    }
+
+    @Test
+    public void testDuplicateParentsAndCycles() throws IOException
+    {
+        OntologyStructure structure = read("[Term]\nid: A\nis_a: B\nis_a: B ! again\n\n"
+            + "[Term]\nid: B\nis_a: C\n\n[Term]\nid: C\nis_a: A\n");
+        Assert.assertEquals(Arrays.asList("B"), getParentIds(structure, "A"));
+        OntologyStructure.AncestorWalker walker = structure.new AncestorWalker();
+        walker.walk(structure.getNumber("A"));
+        Assert.assertEquals(Arrays.asList("A 0", "B 1", "C 2"), getAncestors(structure, walker));
+        // Each term of the cycle is a descendant of the other two
+        assertCounts(structure, "A", 1, 2);
+        assertCounts(structure, "C", 1, 2);
+    }
+
+    @Test
+    public void testParentsNotSelected() throws IOException
+    {
+        Map<String, Double> fieldSelection = new HashMap<String, Double>();
+        fieldSelection.put(TermData.ID_FIELD_NAME, 1.0);
+        OntologyStructure structure =
+            OntologyStructure.read(new BufferedReader(new StringReader("[Term]\nid: A\nis_a: B\n")), fieldSelection);
+        Assert.assertEquals(1, structure.size());
+        Assert.assertEquals(0, structure.getParents(structure.getNumber("A")).length);
+    }
+
+    private static OntologyStructure read() throws IOException
+    {
+        BufferedReader in = new BufferedReader(new InputStreamReader(SolrIndexerTest.ONTOLOGY.openStream(), "UTF-8"));
+        try {
+            return OntologyStructure.read(in, new HashMap<String, Double>());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static OntologyStructure read(String content) throws IOException
+    {
+        return OntologyStructure.read(new BufferedReader(new StringReader(content)), new HashMap<String, Double>());
+    }
+
+    private static List<String> getParentIds(OntologyStructure structure, String id)
+    {
+        List<String> result = new ArrayList<String>();
+        for (int parent : structure.getParents(structure.getNumber(id))) {
+            result.add(structure.getId(parent));
+        }
+        return result;
+    }
+
+    private static List<String> getAncestors(OntologyStructure structure, OntologyStructure.AncestorWalker walker)
+    {
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; i < walker.size(); ++i) {
+            result.add(structure.getId(walker.get(i)) + ' ' + walker.getDistance(i));
+        }
+        return result;
+    }
+
+    private static void assertCounts(OntologyStructure structure, String id, int children, int descendants)
+    {
+        int number = structure.getNumber(id);
+        Assert.assertEquals(id, children, structure.getChildrenCount(number));
+        Assert.assertEquals(id, descendants, structure.getDescendantsCount(number));
+    }
+}
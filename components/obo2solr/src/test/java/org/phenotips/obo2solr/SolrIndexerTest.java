@@ -0,0 +1,428 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.obo2solr;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link SolrIndexer} pipeline, which must produce the same documents as the {@link SolrUpdateGenerator}
+ * that loads the whole ontology in memory.
+ *
+ * @version $Id$
+ */
+public class SolrIndexerTest
+{
+    /** Ten terms, with two parents for TST:0000005, and a parent of TST:0000011 missing from the ontology. */
+    static final URL ONTOLOGY = SolrIndexerTest.class.getResource("/ontology-1.obo");
+
+    /** The next version of {@link #ONTOLOGY}, see {@link #testUpdateClassifiesTheChanges()} for the differences. */
+    static final URL NEXT_ONTOLOGY = SolrIndexerTest.class.getResource("/ontology-2.obo");
+
+    /** The number of documents in {@link #ONTOLOGY}, including the header. */
+    private static final int DOCUMENTS_COUNT = 11;
+
+    private static final String NAME_FIELD_NAME = "name";
+
+    @Test
+    public void testIndexMatchesTheGenerator() throws IOException, SolrServerException
+    {
+        Map<String, Double> fieldSelection = new HashMap<String, Double>();
+        Map<String, Map<String, Set<String>>> expected = getFields(generate(ONTOLOGY, fieldSelection));
+        Assert.assertEquals(DOCUMENTS_COUNT, expected.size());
+        // Single worker, several workers taking turns on a tiny queue, batches smaller and larger than the ontology
+        int[][] settings = { { 1, 1000, 2000 }, { 3, 1, 1 }, { 4, 3, 2 } };
+        for (int[] setting : settings) {
+            InMemorySolrServer server = new InMemorySolrServer();
+            SolrIndexer indexer = new SolrIndexer(server, fieldSelection);
+            indexer.setWorkersCount(setting[0]);
+            indexer.setBatchSize(setting[1]);
+            indexer.setQueueSize(setting[2]);
+            Assert.assertEquals(DOCUMENTS_COUNT, indexer.index(ONTOLOGY));
+            Assert.assertEquals(expected, getFields(server.getDocuments().values()));
+            Assert.assertEquals(DOCUMENTS_COUNT, server.getSent().size());
+        }
+    }
+
+    @Test
+    public void testIndexMatchesTheGeneratorWithFieldSelection() throws IOException, SolrServerException
+    {
+        Map<String, Double> fieldSelection = new HashMap<String, Double>();
+        fieldSelection.put(TermData.ID_FIELD_NAME, 1.0);
+        fieldSelection.put(NAME_FIELD_NAME, 10.0);
+        fieldSelection.put(TermData.PARENT_FIELD_NAME, 1.0);
+        fieldSelection.put(TermData.TERM_CATEGORY_FIELD_NAME, 1.0);
+        fieldSelection.put(TermData.DEPTH_FIELD_NAME, 1.0);
+        fieldSelection.put(TermData.CHILD_COUNT_FIELD_NAME, 1.0);
+
+        InMemorySolrServer server = new InMemorySolrServer();
+        new SolrIndexer(server, fieldSelection).index(ONTOLOGY);
+        Map<String, SolrInputDocument> documents = server.getDocuments();
+        Assert.assertEquals(getFields(generate(ONTOLOGY, fieldSelection)), getFields(documents.values()));
+
+        SolrInputDocument shortStature = documents.get("TST:0000003");
+        Assert.assertNull(shortStature.getField("synonym"));
+        Assert.assertNull(shortStature.getField(TermData.ANCESTOR_DISTANCE_FIELD_NAME));
+        Assert.assertNull(shortStature.getField(TermData.DESCENDANT_COUNT_FIELD_NAME));
+        Assert.assertEquals("2", shortStature.getFieldValue(TermData.DEPTH_FIELD_NAME));
+        Assert.assertEquals(10.0f, shortStature.getField(NAME_FIELD_NAME).getBoost(), 0.0f);
+    }
+
+    @Test
+    public void testStructureFields() throws IOException, SolrServerException
+    {
+        InMemorySolrServer server = new InMemorySolrServer();
+        new SolrIndexer(server, new HashMap<String, Double>()).index(ONTOLOGY);
+        Map<String, SolrInputDocument> documents = server.getDocuments();
+
+        SolrInputDocument doc = documents.get("TST:0000005");
+        Assert.assertEquals(set("TST:0000005", "TST:0000004", "TST:0000003", "TST:0000002", "TST:0000001"),
+            getValues(doc, TermData.TERM_CATEGORY_FIELD_NAME));
+        Assert.assertEquals(set("TST:0000001 2", "TST:0000002 2", "TST:0000003 1", "TST:0000004 1"),
+            getValues(doc, TermData.ANCESTOR_DISTANCE_FIELD_NAME));
+        // The shortest path to the root goes through TST:0000004
+        Assert.assertEquals("2", doc.getFieldValue(TermData.DEPTH_FIELD_NAME));
+
+        doc = documents.get("TST:0000001");
+        Assert.assertEquals("0", doc.getFieldValue(TermData.DEPTH_FIELD_NAME));
+        Assert.assertNull(doc.getField(TermData.ANCESTOR_DISTANCE_FIELD_NAME));
+        Assert.assertEquals("5", doc.getFieldValue(TermData.CHILD_COUNT_FIELD_NAME));
+        Assert.assertEquals("8", doc.getFieldValue(TermData.DESCENDANT_COUNT_FIELD_NAME));
+
+        doc = documents.get("TST:0000003");
+        Assert.assertEquals("2", doc.getFieldValue(TermData.CHILD_COUNT_FIELD_NAME));
+        Assert.assertEquals("2", doc.getFieldValue(TermData.DESCENDANT_COUNT_FIELD_NAME));
+
+        // A parent missing from the ontology is still an ancestor, but doesn't get a document
+        doc = documents.get("TST:0000011");
+        Assert.assertEquals(set("TST:0000011", "TST:0000099"), getValues(doc, TermData.TERM_CATEGORY_FIELD_NAME));
+        Assert.assertEquals("1", doc.getFieldValue(TermData.DEPTH_FIELD_NAME));
+        Assert.assertFalse(documents.containsKey("TST:0000099"));
+    }
+
+    @Test
+    public void testHeaderIsSentLastAndCommittedOnce() throws IOException, SolrServerException
+    {
+        InMemorySolrServer server = new InMemorySolrServer();
+        SolrIndexer indexer = new SolrIndexer(server, new HashMap<String, Double>());
+        indexer.setWorkersCount(3);
+        indexer.setBatchSize(2);
+        indexer.index(ONTOLOGY);
+        List<SolrInputDocument> sent = server.getSent();
+        SolrInputDocument header = sent.get(sent.size() - 1);
+        Assert.assertEquals(OboTermReader.HEADER_INFO_ID, header.getFieldValue(TermData.ID_FIELD_NAME));
+        Assert.assertEquals("01:03:2014 10:00", header.getFieldValue(OboTermReader.VERSION_FIELD_NAME));
+        Assert.assertEquals(1, server.getCommitsCount());
+    }
+
+    @Test
+    public void testDocumentsHaveHashes() throws IOException, SolrServerException
+    {
+        InMemorySolrServer server = new InMemorySolrServer();
+        new SolrIndexer(server, new HashMap<String, Double>()).index(ONTOLOGY);
+        Set<Object> contentHashes = new HashSet<Object>();
+        for (SolrInputDocument doc : server.getDocuments().values()) {
+            Object contentHash = doc.getFieldValue(TermData.CONTENT_HASH_FIELD_NAME);
+            Assert.assertTrue(String.valueOf(contentHash).matches("[0-9a-f]{32}"));
+            Assert.assertTrue(String.valueOf(doc.getFieldValue(TermData.STRUCTURE_HASH_FIELD_NAME))
+                .matches("[0-9a-f]{32}"));
+            contentHashes.add(contentHash);
+        }
+        // Every term has different data
+        Assert.assertEquals(DOCUMENTS_COUNT, contentHashes.size());
+    }
+
+    @Test
+    public void testServerErrorStopsTheIndexing() throws IOException
+    {
+        InMemorySolrServer server = new InMemorySolrServer();
+        SolrServerException failure = new SolrServerException("Server unavailable");
+        server.failBatchesAfter(2, failure);
+        SolrIndexer indexer = new SolrIndexer(server, new HashMap<String, Double>());
+        indexer.setWorkersCount(3);
+        indexer.setBatchSize(1);
+        indexer.setQueueSize(1);
+        try {
+            indexer.index(ONTOLOGY);
+            Assert.fail("The server error wasn't reported");
+        } catch (SolrServerException ex) {
+            Assert.assertSame(failure, ex);
+        }
+        assertNotCompleted(server);
+    }
+
+    @Test
+    public void testRuntimeErrorStopsTheIndexing() throws IOException, SolrServerException
+    {
+        InMemorySolrServer server = new InMemorySolrServer();
+        IllegalStateException failure = new IllegalStateException("Bad document");
+        server.failBatchesAfter(0, failure);
+        SolrIndexer indexer = new SolrIndexer(server, new HashMap<String, Double>());
+        indexer.setWorkersCount(2);
+        indexer.setBatchSize(1);
+        indexer.setQueueSize(1);
+        try {
+            indexer.index(ONTOLOGY);
+            Assert.fail("The worker error wasn't reported");
+        } catch (IllegalStateException ex) {
+            Assert.assertSame(failure, ex);
+        }
+        assertNotCompleted(server);
+    }
+
+    @Test
+    public void testIOErrorStopsTheIndexing() throws SolrServerException
+    {
+        InMemorySolrServer server = new InMemorySolrServer();
+        IOException failure = new IOException("Connection reset");
+        server.failBatchesAfter(1, failure);
+        SolrIndexer indexer = new SolrIndexer(server, new HashMap<String, Double>());
+        indexer.setBatchSize(1);
+        try {
+            indexer.index(ONTOLOGY);
+            Assert.fail("The connection error wasn't reported");
+        } catch (IOException ex) {
+            Assert.assertSame(failure, ex);
+        }
+        assertNotCompleted(server);
+    }
+
+    /**
+     * The next version of the ontology has a new date, and the following changes: TST:0000005 is obsolete, TST:0000006
+     * moved from TST:0000003 to TST:0000004, TST:0000007 was removed, TST:0000008 was renamed, TST:0000009 is new, and
+     * the synonyms of TST:0000003 are listed in a different order. The ancestors of TST:0000010 and TST:0000011, and
+     * the number of descendants of TST:0000011, didn't change.
+     */
+    @Test
+    public void testUpdateClassifiesTheChanges() throws IOException, SolrServerException
+    {
+        InMemorySolrServer server = new InMemorySolrServer();
+        SolrIndexer indexer = new SolrIndexer(server, new HashMap<String, Double>());
+        indexer.setWorkersCount(3);
+        indexer.setBatchSize(2);
+        indexer.index(ONTOLOGY);
+        server.resetHistory();
+
+        IndexDelta delta = indexer.update(NEXT_ONTOLOGY);
+        Assert.assertEquals("01:03:2014 10:00", delta.getPreviousVersion());
+        Assert.assertEquals("01:04:2014 10:00", delta.getVersion());
+        Assert.assertEquals(1, delta.getCount(IndexDelta.Change.ADDED));
+        Assert.assertEquals(1, delta.getCount(IndexDelta.Change.OBSOLETED));
+        Assert.assertEquals(1, delta.getCount(IndexDelta.Change.MOVED));
+        // TST:0000008 and the header
+        Assert.assertEquals(2, delta.getCount(IndexDelta.Change.CHANGED));
+        // TST:0000001 lost a child, TST:0000002 and TST:0000003 a descendant, TST:0000004 gained a child
+        Assert.assertEquals(4, delta.getCount(IndexDelta.Change.CLOSURE_CHANGED));
+        Assert.assertEquals(1, delta.getCount(IndexDelta.Change.DELETED));
+        Assert.assertEquals(2, delta.getCount(IndexDelta.Change.UNCHANGED));
+        Assert.assertEquals(10, delta.getSize());
+
+        Assert.assertEquals(Arrays.asList("TST:0000007"), server.getDeleted());
+        Assert.assertEquals(delta.getSize() - 1, server.getSent().size());
+        List<SolrInputDocument> sent = server.getSent();
+        Assert.assertEquals(OboTermReader.HEADER_INFO_ID,
+            sent.get(sent.size() - 1).getFieldValue(TermData.ID_FIELD_NAME));
+        Assert.assertEquals(1, server.getCommitsCount());
+        assertSameIndex(NEXT_ONTOLOGY, server);
+    }
+
+    @Test
+    public void testUpdateOfUpToDateIndexSendsNothing() throws IOException, SolrServerException
+    {
+        InMemorySolrServer server = new InMemorySolrServer();
+        SolrIndexer indexer = new SolrIndexer(server, new HashMap<String, Double>());
+        indexer.index(ONTOLOGY);
+        server.resetHistory();
+
+        IndexDelta delta = indexer.update(ONTOLOGY);
+        Assert.assertTrue(delta.isEmpty());
+        Assert.assertEquals(DOCUMENTS_COUNT, delta.getCount(IndexDelta.Change.UNCHANGED));
+        Assert.assertEquals(delta.getPreviousVersion(), delta.getVersion());
+        Assert.assertTrue(server.getSent().isEmpty());
+        Assert.assertTrue(server.getDeleted().isEmpty());
+        Assert.assertEquals(0, server.getCommitsCount());
+    }
+
+    @Test
+    public void testUpdateOfEmptyIndexAddsEverything() throws IOException, SolrServerException
+    {
+        InMemorySolrServer server = new InMemorySolrServer();
+        IndexDelta delta = new SolrIndexer(server, new HashMap<String, Double>()).update(ONTOLOGY);
+        Assert.assertNull(delta.getPreviousVersion());
+        Assert.assertEquals(DOCUMENTS_COUNT, delta.getCount(IndexDelta.Change.ADDED));
+        Assert.assertEquals(DOCUMENTS_COUNT, delta.getSize());
+        assertSameIndex(ONTOLOGY, server);
+    }
+
+    @Test
+    public void testUpdateOfIndexWithoutHashesSendsEverything() throws IOException, SolrServerException
+    {
+        InMemorySolrServer server = new InMemorySolrServer();
+        SolrIndexer indexer = new SolrIndexer(server, new HashMap<String, Double>());
+        indexer.index(ONTOLOGY);
+        for (SolrInputDocument doc : server.getDocuments().values()) {
+            doc.removeField(TermData.CONTENT_HASH_FIELD_NAME);
+            doc.removeField(TermData.STRUCTURE_HASH_FIELD_NAME);
+        }
+
+        IndexDelta delta = indexer.update(ONTOLOGY);
+        Assert.assertEquals(DOCUMENTS_COUNT, delta.getCount(IndexDelta.Change.CHANGED));
+        assertSameIndex(ONTOLOGY, server);
+    }
+
+    @Test
+    public void testFailedUpdateKeepsThePreviousVersion() throws IOException, SolrServerException
+    {
+        InMemorySolrServer server = new InMemorySolrServer();
+        SolrIndexer indexer = new SolrIndexer(server, new HashMap<String, Double>());
+        indexer.setBatchSize(1);
+        indexer.index(ONTOLOGY);
+
+        server.failBatchesAfter(2, new SolrServerException("Server unavailable"));
+        try {
+            indexer.update(NEXT_ONTOLOGY);
+            Assert.fail("The server error wasn't reported");
+        } catch (SolrServerException ex) {
+            // Expected
+        }
+        Assert.assertEquals("01:03:2014 10:00", server.getDocuments().get(OboTermReader.HEADER_INFO_ID)
+            .getFieldValue(OboTermReader.VERSION_FIELD_NAME));
+
+        // Running the update again completes it, without sending the terms already updated
+        server.failBatchesAfter(0, null);
+        IndexDelta delta = indexer.update(NEXT_ONTOLOGY);
+        Assert.assertEquals("01:03:2014 10:00", delta.getPreviousVersion());
+        Assert.assertEquals(4, delta.getCount(IndexDelta.Change.UNCHANGED));
+        assertSameIndex(NEXT_ONTOLOGY, server);
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingSourceFails() throws IOException, SolrServerException
+    {
+        File missing = new File(System.getProperty("java.io.tmpdir"), "missing-" + System.nanoTime() + ".obo");
+        new SolrIndexer(new InMemorySolrServer(), new HashMap<String, Double>()).index(missing.toURI().toURL());
+    }
+
+    /**
+     * Index an ontology in memory, the way the XML output of the command line tool does.
+     */
+    static Map<String, TermData> generate(URL source, Map<String, Double> fieldSelection)
+    {
+        return new SolrUpdateGenerator().transform(source, fieldSelection);
+    }
+
+    /**
+     * The fields of some terms, without the hashes, which only the {@link SolrIndexer} computes.
+     */
+    static Map<String, Map<String, Set<String>>> getFields(Map<String, TermData> terms)
+    {
+        Map<String, Map<String, Set<String>>> result = new TreeMap<String, Map<String, Set<String>>>();
+        for (TermData term : terms.values()) {
+            Map<String, Set<String>> fields = new TreeMap<String, Set<String>>();
+            for (Map.Entry<String, Collection<String>> field : term.entrySet()) {
+                fields.put(field.getKey(), new HashSet<String>(field.getValue()));
+            }
+            result.put(term.getId(), fields);
+        }
+        return result;
+    }
+
+    /**
+     * The fields of some documents, without the hashes, which only the {@link SolrIndexer} computes.
+     */
+    static Map<String, Map<String, Set<String>>> getFields(Collection<SolrInputDocument> documents)
+    {
+        Map<String, Map<String, Set<String>>> result = new TreeMap<String, Map<String, Set<String>>>();
+        for (SolrInputDocument doc : documents) {
+            Map<String, Set<String>> fields = new TreeMap<String, Set<String>>();
+            for (SolrInputField field : doc) {
+                fields.put(field.getName(), getValues(doc, field.getName()));
+            }
+            fields.remove(TermData.CONTENT_HASH_FIELD_NAME);
+            fields.remove(TermData.STRUCTURE_HASH_FIELD_NAME);
+            result.put(String.valueOf(doc.getFieldValue(TermData.ID_FIELD_NAME)), fields);
+        }
+        return result;
+    }
+
+    static Set<String> getValues(SolrInputDocument doc, String name)
+    {
+        Set<String> result = new HashSet<String>();
+        Collection<Object> values = doc.getFieldValues(name);
+        if (values != null) {
+            for (Object value : values) {
+                result.add(String.valueOf(value));
+            }
+        }
+        return result;
+    }
+
+    static Set<String> set(String... values)
+    {
+        Set<String> result = new HashSet<String>();
+        for (String value : values) {
+            result.add(value);
+        }
+        return result;
+    }
+
+    /**
+     * Check that an index holds the same documents, with the same hashes, as a fresh index of an ontology.
+     */
+    private static void assertSameIndex(URL source, InMemorySolrServer server) throws IOException,
+        SolrServerException
+    {
+        InMemorySolrServer expected = new InMemorySolrServer();
+        new SolrIndexer(expected, new HashMap<String, Double>()).index(source);
+        Assert.assertEquals(getFields(expected.getDocuments().values()), getFields(server.getDocuments().values()));
+        Assert.assertEquals(getHashes(expected), getHashes(server));
+    }
+
+    private static Map<String, String> getHashes(InMemorySolrServer server)
+    {
+        Map<String, String> result = new TreeMap<String, String>();
+        for (Map.Entry<String, SolrInputDocument> doc : server.getDocuments().entrySet()) {
+            result.put(doc.getKey(), doc.getValue().getFieldValue(TermData.CONTENT_HASH_FIELD_NAME) + " "
+                + doc.getValue().getFieldValue(TermData.STRUCTURE_HASH_FIELD_NAME));
+        }
+        return result;
+    }
+
+    private static void assertNotCompleted(InMemorySolrServer server)
+    {
+        Assert.assertEquals(0, server.getCommitsCount());
+        Assert.assertFalse(server.getDocuments().containsKey(OboTermReader.HEADER_INFO_ID));
+    }
+}
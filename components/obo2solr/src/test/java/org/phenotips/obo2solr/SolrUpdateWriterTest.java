@@ -0,0 +1,201 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.obo2solr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.apache.solr.common.util.FastInputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link SolrUpdateWriter} update streams.
+ *
+ * @version $Id$
+ */
+public class SolrUpdateWriterTest
+{
+    private static final String ENCODING = "UTF-8";
+
+    @Test
+    public void testJson() throws IOException, SolrServerException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SolrUpdateWriter writer = new SolrUpdateWriter(out, SolrUpdateWriter.Format.JSON);
+        writer.add(Arrays.asList(document("A:1"), document("A:2")));
+        writer.add(Collections.singletonList(document("A:3")));
+        writer.finish();
+        Assert.assertEquals(3, writer.getDocumentsCount());
+        Assert.assertEquals("[\n" + json("A:1") + ",\n" + json("A:2") + ",\n" + json("A:3") + "\n]\n",
+            out.toString(ENCODING));
+    }
+
+    @Test
+    public void testJsonEscaping() throws IOException, SolrServerException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SolrUpdateWriter writer = new SolrUpdateWriter(out, SolrUpdateWriter.Format.JSON);
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", "A:\"1\"");
+        doc.addField("def", "back\\slash, new\nline, tab\t, bell\u0007, caf\u00e9");
+        writer.add(doc);
+        writer.finish();
+        Assert.assertEquals("[\n{\"id\":\"A:\\\"1\\\"\","
+            + "\"def\":\"back\\\\slash, new\\u000aline, tab\\u0009, bell\\u0007, caf\u00e9\"}\n]\n",
+            out.toString(ENCODING));
+    }
+
+    @Test
+    public void testEmptyJson() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SolrUpdateWriter writer = new SolrUpdateWriter(out, SolrUpdateWriter.Format.JSON);
+        writer.finish();
+        Assert.assertEquals("[\n]\n", out.toString(ENCODING));
+        Assert.assertEquals(0, writer.getDocumentsCount());
+    }
+
+    @Test
+    public void testDeletionsAndCommitsAreIgnored() throws IOException, SolrServerException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SolrUpdateWriter writer = new SolrUpdateWriter(out, SolrUpdateWriter.Format.JSON);
+        writer.deleteById(Arrays.asList("A:1"));
+        writer.commit();
+        writer.finish();
+        Assert.assertEquals("[\n]\n", out.toString(ENCODING));
+    }
+
+    @Test(expected = SolrServerException.class)
+    public void testQueriesAreRejected() throws IOException, SolrServerException
+    {
+        new SolrUpdateWriter(new ByteArrayOutputStream(), SolrUpdateWriter.Format.JSON)
+            .request(new QueryRequest(new SolrQuery("*:*")));
+    }
+
+    @Test
+    public void testJavaBin() throws IOException, SolrServerException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SolrUpdateWriter writer = new SolrUpdateWriter(out, SolrUpdateWriter.Format.JAVABIN);
+        List<SolrInputDocument> documents = Arrays.asList(document("A:1"), document("A:2"), document("A:3"));
+        writer.add(documents.subList(0, 2));
+        writer.add(documents.subList(2, 3));
+        writer.finish();
+        Assert.assertEquals(3, writer.getDocumentsCount());
+
+        // Each batch is a separate message, read one after the other the way Solr does
+        List<SolrInputDocument> read = new ArrayList<SolrInputDocument>();
+        FastInputStream in = FastInputStream.wrap(new ByteArrayInputStream(out.toByteArray()));
+        while (true) {
+            try {
+                read.addAll(new JavaBinUpdateRequestCodec().unmarshal(in, null).getDocuments());
+            } catch (EOFException ex) {
+                break;
+            }
+        }
+        Assert.assertEquals(documents.size(), read.size());
+        for (int i = 0; i < documents.size(); ++i) {
+            assertSameDocument(documents.get(i), read.get(i));
+        }
+    }
+
+    /**
+     * The order of the documents depends on how the workers are scheduled, but not the documents themselves.
+     */
+    @Test
+    public void testIndexerOutputDoesNotDependOnTheWorkers() throws IOException, SolrServerException
+    {
+        List<String> expected = indexAsJson(1);
+        Assert.assertEquals(11, expected.size());
+        Assert.assertTrue(expected.get(expected.size() - 1).startsWith("{\"format-version\":"));
+        for (int workers = 2; workers <= 4; ++workers) {
+            List<String> actual = indexAsJson(workers);
+            // The header is always last
+            Assert.assertEquals(expected.get(expected.size() - 1), actual.get(actual.size() - 1));
+            Collections.sort(actual);
+            List<String> sorted = new ArrayList<String>(expected);
+            Collections.sort(sorted);
+            Assert.assertEquals(sorted, actual);
+        }
+    }
+
+    private static List<String> indexAsJson(int workers) throws IOException, SolrServerException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SolrUpdateWriter writer = new SolrUpdateWriter(out, SolrUpdateWriter.Format.JSON);
+        SolrIndexer indexer = new SolrIndexer(writer, new HashMap<String, Double>());
+        indexer.setWorkersCount(workers);
+        indexer.setBatchSize(2);
+        indexer.setQueueSize(1);
+        indexer.index(SolrIndexerTest.ONTOLOGY);
+        writer.finish();
+        String[] lines = out.toString(ENCODING).split("\n");
+        Assert.assertEquals("[", lines[0]);
+        Assert.assertEquals("]", lines[lines.length - 1]);
+        List<String> result = new ArrayList<String>();
+        for (int i = 1; i < lines.length - 1; ++i) {
+            result.add(lines[i].endsWith(",") ? lines[i].substring(0, lines[i].length() - 1) : lines[i]);
+        }
+        return result;
+    }
+
+    private static SolrInputDocument document(String id)
+    {
+        SolrInputDocument result = new SolrInputDocument();
+        result.addField("id", id);
+        result.addField("name", "Term " + id, 2.0f);
+        result.addField("synonym", "First synonym of " + id);
+        result.addField("synonym", "Second synonym of " + id);
+        return result;
+    }
+
+    private static String json(String id)
+    {
+        return "{\"id\":\"" + id + "\",\"name\":{\"boost\":2.0,\"value\":\"Term " + id + "\"},"
+            + "\"synonym\":[\"First synonym of " + id + "\",\"Second synonym of " + id + "\"]}";
+    }
+
+    private static void assertSameDocument(SolrInputDocument expected, SolrInputDocument actual)
+    {
+        Assert.assertEquals(new ArrayList<String>(expected.getFieldNames()),
+            new ArrayList<String>(actual.getFieldNames()));
+        for (SolrInputField field : expected) {
+            SolrInputField actualField = actual.getField(field.getName());
+            Assert.assertEquals(new ArrayList<Object>(field.getValues()),
+                new ArrayList<Object>(actualField.getValues()));
+            Assert.assertEquals(field.getBoost(), actualField.getBoost(), 0.0f);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.obo2solr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the closures and distances computed by {@link TermData}.
+ *
+ * @version $Id$
+ */
+public class TermDataTest
+{
+    @Test
+    public void testParentIds()
+    {
+        TermData term = term("B", "A");
+        term.addTo(TermData.PARENT_FIELD_NAME, "  C ! Name with spaces");
+        Assert.assertEquals(Arrays.asList("A", "C"), term.getParentIds());
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("A", "C")),
+            term.get(TermData.TERM_CATEGORY_FIELD_NAME));
+        Assert.assertEquals("HP:0000118", TermData.getParentId("HP:0000118 ! Phenotypic abnormality"));
+        Assert.assertEquals("HP:0000118", TermData.getParentId("HP:0000118"));
+        term.clear();
+        Assert.assertNull(term.getId());
+        Assert.assertTrue(term.getParentIds().isEmpty());
+    }
+
+    @Test
+    public void testExpandAllTermCategories()
+    {
+        Map<String, TermData> data = ontology(term("A"), term("B", "A"), term("C", "A"), term("D", "B", "C"),
+            term("E", "D"), term("F", "X"));
+        TermData.expandAllTermCategories(data);
+        assertCategories(data, "A", "A");
+        assertCategories(data, "B", "B", "A");
+        assertCategories(data, "D", "D", "B", "C", "A");
+        assertCategories(data, "E", "E", "D", "B", "C", "A");
+        // A missing parent is still an ancestor
+        assertCategories(data, "F", "F", "X");
+    }
+
+    @Test
+    public void testExpandAllTermCategoriesWithCycles()
+    {
+        Map<String, TermData> data = ontology(term("A", "C"), term("B", "A"), term("C", "B"), term("D", "C"));
+        TermData.expandAllTermCategories(data);
+        assertCategories(data, "A", "A", "B", "C");
+        assertCategories(data, "B", "A", "B", "C");
+        assertCategories(data, "C", "A", "B", "C");
+        assertCategories(data, "D", "A", "B", "C", "D");
+    }
+
+    @Test
+    public void testClosuresMatchWalkingUp()
+    {
+        Random random = new Random(42);
+        int size = 500;
+        Map<String, TermData> all = randomOntology(random, size);
+        Map<String, TermData> single = randomOntology(new Random(42), size);
+        TermData.expandAllTermCategories(all);
+        for (TermData term : single.values()) {
+            term.expandTermCategories(single);
+        }
+        for (TermData term : all.values()) {
+            Set<String> expected = walkUp(term.getId(), all);
+            Assert.assertEquals(term.getId(), expected, term.get(TermData.TERM_CATEGORY_FIELD_NAME));
+            Assert.assertEquals(term.getId(), expected,
+                single.get(term.getId()).get(TermData.TERM_CATEGORY_FIELD_NAME));
+        }
+    }
+
+    @Test
+    public void testComputeAncestorDistances()
+    {
+        Map<String, TermData> data = ontology(term("A"), term("B", "A"), term("C", "B"), term("D", "C", "A"),
+            term("E", "X"), term("R"), term("F", "C", "R"));
+        data.get("D").computeAncestorDistances(data);
+        assertDistances(data.get("D"), 1, "A 1", "B 2", "C 1");
+        data.get("C").computeAncestorDistances(data);
+        assertDistances(data.get("C"), 2, "A 2", "B 1");
+        data.get("A").computeAncestorDistances(data);
+        assertDistances(data.get("A"), 0);
+        // A missing parent counts as a root
+        data.get("E").computeAncestorDistances(data);
+        assertDistances(data.get("E"), 1, "X 1");
+        // The depth is the distance to the closest root
+        data.get("F").computeAncestorDistances(data);
+        assertDistances(data.get("F"), 1, "A 3", "B 2", "C 1", "R 1");
+    }
+
+    @Test
+    public void testComputeAncestorDistancesReplacesPreviousValues()
+    {
+        Map<String, TermData> data = ontology(term("A"), term("B", "A"), term("C", "B"));
+        TermData term = data.get("C");
+        term.computeAncestorDistances(data);
+        data.put("B", term("B"));
+        term.computeAncestorDistances(data);
+        assertDistances(term, 1, "B 1");
+    }
+
+    @Test
+    public void testComputeAncestorDistancesWithCycles()
+    {
+        Map<String, TermData> data = ontology(term("A", "C"), term("B", "A"), term("C", "B"));
+        data.get("A").computeAncestorDistances(data);
+        // There's no root to reach
+        assertDistances(data.get("A"), 0, "B 2", "C 1");
+    }
+
+    private static TermData term(String id, String... parents)
+    {
+        TermData result = new TermData();
+        result.addTo(TermData.ID_FIELD_NAME, id);
+        for (String parent : parents) {
+            result.addTo(TermData.PARENT_FIELD_NAME, parent + " ! Name of " + parent);
+        }
+        return result;
+    }
+
+    private static Map<String, TermData> ontology(TermData... terms)
+    {
+        Map<String, TermData> result = new LinkedHashMap<String, TermData>();
+        for (TermData term : terms) {
+            result.put(term.getId(), term);
+        }
+        return result;
+    }
+
+    /**
+     * An ontology where each term has up to three parents, mostly earlier terms, but also a few terms that aren't part
+     * of the ontology and a few later terms, which create cycles; the terms are listed in random order, so that parents
+     * aren't always seen first.
+     */
+    private static Map<String, TermData> randomOntology(Random random, int size)
+    {
+        TermData[] terms = new TermData[size];
+        terms[0] = term("T0");
+        for (int i = 1; i < size; ++i) {
+            int parentsCount = 1 + random.nextInt(3);
+            String[] parents = new String[parentsCount];
+            for (int j = 0; j < parentsCount; ++j) {
+                int kind = random.nextInt(100);
+                if (kind < 2) {
+                    parents[j] = "M" + i;
+                } else if (kind < 3) {
+                    // Any term, which can close a cycle
+                    parents[j] = "T" + random.nextInt(size);
+                } else {
+                    parents[j] = "T" + random.nextInt(i);
+                }
+            }
+            terms[i] = term("T" + i, parents);
+        }
+        List<TermData> shuffled = new LinkedList<TermData>(Arrays.asList(terms));
+        Collections.shuffle(shuffled, random);
+        return ontology(shuffled.toArray(new TermData[size]));
+    }
+
+    private static Set<String> walkUp(String id, Map<String, TermData> data)
+    {
+        Set<String> result = new HashSet<String>();
+        LinkedList<String> front = new LinkedList<String>();
+        front.add(id);
+        while (!front.isEmpty()) {
+            String crt = front.removeFirst();
+            if (result.add(crt) && data.containsKey(crt)) {
+                front.addAll(data.get(crt).getParentIds());
+            }
+        }
+        return result;
+    }
+
+    private static void assertCategories(Map<String, TermData> data, String id, String... expected)
+    {
+        Assert.assertEquals(new HashSet<String>(Arrays.asList(expected)),
+            data.get(id).get(TermData.TERM_CATEGORY_FIELD_NAME));
+    }
+
+    private static void assertDistances(TermData term, int depth, String... distances)
+    {
+        Collection<String> actual = term.get(TermData.ANCESTOR_DISTANCE_FIELD_NAME);
+        Assert.assertEquals(Arrays.asList(distances),
+            actual == null ? Arrays.<String>asList() : new ArrayList<String>(actual));
+        Assert.assertEquals(Arrays.asList(String.valueOf(depth)),
+            new ArrayList<String>(term.get(TermData.DEPTH_FIELD_NAME)));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.obo2solr.maps;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ObjectDoubleMap}.
+ *
+ * @version $Id$
+ */
+public class ObjectDoubleMapTest
+{
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    public void testAddToSums()
+    {
+        ObjectDoubleMap<String> map = new ObjectDoubleMap<String>();
+        Assert.assertEquals(0.5, map.addTo("a", 0.5), EPSILON);
+        Assert.assertEquals(1.75, map.addTo("a", 1.25), EPSILON);
+        Assert.assertEquals(Double.valueOf(1.75), map.addTo("a", Double.valueOf(-1.0)));
+        Assert.assertEquals(0.75, map.getDouble("a"), EPSILON);
+        Assert.assertEquals(0, map.getDouble("b"), 0);
+        Assert.assertNull(map.get("b"));
+        Assert.assertEquals(Double.valueOf(0), map.safeGet("b"));
+    }
+
+    @Test
+    public void testPutAndRemove()
+    {
+        ObjectDoubleMap<String> map = new ObjectDoubleMap<String>();
+        Assert.assertNull(map.put("a", 1.0));
+        Assert.assertEquals(Double.valueOf(1.0), map.put("a", 2.0));
+        Map<String, Double> more = new HashMap<String, Double>();
+        more.put("b", 3.0);
+        more.put("c", -1.0);
+        map.putAll(more);
+        Assert.assertEquals(3, map.size());
+        Assert.assertEquals(Double.valueOf(3.0), map.remove("b"));
+        Assert.assertNull(map.remove("b"));
+        Assert.assertEquals(Double.valueOf(2.0), map.reset("a"));
+        Assert.assertEquals(0, map.getDouble("a"), 0);
+        Assert.assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testMinMaxAfterRemove()
+    {
+        ObjectDoubleMap<String> map = new ObjectDoubleMap<String>();
+        map.set("a", 0.3);
+        map.set("b", -2.5);
+        map.set("c", 4.0);
+        map.set("d", 1.0);
+        Assert.assertEquals("c", map.getMax());
+        Assert.assertEquals("b", map.getMin());
+        Assert.assertEquals(4.0, map.getMaxDouble(), 0);
+        Assert.assertEquals(-2.5, map.getMinDouble(), 0);
+        map.remove("c");
+        map.remove("b");
+        Assert.assertEquals("d", map.getMax());
+        Assert.assertEquals("a", map.getMin());
+        map.addTo("a", 5);
+        Assert.assertEquals("a", map.getMax());
+        Assert.assertEquals("d", map.getMin());
+        Assert.assertEquals(Double.valueOf(5.3), map.getMaxValue(), EPSILON);
+        Assert.assertEquals(Double.valueOf(1.0), map.getMinValue());
+    }
+
+    @Test
+    public void testTopOrdering()
+    {
+        ObjectDoubleMap<String> map = new ObjectDoubleMap<String>();
+        map.set("a", 0.5);
+        map.set("b", 2.0);
+        map.set("c", 0.5);
+        map.set("d", 3.0);
+        map.set("e", -1.0);
+        Assert.assertEquals(Arrays.asList("d", "b", "a"), map.getTop(3, true));
+        Assert.assertEquals(Arrays.asList("e", "a", "c"), map.getTop(3, false));
+        Assert.assertEquals(Arrays.asList("d", "b", "a", "c", "e"), map.getTop(5, true));
+        Assert.assertEquals(map.sort(true), map.getTop(5, true));
+    }
+
+    /** Random operations, checked against a plain hash map. */
+    @Test
+    public void testMatchesHashMap()
+    {
+        Random random = new Random(7);
+        ObjectDoubleMap<String> map = new ObjectDoubleMap<String>(1);
+        Map<String, Double> expected = new HashMap<String, Double>();
+        for (int i = 0; i < 10000; ++i) {
+            String key = "HP:" + random.nextInt(200);
+            double value = random.nextInt(1000) / 8.0 - 60;
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                map.addTo(key, value);
+                expected.put(key, expected.containsKey(key) ? expected.get(key) + value : value);
+            }
+            Assert.assertEquals(expected.size(), map.size());
+            if (!expected.isEmpty()) {
+                Assert.assertEquals(Collections.max(expected.values()), map.getMaxValue());
+                Assert.assertEquals(Collections.min(expected.values()), map.getMinValue());
+            }
+        }
+        for (Map.Entry<String, Double> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        Assert.assertEquals(expected.keySet(), map.keySet());
+    }
+}
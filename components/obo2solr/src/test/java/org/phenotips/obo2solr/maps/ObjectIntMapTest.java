@@ -0,0 +1,236 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.obo2solr.maps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ObjectIntMap} and the common {@link AbstractPrimitiveValueMap} logic.
+ *
+ * @version $Id$
+ */
+public class ObjectIntMapTest
+{
+    @Test
+    public void testMissingKeys()
+    {
+        ObjectIntMap<String> map = new ObjectIntMap<String>();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertEquals(0, map.getInt("a"));
+        Assert.assertNull(map.get("a"));
+        Assert.assertEquals(Integer.valueOf(0), map.safeGet("a"));
+        Assert.assertNull(map.remove("a"));
+        Assert.assertFalse(map.containsKey(null));
+        Assert.assertNull(map.getMax());
+        Assert.assertNull(map.getMin());
+        Assert.assertEquals(0, map.getMaxInt());
+        Assert.assertTrue(map.getTop(3, true).isEmpty());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullKeysAreRejected()
+    {
+        new ObjectIntMap<String>().set(null, 1);
+    }
+
+    @Test
+    public void testAddToSums()
+    {
+        ObjectIntMap<String> map = new ObjectIntMap<String>();
+        Assert.assertEquals(3, map.addTo("a", 3));
+        Assert.assertEquals(7, map.addTo("a", 4));
+        Assert.assertEquals(5, map.addTo("a", -2));
+        Assert.assertEquals(1, map.increment("b"));
+        Assert.assertEquals(2, map.increment("b"));
+        Assert.assertEquals(Integer.valueOf(5), map.addTo("a", Integer.valueOf(1)));
+        Assert.assertEquals(6, map.getInt("a"));
+        Assert.assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testPutAndRemove()
+    {
+        ObjectIntMap<String> map = new ObjectIntMap<String>();
+        Assert.assertNull(map.put("a", 1));
+        Assert.assertNull(map.put("b", 2));
+        Assert.assertEquals(Integer.valueOf(1), map.put("a", 3));
+        Assert.assertEquals(Integer.valueOf(3), map.remove("a"));
+        Assert.assertFalse(map.containsKey("a"));
+        Assert.assertEquals(2, map.getInt("b"));
+        Assert.assertEquals(Integer.valueOf(2), map.reset("b"));
+        Assert.assertEquals(Integer.valueOf(0), map.get("b"));
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertFalse(map.containsKey("b"));
+        map.set("c", 4);
+        Assert.assertEquals("c", map.getMax());
+    }
+
+    @Test
+    public void testResizeKeepsAllEntries()
+    {
+        ObjectIntMap<Integer> map = new ObjectIntMap<Integer>(1);
+        for (int i = 0; i < 1000; ++i) {
+            map.set(i * 31, i);
+        }
+        Assert.assertEquals(1000, map.size());
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertEquals(i, map.getInt(i * 31));
+        }
+        // Removing half the keys must not lose the others, whatever probe chains they were on
+        for (int i = 0; i < 1000; i += 2) {
+            map.remove(i * 31);
+        }
+        Assert.assertEquals(500, map.size());
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertEquals(i % 2 == 0 ? 0 : i, map.getInt(i * 31));
+            Assert.assertEquals(i % 2 != 0, map.containsKey(i * 31));
+        }
+    }
+
+    @Test
+    public void testMinMaxAfterChanges()
+    {
+        ObjectIntMap<String> map = new ObjectIntMap<String>();
+        map.set("a", 5);
+        map.set("b", 1);
+        map.set("c", 9);
+        Assert.assertEquals("c", map.getMax());
+        Assert.assertEquals("b", map.getMin());
+        map.remove("c");
+        Assert.assertEquals("a", map.getMax());
+        Assert.assertEquals(5, map.getMaxInt());
+        map.remove("b");
+        Assert.assertEquals("a", map.getMin());
+        map.set("d", 7);
+        map.set("d", 2);
+        Assert.assertEquals("a", map.getMax());
+        Assert.assertEquals("d", map.getMin());
+        map.addTo("d", 10);
+        Assert.assertEquals("d", map.getMax());
+        Assert.assertEquals("a", map.getMin());
+        map.remove("a");
+        map.remove("d");
+        Assert.assertNull(map.getMax());
+        Assert.assertNull(map.getMin());
+    }
+
+    @Test
+    public void testSortAndTopKeepEntryOrderForTies()
+    {
+        ObjectIntMap<String> map = new ObjectIntMap<String>();
+        map.set("a", 2);
+        map.set("b", 3);
+        map.set("c", 2);
+        map.set("d", 1);
+        map.set("e", 3);
+        Assert.assertEquals(Arrays.asList("b", "e", "a", "c", "d"), map.sort(true));
+        Assert.assertEquals(Arrays.asList("d", "a", "c", "b", "e"), map.sort());
+        Assert.assertEquals(Arrays.asList("b", "e", "a"), map.getTop(3, true));
+        Assert.assertEquals(Arrays.asList("d", "a"), map.getTop(2, false));
+        Assert.assertEquals(map.sort(true), map.getTop(10, true));
+        Assert.assertTrue(map.getTop(0, true).isEmpty());
+    }
+
+    @Test
+    public void testKeySetRemoval()
+    {
+        ObjectIntMap<String> map = new ObjectIntMap<String>();
+        for (String key : Arrays.asList("a", "b", "c", "d")) {
+            map.set(key, 1);
+        }
+        List<String> seen = new ArrayList<String>();
+        for (Iterator<String> it = map.keySet().iterator(); it.hasNext();) {
+            String key = it.next();
+            seen.add(key);
+            if ("a".equals(key) || "c".equals(key)) {
+                it.remove();
+            }
+        }
+        Collections.sort(seen);
+        Assert.assertEquals(Arrays.asList("a", "b", "c", "d"), seen);
+        Assert.assertEquals(2, map.size());
+        Assert.assertTrue(map.keySet().remove("b"));
+        Assert.assertFalse(map.keySet().contains("b"));
+        Assert.assertEquals(Collections.singleton("d"), map.keySet());
+    }
+
+    /** Random operations, checked against a plain hash map. */
+    @Test
+    public void testMatchesHashMap()
+    {
+        Random random = new Random(42);
+        ObjectIntMap<Integer> map = new ObjectIntMap<Integer>(2);
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 20000; ++i) {
+            Integer key = random.nextInt(300);
+            int value = random.nextInt(100) - 50;
+            switch (random.nextInt(4)) {
+                case 0:
+                    map.set(key, value);
+                    expected.put(key, value);
+                    break;
+                case 1:
+                    map.addTo(key, value);
+                    expected.put(key, expected.containsKey(key) ? expected.get(key) + value : value);
+                    break;
+                case 2:
+                    Assert.assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                default:
+                    Assert.assertEquals(expected.get(key), map.get(key));
+                    break;
+            }
+            Assert.assertEquals(expected.size(), map.size());
+            if (!expected.isEmpty()) {
+                Assert.assertEquals(Collections.max(expected.values()).intValue(), map.getMaxInt());
+                Assert.assertEquals(Collections.min(expected.values()).intValue(), map.getMinInt());
+            }
+        }
+        Assert.assertEquals(expected.keySet(), map.keySet());
+
+        List<Integer> top = map.getTop(10, true);
+        List<Integer> values = new ArrayList<Integer>(expected.values());
+        Collections.sort(values, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                return b.compareTo(a);
+            }
+        });
+        Assert.assertEquals(10, top.size());
+        for (int i = 0; i < top.size(); ++i) {
+            Assert.assertEquals(values.get(i), expected.get(top.get(i)));
+        }
+        Assert.assertEquals(top, map.sort(true).subList(0, 10));
+    }
+}
@@ -132,6 +132,17 @@
      */
     int reindex(String ontologyUrl);
 
+    /**
+     * Update the index to the latest version of the ontology, sending only the terms that changed since the indexed
+     * version. Ontologies that can't be updated incrementally are fully reindexed.
+     *
+     * @param ontologyUrl the url to be indexed
+     * @return {@code 0} if the update succeeded, {@code 1} if writing to the Solr server failed, {@code 2} if the
+     * specified URL is invalid
+     * @since 1.0RC1
+     */
+    int update(String ontologyUrl);
+
     /**
      * Get the defaults ontology access string (url to the data).
      *
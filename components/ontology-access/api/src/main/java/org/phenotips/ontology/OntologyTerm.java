@@ -87,6 +87,23 @@
      */
     long getDistanceTo(OntologyTerm other);
 
+    /**
+     * Returns the number of children (direct descendants) of this term.
+     *
+     * @return the number of terms that have this term as a parent, {@code 0} for a leaf term
+     * @since 1.0RC1
+     */
+    long getChildrenCount();
+
+    /**
+     * Returns the number of descendants (both direct and indirect descendants) of this term, not including the term
+     * itself.
+     *
+     * @return the number of terms that have this term as an ancestor, {@code 0} for a leaf term
+     * @since 1.0RC1
+     */
+    long getDescendantsCount();
+
     /**
      * Generic meta-property access. Any property defined in the ontology for this term can be accessed this way.
      * 
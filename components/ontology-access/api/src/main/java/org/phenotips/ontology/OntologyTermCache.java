@@ -0,0 +1,200 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.ontology;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.stability.Unstable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of ontology terms, keyed directly by the term identifier, which also keeps statistics about its usage. The
+ * actual storage is delegated to an XWiki {@link Cache}, whose size and expiration policy are set when it is created.
+ *
+ * @version $Id$
+ * @since 1.0RC1
+ */
+@Unstable
+public class OntologyTermCache
+{
+    /** The underlying cache. */
+    private final Cache<OntologyTerm> cache;
+
+    /** The number of lookups which found an entry. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** The number of lookups which didn't find an entry. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** The number of entries removed by the cache itself, because it was full or the entry expired. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Set while an explicit removal is performed on the current thread, so that the resulting removal events aren't
+     * counted as evictions.
+     */
+    private final ThreadLocal<Boolean> removing = new ThreadLocal<Boolean>();
+
+    /**
+     * Wraps an XWiki cache.
+     *
+     * @param cache the cache where the terms are actually stored
+     */
+    public OntologyTermCache(Cache<OntologyTerm> cache)
+    {
+        this.cache = cache;
+        this.cache.addCacheEntryListener(new CacheEntryListener<OntologyTerm>()
+        {
+            @Override
+            public void cacheEntryAdded(CacheEntryEvent<OntologyTerm> event)
+            {
+                // Nothing to count
+            }
+
+            @Override
+            public void cacheEntryRemoved(CacheEntryEvent<OntologyTerm> event)
+            {
+                if (OntologyTermCache.this.removing.get() == null) {
+                    OntologyTermCache.this.evictions.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void cacheEntryModified(CacheEntryEvent<OntologyTerm> event)
+            {
+                // Nothing to count
+            }
+        });
+    }
+
+    /**
+     * Get a cached term.
+     *
+     * @param id the term identifier
+     * @return the cached value, or {@code null} if the term isn't in the cache
+     */
+    public OntologyTerm get(String id)
+    {
+        OntologyTerm result = this.cache.get(id);
+        if (result != null) {
+            this.hits.incrementAndGet();
+        } else {
+            this.misses.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Add a term to the cache.
+     *
+     * @param id the term identifier, which may be different from the identifier of the term itself, for example an
+     *            alternative identifier
+     * @param term the value to cache
+     */
+    public void set(String id, OntologyTerm term)
+    {
+        this.cache.set(id, term);
+    }
+
+    /**
+     * Remove a term from the cache.
+     *
+     * @param id the term identifier
+     */
+    public void remove(String id)
+    {
+        this.removing.set(Boolean.TRUE);
+        try {
+            this.cache.remove(id);
+        } finally {
+            this.removing.remove();
+        }
+    }
+
+    /** Remove all the terms from the cache, for example after the ontology is reindexed. */
+    public void removeAll()
+    {
+        this.removing.set(Boolean.TRUE);
+        try {
+            this.cache.removeAll();
+        } finally {
+            this.removing.remove();
+        }
+    }
+
+    /**
+     * The number of lookups which found the requested term in the cache.
+     *
+     * @return the number of hits since the cache was created or the statistics were reset
+     */
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+
+    /**
+     * The number of lookups which didn't find the requested term in the cache.
+     *
+     * @return the number of misses since the cache was created or the statistics were reset
+     */
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+
+    /**
+     * The number of terms removed by the cache itself, either because it was full or because they expired.
+     *
+     * @return the number of evictions since the cache was created or the statistics were reset
+     */
+    public long getEvictions()
+    {
+        return this.evictions.get();
+    }
+
+    /**
+     * The fraction of lookups which found the requested term in the cache.
+     *
+     * @return a number between {@code 0} and {@code 1}, {@code 0} if there weren't any lookups
+     */
+    public double getHitRate()
+    {
+        long found = this.hits.get();
+        long total = found + this.misses.get();
+        return total == 0 ? 0 : (double) found / total;
+    }
+
+    /** Reset the usage statistics. */
+    public void resetStatistics()
+    {
+        this.hits.set(0);
+        this.misses.set(0);
+        this.evictions.set(0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("hits: %d, misses: %d, evictions: %d, hit rate: %.2f", getHits(), getMisses(),
+            getEvictions(), getHitRate());
+    }
+}
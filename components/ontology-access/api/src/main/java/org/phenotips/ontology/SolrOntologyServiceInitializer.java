@@ -19,12 +19,14 @@
  */
 package org.phenotips.ontology;
 
-import org.xwiki.cache.Cache;
 import org.xwiki.component.annotation.Role;
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.stability.Unstable;
 
+import java.io.IOException;
+
 import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
 
 /**
  * Provides methods for initializing an ontology service.
@@ -45,11 +47,13 @@
     void initialize(String serverName) throws InitializationException;
 
     /**
-     * Gets cache instance.
+     * Gets the term cache, keyed by term identifier. Its size and expiration policy can be configured for each ontology
+     * in {@code xwiki.properties}, with {@code phenotips.ontologies.<serverName>.cache.size} (the maximum number of
+     * terms) and {@code phenotips.ontologies.<serverName>.cache.ttl} (how long an unused term is kept, in seconds).
      *
      * @return cache instance
      */
-    Cache<OntologyTerm> getCache();
+    OntologyTermCache getCache();
 
     /**
      * Gets server instance.
@@ -57,4 +61,34 @@
      * @return server instance
      */
     SolrServer getServer();
+
+    /**
+     * Gets the server instance for the shadow core, where a new version of the ontology can be indexed without
+     * affecting the {@link #getServer() live core}, until the two are {@link #swapShadowServer() swapped}. The shadow
+     * core must be declared in the Solr configuration, as {@code <serverName>_shadow}.
+     *
+     * @return the shadow server instance, or {@code null} if the ontology can only be reindexed in place
+     * @since 1.0RC1
+     */
+    SolrServer getShadowServer();
+
+    /**
+     * Atomically replace the live core with the shadow core, so that all the following requests are answered by the
+     * newly indexed ontology, while the previous one becomes the shadow core. The term cache isn't cleared, since it
+     * belongs to the ontology service which decides when the swap happens.
+     *
+     * @throws SolrServerException if the Solr server fails to swap the cores
+     * @throws IOException if communicating with the Solr server fails
+     * @since 1.0RC1
+     */
+    void swapShadowServer() throws SolrServerException, IOException;
+
+    /**
+     * Whether the ontology should be loaded entirely in memory, configured in {@code xwiki.properties} for each
+     * ontology with {@code phenotips.ontologies.<serverName>.mode=memory}. In this mode, the Solr server is only used
+     * for free text searches.
+     *
+     * @return {@code true} if the in-memory mode is enabled for the initialized ontology, {@code false} otherwise
+     */
+    boolean isInMemory();
 }
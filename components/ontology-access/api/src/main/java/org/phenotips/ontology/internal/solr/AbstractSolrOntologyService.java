@@ -21,13 +21,17 @@
 
 import org.phenotips.ontology.OntologyService;
 import org.phenotips.ontology.OntologyTerm;
+import org.phenotips.ontology.OntologyTermCache;
 import org.phenotips.ontology.SolrOntologyServiceInitializer;
 
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -62,6 +66,15 @@ public abstract class AbstractSolrOntologyService implements OntologyService, In
      */
     private static final OntologyTerm EMPTY_MARKER = new SolrOntologyTerm(null, null);
 
+    /**
+     * The maximum number of terms fetched in one request by {@link #getTerms(Collection)}, kept well below the default
+     * Solr limit of 1024 clauses in a boolean query.
+     */
+    private static final int TERMS_BATCH_SIZE = 500;
+
+    /** How long to wait before trying again to load the ontology in memory after a failure, in milliseconds. */
+    private static final long IN_MEMORY_RETRY_DELAY = 60000L;
+
     /** Logging helper object. */
     @Inject
     protected Logger logger;
@@ -70,10 +83,20 @@ public abstract class AbstractSolrOntologyService implements OntologyService, In
     @Inject
     protected SolrOntologyServiceInitializer externalServicesAccess;
 
+    /**
+     * The whole ontology, when the in-memory mode is enabled and the ontology was successfully loaded, {@code null}
+     * otherwise.
+     */
+    private volatile InMemoryOntology inMemoryOntology;
+
+    /** The earliest time when loading the ontology in memory can be attempted again. */
+    private volatile long nextInMemoryLoad;
+
     @Override
     public void initialize() throws InitializationException
     {
         externalServicesAccess.initialize(this.getName());
+        getInMemoryOntology();
     }
 
     //Dilemma:
@@ -90,34 +113,69 @@ public void initialize() throws InitializationException
     @Override
     public OntologyTerm getTerm(String id)
     {
-        ModifiableSolrParams params = new ModifiableSolrParams();
-        params.set(CommonParams.Q, ID_FIELD_NAME + ':' + ClientUtils.escapeQueryChars(id));
-        String cacheKey = SolrQueryUtils.getCacheKey(params);
-        OntologyTerm result = externalServicesAccess.getCache().get(cacheKey);
+        InMemoryOntology memory = getInMemoryOntology();
+        if (memory != null) {
+            return memory.getTerm(id);
+        }
+        OntologyTerm result = externalServicesAccess.getCache().get(id);
         if (result == null) {
-            SolrDocumentList allResults = this.search(params);
+            SolrDocumentList allResults = this.search(getTermParams(id));
             if (allResults != null && !allResults.isEmpty()) {
                 result = new SolrOntologyTerm(allResults.get(0), this);
-                externalServicesAccess.getCache().set(cacheKey, result);
+                externalServicesAccess.getCache().set(id, result);
             } else {
-                externalServicesAccess.getCache().set(cacheKey, EMPTY_MARKER);
+                externalServicesAccess.getCache().set(id, EMPTY_MARKER);
             }
         }
         return (result == EMPTY_MARKER) ? null : result;
     }
 
+    /**
+     * {@inheritDoc} Terms already in the cache used by {@link #getTerm(String)} are served from there, and only the
+     * missing ones are requested from the Solr server, in batches; the fetched terms, as well as the unknown
+     * identifiers, are then added to the cache. The returned terms are in the same order as the requested identifiers,
+     * unknown identifiers being skipped.
+     */
     @Override
     public Set<OntologyTerm> getTerms(Collection<String> ids)
     {
-        StringBuilder query = new StringBuilder("id:(");
+        InMemoryOntology memory = getInMemoryOntology();
+        if (memory != null) {
+            Set<OntologyTerm> result = new LinkedHashSet<OntologyTerm>();
+            for (String id : ids) {
+                OntologyTerm term = memory.getTerm(id);
+                if (term != null) {
+                    result.add(term);
+                }
+            }
+            return result;
+        }
+        OntologyTermCache cache = this.externalServicesAccess.getCache();
+        Map<String, OntologyTerm> terms = new HashMap<String, OntologyTerm>();
+        Set<String> missing = new LinkedHashSet<String>();
         for (String id : ids) {
-            query.append(ClientUtils.escapeQueryChars(id));
-            query.append(' ');
+            if (StringUtils.isBlank(id) || terms.containsKey(id)) {
+                continue;
+            }
+            OntologyTerm term = cache.get(id);
+            if (term != null) {
+                terms.put(id, term);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<String> toFetch = new ArrayList<String>(missing);
+            for (int start = 0; start < toFetch.size(); start += TERMS_BATCH_SIZE) {
+                fetchTerms(toFetch.subList(start, Math.min(start + TERMS_BATCH_SIZE, toFetch.size())), terms);
+            }
         }
-        query.append(')');
         Set<OntologyTerm> result = new LinkedHashSet<OntologyTerm>();
-        for (SolrDocument doc : this.search(SolrQueryUtils.transformQueryToSolrParams(query.toString()))) {
-            result.add(new SolrOntologyTerm(doc, this));
+        for (String id : ids) {
+            OntologyTerm term = terms.get(id);
+            if (term != null && term != EMPTY_MARKER) {
+                result.add(term);
+            }
         }
         return result;
     }
@@ -131,7 +189,12 @@ public Set<OntologyTerm> search(Map<String, ?> fieldValues)
     @Override
     public Set<OntologyTerm> search(Map<String, ?> fieldValues, Map<String, String> queryOptions)
     {
-        Set<OntologyTerm> result = new LinkedHashSet<OntologyTerm>();
+        InMemoryOntology memory = getInMemoryOntology();
+        Set<OntologyTerm> result = memory != null ? memory.search(fieldValues, queryOptions) : null;
+        if (result != null) {
+            return result;
+        }
+        result = new LinkedHashSet<OntologyTerm>();
         for (SolrDocument doc : this
             .search(SolrQueryUtils.transformQueryToSolrParams(generateLuceneQuery(fieldValues)), queryOptions)) {
             result.add(new SolrOntologyTerm(doc, this));
@@ -142,12 +205,21 @@ public Set<OntologyTerm> search(Map<String, ?> fieldValues, Map<String, String>
     @Override
     public long count(Map<String, ?> fieldValues)
     {
+        InMemoryOntology memory = getInMemoryOntology();
+        long result = memory != null ? memory.count(fieldValues) : -1;
+        if (result >= 0) {
+            return result;
+        }
         return count(this.generateLuceneQuery(fieldValues));
     }
 
     @Override
     public long size()
     {
+        InMemoryOntology memory = getInMemoryOntology();
+        if (memory != null) {
+            return memory.size();
+        }
         return count("*:*");
     }
 
@@ -158,6 +230,12 @@ public int reindex(String ontologyUrl)
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public int update(String ontologyUrl)
+    {
+        return reindex(ontologyUrl);
+    }
+
     @Override
     public String getVersion()
     {
@@ -180,6 +258,102 @@ public long getDistance(OntologyTerm fromTerm, OntologyTerm toTerm)
         return fromTerm.getDistanceTo(toTerm);
     }
 
+    /**
+     * Get the whole ontology loaded in memory, if the in-memory mode is enabled for this ontology. The ontology is
+     * loaded from the Solr index on the first call; if that fails, for example because the Solr server isn't started
+     * yet, requests are sent to the Solr server for a while before trying again.
+     *
+     * @return the in-memory ontology, or {@code null} if the in-memory mode is disabled or the ontology couldn't be
+     *         loaded
+     */
+    protected InMemoryOntology getInMemoryOntology()
+    {
+        InMemoryOntology result = this.inMemoryOntology;
+        if (result != null || !this.externalServicesAccess.isInMemory()
+            || System.currentTimeMillis() < this.nextInMemoryLoad) {
+            return result;
+        }
+        synchronized (this) {
+            if (this.inMemoryOntology == null && System.currentTimeMillis() >= this.nextInMemoryLoad) {
+                try {
+                    this.inMemoryOntology = InMemoryOntology.load(this.externalServicesAccess.getServer(), this);
+                    this.logger.info("Loaded {} terms of the [{}] ontology in memory", this.inMemoryOntology.size(),
+                        getName());
+                } catch (Exception ex) {
+                    this.nextInMemoryLoad = System.currentTimeMillis() + IN_MEMORY_RETRY_DELAY;
+                    this.logger.warn("Failed to load the [{}] ontology in memory: {}", getName(), ex.getMessage());
+                }
+            }
+            return this.inMemoryOntology;
+        }
+    }
+
+    /**
+     * Discard the in-memory copy of the ontology, if any, so that it is loaded again from the Solr index on the next
+     * request. Must be called after the index is modified.
+     */
+    protected void resetInMemoryOntology()
+    {
+        synchronized (this) {
+            this.inMemoryOntology = null;
+            this.nextInMemoryLoad = 0;
+        }
+    }
+
+    /**
+     * Get the parameters of the query retrieving a single term.
+     * 
+     * @param id the identifier of the term
+     * @return the query parameters
+     */
+    private ModifiableSolrParams getTermParams(String id)
+    {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(CommonParams.Q, ID_FIELD_NAME + ':' + ClientUtils.escapeQueryChars(id));
+        return params;
+    }
+
+    /**
+     * Fetch several terms from the Solr server in one request, and add them to the cache. This is an exact lookup, so
+     * unlike {@link #search(SolrParams)}, no spellchecking is involved.
+     * 
+     * @param ids the identifiers of the terms to fetch, at most {@link #TERMS_BATCH_SIZE}
+     * @param terms where to put the fetched terms, mapped by identifier; the identifiers which don't exist in the
+     *            ontology are mapped to {@link #EMPTY_MARKER}, but if the request fails, nothing is added
+     */
+    private void fetchTerms(List<String> ids, Map<String, OntologyTerm> terms)
+    {
+        StringBuilder query = new StringBuilder(ID_FIELD_NAME + ":(");
+        for (String id : ids) {
+            query.append(ClientUtils.escapeQueryChars(id));
+            query.append(' ');
+        }
+        query.append(')');
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(CommonParams.Q, query.toString());
+        params.set(CommonParams.START, "0");
+        params.set(CommonParams.ROWS, String.valueOf(ids.size()));
+        SolrDocumentList results;
+        try {
+            results = this.externalServicesAccess.getServer().query(params).getResults();
+        } catch (Exception ex) {
+            this.logger.error("Failed to fetch ontology terms: {}", ex.getMessage(), ex);
+            return;
+        }
+        OntologyTermCache cache = this.externalServicesAccess.getCache();
+        for (SolrDocument doc : results) {
+            OntologyTerm term = new SolrOntologyTerm(doc, this);
+            terms.put(term.getId(), term);
+            cache.set(term.getId(), term);
+        }
+        for (String id : ids) {
+            if (!terms.containsKey(id)) {
+                terms.put(id, EMPTY_MARKER);
+                cache.set(id, EMPTY_MARKER);
+            }
+        }
+    }
+
     /**
      * Perform a search, falling back on the suggested spellchecked query if the original query fails to return any
      * results.
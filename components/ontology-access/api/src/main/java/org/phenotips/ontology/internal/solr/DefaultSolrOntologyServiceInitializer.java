@@ -20,24 +20,33 @@
 package org.phenotips.ontology.internal.solr;
 
 import org.phenotips.ontology.OntologyTerm;
+import org.phenotips.ontology.OntologyTermCache;
 import org.phenotips.ontology.SolrOntologyServiceInitializer;
 
-import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.InstantiationStrategy;
 import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.configuration.ConfigurationSource;
 
+import java.io.IOException;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.request.CoreAdminRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CoreAdminParams.CoreAdminAction;
+import org.apache.solr.common.util.NamedList;
+import org.slf4j.Logger;
 
 /**
  * Initializes cache and server connection for starting a Solr ontology service.
@@ -52,14 +61,38 @@ public class DefaultSolrOntologyServiceInitializer implements SolrOntologyServic
     /** Character used in URLs to delimit path segments. */
     private static final String URL_PATH_SEPARATOR = "/";
 
+    /** The value of the ontology mode configuration property which selects the in-memory mode. */
+    private static final String IN_MEMORY_MODE = "memory";
+
+    /** The default maximum number of terms in the cache. */
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /** The default time an unused term is kept in the cache, {@code 0} meaning that terms don't expire. */
+    private static final int DEFAULT_CACHE_TTL = 0;
+
+    /** Appended to the name of the core to get the name of its shadow core, used for reindexing. */
+    private static final String SHADOW_CORE_SUFFIX = "_shadow";
+
     /** The Solr server instance used. */
     protected SolrServer server;
 
+    /** The Solr server instance for the shadow core, where the ontology is reindexed. */
+    protected SolrServer shadowServer;
+
+    /** The Solr server instance used for administering cores, without any core name. */
+    protected SolrServer adminServer;
+
+    /** The name of the live core. */
+    protected String coreName;
+
     /**
      * Cache for the recently accessed terms; useful since the ontology rarely changes, so a search should always return
      * the same thing.
      */
-    protected Cache<OntologyTerm> cache;
+    protected OntologyTermCache cache;
+
+    /** Whether the ontology should be loaded entirely in memory. */
+    protected boolean inMemory;
 
     /** Cache factory needed for creating the term cache. */
     @Inject
@@ -69,12 +102,28 @@ public class DefaultSolrOntologyServiceInitializer implements SolrOntologyServic
     @Named("xwikiproperties")
     protected ConfigurationSource configuration;
 
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
     @Override
     public void initialize(String serverName) throws InitializationException
     {
         try {
-            this.server = new HttpSolrServer(this.getSolrLocation() + serverName + URL_PATH_SEPARATOR);
-            this.cache = this.cacheFactory.createNewLocalCache(new CacheConfiguration());
+            String location = this.getSolrLocation();
+            this.coreName = serverName;
+            this.server = new HttpSolrServer(location + serverName + URL_PATH_SEPARATOR);
+            this.shadowServer = new HttpSolrServer(location + serverName + SHADOW_CORE_SUFFIX + URL_PATH_SEPARATOR);
+            this.adminServer = new HttpSolrServer(location);
+            String prefix = "phenotips.ontologies." + serverName + '.';
+            LRUEvictionConfiguration eviction = new LRUEvictionConfiguration();
+            eviction.setMaxEntries(getIntProperty(prefix + "cache.size", DEFAULT_CACHE_SIZE));
+            eviction.setTimeToLive(getIntProperty(prefix + "cache.ttl", DEFAULT_CACHE_TTL));
+            CacheConfiguration cacheConfiguration = new CacheConfiguration();
+            cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, eviction);
+            this.cache =
+                new OntologyTermCache(this.cacheFactory.<OntologyTerm>createNewLocalCache(cacheConfiguration));
+            this.inMemory = IN_MEMORY_MODE.equals(this.configuration.getProperty(prefix + "mode", String.class));
         } catch (RuntimeException ex) {
             throw new InitializationException("Invalid URL specified for the Solr server: {}");
         } catch (final CacheException ex) {
@@ -83,7 +132,7 @@ public void initialize(String serverName) throws InitializationException
     }
 
     @Override
-    public Cache<OntologyTerm> getCache()
+    public OntologyTermCache getCache()
     {
         return this.cache;
     }
@@ -94,6 +143,66 @@ public SolrServer getServer()
         return this.server;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The Solr server is asked each time whether the shadow core exists, since cores may be added to its configuration
+     * at any time.
+     * </p>
+     */
+    @Override
+    public SolrServer getShadowServer()
+    {
+        String shadowCoreName = this.coreName + SHADOW_CORE_SUFFIX;
+        try {
+            NamedList<Object> status = CoreAdminRequest.getStatus(shadowCoreName, this.adminServer)
+                .getCoreStatus(shadowCoreName);
+            // Solr answers with an empty status for unknown cores
+            if (status != null && status.size() > 0) {
+                return this.shadowServer;
+            }
+            this.logger.debug("No shadow core [{}] is configured", shadowCoreName);
+        } catch (SolrServerException ex) {
+            this.logger.warn("Failed to check the shadow core [{}]: {}", shadowCoreName, ex.getMessage());
+        } catch (IOException ex) {
+            this.logger.warn("Failed to check the shadow core [{}]: {}", shadowCoreName, ex.getMessage());
+        } catch (SolrException ex) {
+            this.logger.warn("Failed to check the shadow core [{}]: {}", shadowCoreName, ex.getMessage());
+        }
+        return null;
+    }
+
+    @Override
+    public void swapShadowServer() throws SolrServerException, IOException
+    {
+        // The cores are swapped by the Solr server itself, so the live URL points to the new index at once, for all
+        // the clients, and the swap is persisted in the Solr configuration
+        CoreAdminRequest request = new CoreAdminRequest();
+        request.setAction(CoreAdminAction.SWAP);
+        request.setCoreName(this.coreName);
+        request.setOtherCoreName(this.coreName + SHADOW_CORE_SUFFIX);
+        request.process(this.adminServer);
+    }
+
+    @Override
+    public boolean isInMemory()
+    {
+        return this.inMemory;
+    }
+
+    /**
+     * Read a numeric configuration property.
+     *
+     * @param key the name of the property
+     * @param defaultValue the value to use when the property isn't set
+     * @return the configured value, or the default value
+     */
+    private int getIntProperty(String key, int defaultValue)
+    {
+        Integer value = this.configuration.getProperty(key, Integer.class);
+        return value != null ? value : defaultValue;
+    }
+
     /**
      * Get the URL where the Solr server can be reached, without any core name.
      *
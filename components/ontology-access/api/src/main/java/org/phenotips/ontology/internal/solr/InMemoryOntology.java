@@ -0,0 +1,579 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.ontology.internal.solr;
+
+import org.phenotips.ontology.OntologyService;
+import org.phenotips.ontology.OntologyTerm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+
+/**
+ * A complete, immutable copy of an indexed ontology, kept in memory so that term lookups, ancestor and descendant
+ * queries, and distances between terms don't need a request to the Solr server. Terms are numbered in the order of
+ * their identifiers, and the structure of the ontology is stored as sorted arrays of term numbers: parents, children,
+ * ancestors together with their distance, and descendants. Free text searches are not supported, they must still be
+ * sent to the Solr server.
+ *
+ * @version $Id$
+ * @since 1.0RC1
+ */
+public final class InMemoryOntology
+{
+    /** The name of the field holding the identifier of a term. */
+    static final String ID_FIELD = "id";
+
+    /** The name of the field holding the name of a term. */
+    static final String NAME_FIELD = "name";
+
+    /** The name of the field holding the synonyms of a term. */
+    static final String SYNONYM_FIELD = "synonym";
+
+    /** The name of the field holding the parents of a term. */
+    static final String PARENT_FIELD = "is_a";
+
+    /** The name of the field holding the ancestors of a term. */
+    static final String ANCESTOR_FIELD = "term_category";
+
+    /** The name of the field holding the older identifiers of a term. */
+    static final String ALTERNATIVE_ID_FIELD = "alt_id";
+
+    /** How many documents are requested at once when loading the ontology from the Solr server. */
+    private static final int PAGE_SIZE = 1000;
+
+    /** The default number of results returned by {@link #search(Map, Map)}, same as for Solr searches. */
+    private static final int DEFAULT_ROWS = 1000;
+
+    /** The term identifiers, sorted, the position of an identifier being the number of the term. */
+    private final String[] ids;
+
+    /** The term names. */
+    private final String[] names;
+
+    /** The synonyms of each term, {@code null} for terms without synonyms. */
+    private final String[][] synonyms;
+
+    /** The number of each term, by identifier. */
+    private final Map<String, Integer> numbers;
+
+    /** The number of the term identified by each alternative identifier. */
+    private final Map<String, Integer> alternativeNumbers;
+
+    /** The direct parents of each term, sorted. */
+    private final int[][] parents;
+
+    /** The direct children of each term, sorted. */
+    private final int[][] children;
+
+    /** The ancestors of each term, including the term itself, sorted. */
+    private final int[][] lineage;
+
+    /** The length of the shortest path going up from each term to each of its {@link #lineage ancestors}. */
+    private final int[][] lineageDistances;
+
+    /** The descendants of each term, not including the term itself, sorted. */
+    private final int[][] descendants;
+
+    /** The terms which are listed among their own ancestors in the index. */
+    private final BitSet selfCategorized;
+
+    /** The other stored fields of each term, which don't have a dedicated structure. */
+    private final Map<String, Object>[] otherFields;
+
+    /** The terms, created once and shared. */
+    private final InMemoryOntologyTerm[] terms;
+
+    /** The ontology owning the terms. */
+    private final OntologyService ontology;
+
+    /**
+     * Build the in-memory ontology from the complete list of indexed documents.
+     *
+     * @param docs all the documents of the ontology index
+     * @param ontology the ontology owning the terms
+     */
+    @SuppressWarnings("unchecked")
+    InMemoryOntology(Collection<SolrDocument> docs, OntologyService ontology)
+    {
+        this.ontology = ontology;
+        Map<String, SolrDocument> sorted = new HashMap<String, SolrDocument>(docs.size() * 2);
+        for (SolrDocument doc : docs) {
+            Object id = doc.getFirstValue(ID_FIELD);
+            if (id != null) {
+                sorted.put(String.valueOf(id), doc);
+            }
+        }
+        this.ids = sorted.keySet().toArray(new String[sorted.size()]);
+        Arrays.sort(this.ids);
+        int count = this.ids.length;
+        this.numbers = new HashMap<String, Integer>(count * 2);
+        for (int i = 0; i < count; ++i) {
+            this.numbers.put(this.ids[i], i);
+        }
+        this.names = new String[count];
+        this.synonyms = new String[count][];
+        this.parents = new int[count][];
+        this.otherFields = new Map[count];
+        this.selfCategorized = new BitSet(count);
+
+        this.alternativeNumbers = new HashMap<String, Integer>();
+        for (int i = 0; i < count; ++i) {
+            SolrDocument doc = sorted.get(this.ids[i]);
+            Object name = doc.getFirstValue(NAME_FIELD);
+            this.names[i] = name != null ? String.valueOf(name) : null;
+            this.synonyms[i] = toStrings(doc.getFieldValues(SYNONYM_FIELD));
+            this.parents[i] = toTermNumbers(doc.getFieldValues(PARENT_FIELD));
+            Collection<Object> ancestors = doc.getFieldValues(ANCESTOR_FIELD);
+            if (ancestors != null && ancestors.contains(this.ids[i])) {
+                this.selfCategorized.set(i);
+            }
+            Collection<Object> alternatives = doc.getFieldValues(ALTERNATIVE_ID_FIELD);
+            if (alternatives != null) {
+                for (Object altId : alternatives) {
+                    String key = String.valueOf(altId);
+                    if (!this.alternativeNumbers.containsKey(key) && !this.numbers.containsKey(key)) {
+                        this.alternativeNumbers.put(key, i);
+                    }
+                }
+            }
+            this.otherFields[i] = getOtherFields(doc, this.ids[i]);
+        }
+
+        this.children = invert(this.parents, false);
+        this.lineage = new int[count][];
+        this.lineageDistances = new int[count][];
+        computeLineage();
+        this.descendants = invert(this.lineage, true);
+
+        this.terms = new InMemoryOntologyTerm[count];
+        for (int i = 0; i < count; ++i) {
+            this.terms[i] = new InMemoryOntologyTerm(this, i);
+        }
+    }
+
+    /**
+     * Load all the terms of an ontology from its Solr index.
+     *
+     * @param server the Solr server holding the ontology index
+     * @param ontology the ontology owning the terms
+     * @return the loaded ontology
+     * @throws SolrServerException if querying the Solr server fails
+     */
+    public static InMemoryOntology load(SolrServer server, OntologyService ontology) throws SolrServerException
+    {
+        List<SolrDocument> docs = new ArrayList<SolrDocument>();
+        long total = 1;
+        while (docs.size() < total) {
+            ModifiableSolrParams params = new ModifiableSolrParams();
+            params.set(CommonParams.Q, "*:*");
+            params.set(CommonParams.FL, "*");
+            params.set(CommonParams.SORT, ID_FIELD + " asc");
+            params.set(CommonParams.START, String.valueOf(docs.size()));
+            params.set(CommonParams.ROWS, String.valueOf(PAGE_SIZE));
+            SolrDocumentList page = server.query(params).getResults();
+            if (page == null || page.isEmpty()) {
+                break;
+            }
+            total = page.getNumFound();
+            docs.addAll(page);
+        }
+        return new InMemoryOntology(docs, ontology);
+    }
+
+    /**
+     * Get a term.
+     *
+     * @param id the identifier of the term, or one of its alternative identifiers
+     * @return the requested term, or {@code null} if it doesn't exist in the ontology
+     */
+    public OntologyTerm getTerm(String id)
+    {
+        int term = getTermNumber(id);
+        return term >= 0 ? this.terms[term] : null;
+    }
+
+    /**
+     * The number of terms in the ontology.
+     *
+     * @return the number of indexed documents
+     */
+    public int size()
+    {
+        return this.ids.length;
+    }
+
+    /**
+     * Count the terms matching a structural query, one which only restricts term identifiers, parents or ancestors.
+     *
+     * @param fieldValues the query, in the format accepted by {@link OntologyService#count(Map)}
+     * @return the number of matching terms, or {@code -1} if the query can't be answered in memory
+     */
+    public long count(Map<String, ?> fieldValues)
+    {
+        BitSet matches = match(fieldValues);
+        return matches != null ? matches.cardinality() : -1;
+    }
+
+    /**
+     * Search the terms matching a structural query, one which only restricts term identifiers, parents or ancestors.
+     * The matching terms are returned in the order of their identifiers.
+     *
+     * @param fieldValues the query, in the format accepted by {@link OntologyService#search(Map, Map)}
+     * @param queryOptions extra options; only {@code start} and {@code rows} are supported
+     * @return the matching terms, or {@code null} if the query can't be answered in memory
+     */
+    public Set<OntologyTerm> search(Map<String, ?> fieldValues, Map<String, String> queryOptions)
+    {
+        int start = 0;
+        int rows = DEFAULT_ROWS;
+        if (queryOptions != null) {
+            for (Map.Entry<String, String> option : queryOptions.entrySet()) {
+                if (CommonParams.START.equals(option.getKey())) {
+                    start = Integer.parseInt(option.getValue());
+                } else if (CommonParams.ROWS.equals(option.getKey())) {
+                    rows = Integer.parseInt(option.getValue());
+                } else {
+                    return null;
+                }
+            }
+        }
+        BitSet matches = match(fieldValues);
+        if (matches == null) {
+            return null;
+        }
+        Set<OntologyTerm> result = new LinkedHashSet<OntologyTerm>();
+        int skipped = 0;
+        for (int i = matches.nextSetBit(0); i >= 0 && result.size() < rows; i = matches.nextSetBit(i + 1)) {
+            if (skipped++ >= start) {
+                result.add(this.terms[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the number of a term.
+     *
+     * @param id the identifier of the term, or one of its alternative identifiers
+     * @return the number of the term, or {@code -1} if it doesn't exist in the ontology
+     */
+    int getTermNumber(String id)
+    {
+        if (id == null) {
+            return -1;
+        }
+        Integer term = this.numbers.get(id);
+        if (term == null) {
+            term = this.alternativeNumbers.get(id);
+        }
+        return term != null ? term : -1;
+    }
+
+    String getId(int term)
+    {
+        return this.ids[term];
+    }
+
+    String getName(int term)
+    {
+        return this.names[term];
+    }
+
+    int[] getParents(int term)
+    {
+        return this.parents[term];
+    }
+
+    int[] getChildren(int term)
+    {
+        return this.children[term];
+    }
+
+    int[] getLineage(int term)
+    {
+        return this.lineage[term];
+    }
+
+    int[] getDescendants(int term)
+    {
+        return this.descendants[term];
+    }
+
+    /**
+     * Get a stored field of a term, in the same form as in the Solr document.
+     *
+     * @param term the number of the term
+     * @param name the name of the field
+     * @return the value of the field, a list for multi-valued fields, or {@code null} if the term doesn't have it
+     */
+    Object get(int term, String name)
+    {
+        if (ID_FIELD.equals(name)) {
+            return this.ids[term];
+        } else if (NAME_FIELD.equals(name)) {
+            return this.names[term];
+        } else if (SYNONYM_FIELD.equals(name)) {
+            return this.synonyms[term] != null ? Collections.unmodifiableList(Arrays.asList(this.synonyms[term]))
+                : null;
+        }
+        return this.otherFields[term].get(name);
+    }
+
+    OntologyTerm getTerm(int term)
+    {
+        return this.terms[term];
+    }
+
+    OntologyService getOntology()
+    {
+        return this.ontology;
+    }
+
+    /**
+     * Compute the length of the shortest path between two terms going through a common ancestor, by merging their
+     * sorted lists of ancestors.
+     *
+     * @param from the number of the first term
+     * @param to the number of the second term
+     * @return the distance between the two terms, or {@code -1} if they don't have a common ancestor
+     */
+    long getDistance(int from, int to)
+    {
+        int[] fromAncestors = this.lineage[from];
+        int[] fromDistances = this.lineageDistances[from];
+        int[] toAncestors = this.lineage[to];
+        int[] toDistances = this.lineageDistances[to];
+        long distance = Long.MAX_VALUE;
+        for (int i = 0, j = 0; i < fromAncestors.length && j < toAncestors.length;) {
+            if (fromAncestors[i] < toAncestors[j]) {
+                ++i;
+            } else if (fromAncestors[i] > toAncestors[j]) {
+                ++j;
+            } else {
+                distance = Math.min(distance, fromDistances[i++] + toDistances[j++]);
+            }
+        }
+        return distance == Long.MAX_VALUE ? -1 : distance;
+    }
+
+    /**
+     * Compute the ancestors of each term, along with the length of the shortest path to each of them, by a breadth
+     * first traversal of the parents. Cycles, which shouldn't appear in an ontology, are tolerated.
+     */
+    private void computeLineage()
+    {
+        int count = this.ids.length;
+        int[] distances = new int[count];
+        Arrays.fill(distances, -1);
+        int[] queue = new int[count];
+        for (int term = 0; term < count; ++term) {
+            int size = 0;
+            queue[size++] = term;
+            distances[term] = 0;
+            for (int next = 0; next < size; ++next) {
+                int current = queue[next];
+                for (int parent : this.parents[current]) {
+                    if (distances[parent] < 0) {
+                        distances[parent] = distances[current] + 1;
+                        queue[size++] = parent;
+                    }
+                }
+            }
+            int[] ancestors = Arrays.copyOf(queue, size);
+            Arrays.sort(ancestors);
+            int[] ancestorDistances = new int[size];
+            for (int i = 0; i < size; ++i) {
+                ancestorDistances[i] = distances[ancestors[i]];
+                distances[ancestors[i]] = -1;
+            }
+            this.lineage[term] = ancestors;
+            this.lineageDistances[term] = ancestorDistances;
+        }
+    }
+
+    /**
+     * Evaluate a structural query.
+     *
+     * @param fieldValues the query, in the format accepted by {@link OntologyService#count(Map)}
+     * @return the numbers of the matching terms, or {@code null} if the query restricts fields other than the term
+     *         identifier, parents or ancestors, or uses wildcards
+     */
+    private BitSet match(Map<String, ?> fieldValues)
+    {
+        BitSet result = new BitSet(this.ids.length);
+        result.set(0, this.ids.length);
+        for (Map.Entry<String, ?> field : fieldValues.entrySet()) {
+            Collection<?> values;
+            if (Collection.class.isInstance(field.getValue())) {
+                values = (Collection<?>) field.getValue();
+                if (values.isEmpty()) {
+                    continue;
+                }
+            } else {
+                values = Collections.singleton(field.getValue());
+            }
+            BitSet fieldMatches = new BitSet(this.ids.length);
+            for (Object value : values) {
+                String id = String.valueOf(value);
+                if (StringUtils.containsAny(id, '*', '?')) {
+                    return null;
+                }
+                int term = indexOf(this.numbers, id);
+                if (ID_FIELD.equals(field.getKey())) {
+                    set(fieldMatches, term);
+                } else if (ALTERNATIVE_ID_FIELD.equals(field.getKey())) {
+                    set(fieldMatches, indexOf(this.alternativeNumbers, id));
+                } else if (PARENT_FIELD.equals(field.getKey())) {
+                    setAll(fieldMatches, term >= 0 ? this.children[term] : null);
+                } else if (ANCESTOR_FIELD.equals(field.getKey())) {
+                    setAll(fieldMatches, term >= 0 ? this.descendants[term] : null);
+                    set(fieldMatches, term >= 0 && this.selfCategorized.get(term) ? term : -1);
+                } else {
+                    return null;
+                }
+            }
+            result.and(fieldMatches);
+        }
+        return result;
+    }
+
+    private int[] toTermNumbers(Collection<Object> values)
+    {
+        if (values == null || values.isEmpty()) {
+            return new int[0];
+        }
+        int[] result = new int[values.size()];
+        int count = 0;
+        for (Object value : values) {
+            int term = indexOf(this.numbers, StringUtils.substringBefore(String.valueOf(value), " "));
+            if (term >= 0) {
+                result[count++] = term;
+            }
+        }
+        result = Arrays.copyOf(result, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Invert a relation between terms, for example transform parents into children.
+     *
+     * @param relation the related terms of each term
+     * @param skipSelf whether to ignore a term being related to itself
+     * @return the inverse relation, with each list sorted
+     */
+    private static int[][] invert(int[][] relation, boolean skipSelf)
+    {
+        int[] sizes = new int[relation.length];
+        for (int term = 0; term < relation.length; ++term) {
+            for (int related : relation[term]) {
+                if (!skipSelf || related != term) {
+                    ++sizes[related];
+                }
+            }
+        }
+        int[][] result = new int[relation.length][];
+        for (int term = 0; term < relation.length; ++term) {
+            result[term] = new int[sizes[term]];
+            sizes[term] = 0;
+        }
+        // Terms are visited in ascending order, so the inverse lists are sorted
+        for (int term = 0; term < relation.length; ++term) {
+            for (int related : relation[term]) {
+                if (!skipSelf || related != term) {
+                    result[related][sizes[related]++] = term;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, Object> getOtherFields(SolrDocument doc, String id)
+    {
+        Map<String, Object> result = new HashMap<String, Object>();
+        for (String name : doc.getFieldNames()) {
+            if (ID_FIELD.equals(name) || NAME_FIELD.equals(name) || SYNONYM_FIELD.equals(name)) {
+                continue;
+            }
+            Object value = doc.getFieldValue(name);
+            if (value instanceof Collection) {
+                List<Object> values = new ArrayList<Object>((Collection<?>) value);
+                if (ANCESTOR_FIELD.equals(name)) {
+                    // Same as for SolrOntologyTerm, a term isn't listed among its own ancestors
+                    values.remove(id);
+                }
+                value = Collections.unmodifiableList(values);
+            }
+            result.put(name, value);
+        }
+        return result.isEmpty() ? Collections.<String, Object>emptyMap() : result;
+    }
+
+    private static String[] toStrings(Collection<Object> values)
+    {
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        String[] result = new String[values.size()];
+        int i = 0;
+        for (Object value : values) {
+            result[i++] = String.valueOf(value);
+        }
+        return result;
+    }
+
+    private static int indexOf(Map<String, Integer> numbers, String id)
+    {
+        Integer term = numbers.get(id);
+        return term != null ? term : -1;
+    }
+
+    private static void set(BitSet bits, int term)
+    {
+        if (term >= 0) {
+            bits.set(term);
+        }
+    }
+
+    private static void setAll(BitSet bits, int[] terms)
+    {
+        if (terms != null) {
+            for (int term : terms) {
+                bits.set(term);
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.ontology.internal.solr;
+
+import org.phenotips.ontology.OntologyService;
+import org.phenotips.ontology.OntologyTerm;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Implementation for {@link OntologyTerm} backed by an {@link InMemoryOntology in-memory ontology}. All the methods are
+ * answered from memory.
+ *
+ * @version $Id$
+ * @since 1.0RC1
+ */
+public class InMemoryOntologyTerm implements OntologyTerm
+{
+    /** The ontology holding the data of this term. */
+    private final InMemoryOntology data;
+
+    /** The number of this term in the {@link #data in-memory ontology}. */
+    private final int term;
+
+    /**
+     * Constructor that provides the {@link #data in-memory ontology} and the {@link #term term number}.
+     *
+     * @param data the in-memory ontology holding the data of this term
+     * @param term the number of this term in the in-memory ontology
+     */
+    InMemoryOntologyTerm(InMemoryOntology data, int term)
+    {
+        this.data = data;
+        this.term = term;
+    }
+
+    @Override
+    public String getId()
+    {
+        return this.data.getId(this.term);
+    }
+
+    @Override
+    public String getName()
+    {
+        return this.data.getName(this.term);
+    }
+
+    @Override
+    public String getDescription()
+    {
+        Object description = this.data.get(this.term, "def");
+        if (description instanceof Collection) {
+            description = ((Collection<?>) description).isEmpty() ? null : ((Collection<?>) description).iterator()
+                .next();
+        }
+        return description != null ? String.valueOf(description) : null;
+    }
+
+    @Override
+    public Set<OntologyTerm> getParents()
+    {
+        return new TermSet(this.data.getParents(this.term), -1);
+    }
+
+    @Override
+    public Set<OntologyTerm> getAncestors()
+    {
+        return new TermSet(this.data.getLineage(this.term), this.term);
+    }
+
+    @Override
+    public Set<OntologyTerm> getAncestorsAndSelf()
+    {
+        return new TermSet(this.data.getLineage(this.term), -1);
+    }
+
+    @Override
+    public long getDistanceTo(OntologyTerm other)
+    {
+        if (other == null) {
+            return -1;
+        }
+        int otherTerm;
+        if (other instanceof InMemoryOntologyTerm && ((InMemoryOntologyTerm) other).data == this.data) {
+            otherTerm = ((InMemoryOntologyTerm) other).term;
+        } else {
+            otherTerm = this.data.getTermNumber(other.getId());
+        }
+        return otherTerm >= 0 ? this.data.getDistance(this.term, otherTerm) : -1;
+    }
+
+    @Override
+    public long getChildrenCount()
+    {
+        return this.data.getChildren(this.term).length;
+    }
+
+    @Override
+    public long getDescendantsCount()
+    {
+        return this.data.getDescendants(this.term).length;
+    }
+
+    @Override
+    public Object get(String name)
+    {
+        return this.data.get(this.term, name);
+    }
+
+    @Override
+    public OntologyService getOntology()
+    {
+        return this.data.getOntology();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + this.getId() + "] " + this.getName();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return getId().hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || !(obj instanceof OntologyTerm)) {
+            return false;
+        }
+        return StringUtils.equals(getId(), ((OntologyTerm) obj).getId());
+    }
+
+    /** An immutable set of terms from the same in-memory ontology, backed by a sorted array of term numbers. */
+    private final class TermSet extends AbstractSet<OntologyTerm>
+    {
+        /** The sorted term numbers. */
+        private final int[] terms;
+
+        /** A term number to leave out of the set, or {@code -1}. */
+        private final int excluded;
+
+        /**
+         * Simple constructor.
+         *
+         * @param terms the sorted term numbers
+         * @param excluded a term number to leave out of the set, or {@code -1}
+         */
+        TermSet(int[] terms, int excluded)
+        {
+            this.terms = terms;
+            this.excluded = excluded;
+        }
+
+        @Override
+        public int size()
+        {
+            return this.excluded >= 0 ? this.terms.length - 1 : this.terms.length;
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            String id;
+            if (o instanceof String) {
+                id = (String) o;
+            } else if (o instanceof OntologyTerm) {
+                id = ((OntologyTerm) o).getId();
+            } else {
+                return false;
+            }
+            int number = InMemoryOntologyTerm.this.data.getTermNumber(id);
+            // Alternative identifiers are resolved by getTermNumber, but they aren't members of the set
+            return number >= 0 && number != this.excluded && Arrays.binarySearch(this.terms, number) >= 0
+                && id.equals(InMemoryOntologyTerm.this.data.getId(number));
+        }
+
+        @Override
+        public Iterator<OntologyTerm> iterator()
+        {
+            return new Iterator<OntologyTerm>()
+            {
+                private int next = skipExcluded(0);
+
+                @Override
+                public boolean hasNext()
+                {
+                    return this.next < TermSet.this.terms.length;
+                }
+
+                @Override
+                public OntologyTerm next()
+                {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    OntologyTerm result = InMemoryOntologyTerm.this.data.getTerm(TermSet.this.terms[this.next]);
+                    this.next = skipExcluded(this.next + 1);
+                    return result;
+                }
+
+                @Override
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        private int skipExcluded(int position)
+        {
+            return position < this.terms.length && this.terms[position] == this.excluded ? position + 1 : position;
+        }
+    }
+}
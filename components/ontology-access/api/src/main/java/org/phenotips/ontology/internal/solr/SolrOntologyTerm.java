@@ -29,6 +29,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.solr.common.SolrDocument;
@@ -41,8 +42,25 @@
  */
 public class SolrOntologyTerm implements OntologyTerm
 {
+    private static final String PARENT = "is_a";
+
     private static final String TERM_CATEGORY = "term_category";
 
+    /** The field holding the number of children, precomputed at index time. */
+    private static final String CHILD_COUNT = "child_count";
+
+    /** The field holding the number of descendants, precomputed at index time. */
+    private static final String DESCENDANT_COUNT = "descendant_count";
+
+    /** The field holding the precomputed distance to each ancestor, as {@code <ancestor id> <distance>}. */
+    private static final String ANCESTOR_DISTANCE = "ancestor_distance";
+
+    /**
+     * The field holding the precomputed depth of the term; a zero depth tells that a root term, which doesn't have any
+     * {@link #ANCESTOR_DISTANCE ancestor distance}, needs no walking either.
+     */
+    private static final String DEPTH = "depth";
+
     /** The Solr document representing this term. */
     private SolrDocument doc;
 
@@ -74,6 +92,17 @@ public class SolrOntologyTerm implements OntologyTerm
      */
     private Set<OntologyTerm> ancestorsAndSelf;
 
+    /**
+     * The identifiers of this term and its ancestors, sorted, parsed from the precomputed ancestor distances; {@code
+     * null} until needed, or if the index doesn't contain the distances.
+     *
+     * @see #getDistanceTo(OntologyTerm)
+     */
+    private volatile String[] lineage;
+
+    /** The length of the shortest path from this term to each of the {@link #lineage ancestors}. */
+    private volatile int[] lineageDistances;
+
     /**
      * Constructor that provides the backing {@link #doc Solr document} and the {@link #ontology owner ontology}.
      * 
@@ -86,7 +115,7 @@ public SolrOntologyTerm(SolrDocument doc, OntologyService ontology)
         this.ontology = ontology;
         if (doc != null) {
             this.removeSelfDuplicate();
-            this.parents = new LazySolrTermSet(doc.getFieldValues("is_a"), ontology);
+            this.parents = new LazySolrTermSet(doc.getFieldValues(PARENT), ontology);
             this.ancestors = new LazySolrTermSet(doc.getFieldValues(TERM_CATEGORY), ontology);
             Collection<Object> termSet = new HashSet<Object>();
             termSet.add(this.getId());
@@ -148,6 +177,19 @@ public Set<OntologyTerm> getAncestorsAndSelf()
         return this.ancestorsAndSelf != null ? this.ancestorsAndSelf : Collections.<OntologyTerm>emptySet();
     }
 
+    @Override
+    public long getChildrenCount()
+    {
+        return getCount(CHILD_COUNT, PARENT, 0);
+    }
+
+    @Override
+    public long getDescendantsCount()
+    {
+        // The term itself is also listed in its categories
+        return getCount(DESCENDANT_COUNT, TERM_CATEGORY, 1);
+    }
+
     @Override
     public Object get(String name)
     {
@@ -175,6 +217,9 @@ public long getDistanceTo(final OntologyTerm other)
         if (this.equals(other)) {
             return 0;
         }
+        if (other instanceof SolrOntologyTerm && this.loadLineage() && ((SolrOntologyTerm) other).loadLineage()) {
+            return getDistanceTo((SolrOntologyTerm) other);
+        }
 
         long distance = Integer.MAX_VALUE;
 
@@ -188,13 +233,87 @@ public long getDistanceTo(final OntologyTerm other)
         Set<OntologyTerm> otherCrtLevel = new HashSet<OntologyTerm>();
         otherCrtLevel.add(other);
 
-        for (int l = 1; l <= distance && !myCrtLevel.isEmpty() && !otherCrtLevel.isEmpty(); ++l) {
+        for (int l = 1; l <= distance && (!myCrtLevel.isEmpty() || !otherCrtLevel.isEmpty()); ++l) {
             distance = Math.min(distance, processAncestorsAtDistance(l, myCrtLevel, myLevelMap, otherLevelMap));
             distance = Math.min(distance, processAncestorsAtDistance(l, otherCrtLevel, otherLevelMap, myLevelMap));
         }
         return distance == Integer.MAX_VALUE ? -1 : distance;
     }
 
+    /**
+     * Compute the distance between two terms from their precomputed ancestor distances, by merging the two sorted
+     * lists of ancestors and looking for the common ancestor with the shortest total path.
+     *
+     * @param other the other term, whose {@link #lineage} is loaded
+     * @return the length of the shortest path between the two terms going through a common ancestor, or {@code -1} if
+     *         they don't have a common ancestor
+     */
+    private long getDistanceTo(SolrOntologyTerm other)
+    {
+        String[] myAncestors = this.lineage;
+        int[] myDistances = this.lineageDistances;
+        String[] otherAncestors = other.lineage;
+        int[] otherDistances = other.lineageDistances;
+        long distance = Long.MAX_VALUE;
+        for (int i = 0, j = 0; i < myAncestors.length && j < otherAncestors.length;) {
+            int comparison = myAncestors[i].compareTo(otherAncestors[j]);
+            if (comparison < 0) {
+                ++i;
+            } else if (comparison > 0) {
+                ++j;
+            } else {
+                distance = Math.min(distance, myDistances[i++] + otherDistances[j++]);
+            }
+        }
+        return distance == Long.MAX_VALUE ? -1 : distance;
+    }
+
+    /**
+     * Parse the precomputed ancestor distances of this term, if not already done.
+     *
+     * @return {@code true} if the distances are available, {@code false} if the index doesn't contain them, for example
+     *         when it was built by an older version
+     */
+    private boolean loadLineage()
+    {
+        if (this.lineage != null) {
+            return true;
+        }
+        if (this.doc == null) {
+            return false;
+        }
+        Collection<Object> values = this.doc.getFieldValues(ANCESTOR_DISTANCE);
+        if (values == null) {
+            // The depth may be indexed without the distances, so only a root term can do without them
+            if (!"0".equals(String.valueOf(this.doc.getFieldValue(DEPTH)))) {
+                return false;
+            }
+            values = Collections.emptySet();
+        }
+        Map<String, Integer> distances = new TreeMap<String, Integer>();
+        distances.put(getId(), 0);
+        for (Object value : values) {
+            String ancestor = String.valueOf(value);
+            try {
+                distances.put(StringUtils.substringBefore(ancestor, " "),
+                    Integer.valueOf(StringUtils.substringAfter(ancestor, " ")));
+            } catch (NumberFormatException ex) {
+                return false;
+            }
+        }
+        String[] ancestors = new String[distances.size()];
+        int[] ancestorDistances = new int[distances.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : distances.entrySet()) {
+            ancestors[i] = entry.getKey();
+            ancestorDistances[i++] = entry.getValue();
+        }
+        // Publish the distances before the identifiers, which are checked first
+        this.lineageDistances = ancestorDistances;
+        this.lineage = ancestors;
+        return true;
+    }
+
     private long processAncestorsAtDistance(int localDistance, Set<OntologyTerm> sourceUnprocessedAncestors,
         Map<String, Integer> sourceDistanceMap, Map<String, Integer> targetDistanceMap)
     {
@@ -236,4 +355,28 @@ public boolean equals(Object obj)
         }
         return StringUtils.equals(getId(), ((OntologyTerm) obj).getId());
     }
+
+    /**
+     * Read a precomputed count from the indexed document, or count the matching terms in the ontology for indexes built
+     * before the counts were precomputed.
+     *
+     * @param countField the field holding the precomputed count
+     * @param relationField the field linking other terms to this one, used for querying the ontology
+     * @param self {@code 1} if this term itself also matches the query, {@code 0} otherwise
+     * @return the count, or {@code 0} if it can't be determined
+     */
+    private long getCount(String countField, String relationField, int self)
+    {
+        Object count = this.doc != null ? this.doc.getFieldValue(countField) : null;
+        if (count instanceof Number) {
+            return ((Number) count).longValue();
+        } else if (count != null) {
+            return Long.parseLong(String.valueOf(count));
+        } else if (this.ontology == null || this.getId() == null) {
+            return 0;
+        }
+        Map<String, String> query = new HashMap<String, String>();
+        query.put(relationField, this.getId());
+        return Math.max(this.ontology.count(query) - self, 0);
+    }
 }
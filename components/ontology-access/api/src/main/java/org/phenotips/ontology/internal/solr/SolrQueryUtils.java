@@ -155,7 +155,10 @@ public static SolrParams applySpellcheckSuggestion(SolrParams originalParams, St
      * 
      * @param params the parameters to serialize
      * @return a String serialization of the parameters
+     * @deprecated terms are cached by their identifier in an {@link org.phenotips.ontology.OntologyTermCache}, so
+     *             queries no longer need to be serialized into cache keys
      */
+    @Deprecated
     public static String getCacheKey(SolrParams params)
     {
         StringBuilder out = new StringBuilder();
@@ -0,0 +1,189 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.ontology;
+
+import org.phenotips.ontology.internal.solr.SolrOntologyTerm;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheEntry;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link OntologyTermCache} statistics.
+ *
+ * @version $Id$
+ * @since 1.0RC1
+ */
+public class OntologyTermCacheTest
+{
+    private static final OntologyTerm TERM = new SolrOntologyTerm(null, null);
+
+    private SimpleCache storage;
+
+    private OntologyTermCache cache;
+
+    @Before
+    public void setUp()
+    {
+        this.storage = new SimpleCache();
+        this.cache = new OntologyTermCache(this.storage);
+    }
+
+    @Test
+    public void testHitsAndMisses()
+    {
+        Assert.assertEquals(0, this.cache.getHitRate(), 0);
+        Assert.assertNull(this.cache.get("HP:0000001"));
+        this.cache.set("HP:0000001", TERM);
+        Assert.assertSame(TERM, this.cache.get("HP:0000001"));
+        Assert.assertSame(TERM, this.cache.get("HP:0000001"));
+        Assert.assertNull(this.cache.get("HP:0000002"));
+        Assert.assertEquals(2, this.cache.getHits());
+        Assert.assertEquals(2, this.cache.getMisses());
+        Assert.assertEquals(0.5, this.cache.getHitRate(), 0);
+
+        this.cache.resetStatistics();
+        Assert.assertEquals(0, this.cache.getHits());
+        Assert.assertEquals(0, this.cache.getMisses());
+    }
+
+    @Test
+    public void testEvictionsExcludeExplicitRemovals()
+    {
+        this.cache.set("HP:0000001", TERM);
+        this.cache.set("HP:0000002", TERM);
+        this.cache.set("HP:0000003", TERM);
+        this.cache.remove("HP:0000001");
+        Assert.assertEquals(0, this.cache.getEvictions());
+
+        this.storage.evict("HP:0000002");
+        Assert.assertEquals(1, this.cache.getEvictions());
+        Assert.assertNull(this.cache.get("HP:0000002"));
+
+        this.cache.removeAll();
+        Assert.assertEquals(1, this.cache.getEvictions());
+        Assert.assertNull(this.cache.get("HP:0000003"));
+    }
+
+    /** A cache which notifies its listeners of every removal, like the Infinispan based XWiki cache does. */
+    private static final class SimpleCache implements Cache<OntologyTerm>
+    {
+        private final Map<String, OntologyTerm> entries = new HashMap<String, OntologyTerm>();
+
+        private final List<CacheEntryListener<OntologyTerm>> listeners =
+            new ArrayList<CacheEntryListener<OntologyTerm>>();
+
+        /** Remove an entry, as if the cache were full. */
+        void evict(String key)
+        {
+            remove(key);
+        }
+
+        @Override
+        public void set(String key, OntologyTerm obj)
+        {
+            this.entries.put(key, obj);
+        }
+
+        @Override
+        public OntologyTerm get(String key)
+        {
+            return this.entries.get(key);
+        }
+
+        @Override
+        public void remove(final String key)
+        {
+            final OntologyTerm value = this.entries.remove(key);
+            CacheEntryEvent<OntologyTerm> event = new CacheEntryEvent<OntologyTerm>()
+            {
+                @Override
+                public Cache<OntologyTerm> getCache()
+                {
+                    return SimpleCache.this;
+                }
+
+                @Override
+                public CacheEntry<OntologyTerm> getEntry()
+                {
+                    return new CacheEntry<OntologyTerm>()
+                    {
+                        @Override
+                        public Cache<OntologyTerm> getCache()
+                        {
+                            return SimpleCache.this;
+                        }
+
+                        @Override
+                        public String getKey()
+                        {
+                            return key;
+                        }
+
+                        @Override
+                        public OntologyTerm getValue()
+                        {
+                            return value;
+                        }
+                    };
+                }
+            };
+            for (CacheEntryListener<OntologyTerm> listener : this.listeners) {
+                listener.cacheEntryRemoved(event);
+            }
+        }
+
+        @Override
+        public void removeAll()
+        {
+            for (String key : new ArrayList<String>(this.entries.keySet())) {
+                remove(key);
+            }
+        }
+
+        @Override
+        public void dispose()
+        {
+            this.entries.clear();
+        }
+
+        @Override
+        public void addCacheEntryListener(CacheEntryListener<OntologyTerm> listener)
+        {
+            this.listeners.add(listener);
+        }
+
+        @Override
+        public void removeCacheEntryListener(CacheEntryListener<OntologyTerm> listener)
+        {
+            this.listeners.remove(listener);
+        }
+    }
+}
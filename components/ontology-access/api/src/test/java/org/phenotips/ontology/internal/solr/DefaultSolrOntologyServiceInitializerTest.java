@@ -19,6 +19,11 @@
  */
 package org.phenotips.ontology.internal.solr;
 
+import org.phenotips.ontology.OntologyTerm;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
@@ -27,6 +32,8 @@
 import org.junit.Rule;
 import org.junit.Test;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 /**
@@ -51,4 +58,21 @@ public void testGetSolrLocation() throws ComponentLookupException
         String location = initializer.getSolrLocation();
         Assert.assertTrue(location.equalsIgnoreCase("http://localhost:8080/solr/"));
     }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testShadowServerIsNullWhenTheCoreCannotBeChecked() throws Exception
+    {
+        ConfigurationSource configuration = mocker
+            .getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(configuration.getProperty("solr.remote.url", String.class))
+            .thenReturn("http://localhost:1/solr/wiki/");
+        CacheManager cacheManager = mocker.getInstance(CacheManager.class);
+        Cache<OntologyTerm> cache = mock(Cache.class);
+        when(cacheManager.<OntologyTerm>createNewLocalCache(any(CacheConfiguration.class))).thenReturn(cache);
+        DefaultSolrOntologyServiceInitializer initializer = mocker.getComponentUnderTest();
+        initializer.initialize("hpo");
+        Assert.assertNotNull(initializer.getServer());
+        Assert.assertNull(initializer.getShadowServer());
+    }
 }
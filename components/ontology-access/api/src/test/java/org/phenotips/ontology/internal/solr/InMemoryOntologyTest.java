@@ -0,0 +1,225 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.ontology.internal.solr;
+
+import org.phenotips.ontology.OntologyTerm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.solr.common.SolrDocument;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link InMemoryOntology} structures and the {@link InMemoryOntologyTerm terms} backed by them.
+ *
+ * @version $Id$
+ * @since 1.0RC1
+ */
+public class InMemoryOntologyTest
+{
+    private static final Map<String, String> NAMES = new HashMap<String, String>();
+
+    private InMemoryOntology ontology;
+
+    static {
+        String[] names = new String[] { "All", "Second", "Third", "Fourth", "Fifth", "Sixth" };
+        for (int i = 0; i < names.length; ++i) {
+            NAMES.put("HP:000000" + (i + 1), names[i]);
+        }
+    }
+
+    /**
+     * Builds a small ontology with a diamond: HP:0000004 has both HP:0000002 and HP:0000003 as parents.
+     */
+    @Before
+    public void setUp()
+    {
+        List<SolrDocument> docs = new ArrayList<SolrDocument>();
+        SolrDocument header = new SolrDocument();
+        header.addField("id", "HEADER_INFO");
+        header.addField("version", "2013-11-20");
+        docs.add(header);
+        docs.add(term("HP:0000006", "HP:0000003"));
+        docs.add(term("HP:0000005", "HP:0000004"));
+        SolrDocument fourth = term("HP:0000004", "HP:0000002", "HP:0000003");
+        fourth.addField("alt_id", "HP:0000040");
+        fourth.addField("synonym", "Quatrieme");
+        fourth.addField("synonym", "Vierte");
+        fourth.addField("def", "The fourth term.");
+        docs.add(fourth);
+        docs.add(term("HP:0000003", "HP:0000001"));
+        docs.add(term("HP:0000002", "HP:0000001"));
+        docs.add(term("HP:0000001"));
+        this.ontology = new InMemoryOntology(docs, null);
+    }
+
+    @Test
+    public void testGetTerm()
+    {
+        Assert.assertEquals(7, this.ontology.size());
+        OntologyTerm term = this.ontology.getTerm("HP:0000004");
+        Assert.assertEquals("HP:0000004", term.getId());
+        Assert.assertEquals("Fourth", term.getName());
+        Assert.assertEquals("The fourth term.", term.getDescription());
+        Assert.assertEquals(Arrays.asList("Quatrieme", "Vierte"), term.get("synonym"));
+        Assert.assertEquals(Arrays.asList("HP:0000002 ! Second", "HP:0000003 ! Third"), term.get("is_a"));
+        Assert.assertEquals(Arrays.asList("HP:0000002", "HP:0000003"), term.get("term_category"));
+        Assert.assertSame(term, this.ontology.getTerm("HP:0000004"));
+        Assert.assertEquals("[HP:0000004] Fourth", term.toString());
+    }
+
+    @Test
+    public void testGetTermByAlternativeId()
+    {
+        Assert.assertSame(this.ontology.getTerm("HP:0000004"), this.ontology.getTerm("HP:0000040"));
+    }
+
+    @Test
+    public void testGetUnknownTerm()
+    {
+        Assert.assertNull(this.ontology.getTerm("HP:0000099"));
+        Assert.assertNull(this.ontology.getTerm(null));
+    }
+
+    @Test
+    public void testParentsAndAncestors()
+    {
+        OntologyTerm term = this.ontology.getTerm("HP:0000005");
+        Assert.assertEquals(ids("HP:0000004"), getIds(term.getParents()));
+        Assert.assertEquals(ids("HP:0000004", "HP:0000003", "HP:0000002", "HP:0000001"),
+            getIds(term.getAncestors()));
+        Assert.assertEquals(ids("HP:0000005", "HP:0000004", "HP:0000003", "HP:0000002", "HP:0000001"),
+            getIds(term.getAncestorsAndSelf()));
+        Assert.assertTrue(term.getAncestors().contains("HP:0000001"));
+        Assert.assertTrue(term.getAncestors().contains(this.ontology.getTerm("HP:0000002")));
+        Assert.assertFalse(term.getAncestors().contains("HP:0000005"));
+        Assert.assertFalse(term.getAncestors().contains("HP:0000040"));
+        Assert.assertTrue(term.getAncestorsAndSelf().contains("HP:0000005"));
+        Assert.assertEquals(4, term.getAncestors().size());
+        Assert.assertTrue(this.ontology.getTerm("HP:0000001").getParents().isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAncestorsAreImmutable()
+    {
+        this.ontology.getTerm("HP:0000005").getAncestors().clear();
+    }
+
+    @Test
+    public void testGetDistance()
+    {
+        Assert.assertEquals(0, distance("HP:0000004", "HP:0000004"));
+        Assert.assertEquals(1, distance("HP:0000004", "HP:0000002"));
+        Assert.assertEquals(2, distance("HP:0000002", "HP:0000003"));
+        Assert.assertEquals(3, distance("HP:0000005", "HP:0000001"));
+        Assert.assertEquals(3, distance("HP:0000005", "HP:0000006"));
+        Assert.assertEquals(3, distance("HP:0000006", "HP:0000005"));
+        Assert.assertEquals(-1, distance("HP:0000005", "HEADER_INFO"));
+        Assert.assertEquals(-1, this.ontology.getTerm("HP:0000005").getDistanceTo(null));
+    }
+
+    @Test
+    public void testCountDescendants()
+    {
+        Assert.assertEquals(2, this.ontology.count(Collections.singletonMap("is_a", "HP:0000001")));
+        Assert.assertEquals(0, this.ontology.count(Collections.singletonMap("is_a", "HP:0000005")));
+        Assert.assertEquals(4, this.ontology.count(Collections.singletonMap("term_category", "HP:0000003")));
+        Assert.assertEquals(2,
+            this.ontology.count(Collections.singletonMap("is_a", Arrays.asList("HP:0000002", "HP:0000003"))));
+
+        Map<String, Object> query = new HashMap<String, Object>();
+        query.put("term_category", "HP:0000002");
+        query.put("is_a", "HP:0000004");
+        Assert.assertEquals(1, this.ontology.count(query));
+    }
+
+    @Test
+    public void testChildrenAndDescendantsCounts()
+    {
+        Assert.assertEquals(2, this.ontology.getTerm("HP:0000001").getChildrenCount());
+        Assert.assertEquals(5, this.ontology.getTerm("HP:0000001").getDescendantsCount());
+        Assert.assertEquals(2, this.ontology.getTerm("HP:0000003").getChildrenCount());
+        Assert.assertEquals(3, this.ontology.getTerm("HP:0000003").getDescendantsCount());
+        Assert.assertEquals(0, this.ontology.getTerm("HP:0000005").getChildrenCount());
+        Assert.assertEquals(0, this.ontology.getTerm("HP:0000005").getDescendantsCount());
+    }
+
+    @Test
+    public void testUnsupportedQueries()
+    {
+        Assert.assertEquals(-1, this.ontology.count(Collections.singletonMap("name", "Fourth")));
+        Assert.assertEquals(-1, this.ontology.count(Collections.singletonMap("id", "HP:*")));
+        Assert.assertNull(this.ontology.search(Collections.singletonMap("is_a", "HP:0000001"),
+            Collections.singletonMap("sort", "nameSort asc")));
+    }
+
+    @Test
+    public void testSearch()
+    {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("start", "1");
+        options.put("rows", "2");
+        Set<OntologyTerm> result =
+            this.ontology.search(Collections.singletonMap("term_category", "HP:0000003"), options);
+        Assert.assertEquals(Arrays.asList("HP:0000004", "HP:0000005"), new ArrayList<String>(getIds(result)));
+    }
+
+    private long distance(String from, String to)
+    {
+        return this.ontology.getTerm(from).getDistanceTo(this.ontology.getTerm(to));
+    }
+
+    private static SolrDocument term(String id, String... parents)
+    {
+        SolrDocument doc = new SolrDocument();
+        doc.addField("id", id);
+        doc.addField("name", NAMES.get(id));
+        doc.addField("term_category", id);
+        for (String parent : parents) {
+            doc.addField("is_a", parent + " ! " + NAMES.get(parent));
+            doc.addField("term_category", parent);
+        }
+        return doc;
+    }
+
+    private static Set<String> ids(String... ids)
+    {
+        return new HashSet<String>(Arrays.asList(ids));
+    }
+
+    private static Set<String> getIds(Set<OntologyTerm> terms)
+    {
+        Set<String> result = new LinkedHashSet<String>();
+        for (OntologyTerm term : terms) {
+            result.add(term.getId());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.ontology.internal.solr;
+
+import org.phenotips.ontology.OntologyService;
+import org.phenotips.ontology.OntologyTerm;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.apache.solr.common.SolrDocument;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.mockito.Matchers.any;
+
+/**
+ * Tests for the {@link SolrOntologyTerm} properties precomputed at index time.
+ *
+ * @version $Id$
+ * @since 1.0RC1
+ */
+public class SolrOntologyTermTest
+{
+    @Test
+    public void testDistanceFromAncestorDistances()
+    {
+        // HP:0000005 -> HP:0000004 -> (HP:0000002, HP:0000003) -> HP:0000001, and HP:0000006 -> HP:0000003
+        SolrOntologyTerm fifth = term("HP:0000005", "HP:0000004 1", "HP:0000003 2", "HP:0000002 2", "HP:0000001 3");
+        SolrOntologyTerm sixth = term("HP:0000006", "HP:0000003 1", "HP:0000001 2");
+        SolrOntologyTerm second = term("HP:0000002", "HP:0000001 1");
+        SolrOntologyTerm root = term("HP:0000001");
+
+        Assert.assertEquals(3, fifth.getDistanceTo(sixth));
+        Assert.assertEquals(3, sixth.getDistanceTo(fifth));
+        Assert.assertEquals(2, fifth.getDistanceTo(second));
+        Assert.assertEquals(3, fifth.getDistanceTo(root));
+        Assert.assertEquals(3, second.getDistanceTo(sixth));
+        Assert.assertEquals(0, fifth.getDistanceTo(fifth));
+        Assert.assertEquals(-1, fifth.getDistanceTo(null));
+    }
+
+    @Test
+    public void testDistanceWithoutCommonAncestor()
+    {
+        SolrOntologyTerm first = term("HP:0000002", "HP:0000001 1");
+        SolrOntologyTerm other = term("HP:0000012", "HP:0000011 1");
+        Assert.assertEquals(-1, first.getDistanceTo(other));
+    }
+
+    @Test
+    public void testDepthWithoutAncestorDistancesWalksTheParents()
+    {
+        // Indexed with only the depth selected: the distances must be computed by walking the parents
+        SolrDocument rootDoc = new SolrDocument();
+        rootDoc.addField("id", "HP:0000001");
+        rootDoc.addField("depth", 0);
+        OntologyTerm root = new SolrOntologyTerm(rootDoc, null);
+        OntologyService ontology = Mockito.mock(OntologyService.class);
+        Mockito.when(ontology.getTerms(any(Collection.class))).thenReturn(Collections.singleton(root));
+
+        SolrDocument childDoc = new SolrDocument();
+        childDoc.addField("id", "HP:0000002");
+        childDoc.addField("is_a", "HP:0000001");
+        childDoc.addField("depth", 1);
+        SolrOntologyTerm child = new SolrOntologyTerm(childDoc, ontology);
+
+        Assert.assertEquals(1, child.getDistanceTo(root));
+        Assert.assertEquals(1, root.getDistanceTo(child));
+    }
+
+    @Test
+    public void testPrecomputedCounts()
+    {
+        SolrDocument doc = new SolrDocument();
+        doc.addField("id", "HP:0000003");
+        doc.addField("child_count", 2);
+        doc.addField("descendant_count", "3");
+        SolrOntologyTerm term = new SolrOntologyTerm(doc, null);
+        Assert.assertEquals(2, term.getChildrenCount());
+        Assert.assertEquals(3, term.getDescendantsCount());
+    }
+
+    private static SolrOntologyTerm term(String id, String... ancestorDistances)
+    {
+        SolrDocument doc = new SolrDocument();
+        doc.addField("id", id);
+        int depth = 0;
+        for (String ancestor : ancestorDistances) {
+            doc.addField("ancestor_distance", ancestor);
+            depth = Math.max(depth, Integer.parseInt(ancestor.substring(ancestor.indexOf(' ') + 1)));
+        }
+        doc.addField("depth", depth);
+        return new SolrOntologyTerm(doc, null);
+    }
+}
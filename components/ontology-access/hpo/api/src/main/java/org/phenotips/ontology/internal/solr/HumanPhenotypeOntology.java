@@ -19,15 +19,15 @@
  */
 package org.phenotips.ontology.internal.solr;
 
-import org.phenotips.obo2solr.ParameterPreparer;
-import org.phenotips.obo2solr.SolrUpdateGenerator;
-import org.phenotips.obo2solr.TermData;
+import org.phenotips.obo2solr.IndexDelta;
+import org.phenotips.obo2solr.SolrIndexer;
 import org.phenotips.ontology.OntologyTerm;
 
 import org.xwiki.component.annotation.Component;
 
 import java.io.IOException;
-import java.util.Collection;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -38,11 +38,11 @@
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
-import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrException;
 
 /**
  * Provides access to the Human Phenotype Ontology (HPO). The ontology prefix is {@code HP}.
@@ -78,12 +78,15 @@ public String getDefaultOntologyLocation()
     public OntologyTerm getTerm(String id)
     {
         OntologyTerm result = super.getTerm(id);
-        if (result == null) {
+        // The in-memory ontology already knows the alternative identifiers
+        if (result == null && getInMemoryOntology() == null) {
             Map<String, String> queryParameters = new HashMap<String, String>();
             queryParameters.put(ALTERNATIVE_ID_FIELD_NAME, id);
             Set<OntologyTerm> results = search(queryParameters);
             if (results != null && !results.isEmpty()) {
-                result = search(queryParameters).iterator().next();
+                result = results.iterator().next();
+                // Remember the alternative identifier, so that the next lookups are served by the cache
+                externalServicesAccess.getCache().set(id, result);
             }
         }
         return result;
@@ -99,11 +102,80 @@ public Set<String> getAliases()
         return result;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If a shadow core is available, the ontology is indexed there, and the live core keeps answering requests with the
+     * previous version until the new index is complete and valid; only then the two cores are swapped, and the cached
+     * terms are discarded. Otherwise the live index is cleared and rebuilt in place.
+     * </p>
+     */
+    @Override
+    public synchronized int reindex(String ontologyUrl)
+    {
+        SolrServer shadow = externalServicesAccess.getShadowServer();
+        if (shadow == null) {
+            this.clear();
+            return this.index(ontologyUrl);
+        }
+        URL url = getOntologyUrl(ontologyUrl);
+        if (url == null) {
+            return 2;
+        }
+        try {
+            shadow.deleteByQuery("*:*");
+            int count = new SolrIndexer(shadow, new HashMap<String, Double>()).index(url);
+            if (!isValidIndex(shadow, count)) {
+                return 1;
+            }
+            externalServicesAccess.swapShadowServer();
+            externalServicesAccess.getCache().removeAll();
+            resetInMemoryOntology();
+            return 0;
+        } catch (SolrServerException ex) {
+            this.logger.warn("Failed to reindex ontology: {}", ex.getMessage());
+        } catch (SolrException ex) {
+            this.logger.warn("The Solr server rejected the reindexing of the ontology: {}", ex.getMessage());
+        } catch (IOException ex) {
+            this.logger.warn("Failed to read the ontology or to communicate with the Solr server while indexing it: {}",
+                ex.getMessage());
+        }
+        return 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The live index is updated in place, without the validation done by {@link #reindex(String)} on a shadow core, and
+     * the changes may become visible progressively, as the server commits them. If the update fails midway, the index
+     * keeps declaring the previous version, and running the update again completes it. The cached terms are discarded
+     * only if something changed.
+     * </p>
+     */
     @Override
-    public int reindex(String ontologyUrl)
+    public synchronized int update(String ontologyUrl)
     {
-        this.clear();
-        return this.index(ontologyUrl);
+        URL url = getOntologyUrl(ontologyUrl);
+        if (url == null) {
+            return 2;
+        }
+        try {
+            IndexDelta delta = new SolrIndexer(externalServicesAccess.getServer(), new HashMap<String, Double>())
+                .update(url);
+            if (!delta.isEmpty()) {
+                externalServicesAccess.getCache().removeAll();
+                resetInMemoryOntology();
+            }
+            return 0;
+        } catch (SolrServerException ex) {
+            this.logger.warn("Failed to update ontology: {}", ex.getMessage());
+        } catch (SolrException ex) {
+            this.logger.warn("The Solr server rejected the update of the ontology: {}", ex.getMessage());
+        } catch (IOException ex) {
+            this.logger.warn("Failed to read the ontology or to communicate with the Solr server while updating it: {}",
+                ex.getMessage());
+        }
+        return 1;
     }
 
     /**
@@ -115,34 +187,20 @@ public int reindex(String ontologyUrl)
      */
     protected int index(String ontologyUrl)
     {
-        String realOntologyUrl = StringUtils.defaultIfBlank(ontologyUrl, getDefaultOntologyLocation());
-
-        SolrUpdateGenerator generator = new SolrUpdateGenerator();
-        Map<String, Double> fieldSelection = new HashMap<String, Double>();
-        Map<String, TermData> data = generator.transform(realOntologyUrl, fieldSelection);
-        if (data == null) {
+        URL url = getOntologyUrl(ontologyUrl);
+        if (url == null) {
             return 2;
         }
-        Collection<SolrInputDocument> allTerms = new HashSet<SolrInputDocument>();
-        for (Map.Entry<String, TermData> item : data.entrySet()) {
-            SolrInputDocument doc = new SolrInputDocument();
-            for (Map.Entry<String, Collection<String>> property : item.getValue().entrySet()) {
-                String name = property.getKey();
-                for (String value : property.getValue()) {
-                    doc.addField(name, value, ParameterPreparer.DEFAULT_BOOST.floatValue());
-                }
-            }
-            allTerms.add(doc);
-        }
         try {
-            externalServicesAccess.getServer().add(allTerms);
-            externalServicesAccess.getServer().commit();
+            new SolrIndexer(externalServicesAccess.getServer(), new HashMap<String, Double>()).index(url);
             externalServicesAccess.getCache().removeAll();
+            resetInMemoryOntology();
             return 0;
         } catch (SolrServerException ex) {
             this.logger.warn("Failed to index ontology: {}", ex.getMessage());
         } catch (IOException ex) {
-            this.logger.warn("Failed to communicate with the Solr server while indexing ontology: {}", ex.getMessage());
+            this.logger.warn("Failed to read the ontology or to communicate with the Solr server while indexing it: {}",
+                ex.getMessage());
         }
         return 1;
     }
@@ -169,24 +227,62 @@ protected int clear()
     @Override
     public String getVersion()
     {
-        QueryResponse response;
-        SolrQuery query = new SolrQuery();
-        SolrDocumentList termList;
-        SolrDocument firstDoc;
+        try {
+            return getVersion(externalServicesAccess.getServer());
+        } catch (SolrServerException ex) {
+            this.logger.warn("Failed to query ontology version {}", ex.getMessage());
+        }
+        return null;
+    }
 
+    private String getVersion(SolrServer server) throws SolrServerException
+    {
+        SolrQuery query = new SolrQuery();
         query.setQuery("version:*");
         query.set("rows", "1");
+        SolrDocumentList termList = server.query(query).getResults();
+        if (!termList.isEmpty()) {
+            SolrDocument firstDoc = termList.get(0);
+            return firstDoc.getFieldValue(VERSION_FIELD_NAME).toString();
+        }
+        return null;
+    }
+
+    private URL getOntologyUrl(String ontologyUrl)
+    {
         try {
-            response = externalServicesAccess.getServer().query(query);
-            termList = response.getResults();
+            return new URL(StringUtils.defaultIfBlank(ontologyUrl, getDefaultOntologyLocation()));
+        } catch (MalformedURLException ex) {
+            return null;
+        }
+    }
 
-            if (!termList.isEmpty()) {
-                firstDoc = termList.get(0);
-                return firstDoc.getFieldValue(VERSION_FIELD_NAME).toString();
-            }
-        } catch (SolrServerException ex) {
-            this.logger.warn("Failed to query ontology version {}", ex.getMessage());
+    /**
+     * Check that a newly built index is complete before switching to it: it must hold all the indexed documents, at
+     * least half as many as the live index, in case the ontology was truncated, and declare its version.
+     *
+     * @param shadow the server holding the new index
+     * @param expectedCount the number of documents sent to the new index
+     * @return {@code true} if the new index can replace the live one, {@code false} otherwise
+     * @throws SolrServerException if querying the servers fails
+     */
+    private boolean isValidIndex(SolrServer shadow, int expectedCount) throws SolrServerException
+    {
+        SolrQuery query = new SolrQuery("*:*");
+        query.setRows(0);
+        long count = shadow.query(query).getResults().getNumFound();
+        long liveCount = externalServicesAccess.getServer().query(query).getResults().getNumFound();
+        if (count != expectedCount || count < liveCount / 2) {
+            this.logger.warn("The new ontology index has {} terms, expected {}, and the current one has {};"
+                + " keeping the current one", count, expectedCount, liveCount);
+            return false;
         }
-        return null;
+        String version = getVersion(shadow);
+        if (StringUtils.isBlank(version)) {
+            this.logger.warn("The new ontology index doesn't declare its version, keeping the current one");
+            return false;
+        }
+        this.logger.info("Switching to version {} of the ontology, with {} terms", version, count);
+        return true;
     }
 }
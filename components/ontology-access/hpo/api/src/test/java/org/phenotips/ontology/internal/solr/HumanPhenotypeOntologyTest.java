@@ -21,14 +21,23 @@
 
 import org.phenotips.ontology.OntologyService;
 import org.phenotips.ontology.OntologyTerm;
+import org.phenotips.ontology.OntologyTermCache;
 import org.phenotips.ontology.SolrOntologyServiceInitializer;
 
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
+import org.xwiki.cache.event.CacheEntryListener;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServer;
@@ -36,11 +45,17 @@
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrException.ErrorCode;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 
 import static org.mockito.Matchers.any;
@@ -65,17 +80,18 @@
     public final MockitoComponentMockingRule<OntologyService> mocker =
         new MockitoComponentMockingRule<OntologyService>(HumanPhenotypeOntology.class);
 
+    public SolrOntologyServiceInitializer externalServicesAccess;
+
     @SuppressWarnings("unchecked")
     @Before
     public void setUpOntology()
         throws ComponentLookupException, IOException, SolrServerException, CacheException
     {
         this.cache = mock(Cache.class);
-        SolrOntologyServiceInitializer externalServicesAccess =
-            this.mocker.getInstance(SolrOntologyServiceInitializer.class);
-        when(externalServicesAccess.getCache()).thenReturn(this.cache);
+        this.externalServicesAccess = this.mocker.getInstance(SolrOntologyServiceInitializer.class);
+        when(this.externalServicesAccess.getCache()).thenReturn(new OntologyTermCache(this.cache));
         this.server = mock(SolrServer.class);
-        when(externalServicesAccess.getServer()).thenReturn(this.server);
+        when(this.externalServicesAccess.getServer()).thenReturn(this.server);
         this.ontologyService = this.mocker.getComponentUnderTest();
         this.ontologyServiceResult = this.ontologyService.reindex(null);
     }
@@ -86,7 +102,8 @@ public void testHumanPhenotypeOntologyReindex()
     {
         Mockito.verify(this.server).deleteByQuery("*:*");
         Mockito.verify(this.server).commit();
-        Mockito.verify(this.server).add(Mockito.anyCollectionOf(SolrInputDocument.class));
+        Mockito.verify(this.server, Mockito.atLeastOnce()).add(Mockito.anyCollectionOf(SolrInputDocument.class));
+        Mockito.verify(this.cache).addCacheEntryListener(any(CacheEntryListener.class));
         Mockito.verify(this.cache).removeAll();
         Mockito.verifyNoMoreInteractions(this.cache, this.server);
         Assert.assertTrue(this.ontologyServiceResult == 0);
@@ -106,6 +123,128 @@ public void testHumanPhenotypeOntologyVersion() throws SolrServerException
         Assert.assertEquals("2014:01:01", this.ontologyService.getVersion());
     }
 
+    @Test
+    public void testGetTermsFetchesOnlyMissingTerms() throws SolrServerException
+    {
+        OntologyTerm cached = mock(OntologyTerm.class);
+        when(this.cache.get("HP:0000002")).thenReturn(cached);
+        SolrDocument fetched = new SolrDocument();
+        fetched.addField("id", "HP:0000001");
+        SolrDocumentList results = new SolrDocumentList();
+        results.add(fetched);
+        QueryResponse response = mock(QueryResponse.class);
+        when(response.getResults()).thenReturn(results);
+        when(this.server.query(any(SolrParams.class))).thenReturn(response);
+
+        List<OntologyTerm> terms = new ArrayList<OntologyTerm>(
+            this.ontologyService.getTerms(Arrays.asList("HP:0000001", "HP:0000002", "HP:0000003")));
+        Assert.assertEquals(2, terms.size());
+        Assert.assertEquals("HP:0000001", terms.get(0).getId());
+        Assert.assertSame(cached, terms.get(1));
+
+        ArgumentCaptor<SolrParams> params = ArgumentCaptor.forClass(SolrParams.class);
+        Mockito.verify(this.server).query(params.capture());
+        Assert.assertEquals("id:(HP\\:0000001 HP\\:0000003 )", params.getValue().get(CommonParams.Q));
+        Mockito.verify(this.cache).set(Mockito.eq("HP:0000001"), Mockito.any(OntologyTerm.class));
+        Mockito.verify(this.cache).set(Mockito.eq("HP:0000003"), Mockito.any(OntologyTerm.class));
+    }
+
+    @Test
+    public void testGetTermsWithAllTermsCached() throws SolrServerException
+    {
+        OntologyTerm cached = mock(OntologyTerm.class);
+        when(this.cache.get("HP:0000001")).thenReturn(cached);
+        Assert.assertEquals(1, this.ontologyService.getTerms(Arrays.asList("HP:0000001")).size());
+        Mockito.verify(this.server, Mockito.never()).query(any(SolrParams.class));
+    }
+
+    @Test
+    public void testReindexSwapsShadowCore() throws Exception
+    {
+        SolrServer shadow = mockShadowServer(3);
+        Assert.assertEquals(0, this.ontologyService.reindex(writeOntology().toURI().toString()));
+
+        InOrder order = Mockito.inOrder(shadow, this.externalServicesAccess, this.cache);
+        order.verify(shadow).deleteByQuery("*:*");
+        order.verify(shadow, Mockito.atLeastOnce()).add(Mockito.anyCollectionOf(SolrInputDocument.class));
+        order.verify(shadow).commit();
+        order.verify(this.externalServicesAccess).swapShadowServer();
+        order.verify(this.cache).removeAll();
+        // The live core was only cleared by the reindex done without a shadow core
+        Mockito.verify(this.server, Mockito.times(1)).deleteByQuery("*:*");
+    }
+
+    @Test
+    public void testReindexKeepsLiveCoreWhenShadowIsIncomplete() throws Exception
+    {
+        mockShadowServer(1);
+        Assert.assertEquals(1, this.ontologyService.reindex(writeOntology().toURI().toString()));
+        Mockito.verify(this.externalServicesAccess, Mockito.never()).swapShadowServer();
+        // Only cleared once, by the reindex done without a shadow core
+        Mockito.verify(this.cache, Mockito.times(1)).removeAll();
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void testUpdateOfUpToDateIndexSendsNothing() throws Exception
+    {
+        String ontology = writeOntology().toURI().toString();
+        this.server = mock(SolrServer.class);
+        when(this.externalServicesAccess.getServer()).thenReturn(this.server);
+        mockLiveIndex();
+        Assert.assertEquals(0, this.ontologyService.update(ontology));
+
+        // Build the live index from the documents sent by the first update
+        ArgumentCaptor<Collection> batches = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(this.server, Mockito.atLeastOnce()).add(batches.capture());
+        ArgumentCaptor<SolrInputDocument> header = ArgumentCaptor.forClass(SolrInputDocument.class);
+        Mockito.verify(this.server).add(header.capture());
+        List<SolrDocument> indexed = new ArrayList<SolrDocument>();
+        for (Collection<SolrInputDocument> batch : batches.getAllValues()) {
+            for (SolrInputDocument doc : batch) {
+                indexed.add(toSolrDocument(doc));
+            }
+        }
+        indexed.add(toSolrDocument(header.getValue()));
+        Assert.assertEquals(3, indexed.size());
+        mockLiveIndex(indexed.toArray(new SolrDocument[indexed.size()]));
+
+        Assert.assertEquals(0, this.ontologyService.update(ontology));
+        Mockito.verify(this.server, Mockito.times(batches.getAllValues().size())).add(any(Collection.class));
+        Mockito.verify(this.server, Mockito.times(1)).add(any(SolrInputDocument.class));
+        Mockito.verify(this.server, Mockito.times(1)).commit();
+        // Cleared by the initial reindex and by the first update only
+        Mockito.verify(this.cache, Mockito.times(2)).removeAll();
+    }
+
+    @Test
+    public void testUpdateSendsChangedTermsAndDeletesRemovedOnes() throws Exception
+    {
+        mockLiveIndex(createDocument("HEADER_INFO", "01:01:2013 12:00"), createDocument("HP:0000001", null),
+            createDocument("HP:0000002", null));
+        Assert.assertEquals(0, this.ontologyService.update(writeOntology().toURI().toString()));
+        // The header, which declares the new version, is only sent once all the other changes were accepted
+        InOrder order = Mockito.inOrder(this.server);
+        order.verify(this.server).deleteById(Arrays.asList("HP:0000002"));
+        ArgumentCaptor<SolrInputDocument> header = ArgumentCaptor.forClass(SolrInputDocument.class);
+        order.verify(this.server).add(header.capture());
+        order.verify(this.server).commit();
+        Assert.assertEquals("HEADER_INFO", header.getValue().getFieldValue("id"));
+        Mockito.verify(this.server, Mockito.times(2)).commit();
+        Mockito.verify(this.cache, Mockito.times(2)).removeAll();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testUpdateRejectedBySolrFails() throws Exception
+    {
+        mockLiveIndex();
+        when(this.server.add(any(Collection.class))).thenThrow(new SolrException(ErrorCode.BAD_REQUEST, "Bad term"));
+        Assert.assertEquals(1, this.ontologyService.update(writeOntology().toURI().toString()));
+        // The header isn't sent, so the index still declares the previous version
+        Mockito.verify(this.server, Mockito.never()).add(any(SolrInputDocument.class));
+    }
+
     @Test
     public void testHumanPhenotypeOntologyDefaultLocation()
     {
@@ -114,4 +253,78 @@ public void testHumanPhenotypeOntologyDefaultLocation()
         Assert.assertTrue(location.endsWith("hp.obo"));
         Assert.assertTrue(location.startsWith("http"));
     }
+
+    /**
+     * Set up a shadow core which reports holding the specified number of documents, and a live core with no document.
+     */
+    private SolrServer mockShadowServer(int documents) throws SolrServerException
+    {
+        SolrServer shadow = mock(SolrServer.class);
+        when(this.externalServicesAccess.getShadowServer()).thenReturn(shadow);
+        SolrDocumentList results = new SolrDocumentList();
+        results.setNumFound(documents);
+        SolrDocument header = new SolrDocument();
+        header.addField("version", "2014-01-01");
+        results.add(header);
+        QueryResponse response = mock(QueryResponse.class);
+        when(response.getResults()).thenReturn(results);
+        when(shadow.query(any(SolrParams.class))).thenReturn(response);
+        QueryResponse liveResponse = mock(QueryResponse.class);
+        when(liveResponse.getResults()).thenReturn(new SolrDocumentList());
+        when(this.server.query(any(SolrParams.class))).thenReturn(liveResponse);
+        return shadow;
+    }
+
+    /** Set up a live core holding the specified documents, all returned in one page. */
+    private void mockLiveIndex(SolrDocument... documents) throws SolrServerException
+    {
+        SolrDocumentList results = new SolrDocumentList();
+        results.addAll(Arrays.asList(documents));
+        results.setNumFound(documents.length);
+        QueryResponse response = mock(QueryResponse.class);
+        when(response.getResults()).thenReturn(results);
+        when(this.server.query(any(SolrParams.class))).thenReturn(response);
+    }
+
+    private SolrDocument toSolrDocument(SolrInputDocument doc)
+    {
+        SolrDocument result = new SolrDocument();
+        for (String name : doc.getFieldNames()) {
+            for (Object value : doc.getFieldValues(name)) {
+                result.addField(name, value);
+            }
+        }
+        return result;
+    }
+
+    private SolrDocument createDocument(String id, String version)
+    {
+        SolrDocument result = new SolrDocument();
+        result.addField("id", id);
+        if (version != null) {
+            result.addField("version", version);
+        }
+        return result;
+    }
+
+    /** Write a small ontology, with a header and two terms, to a temporary file. */
+    private File writeOntology() throws IOException
+    {
+        File result = File.createTempFile("hpo", ".obo");
+        result.deleteOnExit();
+        PrintWriter out = new PrintWriter(new FileWriter(result));
+        out.println("format-version: 1.2");
+        out.println("date: 01:01:2014 12:00");
+        out.println();
+        out.println("[Term]");
+        out.println("id: HP:0000001");
+        out.println("name: All");
+        out.println();
+        out.println("[Term]");
+        out.println("id: HP:0000118");
+        out.println("name: Phenotypic abnormality");
+        out.println("is_a: HP:0000001 ! All");
+        out.close();
+        return result;
+    }
 }
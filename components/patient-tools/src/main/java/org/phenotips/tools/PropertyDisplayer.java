@@ -57,8 +57,6 @@
 
     private static final String INDEXED_CATEGORY_KEY = "term_category";
 
-    private static final String INDEXED_PARENT_KEY = "is_a";
-
     protected OntologyService ontologyService;
 
     private final FormData data;
@@ -117,11 +115,11 @@
             List<String> yCustomFieldIDs = this.assignCustomFields(section, yCustomCategories);
             List<String> nCustomFieldIDs = this.assignCustomFields(section, nCustomCategories);
             for (String val : yCustomFieldIDs) {
-                section.addCustomElement(this.generateField(val, null, false, true, false));
+                section.addCustomElement(this.generateField(val, getTermFromOntology(val), null, false, true, false));
                 yCustomCategories.remove(val);
             }
             for (String val : nCustomFieldIDs) {
-                section.addCustomElement(this.generateField(val, null, false, false, true));
+                section.addCustomElement(this.generateField(val, getTermFromOntology(val), null, false, false, true));
                 nCustomCategories.remove(val);
             }
         }
@@ -208,10 +206,10 @@ private FormElement generateField(Map<String, ?> fieldTemplate, List<String> cus
 
     }
 
-    private FormElement generateField(String id, String title, boolean expandable, boolean yesSelected,
-        boolean noSelected)
+    private FormElement generateField(String id, OntologyTerm term, String title, boolean expandable,
+        boolean yesSelected, boolean noSelected)
     {
-        String hint = getLabelFromOntology(id);
+        String hint = term != null ? term.getName() : id;
         if (id.equals(hint) && title != null) {
             hint = title;
         }
@@ -228,7 +226,8 @@ private FormElement generateField(String id, String title, boolean expandable, b
 
     private FormElement generateField(String id, String title, boolean yesSelected, boolean noSelected)
     {
-        return generateField(id, title, hasDescendantsInOntology(id), yesSelected, noSelected);
+        OntologyTerm term = getTermFromOntology(id);
+        return generateField(id, term, title, hasDescendantsInOntology(term), yesSelected, noSelected);
     }
 
     private List<String> assignCustomFields(FormSection section, Map<String, List<String>> customCategories)
@@ -250,26 +249,18 @@ private List<String> assignCustomFields(FormSection section, Map<String, List<St
         return assigned;
     }
 
-    private String getLabelFromOntology(String id)
+    private OntologyTerm getTermFromOntology(String id)
     {
         if (!id.startsWith("HP:")) {
-            return id;
-        }
-        OntologyTerm phObj = this.ontologyService.getTerm(id);
-        if (phObj != null) {
-            return phObj.getName();
+            return null;
         }
-        return id;
+        return this.ontologyService.getTerm(id);
     }
 
-    private boolean hasDescendantsInOntology(String id)
+    private boolean hasDescendantsInOntology(OntologyTerm term)
     {
-        if (!id.startsWith("HP:")) {
-            return false;
-        }
-        Map<String, String> params = new HashMap<String, String>();
-        params.put(INDEXED_PARENT_KEY, id);
-        return (this.ontologyService.count(params) > 0);
+        // The number of children is precomputed in the index, so this doesn't need another query
+        return term != null && term.getChildrenCount() > 0;
     }
 
     @SuppressWarnings("unchecked")
@@ -311,6 +311,18 @@ public long getDistanceTo(OntologyTerm other)
             return 0;
         }
 
+        @Override
+        public long getChildrenCount()
+        {
+            return 0;
+        }
+
+        @Override
+        public long getDescendantsCount()
+        {
+            return 0;
+        }
+
         @Override
         public String getDescription()
         {
@@ -0,0 +1,214 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa;
+
+import java.util.Date;
+
+/**
+ * The state of the disease or gene annotations served by the {@link PhenotypeMappingScriptService}, at some point in
+ * time. Instances are immutable, a new one is published whenever the state changes.
+ *
+ * @version $Id$
+ */
+public final class AnnotationStatus
+{
+    /** The loading stages. */
+    public enum State
+    {
+        /** No annotations are available yet, they are being loaded in the background. */
+        LOADING,
+
+        /** Annotations are available and used for answering queries, they may be refreshed in the background. */
+        READY,
+
+        /** No annotations could be loaded. */
+        FAILED
+    }
+
+    /** Where the served annotations were loaded from. */
+    public enum Origin
+    {
+        /** Nothing loaded yet. */
+        NONE,
+
+        /** Restored from the snapshot saved after a previous load. */
+        SNAPSHOT,
+
+        /** Parsed from the annotation file. */
+        SOURCE
+    }
+
+    private final State state;
+
+    private final boolean refreshing;
+
+    private final Origin origin;
+
+    private final String version;
+
+    private final int annotationsCount;
+
+    private final long loadTime;
+
+    private final Date loadDate;
+
+    private final String error;
+
+    AnnotationStatus(State state, boolean refreshing, Origin origin, String version, int annotationsCount,
+        long loadTime, Date loadDate, String error)
+    {
+        this.state = state;
+        this.refreshing = refreshing;
+        this.origin = origin;
+        this.version = version;
+        this.annotationsCount = annotationsCount;
+        this.loadTime = loadTime;
+        this.loadDate = loadDate;
+        this.error = error;
+    }
+
+    /**
+     * The initial status, before anything is loaded.
+     *
+     * @return a {@link State#LOADING} status
+     */
+    static AnnotationStatus loading()
+    {
+        return new AnnotationStatus(State.LOADING, true, Origin.NONE, null, 0, 0, null, null);
+    }
+
+    /**
+     * The status after new annotations are installed.
+     *
+     * @param refreshing whether a newer version may still be loaded in the background
+     * @param origin where the annotations were loaded from
+     * @param version the version of the annotations
+     * @param annotationsCount the number of annotations (diseases or genes)
+     * @param loadTime how long loading took, in milliseconds
+     * @return a {@link State#READY} status
+     */
+    static AnnotationStatus ready(boolean refreshing, Origin origin, String version, int annotationsCount,
+        long loadTime)
+    {
+        return new AnnotationStatus(State.READY, refreshing, origin, version, annotationsCount, loadTime, new Date(),
+            null);
+    }
+
+    /**
+     * The status after the background refresh ends, keeping the currently served annotations.
+     *
+     * @param error the reason why the refresh failed, or {@code null} if the served annotations are up to date
+     * @return a copy of this status, not refreshing anymore, and {@link State#FAILED} if nothing is served
+     */
+    AnnotationStatus refreshed(String error)
+    {
+        return new AnnotationStatus(this.state == State.READY ? State.READY : State.FAILED, false, this.origin,
+            this.version, this.annotationsCount, this.loadTime, this.loadDate, error);
+    }
+
+    /**
+     * The status when loading is tried again after a failure, keeping the currently served annotations.
+     *
+     * @return a copy of this status, refreshing, and {@link State#LOADING} if nothing is served
+     */
+    AnnotationStatus retrying()
+    {
+        return new AnnotationStatus(this.state == State.READY ? State.READY : State.LOADING, true, this.origin,
+            this.version, this.annotationsCount, this.loadTime, this.loadDate, this.error);
+    }
+
+    public State getState()
+    {
+        return this.state;
+    }
+
+    public boolean isReady()
+    {
+        return this.state == State.READY;
+    }
+
+    /**
+     * Whether the annotations are being loaded or checked for updates in the background.
+     *
+     * @return {@code true} until the background loader finishes
+     */
+    public boolean isRefreshing()
+    {
+        return this.refreshing;
+    }
+
+    public Origin getOrigin()
+    {
+        return this.origin;
+    }
+
+    /**
+     * The version of the served annotations, identifying both the annotation file and the ontology.
+     *
+     * @return a version string, or {@code null} if nothing is served
+     */
+    public String getVersion()
+    {
+        return this.version;
+    }
+
+    public int getAnnotationsCount()
+    {
+        return this.annotationsCount;
+    }
+
+    /**
+     * How long it took to load the served annotations, including propagation and indexing.
+     *
+     * @return a duration in milliseconds
+     */
+    public long getLoadTime()
+    {
+        return this.loadTime;
+    }
+
+    /**
+     * When the served annotations were installed.
+     *
+     * @return a date, or {@code null} if nothing is served
+     */
+    public Date getLoadDate()
+    {
+        return this.loadDate == null ? null : new Date(this.loadDate.getTime());
+    }
+
+    /**
+     * Why the last load failed.
+     *
+     * @return an error message, or {@code null} if the last load succeeded
+     */
+    public String getError()
+    {
+        return this.error;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.state + (this.refreshing ? " (refreshing)" : "") + ", " + this.origin + " " + this.version + ", "
+            + this.annotationsCount + " annotations loaded in " + this.loadTime + " ms"
+            + (this.error == null ? "" : ", error: " + this.error);
+    }
+}
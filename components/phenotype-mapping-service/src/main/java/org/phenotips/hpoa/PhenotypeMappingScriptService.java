@@ -23,21 +23,41 @@
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.phenotips.hpoa.AnnotationStatus.Origin;
+import org.phenotips.hpoa.annotation.AbstractHPOAnnotation;
+import org.phenotips.hpoa.annotation.AnnotationSnapshot;
+import org.phenotips.hpoa.annotation.GeneHPOAnnotations;
 import org.phenotips.hpoa.annotation.OmimHPOAnnotations;
 import org.phenotips.hpoa.annotation.SearchResult;
 import org.phenotips.hpoa.ontology.Ontology;
+import org.phenotips.hpoa.prediction.MatchHandler;
 import org.phenotips.hpoa.prediction.Predictor;
+import org.phenotips.hpoa.utils.snapshot.SnapshotReader;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.environment.Environment;
@@ -49,8 +69,32 @@
 @Component
 @Named("hpoa")
 @Singleton
-public class PhenotypeMappingScriptService implements ScriptService, Initializable
+public class PhenotypeMappingScriptService implements ScriptService, Initializable, Disposable
 {
+    private static final String SNAPSHOT_NAME = "phenotype_annotation.snapshot";
+
+    private static final String GENE_SNAPSHOT_NAME = "phenotype_to_genes.snapshot";
+
+    private static final String SNAPSHOT_DIRECTORY = "hpoa";
+
+    private static final String VERSION_SEPARATOR = "/";
+
+    /** The name of the Bayesian network prediction method. */
+    private static final String BAYESIAN_METHOD = "bn";
+
+    private static final String ANNOTATIONS_LOCATION = "http://compbio.charite.de/hudson/job/hpo.annotations/"
+        + "lastStableBuild/artifact/misc/phenotype_annotation.tab";
+
+    private static final String GENE_ANNOTATIONS_LOCATION = "http://compbio.charite.de/hudson/job/"
+        + "hpo.annotations.monthly/lastStableBuild/artifact/annotation/"
+        + "ALL_SOURCES_ALL_FREQUENCIES_phenotype_to_genes.txt";
+
+    /** How long to wait before retrying a failed load of the gene annotations, doubled after each failure. */
+    private static final long MIN_RETRY_DELAY = 60 * 1000L;
+
+    /** The longest wait between two attempts to load the gene annotations. */
+    private static final long MAX_RETRY_DELAY = 24 * 60 * 60 * 1000L;
+
     @Inject
     private Logger logger;
 
@@ -65,34 +109,130 @@ public class PhenotypeMappingScriptService implements ScriptService, Initializab
     @Named("ic")
     private Predictor predictor;
 
+    @Inject
+    @Named(BAYESIAN_METHOD)
+    private Predictor bayesianPredictor;
+
+    @Inject
+    @Named("gene")
+    private Predictor genePredictor;
+
+    private final AtomicReference<AnnotationStatus> status =
+        new AtomicReference<AnnotationStatus>(AnnotationStatus.loading());
+
+    private final AtomicReference<AnnotationStatus> geneStatus =
+        new AtomicReference<AnnotationStatus>(AnnotationStatus.loading());
+
+    /** Runs the background loading of the disease and gene annotations. */
+    private ScheduledExecutorService loader;
+
     public List<SearchResult> getMatches(Collection<String> phenotypes)
     {
+        if (!isReady()) {
+            return Collections.emptyList();
+        }
         return this.predictor.getMatches(phenotypes);
     }
 
     public List<SearchResult> getMatches(Collection<String> phenotypes, int limit)
     {
-        List<SearchResult> results = this.predictor.getMatches(phenotypes);
-        if (limit < results.size()) {
-            return results.subList(0, limit);
+        if (!isReady()) {
+            return Collections.emptyList();
+        }
+        return this.predictor.getMatches(phenotypes, limit);
+    }
+
+    /**
+     * Find the best matching diseases, ranked by a specific prediction method.
+     *
+     * @param phenotypes the phenotypes to match
+     * @param limit the maximum number of diseases to return
+     * @param method {@code bn} for ranking by the posterior probability in a Bayesian network, anything else for the
+     *            default ranking by information content similarity
+     * @return at most {@code limit} diseases, ordered descending by score; empty if the annotations aren't loaded yet
+     */
+    public List<SearchResult> getMatches(Collection<String> phenotypes, int limit, String method)
+    {
+        if (!isReady()) {
+            return Collections.emptyList();
+        }
+        return (BAYESIAN_METHOD.equals(method) ? this.bayesianPredictor : this.predictor).getMatches(phenotypes, limit);
+    }
+
+    /**
+     * Find the best matching diseases for many phenotype sets at once, for example for re-ranking the diagnoses of all
+     * the patients after an ontology update.
+     *
+     * @param phenotypeSets the phenotypes of each patient, mapped by patient identifier
+     * @param limit the maximum number of diseases to return for each patient
+     * @return the best matches of each patient, ordered descending by score, mapped by patient identifier, in the same
+     *         order as the input; empty if the annotations aren't loaded yet
+     * @throws IllegalStateException if matching fails or is interrupted, partial results are never returned
+     */
+    public Map<String, List<SearchResult>> getBatchMatches(Map<String, ? extends Collection<String>> phenotypeSets,
+        int limit)
+    {
+        Map<String, List<SearchResult>> results = new LinkedHashMap<String, List<SearchResult>>();
+        if (!isReady() || phenotypeSets == null) {
+            return results;
+        }
+        final Map<String, List<SearchResult>> unordered = new HashMap<String, List<SearchResult>>();
+        this.predictor.getMatches(phenotypeSets, limit, new MatchHandler()
+        {
+            @Override
+            public void handleMatches(String id, List<SearchResult> matches)
+            {
+                unordered.put(id, matches);
+            }
+        });
+        for (String id : phenotypeSets.keySet()) {
+            results.put(id, unordered.get(id));
         }
         return results;
     }
 
     public List<SearchResult> getDifferentialPhenotypes(Collection<String> phenotypes)
     {
+        if (!isReady()) {
+            return Collections.emptyList();
+        }
         return this.predictor.getDifferentialPhenotypes(phenotypes);
     }
 
     public List<SearchResult> getDifferentialPhenotypes(Collection<String> phenotypes, int limit)
     {
-        List<SearchResult> results = this.predictor.getDifferentialPhenotypes(phenotypes);
+        List<SearchResult> results = getDifferentialPhenotypes(phenotypes);
         if (limit < results.size()) {
             return results.subList(0, limit);
         }
         return results;
     }
 
+    /**
+     * Rank the genes associated with a set of phenotypes. The gene annotations are loaded in the background, after the
+     * disease annotations.
+     *
+     * @param phenotypes the phenotypes to match
+     * @param limit the maximum number of genes to return
+     * @return at most {@code limit} genes, ordered descending by their score, or an empty list if the gene annotations
+     *         aren't loaded yet
+     */
+    public List<SearchResult> getGeneMatches(Collection<String> phenotypes, int limit)
+    {
+        if (!this.geneStatus.get().isReady()) {
+            return Collections.emptyList();
+        }
+        return this.genePredictor.getMatches(phenotypes, limit);
+    }
+
+    /**
+     * Get a local copy of an input file.
+     *
+     * @param inputLocation a local path, or the URL of a remote file
+     * @param forceUpdate whether to check if a remote file changed since it was downloaded; if the check fails, the
+     *            previous copy is used
+     * @return the local file, or {@code null} if the file cannot be found
+     */
     public File getInputFileHandler(String inputLocation, boolean forceUpdate)
     {
         try {
@@ -101,12 +241,14 @@ public File getInputFileHandler(String inputLocation, boolean forceUpdate)
                 String name = inputLocation.substring(inputLocation.lastIndexOf('/') + 1);
                 result = getTemporaryFile(name);
                 if (!result.exists()) {
-                    BufferedInputStream in = new BufferedInputStream((new URL(inputLocation)).openStream());
-                    result.createNewFile();
-                    OutputStream out = new FileOutputStream(result);
-                    IOUtils.copy(in, out);
-                    out.flush();
-                    out.close();
+                    download(new URL(inputLocation), result);
+                } else if (forceUpdate) {
+                    try {
+                        download(new URL(inputLocation), result);
+                    } catch (IOException ex) {
+                        this.logger.warn("Failed to update the mapping file [{}], using the previous copy: {}",
+                            inputLocation, ex.getMessage());
+                    }
                 }
             }
             return result;
@@ -116,6 +258,46 @@ public File getInputFileHandler(String inputLocation, boolean forceUpdate)
         }
     }
 
+    /**
+     * Download a remote file, unless the local copy is still current. The local copy is only replaced once the
+     * download completes, so a failed download never leaves a truncated file behind.
+     *
+     * @param source the remote file
+     * @param target the local copy, which may already exist
+     * @throws IOException if downloading fails
+     */
+    private void download(URL source, File target) throws IOException
+    {
+        URLConnection connection = source.openConnection();
+        if (target.exists()) {
+            connection.setIfModifiedSince(target.lastModified());
+        }
+        if (connection instanceof HttpURLConnection
+            && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return;
+        }
+        File tmp = new File(target.getParentFile(), target.getName() + ".part");
+        InputStream in = new BufferedInputStream(connection.getInputStream());
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                IOUtils.copy(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        if (target.exists() && !target.delete() || !tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Failed to replace " + target.getAbsolutePath());
+        }
+        // Keep the server's date, so that the next check only downloads the file if it really changed
+        if (connection.getLastModified() > 0) {
+            target.setLastModified(connection.getLastModified());
+        }
+    }
+
     protected File getTemporaryFile(String name)
     {
         return getInternalFile(name, "tmp");
@@ -130,15 +312,275 @@ protected File getInternalFile(String name, String dir)
         return new File(parent, name);
     }
 
+    /**
+     * Start loading the annotations in the background: first restore them from the last snapshot, if one is available
+     * for the current ontology, then check the annotation file, downloading and parsing it if the snapshot is missing
+     * or out of date. The gene annotations are loaded next, and loading them is retried later if it fails.
+     * Initialization itself never blocks on the network, on parsing or on indexing; until annotations are available,
+     * queries return empty results.
+     */
     @Override
     public void initialize() throws InitializationException
     {
-        OmimHPOAnnotations ann = new OmimHPOAnnotations(this.hpo);
-        if (ann.load(getInputFileHandler("http://compbio.charite.de/hudson/job/hpo.annotations/"
-            + "lastStableBuild/artifact/misc/phenotype_annotation.tab", false)) < 0) {
-            throw new InitializationException("Cannot load ontology mapping file, aborting.");
+        this.loader = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable task)
+            {
+                Thread result = new Thread(task, "hpoa-annotation-loader");
+                result.setDaemon(true);
+                return result;
+            }
+        });
+        this.loader.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                refresh(restoreSnapshot());
+                loadGeneAnnotations(MIN_RETRY_DELAY);
+            }
+        });
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.loader != null) {
+            this.loader.shutdownNow();
         }
+    }
+
+    /**
+     * The current state of the disease annotations: whether they are available, where they were loaded from, their
+     * version and how long loading took.
+     *
+     * @return the current status
+     */
+    public AnnotationStatus getStatus()
+    {
+        return this.status.get();
+    }
 
+    /**
+     * The current state of the gene annotations, used by {@link #getGeneMatches(Collection, int)}.
+     *
+     * @return the current status
+     */
+    public AnnotationStatus getGeneStatus()
+    {
+        return this.geneStatus.get();
+    }
+
+    /**
+     * Whether annotations are available for answering queries.
+     *
+     * @return {@code true} once annotations are loaded, either from a snapshot or from the annotation file
+     */
+    public boolean isReady()
+    {
+        return this.status.get().isReady();
+    }
+
+    /**
+     * Serve the annotations restored from the last snapshot, running in the background.
+     *
+     * @return the version of the restored annotations, {@code null} if no snapshot could be restored
+     */
+    private String restoreSnapshot()
+    {
+        long start = System.currentTimeMillis();
+        try {
+            OmimHPOAnnotations ann = new OmimHPOAnnotations(this.hpo);
+            AnnotationSnapshot snapshot = readLatestSnapshot();
+            if (snapshot != null && ann.load(snapshot) > 0) {
+                install(ann, Origin.SNAPSHOT, snapshot.getSourceVersion(), start);
+                return snapshot.getSourceVersion();
+            }
+        } catch (RuntimeException ex) {
+            this.logger.warn("Failed to restore the phenotype annotations snapshot: {}", ex.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Bring the served annotations up to date with the annotation file, running in the background. The annotation file
+     * is downloaded again if it changed on the server.
+     *
+     * @param servedVersion the version of the annotations restored from the snapshot, {@code null} if none
+     */
+    private void refresh(String servedVersion)
+    {
+        long start = System.currentTimeMillis();
+        try {
+            File source = getInputFileHandler(ANNOTATIONS_LOCATION, true);
+            if (source == null) {
+                setRefreshed("The annotation file is not available");
+                return;
+            }
+            String version = getSnapshotVersion(source);
+            if (version.equals(servedVersion)) {
+                setRefreshed(null);
+                return;
+            }
+            OmimHPOAnnotations ann = new OmimHPOAnnotations(this.hpo);
+            if (ann.load(source) <= 0) {
+                setRefreshed("Cannot load ontology mapping file");
+                return;
+            }
+            saveSnapshot(ann, source, SNAPSHOT_NAME);
+            install(ann, Origin.SOURCE, version, start);
+        } catch (RuntimeException ex) {
+            this.logger.error("Failed to load the phenotype annotations: {}", ex.getMessage(), ex);
+            setRefreshed(ex.getMessage());
+        }
+    }
+
+    /**
+     * Replace the annotations used by the predictors. Queries running concurrently keep using the previous annotations.
+     */
+    private void install(OmimHPOAnnotations ann, Origin origin, String version, long start)
+    {
         this.predictor.setAnnotation(ann);
+        this.bayesianPredictor.setAnnotation(ann);
+        long loadTime = System.currentTimeMillis() - start;
+        this.status.set(AnnotationStatus.ready(origin != Origin.SOURCE, origin, version,
+            ann.getAnnotations().size(), loadTime));
+        this.logger.info("Installed {} phenotype annotations from the {}, version {}, in {} ms",
+            ann.getAnnotations().size(), origin, version, loadTime);
+    }
+
+    private void setRefreshed(String error)
+    {
+        if (error != null) {
+            this.logger.warn("Failed to refresh the phenotype annotations: {}", error);
+        }
+        this.status.set(this.status.get().refreshed(error));
+    }
+
+    /**
+     * Load the gene annotations, running in the background. If loading fails, it is tried again later.
+     *
+     * @param retryDelay how long to wait before trying again if loading fails, in milliseconds
+     */
+    private void loadGeneAnnotations(final long retryDelay)
+    {
+        long start = System.currentTimeMillis();
+        String error;
+        try {
+            GeneHPOAnnotations ann = new GeneHPOAnnotations(this.hpo);
+            File source = getInputFileHandler(GENE_ANNOTATIONS_LOCATION, false);
+            if (source == null) {
+                error = "The gene annotations file is not available";
+            } else if (loadSnapshot(ann, source, GENE_SNAPSHOT_NAME)) {
+                installGenes(ann, Origin.SNAPSHOT, source, start);
+                return;
+            } else if (ann.load(source) > 0) {
+                saveSnapshot(ann, source, GENE_SNAPSHOT_NAME);
+                installGenes(ann, Origin.SOURCE, source, start);
+                return;
+            } else {
+                error = "Cannot load the gene annotations file";
+            }
+        } catch (RuntimeException ex) {
+            error = ex.getMessage();
+        }
+        this.logger.warn("Failed to load the gene annotations, trying again in {} s: {}", retryDelay / 1000, error);
+        this.geneStatus.set(this.geneStatus.get().refreshed(error));
+        try {
+            this.loader.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    PhenotypeMappingScriptService.this.geneStatus.set(
+                        PhenotypeMappingScriptService.this.geneStatus.get().retrying());
+                    loadGeneAnnotations(Math.min(2 * retryDelay, MAX_RETRY_DELAY));
+                }
+            }, retryDelay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            // The service is being disposed
+        }
+    }
+
+    private void installGenes(GeneHPOAnnotations ann, Origin origin, File source, long start)
+    {
+        this.genePredictor.setAnnotation(ann);
+        long loadTime = System.currentTimeMillis() - start;
+        this.geneStatus.set(AnnotationStatus.ready(false, origin, getSnapshotVersion(source),
+            ann.getGeneIds().size(), loadTime));
+        this.logger.info("Installed {} gene annotations from the {} in {} ms", ann.getGeneIds().size(), origin,
+            loadTime);
+    }
+
+    /**
+     * Read the last saved snapshot, whatever the version of the annotation file it was loaded from, as long as it was
+     * propagated with the current ontology.
+     *
+     * @return the snapshot, or {@code null} if there's no usable snapshot
+     */
+    private AnnotationSnapshot readLatestSnapshot()
+    {
+        String ontologyVersion = this.hpo.getVersion();
+        if (ontologyVersion == null) {
+            return null;
+        }
+        try {
+            AnnotationSnapshot result = AnnotationSnapshot.read(getInternalFile(SNAPSHOT_NAME, SNAPSHOT_DIRECTORY),
+                null);
+            if (result != null && result.getSourceVersion().endsWith(VERSION_SEPARATOR + ontologyVersion)) {
+                return result;
+            }
+        } catch (IOException ex) {
+            this.logger.warn("Failed to read the annotations snapshot: {}", ex.getMessage());
+        } catch (RuntimeException ex) {
+            this.logger.warn("Invalid annotations snapshot: {}", ex.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Restore the annotations from the snapshot saved after a previous load of the same source file, with the same
+     * ontology.
+     *
+     * @param ann the annotations to fill
+     * @param source the source file
+     * @param name the name of the snapshot file
+     * @return {@code true} if a valid snapshot was loaded, {@code false} otherwise
+     */
+    private boolean loadSnapshot(AbstractHPOAnnotation ann, File source, String name)
+    {
+        if (source == null || this.hpo.getVersion() == null) {
+            return false;
+        }
+        try {
+            return ann.load(AnnotationSnapshot.read(getInternalFile(name, SNAPSHOT_DIRECTORY),
+                getSnapshotVersion(source))) > 0;
+        } catch (IOException ex) {
+            this.logger.warn("Failed to read the annotations snapshot: {}", ex.getMessage());
+        } catch (RuntimeException ex) {
+            this.logger.warn("Invalid annotations snapshot: {}", ex.getMessage());
+        }
+        return false;
+    }
+
+    private void saveSnapshot(AbstractHPOAnnotation ann, File source, String name)
+    {
+        if (this.hpo.getVersion() == null || ann.size() == 0) {
+            return;
+        }
+        try {
+            AnnotationSnapshot.write(getInternalFile(name, SNAPSHOT_DIRECTORY), getSnapshotVersion(source), ann);
+        } catch (IOException ex) {
+            this.logger.warn("Failed to save the annotations snapshot: {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * The propagated annotations depend on both the annotation file and the ontology.
+     */
+    private String getSnapshotVersion(File source)
+    {
+        return SnapshotReader.getFileVersion(source) + VERSION_SEPARATOR + this.hpo.getVersion();
     }
 }
@@ -21,14 +21,14 @@
 
 import java.io.File;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 
+import org.phenotips.hpoa.ontology.AncestorClosures;
 import org.phenotips.hpoa.ontology.Ontology;
 import org.phenotips.hpoa.utils.graph.BGraph;
-import org.phenotips.hpoa.utils.graph.IDAGNode;
 
 public abstract class AbstractHPOAnnotation extends BGraph<AnnotationTerm> implements HPOAnnotation
 {
@@ -52,42 +52,51 @@ public AbstractHPOAnnotation(Ontology hpo)
     @Override
     public abstract int load(File source);
 
+    /**
+     * Restore already propagated annotations from a snapshot, without going through the original source.
+     *
+     * @param snapshot the snapshot to load
+     * @return the number of loaded nodes, or {@code -1} if the snapshot is {@code null}
+     */
+    public int load(AnnotationSnapshot snapshot)
+    {
+        if (snapshot == null) {
+            return -1;
+        }
+        clear();
+        AnnotationTerm[] phenotypes = new AnnotationTerm[snapshot.getPhenotypesCount()];
+        for (int i = 0; i < phenotypes.length; ++i) {
+            phenotypes[i] = new AnnotationTerm(snapshot.getPhenotypeId(i));
+            this.addNode(phenotypes[i], HPO);
+        }
+        for (int i = 0; i < snapshot.getAnnotationsCount(); ++i) {
+            AnnotationTerm annotation = new AnnotationTerm(snapshot.getAnnotationId(i), snapshot.getAnnotationName(i));
+            this.addNode(annotation, ANNOTATION);
+            for (int j = 0; j < snapshot.getAnnotationPhenotypesCount(i); ++j) {
+                AnnotationTerm phenotype = phenotypes[snapshot.getAnnotationPhenotype(i, j)];
+                annotation.addNeighbor(phenotype);
+                phenotype.addNeighbor(annotation);
+            }
+        }
+        return size();
+    }
+
+    /**
+     * Add to each annotation all the ancestors of its phenotypes. The ancestors of each annotation are collected by
+     * merging the precomputed ontology closures of its phenotypes into a bitset, and the new edges are added directly
+     * to the nodes, so the cost is proportional to the number of resulting edges.
+     */
     public void propagateHPOAnnotations()
     {
+        Propagation propagation = new Propagation();
         for (AnnotationTerm t : this.getAnnotations()) {
-            propagateHPOAnnotations(t);
+            propagation.propagate(t);
         }
     }
 
     public void propagateHPOAnnotations(AnnotationTerm annTerm)
     {
-        Set<String> newAnnotations = new HashSet<String>();
-        Set<String> front = new HashSet<String>();
-
-        front.addAll(annTerm.getNeighbors());
-        Set<String> newFront = new HashSet<String>();
-        while (!front.isEmpty()) {
-            for (String nextTermId : front) {
-                IDAGNode nextNode = this.hpo.getTerm(nextTermId);
-                if (nextNode == null) {
-                    System.err.println("No matching term found in HPO for " + nextTermId + " (" + annTerm + ")");
-                    continue;
-                }
-                for (String parentTermId : nextNode.getParents()) {
-                    if (!newAnnotations.contains(parentTermId)) {
-                        newFront.add(parentTermId);
-                        newAnnotations.add(parentTermId);
-                    }
-                }
-            }
-            front.clear();
-            front.addAll(newFront);
-            newFront.clear();
-        }
-        newAnnotations.removeAll(annTerm.getNeighbors());
-        for (String hpoId : newAnnotations) {
-            this.addConnection(annTerm, new AnnotationTerm(this.hpo.getRealId(hpoId)));
-        }
+        new Propagation().propagate(annTerm);
     }
 
     @Override
@@ -137,4 +146,67 @@ public Map<String, String> getPhenotypesWithAnnotation(String annId)
         }
         return results;
     }
+
+    /**
+     * Reusable state for propagating annotations: a bitset of ancestors, and the phenotype nodes already looked up.
+     */
+    private final class Propagation
+    {
+        private final AncestorClosures closures = AbstractHPOAnnotation.this.hpo.getAncestorClosures();
+
+        private final long[] ancestors = new long[(this.closures.size() + 63) >>> 6];
+
+        private final AnnotationTerm[] phenotypes = new AnnotationTerm[this.closures.size()];
+
+        void propagate(AnnotationTerm annTerm)
+        {
+            List<String> direct = annTerm.getNeighbors();
+            int[] directIndexes = new int[direct.size()];
+            int i = 0;
+            for (String termId : direct) {
+                int index = this.closures.getIndex(termId);
+                if (index < 0) {
+                    index = this.closures.getIndex(AbstractHPOAnnotation.this.hpo.getRealId(termId));
+                }
+                if (index < 0) {
+                    System.err.println("No matching term found in HPO for " + termId + " (" + annTerm.getId() + ")");
+                } else {
+                    for (int ancestor : this.closures.getAncestorIndexes(index)) {
+                        this.ancestors[ancestor >>> 6] |= 1L << ancestor;
+                    }
+                }
+                directIndexes[i++] = index;
+            }
+            for (int index : directIndexes) {
+                if (index >= 0) {
+                    this.ancestors[index >>> 6] &= ~(1L << index);
+                }
+            }
+            for (int w = 0; w < this.ancestors.length; ++w) {
+                long word = this.ancestors[w];
+                while (word != 0) {
+                    int index = (w << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    AnnotationTerm phenotype = getPhenotype(index);
+                    annTerm.addNeighbor(phenotype);
+                    phenotype.addNeighbor(annTerm);
+                }
+                this.ancestors[w] = 0;
+            }
+        }
+
+        private AnnotationTerm getPhenotype(int index)
+        {
+            if (this.phenotypes[index] == null) {
+                String id = this.closures.getId(index);
+                AnnotationTerm node = getHPONode(id);
+                if (node == null) {
+                    node = new AnnotationTerm(id);
+                    addNode(node, HPO);
+                }
+                this.phenotypes[index] = node;
+            }
+            return this.phenotypes[index];
+        }
+    }
 }
@@ -0,0 +1,192 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.annotation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.phenotips.hpoa.utils.snapshot.SnapshotReader;
+import org.phenotips.hpoa.utils.snapshot.SnapshotWriter;
+
+/**
+ * Binary snapshot of loaded and propagated annotations, allowing to restore them without parsing the annotation file
+ * and propagating the annotations up the ontology again. Annotation and phenotype identifiers are interned in string
+ * tables, and the propagated annotation edges are stored as compressed sparse rows: for each annotation, an offset into
+ * a flat array of phenotype indexes.
+ *
+ * @version $Id$
+ */
+public class AnnotationSnapshot
+{
+    private static final int KIND = 2;
+
+    private final String[] annotationIds;
+
+    private final String[] annotationNames;
+
+    private final String[] phenotypeIds;
+
+    private final IntBuffer offsets;
+
+    private final IntBuffer phenotypes;
+
+    private final String sourceVersion;
+
+    private AnnotationSnapshot(SnapshotReader in)
+    {
+        this.sourceVersion = in.getSourceVersion();
+        this.annotationIds = in.readStrings();
+        this.annotationNames = in.readStrings();
+        this.phenotypeIds = in.readStrings();
+        this.offsets = in.readInts();
+        this.phenotypes = in.readInts();
+    }
+
+    /**
+     * Read a snapshot.
+     *
+     * @param file the snapshot file
+     * @param sourceVersion the version of the source the annotations would otherwise be loaded from; since the
+     *            propagated annotations depend on the ontology, this should include the ontology version; {@code null}
+     *            accepts a snapshot written from any version
+     * @return the snapshot, or {@code null} if the file doesn't exist or was written for another source version
+     * @throws IOException if reading the file fails
+     */
+    public static AnnotationSnapshot read(File file, String sourceVersion) throws IOException
+    {
+        SnapshotReader in = SnapshotReader.open(file, KIND, sourceVersion);
+        return in == null ? null : new AnnotationSnapshot(in);
+    }
+
+    /**
+     * Write a snapshot of loaded and propagated annotations.
+     *
+     * @param file the snapshot file
+     * @param sourceVersion the version of the source the annotations were loaded from
+     * @param annotations the annotations to save
+     * @throws IOException if writing the file fails
+     */
+    public static void write(File file, String sourceVersion, AbstractHPOAnnotation annotations) throws IOException
+    {
+        Collection<AnnotationTerm> phenotypeNodes = annotations.getHPONodes();
+        Map<String, Integer> indexes = new HashMap<String, Integer>(phenotypeNodes.size() * 2);
+        String[] phenotypeIds = new String[phenotypeNodes.size()];
+        for (AnnotationTerm node : phenotypeNodes) {
+            phenotypeIds[indexes.size()] = node.getId();
+            indexes.put(node.getId(), indexes.size());
+        }
+
+        Collection<AnnotationTerm> annotationNodes = annotations.getAnnotations();
+        String[] annotationIds = new String[annotationNodes.size()];
+        String[] annotationNames = new String[annotationNodes.size()];
+        int[] offsets = new int[annotationNodes.size() + 1];
+        int[] edges = new int[1024];
+        int i = 0;
+        for (AnnotationTerm node : annotationNodes) {
+            annotationIds[i] = node.getId();
+            annotationNames[i] = node.getName();
+            int count = offsets[i];
+            for (String phenotypeId : node.getNeighbors()) {
+                Integer index = indexes.get(phenotypeId);
+                if (index == null) {
+                    continue;
+                }
+                if (count == edges.length) {
+                    int[] grown = new int[count * 2];
+                    System.arraycopy(edges, 0, grown, 0, count);
+                    edges = grown;
+                }
+                edges[count++] = index;
+            }
+            offsets[++i] = count;
+        }
+
+        SnapshotWriter out = new SnapshotWriter(file, KIND, sourceVersion);
+        try {
+            out.writeStrings(annotationIds, annotationIds.length);
+            out.writeStrings(annotationNames, annotationNames.length);
+            out.writeStrings(phenotypeIds, phenotypeIds.length);
+            out.writeInts(offsets, offsets.length);
+            out.writeInts(edges, offsets[offsets.length - 1]);
+            out.commit();
+        } catch (IOException ex) {
+            out.abort();
+            throw ex;
+        }
+    }
+
+    /**
+     * The version of the source the annotations were loaded from.
+     *
+     * @return the version passed to {@link #write(File, String, AbstractHPOAnnotation)}
+     */
+    public String getSourceVersion()
+    {
+        return this.sourceVersion;
+    }
+
+    public int getAnnotationsCount()
+    {
+        return this.annotationIds.length;
+    }
+
+    public String getAnnotationId(int annotation)
+    {
+        return this.annotationIds[annotation];
+    }
+
+    public String getAnnotationName(int annotation)
+    {
+        return this.annotationNames[annotation];
+    }
+
+    public int getPhenotypesCount()
+    {
+        return this.phenotypeIds.length;
+    }
+
+    public String getPhenotypeId(int phenotype)
+    {
+        return this.phenotypeIds[phenotype];
+    }
+
+    /**
+     * @param annotation an annotation index
+     * @return the number of phenotypes of the annotation, including the propagated ones
+     */
+    public int getAnnotationPhenotypesCount(int annotation)
+    {
+        return this.offsets.get(annotation + 1) - this.offsets.get(annotation);
+    }
+
+    /**
+     * @param annotation an annotation index
+     * @param i the position of the phenotype in the annotation's phenotypes list
+     * @return the phenotype index
+     */
+    public int getAnnotationPhenotype(int annotation, int i)
+    {
+        return this.phenotypes.get(this.offsets.get(annotation) + i);
+    }
+}
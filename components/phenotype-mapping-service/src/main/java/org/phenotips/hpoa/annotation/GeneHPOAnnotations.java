@@ -25,11 +25,8 @@
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.HashSet;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -39,6 +36,15 @@
 
 import org.xwiki.component.annotation.Component;
 
+/**
+ * Gene to phenotype annotations, loaded from the HPO {@code ALL_SOURCES_ALL_FREQUENCIES_phenotype_to_genes.txt} file.
+ * Both the tab separated format, {@code HPO-ID<tab>HPO-Name<tab>Gene-ID<tab>Gene-Name}, and the older bracketed
+ * format, {@code HPO-Name (HPO-ID)<tab>[Gene-Name(Gene-ID), ...]}, are supported. The file is parsed line by line
+ * without regular expressions, and each gene gets a single node shared by all its lines, so that only the resulting
+ * graph is kept in memory.
+ *
+ * @version $Id$
+ */
 @Component
 @Named("gene-hpo")
 @Singleton
@@ -48,16 +54,11 @@ public class GeneHPOAnnotations extends AbstractHPOAnnotation
 
     private static final String COMMENT_MARKER = "#";
 
-    private static final Pattern GENE_REG_EXP = Pattern.compile("([A-Z0-9]+)\\(([0-9]+)\\)");
-
-    private static final Pattern ANNOTATION_REG_EXP = Pattern.compile("^(.*)\\s\\((HP:[0-9]{7})\\)\t\\[("
-        + GENE_REG_EXP.pattern() + "(,\\s" + GENE_REG_EXP.pattern() + ")*)\\]$");
-
-    private static final int NAME_IDX = 1;
+    private static final char SEPARATOR = '\t';
 
-    private static final int ID_IDX = 2;
+    private static final String HPO_ID_PREFIX = "HP:";
 
-    private static final int LIST_IDX = 3;
+    private static final String GENE_LIST_SEPARATOR = ",";
 
     public GeneHPOAnnotations(Ontology hpo)
     {
@@ -75,25 +76,16 @@ public int load(File source)
         clear();
         try {
             BufferedReader in = new BufferedReader(new FileReader(source));
+            Loader loader = new Loader();
             String line;
-            Map<Side, AnnotationTerm> connection = new HashMap<Side, AnnotationTerm>();
             while ((line = in.readLine()) != null) {
                 if (line.startsWith(COMMENT_MARKER)) {
                     continue;
                 }
-                Matcher m = ANNOTATION_REG_EXP.matcher(line);
-                if (m.find()) {
-                    // String hpoName = m.group(NAME_IDX);
-                    final String hpoId = this.hpo.getRealId(m.group(ID_IDX));
-                    String geneList = m.group(LIST_IDX);
-                    if (geneList != null) {
-                        final Matcher mi = GENE_REG_EXP.matcher(geneList);
-                        while (mi.find()) {
-                            connection.clear();
-                            connection.put(GENE, new AnnotationTerm(mi.group(ID_IDX), mi.group(NAME_IDX)));
-                            connection.put(HPO, new AnnotationTerm(hpoId));
-                        }
-                    }
+                if (line.startsWith(HPO_ID_PREFIX)) {
+                    loader.parseColumns(line);
+                } else {
+                    loader.parseGeneList(line);
                 }
             }
             in.close();
@@ -125,4 +117,93 @@ public AnnotationTerm getGeneNode(String geneId)
     {
         return this.getNode(geneId, GENE);
     }
+
+    /**
+     * Parsing state: the current phenotype node and the genes already linked to it, since the file is grouped by
+     * phenotype and the same gene may be listed several times for a phenotype, once for each source.
+     */
+    private final class Loader
+    {
+        private String phenotypeId;
+
+        private AnnotationTerm phenotype;
+
+        private final Set<String> phenotypeGenes = new HashSet<String>();
+
+        /** {@code HPO-ID<tab>HPO-Name<tab>Gene-ID<tab>Gene-Name}. */
+        void parseColumns(String line)
+        {
+            int idEnd = line.indexOf(SEPARATOR);
+            int nameEnd = idEnd < 0 ? -1 : line.indexOf(SEPARATOR, idEnd + 1);
+            int geneIdEnd = nameEnd < 0 ? -1 : line.indexOf(SEPARATOR, nameEnd + 1);
+            if (geneIdEnd < 0) {
+                return;
+            }
+            int geneNameEnd = line.indexOf(SEPARATOR, geneIdEnd + 1);
+            if (setPhenotype(line.substring(0, idEnd))) {
+                link(line.substring(nameEnd + 1, geneIdEnd),
+                    line.substring(geneIdEnd + 1, geneNameEnd < 0 ? line.length() : geneNameEnd));
+            }
+        }
+
+        /** {@code HPO-Name (HPO-ID)<tab>[Gene-Name(Gene-ID), ...]}. */
+        void parseGeneList(String line)
+        {
+            int tab = line.indexOf(SEPARATOR);
+            int idStart = tab < 0 ? -1 : line.lastIndexOf('(', tab);
+            if (idStart < 0 || line.charAt(tab - 1) != ')' || !setPhenotype(line.substring(idStart + 1, tab - 1))) {
+                return;
+            }
+            int listStart = line.indexOf('[', tab);
+            int listEnd = line.lastIndexOf(']');
+            if (listStart < 0 || listEnd < listStart) {
+                return;
+            }
+            for (int start = listStart + 1; start < listEnd;) {
+                int end = line.indexOf(GENE_LIST_SEPARATOR, start);
+                if (end < 0 || end > listEnd) {
+                    end = listEnd;
+                }
+                int geneIdStart = line.lastIndexOf('(', end);
+                int geneIdEnd = line.lastIndexOf(')', end);
+                if (geneIdStart > start && geneIdEnd > geneIdStart) {
+                    link(line.substring(geneIdStart + 1, geneIdEnd), line.substring(start, geneIdStart).trim());
+                }
+                start = end + 1;
+            }
+        }
+
+        private boolean setPhenotype(String id)
+        {
+            if (!id.equals(this.phenotypeId)) {
+                this.phenotypeId = id;
+                this.phenotypeGenes.clear();
+                String realId = GeneHPOAnnotations.this.hpo.getRealId(id);
+                if (realId == null) {
+                    this.phenotype = null;
+                } else {
+                    this.phenotype = getHPONode(realId);
+                    if (this.phenotype == null) {
+                        this.phenotype = new AnnotationTerm(realId);
+                        addNode(this.phenotype, HPO);
+                    }
+                }
+            }
+            return this.phenotype != null;
+        }
+
+        private void link(String geneId, String geneName)
+        {
+            if (geneId.length() == 0 || !this.phenotypeGenes.add(geneId)) {
+                return;
+            }
+            AnnotationTerm gene = getGeneNode(geneId);
+            if (gene == null) {
+                gene = new AnnotationTerm(geneId, geneName);
+                addNode(gene, GENE);
+            }
+            gene.addNeighbor(this.phenotype);
+            this.phenotype.addNeighbor(gene);
+        }
+    }
 }
@@ -19,13 +19,16 @@
  */
 package org.phenotips.hpoa.annotation;
 
-import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -34,9 +37,21 @@
 
 import org.phenotips.hpoa.ontology.Ontology;
 import org.phenotips.hpoa.utils.graph.BGraph;
+import org.phenotips.hpoa.utils.tab.ByteSymbolTable;
+import org.phenotips.hpoa.utils.tab.TabSeparatedScanner;
 
 import org.xwiki.component.annotation.Component;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Disease to phenotype annotations, loaded from the HPO {@code phenotype_annotation.tab} file. The file is scanned as
+ * bytes, disease and phenotype identifiers are interned as they are read, and the graph is built in bulk once the
+ * whole file is parsed, so that each distinct disease and phenotype is decoded and allocated only once.
+ *
+ * @version $Id$
+ */
 @Component
 @Named("omim-hpo")
 @Singleton
@@ -46,10 +61,22 @@ public class OmimHPOAnnotations extends AbstractHPOAnnotation
 
     private static final String OMIM_ANNOTATION_MARKER = "OMIM";
 
-    private static final String SEPARATOR = "\t";
+    private static final byte[] OMIM_ANNOTATION_MARKER_BYTES = OMIM_ANNOTATION_MARKER.getBytes();
+
+    private static final byte[] NOT_QUALIFIER = "NOT".getBytes();
 
     private static final int MIN_EXPECTED_FIELDS = 8;
 
+    private static final int ID_FIELD = 1;
+
+    private static final int NAME_FIELD = 2;
+
+    private static final int QUALIFIER_FIELD = 3;
+
+    private static final int PHENOTYPE_FIELD = 4;
+
+    private final Logger logger = LoggerFactory.getLogger(OmimHPOAnnotations.class);
+
     public OmimHPOAnnotations(Ontology hpo)
     {
         super(hpo);
@@ -65,31 +92,48 @@ public int load(File source)
         clear();
         // Load data
         try {
-            BufferedReader in = new BufferedReader(new FileReader(source));
-            String line;
-            Map<Side, AnnotationTerm> connection = new HashMap<Side, AnnotationTerm>();
-            while ((line = in.readLine()) != null) {
-                if (!line.startsWith(OMIM_ANNOTATION_MARKER)) {
-                    continue;
-                }
-                String pieces[] = line.split(SEPARATOR, MIN_EXPECTED_FIELDS);
-                if (pieces.length != MIN_EXPECTED_FIELDS) {
-                    continue;
-                }
-                final String omimId = OMIM_ANNOTATION_MARKER + ":" + pieces[1], omimName = pieces[2], hpoId =
-                    this.hpo.getRealId(pieces[4]), rel = pieces[3];
-                if (!"NOT".equals(rel)) {
-                    connection.clear();
-                    connection.put(OMIM, new AnnotationTerm(omimId, omimName));
-                    connection.put(HPO, new AnnotationTerm(hpoId));
-                    this.addConnection(connection);
+            long start = System.currentTimeMillis();
+            InputStream in = new FileInputStream(source);
+            TabSeparatedScanner scanner = new TabSeparatedScanner(in);
+            ByteSymbolTable diseaseIds = new ByteSymbolTable();
+            ByteSymbolTable phenotypeIds = new ByteSymbolTable();
+            List<String> diseaseNames = new ArrayList<String>();
+            List<String> phenotypeRealIds = new ArrayList<String>();
+            int[] edges = new int[1024];
+            int edgeCount = 0;
+            try {
+                while (scanner.next()) {
+                    if (scanner.getFieldCount() < MIN_EXPECTED_FIELDS
+                        || !scanner.fieldStartsWith(0, OMIM_ANNOTATION_MARKER_BYTES)
+                        || scanner.fieldEquals(QUALIFIER_FIELD, NOT_QUALIFIER)) {
+                        continue;
+                    }
+                    int disease = diseaseIds.intern(scanner, ID_FIELD);
+                    if (disease < 0) {
+                        disease = -disease - 1;
+                        diseaseNames.add(scanner.getString(NAME_FIELD));
+                    }
+                    int phenotype = phenotypeIds.intern(scanner, PHENOTYPE_FIELD);
+                    if (phenotype < 0) {
+                        phenotype = -phenotype - 1;
+                        phenotypeRealIds.add(this.hpo.getRealId(scanner.getString(PHENOTYPE_FIELD)));
+                    }
+                    if (edgeCount == edges.length) {
+                        edges = Arrays.copyOf(edges, edgeCount << 1);
+                    }
+                    edges[edgeCount++] = disease;
+                    edges[edgeCount++] = phenotype;
                 }
+            } finally {
+                in.close();
             }
-            in.close();
+            long parsed = System.currentTimeMillis();
+            addEdges(diseaseIds, diseaseNames, phenotypeRealIds, edges, edgeCount);
             propagateHPOAnnotations();
-        } catch (NullPointerException ex) {
-            ex.printStackTrace();
-            System.err.println("File does not exist");
+            long elapsed = Math.max(parsed - start, 1);
+            this.logger.info("Parsed {} lines ({} KB) of annotations in {} ms, {} lines/s; built the graph in {} ms",
+                scanner.getLineCount(), scanner.getBytesRead() >> 10, elapsed, scanner.getLineCount() * 1000 / elapsed,
+                System.currentTimeMillis() - parsed);
         } catch (FileNotFoundException ex) {
             ex.printStackTrace();
             System.err.println("Could not locate source file: " + source.getAbsolutePath());
@@ -100,6 +144,84 @@ public int load(File source)
         return size();
     }
 
+    /**
+     * Create the nodes and link them, keeping the order of the phenotypes of each disease from the source file.
+     * Phenotypes unknown to the ontology are skipped, and so are repeated disease-phenotype pairs, which appear in the
+     * file once for each evidence, since the information content of a phenotype must count distinct diseases.
+     *
+     * @param edges pairs of disease and phenotype symbols
+     */
+    private void addEdges(ByteSymbolTable diseaseIds, List<String> diseaseNames, List<String> phenotypeRealIds,
+        int[] edges, int edgeCount)
+    {
+        // Group the phenotypes of each disease
+        int diseaseCount = diseaseNames.size();
+        int[] offsets = new int[diseaseCount + 1];
+        for (int i = 0; i < edgeCount; i += 2) {
+            ++offsets[edges[i] + 1];
+        }
+        for (int d = 0; d < diseaseCount; ++d) {
+            offsets[d + 1] += offsets[d];
+        }
+        int[] grouped = new int[edgeCount / 2];
+        int[] next = Arrays.copyOf(offsets, diseaseCount);
+        for (int i = 0; i < edgeCount; i += 2) {
+            grouped[next[edges[i]]++] = edges[i + 1];
+        }
+
+        // Alternative identifiers of the same phenotype share a node
+        int[] canonical = getCanonicalPhenotypes(phenotypeRealIds);
+        AnnotationTerm[] phenotypes = new AnnotationTerm[canonical.length];
+        int[] lastDisease = new int[canonical.length];
+        Arrays.fill(lastDisease, -1);
+        for (int d = 0; d < diseaseCount; ++d) {
+            AnnotationTerm disease = null;
+            for (int i = offsets[d]; i < offsets[d + 1]; ++i) {
+                int p = canonical[grouped[i]];
+                if (p < 0 || lastDisease[p] == d) {
+                    continue;
+                }
+                lastDisease[p] = d;
+                if (phenotypes[p] == null) {
+                    phenotypes[p] = new AnnotationTerm(phenotypeRealIds.get(p));
+                    addNode(phenotypes[p], HPO);
+                }
+                if (disease == null) {
+                    disease = new AnnotationTerm(OMIM_ANNOTATION_MARKER + ":" + diseaseIds.getString(d),
+                        diseaseNames.get(d));
+                    addNode(disease, OMIM);
+                }
+                disease.addNeighbor(phenotypes[p]);
+                phenotypes[p].addNeighbor(disease);
+            }
+        }
+    }
+
+    /**
+     * Map each phenotype symbol to the first symbol resolving to the same term.
+     *
+     * @return the canonical symbol of each symbol, or {@code -1} for phenotypes unknown to the ontology
+     */
+    private int[] getCanonicalPhenotypes(List<String> phenotypeRealIds)
+    {
+        int[] result = new int[phenotypeRealIds.size()];
+        Map<String, Integer> symbols = new HashMap<String, Integer>();
+        for (int i = 0; i < result.length; ++i) {
+            String realId = phenotypeRealIds.get(i);
+            if (realId == null) {
+                result[i] = -1;
+            } else {
+                Integer first = symbols.get(realId);
+                if (first == null) {
+                    symbols.put(realId, i);
+                    first = i;
+                }
+                result[i] = first;
+            }
+        }
+        return result;
+    }
+
     public Set<String> getOMIMNodesIds()
     {
         return this.getNodesIds(OMIM);
@@ -52,8 +52,10 @@ public abstract class AbstractOntology extends DAG<OntologyTerm> implements Onto
 
     private IDAGNode root;
 
-    private final Map<String, Set<String>> ancestorCache = Collections
-        .synchronizedMap(new HashMap<String, Set<String>>());
+    /** Precomputed when loading, replaced as a whole when reloading, so that reads don't need locking. */
+    private volatile AncestorClosures closures = AncestorClosures.compute(Collections.<OntologyTerm>emptyList());
+
+    private String version;
 
     /*
      * (non-Javadoc)
@@ -141,6 +143,51 @@ public int load(File source)
         return size();
     }
 
+    /**
+     * Restore the ontology from a snapshot, without going through the original source.
+     *
+     * @param snapshot the snapshot to load
+     * @return the number of loaded terms, or {@code -1} if the snapshot is {@code null}
+     */
+    public int load(OntologySnapshot snapshot)
+    {
+        if (snapshot == null) {
+            return -1;
+        }
+        clear();
+        this.alternateIdMapping.clear();
+        int count = snapshot.getTermCount();
+        OntologyTerm[] terms = new OntologyTerm[count];
+        for (int i = 0; i < count; ++i) {
+            terms[i] = new OntologyTerm(snapshot.getId(i), snapshot.getName(i));
+            for (int j = 0; j < snapshot.getParentsCount(i); ++j) {
+                terms[i].addParent(snapshot.getId(snapshot.getParent(i, j)));
+            }
+            for (int j = 0; j < snapshot.getChildrenCount(i); ++j) {
+                terms[i].addChild(snapshot.getId(snapshot.getChild(i, j)));
+            }
+            this.addNode(terms[i]);
+            this.alternateIdMapping.put(terms[i].getId(), terms[i].getId());
+        }
+        for (int i = 0; i < snapshot.getAlternateIdsCount(); ++i) {
+            this.alternateIdMapping.put(snapshot.getAlternateId(i), terms[snapshot.getAlternateIdTarget(i)].getId());
+        }
+        if (snapshot.getRoot() >= 0) {
+            this.root = terms[snapshot.getRoot()];
+        } else {
+            this.root = new OntologyTerm("", "FAKE ROOT");
+            for (OntologyTerm term : terms) {
+                if (term.getParents().isEmpty()) {
+                    this.root.addChild(term);
+                    term.addParent(this.root);
+                }
+            }
+        }
+        this.version = snapshot.getVersion();
+        this.closures = AncestorClosures.compute(getNodes());
+        return size();
+    }
+
     private void cleanArcs()
     {
         Set<IDAGNode> roots = new HashSet<IDAGNode>();
@@ -173,6 +220,45 @@ private void cleanArcs()
                 n.addParent(this.root);
             }
         }
+        this.version = computeVersion();
+        this.closures = AncestorClosures.compute(getNodes());
+    }
+
+    /**
+     * Compute a fingerprint of the loaded terms, relations and alternative identifiers.
+     */
+    private String computeVersion()
+    {
+        long hash = size();
+        for (DAGNode n : getNodes()) {
+            hash = 31 * hash + n.getId().hashCode();
+            for (String parentId : n.getParents()) {
+                hash = 31 * hash + parentId.hashCode();
+            }
+        }
+        // The alternative identifiers are not ordered, combine them in an order-independent way
+        long alternatesHash = 0;
+        synchronized (this.alternateIdMapping) {
+            for (Map.Entry<String, String> mapping : this.alternateIdMapping.entrySet()) {
+                alternatesHash += 31L * mapping.getKey().hashCode() + mapping.getValue().hashCode();
+            }
+        }
+        return Long.toHexString(31 * hash + alternatesHash);
+    }
+
+    /**
+     * The mapping from alternative identifiers to primary identifiers, including the identity mapping of primary
+     * identifiers. The returned map is synchronized, and iterating over it must be done while holding its lock.
+     */
+    Map<String, String> getAlternateIdMapping()
+    {
+        return this.alternateIdMapping;
+    }
+
+    @Override
+    public String getVersion()
+    {
+        return this.version;
     }
 
     protected void createOntologyTerm(TermData data)
@@ -290,11 +376,18 @@ protected Set<String> findAncestors(String id)
      * @see org.phenotips.hpoa.ontology.Ontology#getAncestors(java.lang.String)
      */
     @Override
-    public synchronized Set<String> getAncestors(String termId)
+    public Set<String> getAncestors(String termId)
     {
-        if (this.ancestorCache.get(termId) == null) {
-            this.ancestorCache.put(termId, this.findAncestors(termId));
+        String realId = this.getRealId(termId);
+        if (realId == null) {
+            return Collections.emptySet();
         }
-        return this.ancestorCache.get(termId);
+        return this.closures.getAncestors(realId);
+    }
+
+    @Override
+    public AncestorClosures getAncestorClosures()
+    {
+        return this.closures;
     }
 }
@@ -0,0 +1,281 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.ontology;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.phenotips.hpoa.utils.graph.DAGNode;
+
+/**
+ * Immutable, precomputed ancestor closures for all the terms of an ontology. Each term gets a dense index, and its
+ * ancestors (including itself) are stored as a sorted array of term indexes. Closures are computed in topological
+ * order, so that each closure is the union of the closures of the term's parents. Since all the fields are final and
+ * never modified after construction, instances can be shared between threads without any locking.
+ *
+ * @version $Id$
+ */
+public final class AncestorClosures
+{
+    private static final int[] EMPTY = new int[0];
+
+    private final String[] ids;
+
+    private final Map<String, Integer> indexes;
+
+    private final int[][] ancestors;
+
+    private AncestorClosures(String[] ids, Map<String, Integer> indexes, int[][] ancestors)
+    {
+        this.ids = ids;
+        this.indexes = indexes;
+        this.ancestors = ancestors;
+    }
+
+    /**
+     * Compute the closures for a set of terms. Parents which aren't part of the set are ignored.
+     *
+     * @param nodes the ontology terms
+     * @return the computed closures
+     */
+    public static AncestorClosures compute(Collection<? extends DAGNode> nodes)
+    {
+        int size = nodes.size();
+        String[] ids = new String[size];
+        Map<String, Integer> indexes = new HashMap<String, Integer>(size * 2);
+        DAGNode[] terms = new DAGNode[size];
+        int i = 0;
+        for (DAGNode node : nodes) {
+            terms[i] = node;
+            ids[i] = node.getId();
+            indexes.put(ids[i], i++);
+        }
+
+        int[][] parents = new int[size][];
+        int[] pendingParents = new int[size];
+        int[][] children = new int[size][];
+        int[] childrenCount = new int[size];
+        for (i = 0; i < size; ++i) {
+            parents[i] = toIndexes(terms[i].getParents(), indexes);
+            pendingParents[i] = parents[i].length;
+            for (int parent : parents[i]) {
+                ++childrenCount[parent];
+            }
+        }
+        for (i = 0; i < size; ++i) {
+            children[i] = new int[childrenCount[i]];
+            childrenCount[i] = 0;
+        }
+        for (i = 0; i < size; ++i) {
+            for (int parent : parents[i]) {
+                children[parent][childrenCount[parent]++] = i;
+            }
+        }
+
+        // Kahn's algorithm: a term is processed only after all its parents
+        int[][] ancestors = new int[size][];
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        for (i = 0; i < size; ++i) {
+            if (pendingParents[i] == 0) {
+                queue[tail++] = i;
+            }
+        }
+        int[] seen = new int[size];
+        Arrays.fill(seen, -1);
+        int[] buffer = new int[size];
+        while (head < tail) {
+            int term = queue[head++];
+            ancestors[term] = union(term, parents[term], ancestors, seen, buffer);
+            for (int child : children[term]) {
+                if (--pendingParents[child] == 0) {
+                    queue[tail++] = child;
+                }
+            }
+        }
+        // Terms on a cycle never become ready; fall back to a plain traversal for them
+        for (i = 0; i < size; ++i) {
+            if (ancestors[i] == null) {
+                ancestors[i] = traverse(i, parents, seen, buffer);
+            }
+        }
+        return new AncestorClosures(ids, indexes, ancestors);
+    }
+
+    public int size()
+    {
+        return this.ids.length;
+    }
+
+    /**
+     * @param id a term identifier
+     * @return the index of the term, or {@code -1} if the term is unknown
+     */
+    public int getIndex(String id)
+    {
+        Integer result = this.indexes.get(id);
+        return result == null ? -1 : result;
+    }
+
+    public String getId(int index)
+    {
+        return this.ids[index];
+    }
+
+    /**
+     * @param index a term index
+     * @return the sorted indexes of the term and its ancestors; the returned array must not be modified
+     */
+    public int[] getAncestorIndexes(int index)
+    {
+        return index < 0 ? EMPTY : this.ancestors[index];
+    }
+
+    /**
+     * @param id a term identifier
+     * @return an immutable view of the identifiers of the term and its ancestors, empty if the term is unknown
+     */
+    public Set<String> getAncestors(String id)
+    {
+        int index = getIndex(id);
+        if (index < 0) {
+            return Collections.emptySet();
+        }
+        return new ClosureSet(this.ancestors[index]);
+    }
+
+    private static int[] toIndexes(List<String> termIds, Map<String, Integer> indexes)
+    {
+        int[] result = new int[termIds.size()];
+        int count = 0;
+        for (String id : termIds) {
+            Integer index = indexes.get(id);
+            if (index != null) {
+                result[count++] = index;
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Merge a term with the already computed closures of its parents.
+     *
+     * @param seen marks, for each term, the last term whose closure included it, used for removing duplicates
+     * @param buffer scratch space, large enough for any closure
+     */
+    private static int[] union(int term, int[] parents, int[][] ancestors, int[] seen, int[] buffer)
+    {
+        int count = 0;
+        buffer[count++] = term;
+        seen[term] = term;
+        for (int parent : parents) {
+            for (int ancestor : ancestors[parent]) {
+                if (seen[ancestor] != term) {
+                    seen[ancestor] = term;
+                    buffer[count++] = ancestor;
+                }
+            }
+        }
+        int[] result = Arrays.copyOf(buffer, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static int[] traverse(int term, int[][] parents, int[] seen, int[] buffer)
+    {
+        int count = 0;
+        buffer[count++] = term;
+        seen[term] = term;
+        for (int i = 0; i < count; ++i) {
+            for (int parent : parents[buffer[i]]) {
+                if (seen[parent] != term) {
+                    seen[parent] = term;
+                    buffer[count++] = parent;
+                }
+            }
+        }
+        int[] result = Arrays.copyOf(buffer, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /** Read-only set of identifiers backed by a sorted array of term indexes. */
+    private final class ClosureSet extends AbstractSet<String>
+    {
+        private final int[] members;
+
+        ClosureSet(int[] members)
+        {
+            this.members = members;
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            Integer index = AncestorClosures.this.indexes.get(o);
+            return index != null && Arrays.binarySearch(this.members, index) >= 0;
+        }
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            return new Iterator<String>()
+            {
+                private int next;
+
+                @Override
+                public boolean hasNext()
+                {
+                    return this.next < ClosureSet.this.members.length;
+                }
+
+                @Override
+                public String next()
+                {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return AncestorClosures.this.ids[ClosureSet.this.members[this.next++]];
+                }
+
+                @Override
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size()
+        {
+            return this.members.length;
+        }
+    }
+}
@@ -30,6 +30,8 @@
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.phenotips.hpoa.utils.snapshot.SnapshotReader;
+
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.environment.Environment;
@@ -42,6 +44,10 @@
 @Singleton
 public class HPO extends AbstractOntology implements Initializable
 {
+    private static final String SNAPSHOT_NAME = "hpo.snapshot";
+
+    private static final String SNAPSHOT_DIRECTORY = "hpoa";
+
     @Inject
     private Logger logger;
 
@@ -60,12 +66,53 @@ public void initialize()
         // if (this.service != null) {
         // this.load((SolrScriptService) this.service);
         // } else {
-        this.load(getInputFileHandler(
-            "http://compbio.charite.de/svn/hpo/trunk/src/ontology/human-phenotype-ontology.obo", false));
+        File source =
+            getInputFileHandler("http://compbio.charite.de/svn/hpo/trunk/src/ontology/human-phenotype-ontology.obo",
+                false);
+        if (!loadSnapshot(source)) {
+            this.load(source);
+            saveSnapshot(source);
+        }
         // }
         instance = this;
     }
 
+    /**
+     * Restore the ontology from the snapshot saved after a previous load of the same source file.
+     *
+     * @param source the source file
+     * @return {@code true} if a valid snapshot was loaded, {@code false} otherwise
+     */
+    private boolean loadSnapshot(File source)
+    {
+        if (source == null) {
+            return false;
+        }
+        try {
+            OntologySnapshot snapshot = OntologySnapshot.read(getInternalFile(SNAPSHOT_NAME, SNAPSHOT_DIRECTORY),
+                SnapshotReader.getFileVersion(source));
+            return load(snapshot) > 0;
+        } catch (IOException ex) {
+            this.logger.warn("Failed to read the ontology snapshot: {}", ex.getMessage());
+        } catch (RuntimeException ex) {
+            this.logger.warn("Invalid ontology snapshot: {}", ex.getMessage());
+        }
+        return false;
+    }
+
+    private void saveSnapshot(File source)
+    {
+        if (source == null || size() == 0) {
+            return;
+        }
+        try {
+            OntologySnapshot.write(getInternalFile(SNAPSHOT_NAME, SNAPSHOT_DIRECTORY),
+                SnapshotReader.getFileVersion(source), this);
+        } catch (IOException ex) {
+            this.logger.warn("Failed to save the ontology snapshot: {}", ex.getMessage());
+        }
+    }
+
     public File getInputFileHandler(String inputLocation, boolean forceUpdate)
     {
         try {
@@ -45,4 +45,21 @@
     public abstract IDAGNode getRoot();
 
     public abstract Set<String> getAncestors(String termId);
+
+    public abstract Set<String> getNodesIds();
+
+    /**
+     * The precomputed ancestor closures of all the terms, which can be safely used by several threads at once.
+     *
+     * @return the closures of the currently loaded terms
+     */
+    public abstract AncestorClosures getAncestorClosures();
+
+    /**
+     * Identifies the loaded ontology data. Two ontologies with the same version have the same terms, relations and
+     * alternative identifiers, so data derived from one of them is also valid for the other.
+     *
+     * @return a version identifier, or {@code null} if nothing was loaded yet
+     */
+    public abstract String getVersion();
 }
@@ -0,0 +1,299 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.ontology;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.phenotips.hpoa.utils.graph.IDAGNode;
+import org.phenotips.hpoa.utils.snapshot.SnapshotReader;
+import org.phenotips.hpoa.utils.snapshot.SnapshotWriter;
+
+/**
+ * Binary snapshot of a loaded ontology, allowing to restore it without parsing the source again. Term identifiers are
+ * interned in a string table, and the parent and child relations are stored as compressed sparse rows: for each term,
+ * an offset into a flat array of term indexes. Alternative identifiers are stored as a separate table, together with
+ * the index of the term they stand for.
+ *
+ * @version $Id$
+ */
+public class OntologySnapshot
+{
+    private static final int KIND = 1;
+
+    private final String version;
+
+    private final int termCount;
+
+    /** Term identifiers, followed by identifiers referenced as parents without being defined as terms. */
+    private final String[] ids;
+
+    private final String[] names;
+
+    /** The index of the root term, or {@code -1} if the ontology has several roots, joined under a fake root. */
+    private final int root;
+
+    private final IntBuffer parentOffsets;
+
+    private final IntBuffer parents;
+
+    private final IntBuffer childOffsets;
+
+    private final IntBuffer children;
+
+    private final String[] alternateIds;
+
+    private final IntBuffer alternateIdTargets;
+
+    private OntologySnapshot(SnapshotReader in)
+    {
+        this.version = in.readString();
+        this.termCount = in.readInt();
+        this.root = in.readInt();
+        this.ids = in.readStrings();
+        this.names = in.readStrings();
+        this.parentOffsets = in.readInts();
+        this.parents = in.readInts();
+        this.childOffsets = in.readInts();
+        this.children = in.readInts();
+        this.alternateIds = in.readStrings();
+        this.alternateIdTargets = in.readInts();
+    }
+
+    /**
+     * Read a snapshot.
+     *
+     * @param file the snapshot file
+     * @param sourceVersion the version of the source the ontology would otherwise be loaded from
+     * @return the snapshot, or {@code null} if the file doesn't exist or was written for another source version
+     * @throws IOException if reading the file fails
+     */
+    public static OntologySnapshot read(File file, String sourceVersion) throws IOException
+    {
+        SnapshotReader in = SnapshotReader.open(file, KIND, sourceVersion);
+        return in == null ? null : new OntologySnapshot(in);
+    }
+
+    /**
+     * Write a snapshot of a loaded ontology.
+     *
+     * @param file the snapshot file
+     * @param sourceVersion the version of the source the ontology was loaded from
+     * @param ontology the ontology to save
+     * @throws IOException if writing the file fails
+     */
+    public static void write(File file, String sourceVersion, AbstractOntology ontology) throws IOException
+    {
+        int termCount = ontology.size();
+        Map<String, Integer> indexes = new HashMap<String, Integer>(termCount * 2);
+        String[] ids = new String[termCount];
+        String[] names = new String[termCount];
+        int i = 0;
+        for (OntologyTerm term : ontology.getNodes()) {
+            ids[i] = term.getId();
+            names[i] = term.getName();
+            indexes.put(ids[i], i++);
+        }
+        IDAGNode rootNode = ontology.getRoot();
+        Integer rootIndex = rootNode == null ? null : indexes.get(rootNode.getId());
+        // A fake root isn't part of the ontology, it will be recreated when restoring
+        String skippedId = rootNode != null && rootIndex == null ? rootNode.getId() : null;
+
+        int[] parentOffsets = new int[termCount + 1];
+        int[] childOffsets = new int[termCount + 1];
+        IntList parents = new IntList();
+        IntList children = new IntList();
+        i = 0;
+        for (OntologyTerm term : ontology.getNodes()) {
+            ids = addAll(term.getParents(), skippedId, indexes, ids, parents);
+            ids = addAll(term.getChildren(), skippedId, indexes, ids, children);
+            parentOffsets[++i] = parents.size;
+            childOffsets[i] = children.size;
+        }
+
+        Map<String, String> alternateIdMapping = ontology.getAlternateIdMapping();
+        String[] alternateIds = new String[alternateIdMapping.size()];
+        int[] alternateIdTargets = new int[alternateIds.length];
+        int alternateIdCount = 0;
+        synchronized (alternateIdMapping) {
+            for (Map.Entry<String, String> mapping : alternateIdMapping.entrySet()) {
+                Integer target = indexes.get(mapping.getValue());
+                if (target != null && !mapping.getKey().equals(mapping.getValue())) {
+                    alternateIds[alternateIdCount] = mapping.getKey();
+                    alternateIdTargets[alternateIdCount++] = target;
+                }
+            }
+        }
+
+        SnapshotWriter out = new SnapshotWriter(file, KIND, sourceVersion);
+        try {
+            out.writeString(ontology.getVersion());
+            out.writeInt(termCount);
+            out.writeInt(rootIndex == null ? -1 : rootIndex);
+            out.writeStrings(ids, indexes.size());
+            out.writeStrings(names, termCount);
+            out.writeInts(parentOffsets, parentOffsets.length);
+            out.writeInts(parents.values, parents.size);
+            out.writeInts(childOffsets, childOffsets.length);
+            out.writeInts(children.values, children.size);
+            out.writeStrings(alternateIds, alternateIdCount);
+            out.writeInts(alternateIdTargets, alternateIdCount);
+            out.commit();
+        } catch (IOException ex) {
+            out.abort();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return the {@link AbstractOntology#getVersion() version} of the saved ontology
+     */
+    public String getVersion()
+    {
+        return this.version;
+    }
+
+    public int getTermCount()
+    {
+        return this.termCount;
+    }
+
+    /**
+     * @param index an identifier index, either a term index or the index of an identifier referenced as a parent
+     * @return the identifier
+     */
+    public String getId(int index)
+    {
+        return this.ids[index];
+    }
+
+    public String getName(int term)
+    {
+        return this.names[term];
+    }
+
+    /**
+     * @return the index of the root term, or {@code -1} if the ontology has several parentless terms
+     */
+    public int getRoot()
+    {
+        return this.root;
+    }
+
+    public int getParentsCount(int term)
+    {
+        return this.parentOffsets.get(term + 1) - this.parentOffsets.get(term);
+    }
+
+    /**
+     * @param term a term index
+     * @param i the position of the parent in the term's parents list
+     * @return the identifier index of the parent
+     */
+    public int getParent(int term, int i)
+    {
+        return this.parents.get(this.parentOffsets.get(term) + i);
+    }
+
+    public int getChildrenCount(int term)
+    {
+        return this.childOffsets.get(term + 1) - this.childOffsets.get(term);
+    }
+
+    /**
+     * @param term a term index
+     * @param i the position of the child in the term's children list
+     * @return the term index of the child
+     */
+    public int getChild(int term, int i)
+    {
+        return this.children.get(this.childOffsets.get(term) + i);
+    }
+
+    public int getAlternateIdsCount()
+    {
+        return this.alternateIds.length;
+    }
+
+    public String getAlternateId(int i)
+    {
+        return this.alternateIds[i];
+    }
+
+    /**
+     * @param i the position of the alternative identifier
+     * @return the index of the term that the alternative identifier stands for
+     */
+    public int getAlternateIdTarget(int i)
+    {
+        return this.alternateIdTargets.get(i);
+    }
+
+    /**
+     * Append the indexes of a list of identifiers, interning identifiers which aren't known terms.
+     *
+     * @return the identifier table, possibly grown
+     */
+    private static String[] addAll(List<String> termIds, String skippedId, Map<String, Integer> indexes,
+        String[] ids, IntList target)
+    {
+        String[] result = ids;
+        for (String id : termIds) {
+            if (id.equals(skippedId)) {
+                continue;
+            }
+            Integer index = indexes.get(id);
+            if (index == null) {
+                index = indexes.size();
+                indexes.put(id, index);
+                if (index == result.length) {
+                    String[] grown = new String[result.length * 2 + 1];
+                    System.arraycopy(result, 0, grown, 0, result.length);
+                    result = grown;
+                }
+                result[index] = id;
+            }
+            target.add(index);
+        }
+        return result;
+    }
+
+    /** Growable array of ints. */
+    private static final class IntList
+    {
+        private int[] values = new int[1024];
+
+        private int size;
+
+        void add(int value)
+        {
+            if (this.size == this.values.length) {
+                int[] grown = new int[this.size * 2];
+                System.arraycopy(this.values, 0, grown, 0, this.size);
+                this.values = grown;
+            }
+            this.values[this.size++] = value;
+        }
+    }
+}
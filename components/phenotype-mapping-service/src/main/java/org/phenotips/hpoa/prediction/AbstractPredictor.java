@@ -19,50 +19,210 @@
  */
 package org.phenotips.hpoa.prediction;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
+import org.phenotips.hpoa.annotation.AnnotationTerm;
 import org.phenotips.hpoa.annotation.HPOAnnotation;
 import org.phenotips.hpoa.annotation.SearchResult;
-import org.phenotips.hpoa.utils.maps.CounterMap;
-import org.phenotips.hpoa.utils.maps.SumMap;
+import org.phenotips.hpoa.ontology.AncestorClosures;
+import org.phenotips.hpoa.ontology.Ontology;
 
+/**
+ * Base class for predictors, memoizing the matches and differential phenotypes of recently queried phenotype sets in a
+ * {@link MatchCache}. Subclasses only implement the actual ranking, in {@link #computeMatches(Collection)} and
+ * optionally {@link #computeMatches(Collection, int)}.
+ *
+ * @version $Id$
+ */
 public abstract class AbstractPredictor implements Predictor
 {
-    protected HPOAnnotation annotations;
+    protected volatile HPOAnnotation annotations;
+
+    private final CacheStatistics cacheStatistics = new CacheStatistics();
+
+    private volatile MatchCache cache = new MatchCache(MatchCache.DEFAULT_CAPACITY, this.cacheStatistics);
 
+    /**
+     * {@inheritDoc} Subclasses keeping their own structures derived from the annotations must make them visible to
+     * queries before calling this method, since it also discards the cached results.
+     */
     @Override
     public void setAnnotation(HPOAnnotation annotations)
     {
         this.annotations = annotations;
+        clearCache();
+    }
+
+    @Override
+    public List<SearchResult> getMatches(Collection<String> phenotypes)
+    {
+        MatchCache crtCache = this.cache;
+        return getMatches(crtCache, getKey(phenotypes), phenotypes);
+    }
+
+    @Override
+    public List<SearchResult> getMatches(Collection<String> phenotypes, int limit)
+    {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        MatchCache crtCache = this.cache;
+        MatchCache.Key key = getKey(phenotypes);
+        List<SearchResult> result = crtCache.getMatches(key, limit);
+        if (result == null) {
+            result = crtCache.putMatches(key, computeMatches(phenotypes, limit), limit);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc} Batch queries bypass the cache, since the phenotype sets of a cohort are rarely queried again.
+     */
+    @Override
+    public void getMatches(Map<String, ? extends Collection<String>> phenotypeSets, int limit, MatchHandler handler)
+    {
+        for (Map.Entry<String, ? extends Collection<String>> set : phenotypeSets.entrySet()) {
+            handler.handleMatches(set.getKey(), computeMatches(set.getValue(), limit));
+        }
     }
 
     @Override
     public List<SearchResult> getDifferentialPhenotypes(Collection<String> phenotypes)
     {
-        List<SearchResult> result = new LinkedList<SearchResult>();
-        SumMap<String> cummulativeScore = new SumMap<String>();
-        CounterMap<String> matchCounter = new CounterMap<String>();
-        List<SearchResult> matches = getMatches(phenotypes);
-        for (SearchResult r : matches) {
-            String omimId = r.getId();
-            for (String hpoId : this.annotations.getPhenotypesWithAnnotation(omimId).keySet()) {
-                if (phenotypes.contains(hpoId)) {
+        MatchCache crtCache = this.cache;
+        MatchCache.Key key = getKey(phenotypes);
+        List<SearchResult> result = crtCache.getDifferentialPhenotypes(key);
+        if (result == null) {
+            result = crtCache.putDifferentialPhenotypes(key,
+                computeDifferentialPhenotypes(phenotypes, getMatches(crtCache, key, phenotypes)));
+        }
+        return result;
+    }
+
+    /**
+     * Counters showing how many queries were answered from the cache, since startup.
+     *
+     * @return live statistics, updated by each query
+     */
+    public CacheStatistics getCacheStatistics()
+    {
+        return this.cacheStatistics;
+    }
+
+    /**
+     * Rank all the annotations matching a set of phenotypes, without looking in the cache.
+     *
+     * @param phenotypes a set of HPO ids
+     * @return the matching annotations, ordered descending by score
+     * @see #getMatches(Collection)
+     */
+    protected abstract List<SearchResult> computeMatches(Collection<String> phenotypes);
+
+    /**
+     * Find the best annotations matching a set of phenotypes, without looking in the cache. The default implementation
+     * ranks all the annotations and keeps the first ones.
+     *
+     * @param phenotypes a set of HPO ids
+     * @param limit the maximum number of results to return
+     * @return at most {@code limit} annotations, ordered descending by score
+     * @see #getMatches(Collection, int)
+     */
+    protected List<SearchResult> computeMatches(Collection<String> phenotypes, int limit)
+    {
+        List<SearchResult> results = computeMatches(phenotypes);
+        if (results != null && limit < results.size()) {
+            return results.subList(0, Math.max(limit, 0));
+        }
+        return results;
+    }
+
+    /**
+     * Find the phenotypes annotated to some of the matched annotations, scoring them by the average score of these
+     * annotations, divided by the number of annotations, so that phenotypes present in few good matches rank first.
+     * The query phenotypes and all their ancestors are already known to be present, so they are excluded.
+     *
+     * @param phenotypes a set of HPO ids
+     * @param matches the annotations matching the phenotypes
+     * @return the differential phenotypes, ordered descending by score; empty if every candidate phenotype is present
+     *         in more than half of the matches
+     */
+    protected List<SearchResult> computeDifferentialPhenotypes(Collection<String> phenotypes,
+        List<SearchResult> matches)
+    {
+        List<SearchResult> result = new ArrayList<SearchResult>();
+        HPOAnnotation crtAnnotations = this.annotations;
+        if (crtAnnotations == null) {
+            return result;
+        }
+        Ontology ontology = crtAnnotations.getOntology();
+        AncestorClosures closures = ontology.getAncestorClosures();
+        BitSet excluded = new BitSet(closures.size());
+        for (String phenotype : phenotypes) {
+            for (int ancestor : closures.getAncestorIndexes(closures.getIndex(ontology.getRealId(phenotype)))) {
+                excluded.set(ancestor);
+            }
+        }
+
+        BitSet candidates = new BitSet(closures.size());
+        double[] cumulativeScore = new double[closures.size()];
+        int[] matchCount = new int[closures.size()];
+        for (SearchResult match : matches) {
+            AnnotationTerm annotation = crtAnnotations.getAnnotationNode(match.getId());
+            if (annotation == null) {
+                continue;
+            }
+            for (String phenotypeId : annotation.getNeighbors()) {
+                int phenotype = closures.getIndex(phenotypeId);
+                if (phenotype < 0 || excluded.get(phenotype)) {
                     continue;
                 }
-                cummulativeScore.addTo(hpoId, r.getScore());
-                matchCounter.addTo(hpoId);
+                candidates.set(phenotype);
+                cumulativeScore[phenotype] += match.getScore();
+                ++matchCount[phenotype];
             }
         }
-        if (matchCounter.getMinValue() <= matches.size() / 2) {
-            for (String hpoId : cummulativeScore.keySet()) {
-                result.add(new SearchResult(hpoId, this.annotations.getOntology().getTerm(hpoId).getName(),
-                    cummulativeScore.get(hpoId) / (matchCounter.get(hpoId) * matchCounter.get(hpoId))));
+
+        int minCount = Integer.MAX_VALUE;
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            minCount = Math.min(minCount, matchCount[i]);
+        }
+        if (minCount <= matches.size() / 2) {
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                String id = closures.getId(i);
+                double score = cumulativeScore[i] / (matchCount[i] * matchCount[i]);
+                result.add(new SearchResult(id, ontology.getName(id), score));
             }
             Collections.sort(result);
         }
         return result;
     }
+
+    /**
+     * Discard the cached results. Subclasses must call this after any change affecting the results, once the change is
+     * visible to queries.
+     */
+    protected void clearCache()
+    {
+        this.cache = new MatchCache(MatchCache.DEFAULT_CAPACITY, this.cacheStatistics);
+    }
+
+    private List<SearchResult> getMatches(MatchCache crtCache, MatchCache.Key key, Collection<String> phenotypes)
+    {
+        List<SearchResult> result = crtCache.getMatches(key, Integer.MAX_VALUE);
+        if (result == null) {
+            result = crtCache.putMatches(key, computeMatches(phenotypes), Integer.MAX_VALUE);
+        }
+        return result;
+    }
+
+    private MatchCache.Key getKey(Collection<String> phenotypes)
+    {
+        HPOAnnotation crtAnnotations = this.annotations;
+        return MatchCache.getKey(phenotypes, crtAnnotations == null ? null : crtAnnotations.getOntology());
+    }
 }
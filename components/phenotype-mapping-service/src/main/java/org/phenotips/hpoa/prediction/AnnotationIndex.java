@@ -0,0 +1,437 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.phenotips.hpoa.annotation.AnnotationTerm;
+import org.phenotips.hpoa.annotation.HPOAnnotation;
+
+/**
+ * Precomputed, immutable view of an {@link HPOAnnotation} used for scoring: the {@link MICAEngine} for its ontology,
+ * and for each annotation (disease) the minimal set of phenotypes, i.e. the annotated terms that don't have another
+ * annotated descendant. Since a term is never more informative than its descendants, comparing a query against these
+ * minimal terms gives the same best match as comparing it against all the propagated annotations. An inverted index
+ * from terms to the annotations having them allows skipping annotations that can't match a query at all.
+ *
+ * @version $Id$
+ */
+public class AnnotationIndex
+{
+    private static final int[] EMPTY = new int[0];
+
+    private final HPOAnnotation annotations;
+
+    private final MICAEngine engine;
+
+    private final AnnotationTerm[] annotationNodes;
+
+    /** The engine indexes of the minimal terms of each annotation, same order as {@link #annotationNodes}. */
+    private final int[][] annotationTerms;
+
+    /** The information content of the most informative term of each annotation. */
+    private final double[] maxIC;
+
+    /** Annotation indexes, sorted descending by {@link #maxIC}. */
+    private final int[] maxICOrder;
+
+    /** The position of each annotation in {@link #maxICOrder}. */
+    private final int[] maxICRank;
+
+    /**
+     * Inverted index: for each engine term index, the sorted indexes of the annotations having that term or one of its
+     * descendants, i.e. the propagated annotations.
+     */
+    private final int[][] postings;
+
+    private volatile TermSimilarityStore store;
+
+    public AnnotationIndex(HPOAnnotation annotations)
+    {
+        this.annotations = annotations;
+        this.engine = new MICAEngine(annotations.getOntology(), annotations);
+
+        Collection<AnnotationTerm> nodes = annotations.getAnnotations();
+        this.annotationNodes = nodes.toArray(new AnnotationTerm[nodes.size()]);
+        this.annotationTerms = new int[this.annotationNodes.length][];
+        boolean[] nonMinimal = new boolean[this.engine.size()];
+        boolean[] seen = new boolean[this.engine.size()];
+        for (int i = 0; i < this.annotationNodes.length; ++i) {
+            int[] terms = this.engine.getIndexes(this.annotationNodes[i].getNeighbors());
+            for (int term : terms) {
+                if (term >= 0) {
+                    for (int ancestor : this.engine.getAncestors(term).toArray()) {
+                        nonMinimal[ancestor] |= ancestor != term;
+                    }
+                }
+            }
+            int[] minimal = new int[terms.length];
+            int count = 0;
+            for (int term : terms) {
+                if (term >= 0 && !nonMinimal[term] && !seen[term]) {
+                    seen[term] = true;
+                    minimal[count++] = term;
+                }
+            }
+            for (int term : terms) {
+                if (term >= 0) {
+                    seen[term] = false;
+                    for (int ancestor : this.engine.getAncestors(term).toArray()) {
+                        nonMinimal[ancestor] = false;
+                    }
+                }
+            }
+            this.annotationTerms[i] = Arrays.copyOf(minimal, count);
+        }
+
+        this.maxIC = new double[this.annotationNodes.length];
+        Integer[] order = new Integer[this.annotationNodes.length];
+        for (int i = 0; i < this.annotationNodes.length; ++i) {
+            int best = -1;
+            for (int term : this.annotationTerms[i]) {
+                if (best < 0 || term < best) {
+                    best = term;
+                }
+            }
+            this.maxIC[i] = this.engine.getIC(best);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                int result = Double.compare(AnnotationIndex.this.maxIC[b], AnnotationIndex.this.maxIC[a]);
+                return result != 0 ? result : a.compareTo(b);
+            }
+        });
+        this.maxICOrder = new int[order.length];
+        this.maxICRank = new int[order.length];
+        for (int i = 0; i < order.length; ++i) {
+            this.maxICOrder[i] = order[i];
+            this.maxICRank[order[i]] = i;
+        }
+
+        this.postings = buildPostings();
+    }
+
+    public HPOAnnotation getAnnotations()
+    {
+        return this.annotations;
+    }
+
+    public MICAEngine getEngine()
+    {
+        return this.engine;
+    }
+
+    public int size()
+    {
+        return this.annotationNodes.length;
+    }
+
+    public AnnotationTerm getAnnotationNode(int index)
+    {
+        return this.annotationNodes[index];
+    }
+
+    public int[] getAnnotationTerms(int index)
+    {
+        return this.annotationTerms[index];
+    }
+
+    /**
+     * The information content of the most informative phenotype of an annotation. Since the similarity between two
+     * terms can't exceed the information content of either term, this gives an upper bound for the similarity between
+     * any query term and this annotation.
+     *
+     * @param index the index of the annotation
+     * @return the maximum information content of the annotation's terms
+     */
+    public double getMaxIC(int index)
+    {
+        return this.maxIC[index];
+    }
+
+    /**
+     * The annotation indexes sorted descending by their {@link #getMaxIC(int) maximum information content}, which is
+     * also descending by their score upper bound for any query.
+     *
+     * @return annotation indexes; the returned array must not be modified
+     */
+    public int[] getMaxICOrder()
+    {
+        return this.maxICOrder;
+    }
+
+    /**
+     * The inverted index entry for a term.
+     *
+     * @param term the engine index of a term
+     * @return the indexes of the annotations having this term, directly or through propagation, sorted ascending; the
+     *         returned array must not be modified
+     */
+    public int[] getPostings(int term)
+    {
+        return term < 0 ? EMPTY : this.postings[term];
+    }
+
+    /**
+     * Select the annotations that can have a positive similarity score with a query, i.e. those annotated with at
+     * least one informative ancestor of a query term. Ancestors with no information content, like the root, are
+     * ignored, since they're shared with every annotation and contribute nothing to the score.
+     *
+     * @param query engine indexes of the query terms, {@code -1} for unknown terms
+     * @return candidate annotation indexes, sorted ascending
+     */
+    public int[] getCandidates(int[] query)
+    {
+        boolean[] selected = new boolean[this.annotationNodes.length];
+        boolean[] visited = new boolean[this.engine.size()];
+        int count = 0;
+        for (int q : query) {
+            for (int ancestor : this.engine.getAncestors(q).toArray()) {
+                if (visited[ancestor] || this.engine.getIC(ancestor) <= 0) {
+                    continue;
+                }
+                visited[ancestor] = true;
+                for (int annotation : this.postings[ancestor]) {
+                    if (!selected[annotation]) {
+                        selected[annotation] = true;
+                        ++count;
+                    }
+                }
+            }
+        }
+        int[] result = new int[count];
+        count = 0;
+        for (int i = 0; i < selected.length && count < result.length; ++i) {
+            if (selected[i]) {
+                result[count++] = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reorder a list of annotations descending by their {@link #getMaxIC(int) maximum information content}, with the
+     * same tie order as {@link #getMaxICOrder()}.
+     *
+     * @param annotations annotation indexes
+     * @return a new array with the same annotations, reordered
+     */
+    public int[] sortByMaxIC(int[] annotations)
+    {
+        int[] result = new int[annotations.length];
+        for (int i = 0; i < annotations.length; ++i) {
+            result[i] = this.maxICRank[annotations[i]];
+        }
+        Arrays.sort(result);
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = this.maxICOrder[result[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Compute an upper bound for the {@link #asymmetricPhenotypeSimilarity(int[], int[]) similarity score} between a
+     * query and an annotation.
+     *
+     * @param queryIC for each query term, the highest information content among its ancestors, itself included
+     * @param index the index of the annotation
+     * @return a value greater than or equal to the similarity between the query and the annotation
+     */
+    public double getUpperBound(double[] queryIC, int index)
+    {
+        double result = 0.0;
+        for (double ic : queryIC) {
+            result += Math.min(ic, this.maxIC[index]);
+        }
+        return result / (queryIC.length > 0 ? queryIC.length : 1);
+    }
+
+    /**
+     * The distinct minimal terms used by all the annotations, which are the only reference terms ever needed for
+     * scoring.
+     *
+     * @return engine term indexes, sorted ascending
+     */
+    public int[] getReferenceTerms()
+    {
+        boolean[] used = new boolean[this.engine.size()];
+        int count = 0;
+        for (int[] terms : this.annotationTerms) {
+            for (int term : terms) {
+                if (!used[term]) {
+                    used[term] = true;
+                    ++count;
+                }
+            }
+        }
+        int[] result = new int[count];
+        count = 0;
+        for (int i = 0; i < used.length; ++i) {
+            if (used[i]) {
+                result[count++] = i;
+            }
+        }
+        return result;
+    }
+
+    public TermSimilarityStore getSimilarityStore()
+    {
+        return this.store;
+    }
+
+    /**
+     * Attach a precomputed similarity store, which must have been built for this index's {@link #getEngine() engine}.
+     * It may be attached while the index is in use; since the stored similarities are rounded to floats, scores
+     * computed before may differ in the last bits from the ones computed after.
+     *
+     * @param store the store to use, may be {@code null}
+     */
+    void setSimilarityStore(TermSimilarityStore store)
+    {
+        this.store = store;
+    }
+
+    /**
+     * Compute the similarity between a query and a reference set of terms.
+     *
+     * @param query engine indexes of the query terms, {@code -1} for unknown terms
+     * @param reference engine indexes of the reference terms, {@code -1} for unknown terms
+     * @return the average information content of the best match of each query term among the reference terms
+     */
+    public double asymmetricPhenotypeSimilarity(int[] query, int[] reference)
+    {
+        TermSimilarityStore crtStore = this.store;
+        boolean stored = crtStore != null && allStored(crtStore, reference);
+        double result = 0.0;
+        for (int q : query) {
+            result += (stored && crtStore.contains(q)) ? getStoredBestMatchIC(crtStore, q, reference)
+                : getBestMatchIC(q, reference);
+        }
+        return result / (query.length > 0 ? query.length : 1);
+    }
+
+    /**
+     * Compute the contribution of one query term to the {@link #asymmetricPhenotypeSimilarity(int[], int[]) similarity
+     * score} of an annotation, with the exact same value as used in that score.
+     *
+     * @param q the engine index of a query term, {@code -1} for unknown terms
+     * @param index the index of the annotation
+     * @return the information content of the best match of the term among the minimal terms of the annotation
+     */
+    public double getBestMatchIC(int q, int index)
+    {
+        int[] reference = this.annotationTerms[index];
+        TermSimilarityStore crtStore = this.store;
+        if (crtStore != null && crtStore.contains(q) && allStored(crtStore, reference)) {
+            return getStoredBestMatchIC(crtStore, q, reference);
+        }
+        return getBestMatchIC(q, reference);
+    }
+
+    private int[][] buildPostings()
+    {
+        Map<String, Integer> positions = new HashMap<String, Integer>(this.annotationNodes.length * 2);
+        for (int i = 0; i < this.annotationNodes.length; ++i) {
+            positions.put(this.annotationNodes[i].getId(), i);
+        }
+        int[][] result = new int[this.engine.size()][];
+        for (AnnotationTerm node : this.annotations.getHPONodes()) {
+            int term = this.engine.getIndex(node.getId());
+            if (term < 0) {
+                continue;
+            }
+            int[] list = new int[node.getNeighborsCount()];
+            int count = 0;
+            for (String annotationId : node.getNeighbors()) {
+                Integer position = positions.get(annotationId);
+                if (position != null) {
+                    list[count++] = position;
+                }
+            }
+            // Alternative identifiers may appear as separate nodes, merge them into the primary term's list
+            if (result[term] != null) {
+                list = Arrays.copyOf(list, count + result[term].length);
+                System.arraycopy(result[term], 0, list, count, result[term].length);
+                count = list.length;
+            }
+            result[term] = sortedUnique(list, count);
+        }
+        for (int i = 0; i < result.length; ++i) {
+            if (result[i] == null) {
+                result[i] = EMPTY;
+            }
+        }
+        return result;
+    }
+
+    private static int[] sortedUnique(int[] values, int length)
+    {
+        Arrays.sort(values, 0, length);
+        int count = 0;
+        for (int i = 0; i < length; ++i) {
+            if (count == 0 || values[i] != values[count - 1]) {
+                values[count++] = values[i];
+            }
+        }
+        return Arrays.copyOf(values, count);
+    }
+
+    private double getBestMatchIC(int q, int[] reference)
+    {
+        double bestMatchIC = 0;
+        for (int r : reference) {
+            double ic = this.engine.getMICAIC(q, r);
+            if (ic > bestMatchIC) {
+                bestMatchIC = ic;
+            }
+        }
+        return bestMatchIC;
+    }
+
+    private static double getStoredBestMatchIC(TermSimilarityStore store, int q, int[] reference)
+    {
+        float bestMatchIC = 0;
+        for (int r : reference) {
+            float ic = store.get(q, r);
+            if (ic > bestMatchIC) {
+                bestMatchIC = ic;
+            }
+        }
+        return bestMatchIC;
+    }
+
+    private static boolean allStored(TermSimilarityStore store, int[] reference)
+    {
+        for (int r : reference) {
+            if (!store.contains(r)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -20,24 +20,124 @@
 package org.phenotips.hpoa.prediction;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.phenotips.hpoa.annotation.AnnotationTerm;
+import org.phenotips.hpoa.annotation.HPOAnnotation;
 import org.phenotips.hpoa.annotation.SearchResult;
 
 import org.xwiki.component.annotation.Component;
 
+/**
+ * Ranks annotations by their posterior probability in a {@link NoisyOrModel noisy-OR Bayesian network}, given the
+ * observed phenotypes. The scores are probabilities, summing to at most 1 over all the annotations.
+ *
+ * @version $Id$
+ */
 @Component
 @Named("bn")
 @Singleton
 public class BNPredictor extends AbstractPredictor
 {
+    /** The default probability of observing a phenotype not caused by the disease. */
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.002;
+
+    /**
+     * The default probability of not observing a phenotype annotated to the disease. It is high since patients are
+     * usually described by only a few of the phenotypes annotated to their disease.
+     */
+    public static final double DEFAULT_FALSE_NEGATIVE_RATE = 0.8;
+
+    private double falsePositiveRate = DEFAULT_FALSE_POSITIVE_RATE;
+
+    private double falseNegativeRate = DEFAULT_FALSE_NEGATIVE_RATE;
+
+    private volatile NoisyOrModel model;
+
     @Override
-    public List<SearchResult> getMatches(Collection<String> phenotypes)
+    public synchronized void setAnnotation(HPOAnnotation annotations)
+    {
+        NoisyOrModel newModel =
+            new NoisyOrModel(new AnnotationIndex(annotations), this.falsePositiveRate, this.falseNegativeRate);
+        this.model = newModel;
+        super.setAnnotation(annotations);
+    }
+
+    /**
+     * Change the error rates of the model, recomputing the probability tables if annotations are already loaded.
+     *
+     * @param falsePositiveRate the probability of observing a phenotype not caused by the disease, in {@code (0, 1)}
+     * @param falseNegativeRate the probability of not observing a phenotype annotated to the disease, in {@code (0, 1)}
+     * @throws IllegalArgumentException if one of the rates is not a valid probability
+     */
+    public synchronized void setErrorRates(double falsePositiveRate, double falseNegativeRate)
     {
-        // TODO Auto-generated method stub
-        return null;
+        NoisyOrModel crtModel = this.model;
+        if (crtModel != null) {
+            this.model = new NoisyOrModel(crtModel.getIndex(), falsePositiveRate, falseNegativeRate);
+            clearCache();
+        } else if (!(falsePositiveRate > 0 && falsePositiveRate < 1 && falseNegativeRate > 0
+            && falseNegativeRate < 1)) {
+            throw new IllegalArgumentException("Invalid error rates: " + falsePositiveRate + ", "
+                + falseNegativeRate);
+        }
+        this.falsePositiveRate = falsePositiveRate;
+        this.falseNegativeRate = falseNegativeRate;
+    }
+
+    @Override
+    protected List<SearchResult> computeMatches(Collection<String> phenotypes)
+    {
+        return computeMatches(phenotypes, Integer.MAX_VALUE);
+    }
+
+    @Override
+    protected List<SearchResult> computeMatches(Collection<String> phenotypes, int limit)
+    {
+        List<SearchResult> result = new LinkedList<SearchResult>();
+        NoisyOrModel crtModel = this.model;
+        if (crtModel == null || limit <= 0) {
+            return result;
+        }
+        AnnotationIndex index = crtModel.getIndex();
+        final double[] posteriors = new double[index.size()];
+        int[] matched = crtModel.infer(index.getEngine().getIndexes(phenotypes), posteriors);
+
+        // Best first: descending by probability, then ascending by index, so that ties are stable
+        Comparator<Integer> bestFirst = new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                int order = Double.compare(posteriors[b], posteriors[a]);
+                return order != 0 ? order : a.compareTo(b);
+            }
+        };
+        PriorityQueue<Integer> best = new PriorityQueue<Integer>(Math.min(limit, matched.length) + 1,
+            Collections.reverseOrder(bestFirst));
+        for (int d : matched) {
+            if (posteriors[d] <= 0) {
+                continue;
+            }
+            if (best.size() < limit) {
+                best.add(d);
+            } else if (bestFirst.compare(d, best.peek()) < 0) {
+                best.poll();
+                best.add(d);
+            }
+        }
+        while (!best.isEmpty()) {
+            int d = best.poll();
+            AnnotationTerm o = index.getAnnotationNode(d);
+            result.add(0, new SearchResult(o.getId(), o.getName(), posteriors[d]));
+        }
+        return result;
     }
 }
@@ -0,0 +1,280 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.phenotips.hpoa.annotation.AnnotationTerm;
+import org.phenotips.hpoa.annotation.SearchResult;
+
+/**
+ * Scores many phenotype sets against all the annotations, sharing the work done for the query terms between the sets.
+ * For each distinct query term, the {@link AnnotationIndex#getBestMatchIC(int, int) best match} against every
+ * annotation is computed once, as a row of scores, and the score of a phenotype set is then the average of the rows of
+ * its terms. Rows are cached for the whole batch, up to a memory budget; beyond that they are computed for each set.
+ * Phenotype sets are distributed dynamically between several workers, and the top results of each set are handed over
+ * as soon as it is scored.
+ * <p>
+ * The results are identical to those of {@link ICPredictor#getMatches(Collection, int)} for each set.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class BatchMatcher
+{
+    /** By default, the cached scores may use this fraction of the maximum heap size. */
+    private static final int DEFAULT_CACHE_FRACTION = 16;
+
+    /** The size of a cached score, in bytes. */
+    private static final int SCORE_SIZE = 8;
+
+    private final AnnotationIndex index;
+
+    private final ExecutorService executor;
+
+    private final int parallelism;
+
+    /** The cached score rows, for each engine term index. */
+    private final AtomicReferenceArray<double[]> rows;
+
+    private final AtomicInteger cachedRows = new AtomicInteger();
+
+    private final int maxCachedRows;
+
+    /** Used for unknown terms, which don't match anything. */
+    private final double[] emptyRow;
+
+    /**
+     * Simple constructor, letting the cached scores use a small fraction of the maximum heap size.
+     *
+     * @param index the annotations to match against
+     * @param executor the executor running the workers, may be {@code null} for single-threaded scoring
+     * @param parallelism the number of workers to use
+     */
+    public BatchMatcher(AnnotationIndex index, ExecutorService executor, int parallelism)
+    {
+        this(index, executor, parallelism, Runtime.getRuntime().maxMemory() / DEFAULT_CACHE_FRACTION);
+    }
+
+    /**
+     * Constructor setting the memory budget of the cached scores.
+     *
+     * @param index the annotations to match against
+     * @param executor the executor running the workers, may be {@code null} for single-threaded scoring
+     * @param parallelism the number of workers to use
+     * @param cacheBudget how many bytes the cached scores may use, {@code 0} to compute the scores for each set
+     */
+    public BatchMatcher(AnnotationIndex index, ExecutorService executor, int parallelism, long cacheBudget)
+    {
+        this.index = index;
+        this.executor = executor;
+        this.parallelism = executor == null ? 1 : Math.max(1, parallelism);
+        this.rows = new AtomicReferenceArray<double[]>(index.getEngine().size());
+        this.maxCachedRows = (int) Math.min(index.getEngine().size(),
+            Math.max(cacheBudget, 0) / SCORE_SIZE / Math.max(index.size(), 1));
+        this.emptyRow = new double[index.size()];
+    }
+
+    /**
+     * Score all the phenotype sets.
+     *
+     * @param phenotypeSets the phenotypes of each set, by set identifier
+     * @param limit the maximum number of results for each set, must be positive
+     * @param handler receives the results of each set
+     * @throws IllegalStateException if scoring fails, or if the thread is interrupted before all the sets are scored;
+     *             the handler may already have received the results of some sets
+     */
+    public void match(Map<String, ? extends Collection<String>> phenotypeSets, int limit, MatchHandler handler)
+    {
+        final String[] ids = new String[phenotypeSets.size()];
+        final int[][] queries = new int[ids.length][];
+        int i = 0;
+        for (Map.Entry<String, ? extends Collection<String>> set : phenotypeSets.entrySet()) {
+            ids[i] = set.getKey();
+            queries[i++] = this.index.getEngine().getIndexes(set.getValue());
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger scored = new AtomicInteger();
+        int workers = Math.min(this.parallelism, ids.length);
+        if (workers <= 1) {
+            new Worker(ids, queries, limit, next, scored, handler).call();
+            checkComplete(scored.get(), ids.length);
+            return;
+        }
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(workers);
+        for (int w = 0; w < workers; ++w) {
+            futures.add(this.executor.submit(new Worker(ids, queries, limit, next, scored, handler)));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            cancel(futures);
+            throw new IllegalStateException("Interrupted while matching phenotype sets", ex);
+        } catch (ExecutionException ex) {
+            cancel(futures);
+            throw new IllegalStateException("Failed to match phenotype sets", ex.getCause());
+        }
+        checkComplete(scored.get(), ids.length);
+    }
+
+    /**
+     * Workers stop early when interrupted, make sure this isn't mistaken for a complete result.
+     */
+    private static void checkComplete(int scored, int total)
+    {
+        if (scored < total) {
+            throw new IllegalStateException("Interrupted after matching " + scored + " of " + total
+                + " phenotype sets");
+        }
+    }
+
+    private static void cancel(List<? extends Future<?>> futures)
+    {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Get the best match score of a term against each annotation, computing and caching it if needed.
+     */
+    private double[] getRow(int term)
+    {
+        if (term < 0) {
+            return this.emptyRow;
+        }
+        double[] result = this.rows.get(term);
+        if (result == null) {
+            result = new double[this.index.size()];
+            for (int d = 0; d < result.length; ++d) {
+                result[d] = this.index.getBestMatchIC(term, d);
+            }
+            if (this.cachedRows.get() < this.maxCachedRows && this.rows.compareAndSet(term, null, result)) {
+                this.cachedRows.incrementAndGet();
+            }
+        }
+        return result;
+    }
+
+    /** Scores the next unscored phenotype set until none is left. */
+    private final class Worker implements Callable<Void>
+    {
+        private final String[] ids;
+
+        private final int[][] queries;
+
+        private final int limit;
+
+        private final AtomicInteger next;
+
+        private final AtomicInteger scored;
+
+        private final MatchHandler handler;
+
+        private final double[] scores = new double[BatchMatcher.this.index.size()];
+
+        /** Best first: descending by score, then ascending by index, like the single query ranking. */
+        private final Comparator<Integer> bestFirst = new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                int result = Double.compare(Worker.this.scores[b], Worker.this.scores[a]);
+                return result != 0 ? result : a.compareTo(b);
+            }
+        };
+
+        Worker(String[] ids, int[][] queries, int limit, AtomicInteger next, AtomicInteger scored,
+            MatchHandler handler)
+        {
+            this.ids = ids;
+            this.queries = queries;
+            this.limit = limit;
+            this.next = next;
+            this.scored = scored;
+            this.handler = handler;
+        }
+
+        @Override
+        public Void call()
+        {
+            int i;
+            while ((i = this.next.getAndIncrement()) < this.ids.length && !Thread.currentThread().isInterrupted()) {
+                List<SearchResult> result = score(this.queries[i]);
+                synchronized (this.handler) {
+                    this.handler.handleMatches(this.ids[i], result);
+                }
+                this.scored.incrementAndGet();
+            }
+            return null;
+        }
+
+        private List<SearchResult> score(int[] query)
+        {
+            Arrays.fill(this.scores, 0);
+            for (int q : query) {
+                double[] row = getRow(q);
+                for (int d = 0; d < this.scores.length; ++d) {
+                    this.scores[d] += row[d];
+                }
+            }
+            int length = query.length > 0 ? query.length : 1;
+            PriorityQueue<Integer> best = new PriorityQueue<Integer>(Math.min(this.limit, this.scores.length) + 1,
+                Collections.reverseOrder(this.bestFirst));
+            for (int d = 0; d < this.scores.length; ++d) {
+                this.scores[d] /= length;
+                if (this.scores[d] <= 0) {
+                    continue;
+                }
+                if (best.size() < this.limit) {
+                    best.add(d);
+                } else if (this.bestFirst.compare(d, best.peek()) < 0) {
+                    best.poll();
+                    best.add(d);
+                }
+            }
+            LinkedList<SearchResult> result = new LinkedList<SearchResult>();
+            while (!best.isEmpty()) {
+                int d = best.poll();
+                AnnotationTerm o = BatchMatcher.this.index.getAnnotationNode(d);
+                result.addFirst(new SearchResult(o.getId(), o.getName(), this.scores[d]));
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cumulative counters describing how well the {@link MatchCache} works: how many lookups found a memoized result, how
+ * many had to compute it, and how many entries were dropped to keep the cache within its capacity. Safe for
+ * concurrent updates.
+ *
+ * @version $Id$
+ */
+public class CacheStatistics
+{
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    public void recordHit()
+    {
+        this.hits.incrementAndGet();
+    }
+
+    public void recordMiss()
+    {
+        this.misses.incrementAndGet();
+    }
+
+    public void recordEviction()
+    {
+        this.evictions.incrementAndGet();
+    }
+
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+
+    /**
+     * @return the number of entries removed because the cache was full, not counting the entries discarded when the
+     *         annotations change
+     */
+    public long getEvictions()
+    {
+        return this.evictions.get();
+    }
+
+    /**
+     * @return the fraction of lookups answered from the cache, {@code 0} if there was no lookup yet
+     */
+    public double getHitRate()
+    {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public void reset()
+    {
+        this.hits.set(0);
+        this.misses.set(0);
+        this.evictions.set(0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("hits: %d, misses: %d, hit rate: %.1f%%, evictions: %d", getHits(), getMisses(),
+            100 * getHitRate(), getEvictions());
+    }
+}
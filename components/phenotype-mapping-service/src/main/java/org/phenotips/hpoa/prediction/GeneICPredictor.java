@@ -0,0 +1,48 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.phenotips.hpoa.annotation.GeneHPOAnnotations;
+
+import org.xwiki.component.annotation.Component;
+
+/**
+ * Ranks genes for a set of phenotypes, using the same information content based scoring as {@link ICPredictor}. The
+ * information content of each term is computed from the {@link GeneHPOAnnotations gene annotations}, so this predictor
+ * keeps its own index and similarity store.
+ *
+ * @version $Id$
+ */
+@Component
+@Named("gene")
+@Singleton
+public class GeneICPredictor extends ICPredictor
+{
+    private static final String SIMILARITY_STORE_NAME = "gene-term-similarity.bin";
+
+    @Override
+    protected String getSimilarityStoreName()
+    {
+        return SIMILARITY_STORE_NAME;
+    }
+}
@@ -19,49 +19,74 @@
  */
 package org.phenotips.hpoa.prediction;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.phenotips.hpoa.annotation.AnnotationTerm;
+import org.phenotips.hpoa.annotation.HPOAnnotation;
 import org.phenotips.hpoa.annotation.SearchResult;
 import org.phenotips.hpoa.ontology.OntologyTerm;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.environment.Environment;
+
+import org.slf4j.Logger;
 
 @Component
 @Named("ic")
 @Singleton
-public class ICPredictor extends AbstractPredictor
+public class ICPredictor extends AbstractPredictor implements Disposable
 {
-    private final Map<String, Double> icCache = new HashMap<String, Double>();
+    private static final String SIMILARITY_STORE_NAME = "term-similarity.bin";
 
-    public double getIC(String hpoId)
-    {
-        return getIC(this.annotations.getHPONode(hpoId));
-    }
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Environment environment;
+
+    private volatile AnnotationIndex index;
+
+    private final PruningStatistics statistics = new PruningStatistics();
+
+    /** Runs the workers of {@link #computeMatches(Collection, int)}, created on first use. */
+    private ExecutorService executor;
 
-    private double getIC(AnnotationTerm hpoNode)
+    /** Opens the similarity stores in the background, created on first use. */
+    private ExecutorService storeLoader;
+
+    /**
+     * {@inheritDoc} The new annotations are used right away, computing the similarities on the fly, and the precomputed
+     * similarities are loaded, or computed and saved, in the background.
+     */
+    @Override
+    public void setAnnotation(HPOAnnotation annotations)
     {
-        return hpoNode == null ? 0 : getCachedIC(hpoNode);
+        AnnotationIndex newIndex = new AnnotationIndex(annotations);
+        this.index = newIndex;
+        super.setAnnotation(annotations);
+        if (this.environment != null) {
+            loadSimilarityStore(newIndex);
+        }
     }
 
-    private double getCachedIC(AnnotationTerm hpoNode)
+    public double getIC(String hpoId)
     {
-        Double result = this.icCache.get(hpoNode.getId());
-        if (result == null) {
-            result = -Math.log((double) hpoNode.getNeighborsCount() / this.annotations.getAnnotations().size());
-            this.icCache.put(hpoNode.getId(), result);
-        }
-        return result;
+        return this.index.getEngine().getIC(hpoId);
     }
 
     public OntologyTerm getMICA(String hpoId1, String hpoId2)
@@ -75,36 +100,14 @@ public OntologyTerm getMICA(String hpoId1, String hpoId2)
 
     public String getMICAId(String hpoId1, String hpoId2)
     {
-        // TODO: implement more efficiently!
-        Set<String> common = new HashSet<String>();
-        common.addAll(this.annotations.getOntology().getAncestors(hpoId1));
-        common.retainAll(this.annotations.getOntology().getAncestors(hpoId2));
-        double max = -1;
-        String micaId = this.annotations.getOntology().getRootId();
-        for (String a : common) {
-            double ic = this.getIC(a);
-            if (ic >= max) {
-                max = ic;
-                micaId = a;
-            }
-        }
-        return micaId;
+        return this.index.getEngine().getMICAId(hpoId1, hpoId2);
     }
 
     public double asymmetricPhenotypeSimilarity(Collection<String> query, Collection<String> reference)
     {
-        double result = 0.0;
-        for (String q : query) {
-            double bestMatchIC = 0;
-            for (String r : reference) {
-                double ic = this.getIC(this.getMICAId(q, r));
-                if (ic > bestMatchIC) {
-                    bestMatchIC = ic;
-                }
-            }
-            result += bestMatchIC;
-        }
-        return result / (query.size() > 0 ? query.size() : 1);
+        AnnotationIndex crtIndex = this.index;
+        MICAEngine engine = crtIndex.getEngine();
+        return crtIndex.asymmetricPhenotypeSimilarity(engine.getIndexes(query), engine.getIndexes(reference));
     }
 
     public double symmetricPhenotypeSimilarity(Collection<String> query, Collection<String> reference)
@@ -114,17 +117,158 @@ public double symmetricPhenotypeSimilarity(Collection<String> query, Collection<
     }
 
     @Override
-    public List<SearchResult> getMatches(Collection<String> phenotypes)
+    protected List<SearchResult> computeMatches(Collection<String> phenotypes)
     {
+        AnnotationIndex crtIndex = this.index;
+        int[] query = crtIndex.getEngine().getIndexes(phenotypes);
+        int[] candidates = crtIndex.getCandidates(query);
+        this.statistics.record(crtIndex.size(), candidates.length, candidates.length);
         List<SearchResult> result = new LinkedList<SearchResult>();
-        for (AnnotationTerm o : this.annotations.getAnnotations()) {
-            Set<String> annPhenotypes = this.annotations.getPhenotypesWithAnnotation(o.getId()).keySet();
-            double matchScore = this.asymmetricPhenotypeSimilarity(phenotypes, annPhenotypes);
+        for (int i : candidates) {
+            double matchScore = crtIndex.asymmetricPhenotypeSimilarity(query, crtIndex.getAnnotationTerms(i));
             if (matchScore > 0) {
+                AnnotationTerm o = crtIndex.getAnnotationNode(i);
                 result.add(new SearchResult(o.getId(), o.getName(), matchScore));
             }
         }
         Collections.sort(result);
         return result;
     }
+
+    @Override
+    protected List<SearchResult> computeMatches(Collection<String> phenotypes, int limit)
+    {
+        AnnotationIndex crtIndex = this.index;
+        if (limit <= 0) {
+            return new LinkedList<SearchResult>();
+        } else if (limit >= crtIndex.size()) {
+            return computeMatches(phenotypes);
+        }
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        return new TopKRanker(getExecutor(parallelism), parallelism).rank(crtIndex,
+            crtIndex.getEngine().getIndexes(phenotypes), limit, this.statistics);
+    }
+
+    @Override
+    public void getMatches(Map<String, ? extends Collection<String>> phenotypeSets, int limit, MatchHandler handler)
+    {
+        if (limit <= 0) {
+            super.getMatches(phenotypeSets, limit, handler);
+            return;
+        }
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        new BatchMatcher(this.index, getExecutor(parallelism), parallelism).match(phenotypeSets, limit, handler);
+    }
+
+    /**
+     * Counters showing how many annotations were skipped by the candidate pruning, since startup.
+     *
+     * @return live statistics, updated by each query
+     */
+    public PruningStatistics getPruningStatistics()
+    {
+        return this.statistics;
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+        if (this.storeLoader != null) {
+            this.storeLoader.shutdownNow();
+            this.storeLoader = null;
+        }
+    }
+
+    private synchronized ExecutorService getExecutor(int parallelism)
+    {
+        if (this.executor == null) {
+            this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory()
+            {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable task)
+                {
+                    Thread result = new Thread(task, "hpoa-ranking-" + this.counter.incrementAndGet());
+                    result.setDaemon(true);
+                    return result;
+                }
+            });
+        }
+        return this.executor;
+    }
+
+    /**
+     * Attach the precomputed similarities to an index once they are available, unless newer annotations were installed
+     * in the meantime. The stored similarities are rounded to floats, so the cached results are discarded.
+     */
+    private synchronized void loadSimilarityStore(final AnnotationIndex newIndex)
+    {
+        if (this.storeLoader == null) {
+            this.storeLoader = Executors.newSingleThreadExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable task)
+                {
+                    Thread result = new Thread(task, "hpoa-similarity-store");
+                    result.setDaemon(true);
+                    result.setPriority(Thread.MIN_PRIORITY);
+                    return result;
+                }
+            });
+        }
+        this.storeLoader.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (ICPredictor.this.index != newIndex) {
+                    return;
+                }
+                TermSimilarityStore store = openSimilarityStore(newIndex);
+                if (store != null && ICPredictor.this.index == newIndex) {
+                    newIndex.setSimilarityStore(store);
+                    clearCache();
+                }
+            }
+        });
+    }
+
+    /**
+     * The name of the file holding the precomputed term similarities. Predictors using different annotations must use
+     * different files, since the similarities depend on the annotation frequencies.
+     *
+     * @return a file name, relative to the {@code hpoa} directory
+     */
+    protected String getSimilarityStoreName()
+    {
+        return SIMILARITY_STORE_NAME;
+    }
+
+    /**
+     * Load the precomputed pairwise term similarities from the permanent directory, computing and storing them if they
+     * are missing or were computed from a different ontology or annotation.
+     *
+     * @param newIndex the index for which the similarities are needed
+     * @return the similarity store, or {@code null} if it cannot be created, in which case similarities are computed
+     *         on the fly
+     */
+    private TermSimilarityStore openSimilarityStore(AnnotationIndex newIndex)
+    {
+        File parent = new File(this.environment.getPermanentDirectory(), "hpoa");
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+        try {
+            return TermSimilarityStore.open(new File(parent, getSimilarityStoreName()), newIndex.getEngine(),
+                newIndex.getReferenceTerms());
+        } catch (IOException ex) {
+            this.logger.warn("Failed to open the term similarity store: {}", ex.getMessage());
+        }
+        return null;
+    }
 }
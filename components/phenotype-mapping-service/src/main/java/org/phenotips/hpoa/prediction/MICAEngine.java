@@ -0,0 +1,250 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.phenotips.hpoa.annotation.AnnotationTerm;
+import org.phenotips.hpoa.annotation.HPOAnnotation;
+import org.phenotips.hpoa.ontology.Ontology;
+import org.phenotips.hpoa.utils.bitsets.SparseBitSet;
+
+/**
+ * Precomputed data for fast Most Informative Common Ancestor lookups. Every term in the ontology gets a dense integer
+ * index, assigned in descending order of their information content, and the ancestor closure of each term is stored as
+ * a {@link SparseBitSet} of such indexes. Since lower indexes are more informative, the MICA of two terms is the first
+ * bit set in the intersection of their ancestor closures.
+ *
+ * @version $Id$
+ */
+public class MICAEngine
+{
+    private final Ontology ontology;
+
+    private final String rootId;
+
+    private final int rootIndex;
+
+    /** Term identifiers, ordered descending by their information content. */
+    private final String[] ids;
+
+    /** The information content of each term, same order as {@link #ids}. */
+    private final double[] ic;
+
+    /** The ancestors-or-self closure of each term, same order as {@link #ids}. */
+    private final SparseBitSet[] ancestors;
+
+    private final Map<String, Integer> indexes;
+
+    private final long fingerprint;
+
+    public MICAEngine(Ontology ontology, HPOAnnotation annotations)
+    {
+        this(ontology, getAnnotationCounts(annotations), annotations.getAnnotations().size());
+    }
+
+    /**
+     * Build an engine from precomputed term frequencies, for annotated objects that aren't loaded as an
+     * {@link HPOAnnotation}, like patients.
+     *
+     * @param ontology the ontology providing the terms and their ancestors
+     * @param annotationCounts for each term, the number of annotated objects having that term or one of its
+     *            descendants; terms missing from the map have no information content
+     * @param annotationsCount the total number of annotated objects
+     */
+    public MICAEngine(Ontology ontology, Map<String, Integer> annotationCounts, int annotationsCount)
+    {
+        this.ontology = ontology;
+        this.rootId = ontology.getRootId();
+
+        Set<String> termIds = ontology.getNodesIds();
+        final Map<String, Double> icValues = new HashMap<String, Double>(termIds.size() * 2);
+        for (String id : termIds) {
+            Integer count = annotationCounts.get(id);
+            icValues.put(id, count == null ? 0 : -Math.log(count / (double) annotationsCount));
+        }
+
+        this.ids = termIds.toArray(new String[termIds.size()]);
+        Arrays.sort(this.ids, new Comparator<String>()
+        {
+            @Override
+            public int compare(String a, String b)
+            {
+                int result = Double.compare(icValues.get(b), icValues.get(a));
+                return result != 0 ? result : a.compareTo(b);
+            }
+        });
+
+        this.ic = new double[this.ids.length];
+        this.indexes = new HashMap<String, Integer>(this.ids.length * 2);
+        for (int i = 0; i < this.ids.length; ++i) {
+            this.ic[i] = icValues.get(this.ids[i]);
+            this.indexes.put(this.ids[i], i);
+        }
+
+        Integer root = this.indexes.get(this.rootId);
+        this.rootIndex = root == null ? -1 : root;
+
+        this.ancestors = new SparseBitSet[this.ids.length];
+        for (int i = 0; i < this.ids.length; ++i) {
+            this.ancestors[i] = toBitSet(ontology.getAncestors(this.ids[i]));
+        }
+
+        long hash = this.ids.length;
+        for (int i = 0; i < this.ids.length; ++i) {
+            hash = 31 * hash + this.ids[i].hashCode();
+            hash = 31 * hash + Double.doubleToLongBits(this.ic[i]);
+            hash = 31 * hash + this.ancestors[i].hashCode();
+        }
+        this.fingerprint = hash;
+    }
+
+    private static Map<String, Integer> getAnnotationCounts(HPOAnnotation annotations)
+    {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        for (AnnotationTerm node : annotations.getHPONodes()) {
+            result.put(node.getId(), node.getNeighborsCount());
+        }
+        return result;
+    }
+
+    public int size()
+    {
+        return this.ids.length;
+    }
+
+    /**
+     * A hash of the term order, information content values and ancestor closures, which can be used for checking if
+     * data precomputed with another engine instance is still valid.
+     *
+     * @return a hash value, identical for engines built from identical ontologies and annotations
+     */
+    public long getFingerprint()
+    {
+        return this.fingerprint;
+    }
+
+    /**
+     * Get the index of a term.
+     *
+     * @param termId a term identifier, either a primary or an alternative identifier
+     * @return the index of the term, or {@code -1} if the term is not part of the ontology
+     */
+    public int getIndex(String termId)
+    {
+        Integer result = this.indexes.get(termId);
+        if (result == null && termId != null) {
+            String realId = this.ontology.getRealId(termId);
+            if (realId != null) {
+                result = this.indexes.get(realId);
+            }
+        }
+        return result == null ? -1 : result;
+    }
+
+    public String getId(int index)
+    {
+        return this.ids[index];
+    }
+
+    public double getIC(int index)
+    {
+        return index < 0 ? 0 : this.ic[index];
+    }
+
+    public double getIC(String termId)
+    {
+        return getIC(getIndex(termId));
+    }
+
+    public SparseBitSet getAncestors(int index)
+    {
+        return index < 0 ? SparseBitSet.EMPTY : this.ancestors[index];
+    }
+
+    /**
+     * Find the most informative common ancestor of two terms.
+     *
+     * @param index1 the index of the first term
+     * @param index2 the index of the second term
+     * @return the index of the MICA, the index of the root if the terms have no common ancestor, or {@code -1} if
+     *         the root isn't indexed either
+     */
+    public int getMICAIndex(int index1, int index2)
+    {
+        if (index1 < 0 || index2 < 0) {
+            return this.rootIndex;
+        }
+        int result = this.ancestors[index1].firstCommon(this.ancestors[index2]);
+        return result < 0 ? this.rootIndex : result;
+    }
+
+    /**
+     * Find the most informative common ancestor of two terms.
+     *
+     * @param termId1 the identifier of the first term
+     * @param termId2 the identifier of the second term
+     * @return the identifier of the MICA, or the root identifier if the terms have no common ancestor
+     */
+    public String getMICAId(String termId1, String termId2)
+    {
+        int mica = getMICAIndex(getIndex(termId1), getIndex(termId2));
+        return mica < 0 ? this.rootId : this.ids[mica];
+    }
+
+    public double getMICAIC(int index1, int index2)
+    {
+        return getIC(getMICAIndex(index1, index2));
+    }
+
+    /**
+     * Convert a collection of term identifiers into term indexes.
+     *
+     * @param termIds the term identifiers to convert
+     * @return an array with the same size as the input, with {@code -1} for each unknown term
+     */
+    public int[] getIndexes(Collection<String> termIds)
+    {
+        int[] result = new int[termIds.size()];
+        int i = 0;
+        for (String id : termIds) {
+            result[i++] = getIndex(id);
+        }
+        return result;
+    }
+
+    private SparseBitSet toBitSet(Set<String> termIds)
+    {
+        int[] result = new int[termIds.size()];
+        int count = 0;
+        for (String id : termIds) {
+            Integer index = this.indexes.get(id);
+            if (index != null) {
+                result[count++] = index;
+            }
+        }
+        return SparseBitSet.valueOf(Arrays.copyOf(result, count));
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.phenotips.hpoa.annotation.SearchResult;
+import org.phenotips.hpoa.ontology.Ontology;
+
+/**
+ * Memoizes the results of a predictor for recently queried phenotype sets, so that the repeated calls made while a
+ * user edits a patient record, and the differential phenotypes computed from the same matches, don't rank all the
+ * annotations again. Entries are keyed by a {@link Key canonical form} of the phenotype set, and evicted in least
+ * recently used order once the total number of cached results exceeds the capacity.
+ * <p>
+ * A cache is only valid for the annotations it was filled from; predictors replace it when their annotations change.
+ * Results are stored as unmodifiable lists shared between callers. Lookups and updates are synchronized, while the
+ * results themselves are computed outside the cache, so concurrent misses for the same key may compute it twice.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class MatchCache
+{
+    /** The default capacity, as a total number of cached results. */
+    public static final int DEFAULT_CAPACITY = 200000;
+
+    private final int capacity;
+
+    private final CacheStatistics statistics;
+
+    /** The cached entries, in access order, so that the first entry is the least recently used. */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(64, 0.75f, true);
+
+    /** The total weight of the cached entries. */
+    private long size;
+
+    /**
+     * Create an empty cache.
+     *
+     * @param capacity the maximum total number of results to keep, across all the entries
+     * @param statistics the counters to update, may be shared with the previous caches of the same predictor
+     */
+    public MatchCache(int capacity, CacheStatistics statistics)
+    {
+        this.capacity = capacity;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Build the canonical key of a phenotype set: identifiers are replaced by their primary identifier and sorted, so
+     * that the order of the phenotypes and the use of alternative identifiers don't matter. Duplicates and unknown
+     * identifiers are kept, since they are taken into account by the match scores.
+     *
+     * @param phenotypes the phenotype identifiers
+     * @param ontology the ontology used for resolving alternative identifiers, may be {@code null}
+     * @return the key of the phenotype set
+     */
+    public static Key getKey(Collection<String> phenotypes, Ontology ontology)
+    {
+        String[] ids = new String[phenotypes.size()];
+        int i = 0;
+        for (String id : phenotypes) {
+            String realId = (ontology != null && id != null) ? ontology.getRealId(id) : null;
+            ids[i++] = realId != null ? realId : String.valueOf(id);
+        }
+        Arrays.sort(ids);
+        return new Key(ids);
+    }
+
+    /**
+     * Look up the best matches of a phenotype set.
+     *
+     * @param key the key of the phenotype set
+     * @param limit the maximum number of results needed
+     * @return the first {@code limit} cached matches, or {@code null} if no cached ranking goes that far
+     */
+    public synchronized List<SearchResult> getMatches(Key key, int limit)
+    {
+        Entry entry = this.entries.get(key);
+        if (entry == null || entry.matches == null || entry.limit < limit) {
+            this.statistics.recordMiss();
+            return null;
+        }
+        this.statistics.recordHit();
+        return limit < entry.matches.size() ? entry.matches.subList(0, limit) : entry.matches;
+    }
+
+    /**
+     * Store the best matches of a phenotype set, unless a longer ranking is already cached.
+     *
+     * @param key the key of the phenotype set
+     * @param matches the matches, ordered descending by score
+     * @param limit the maximum number of results that was requested, {@link Integer#MAX_VALUE} for a full ranking
+     * @return the matches, as an unmodifiable list
+     */
+    public List<SearchResult> putMatches(Key key, List<SearchResult> matches, int limit)
+    {
+        List<SearchResult> result = Collections.unmodifiableList(new ArrayList<SearchResult>(matches));
+        synchronized (this) {
+            Entry entry = getOrCreate(key);
+            if (entry.matches == null || entry.limit < limit) {
+                this.size += result.size() - (entry.matches == null ? 0 : entry.matches.size());
+                entry.matches = result;
+                entry.limit = limit;
+                evict();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Look up the differential phenotypes of a phenotype set.
+     *
+     * @param key the key of the phenotype set
+     * @return the cached differential phenotypes, or {@code null} if they weren't computed yet
+     */
+    public synchronized List<SearchResult> getDifferentialPhenotypes(Key key)
+    {
+        Entry entry = this.entries.get(key);
+        if (entry == null || entry.differentialPhenotypes == null) {
+            this.statistics.recordMiss();
+            return null;
+        }
+        this.statistics.recordHit();
+        return entry.differentialPhenotypes;
+    }
+
+    /**
+     * Store the differential phenotypes of a phenotype set.
+     *
+     * @param key the key of the phenotype set
+     * @param phenotypes the differential phenotypes, ordered descending by score
+     * @return the phenotypes, as an unmodifiable list
+     */
+    public List<SearchResult> putDifferentialPhenotypes(Key key, List<SearchResult> phenotypes)
+    {
+        List<SearchResult> result = Collections.unmodifiableList(new ArrayList<SearchResult>(phenotypes));
+        synchronized (this) {
+            Entry entry = getOrCreate(key);
+            if (entry.differentialPhenotypes == null) {
+                this.size += result.size();
+                entry.differentialPhenotypes = result;
+                evict();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of cached phenotype sets
+     */
+    public synchronized int size()
+    {
+        return this.entries.size();
+    }
+
+    public CacheStatistics getStatistics()
+    {
+        return this.statistics;
+    }
+
+    private Entry getOrCreate(Key key)
+    {
+        Entry entry = this.entries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            this.entries.put(key, entry);
+            ++this.size;
+        }
+        return entry;
+    }
+
+    /** Remove the least recently used entries until the cache fits its capacity, always keeping the newest one. */
+    private void evict()
+    {
+        Iterator<Entry> it = this.entries.values().iterator();
+        while (this.size > this.capacity && this.entries.size() > 1) {
+            this.size -= it.next().getWeight();
+            it.remove();
+            this.statistics.recordEviction();
+        }
+    }
+
+    /**
+     * The canonical form of a phenotype set, with a precomputed hash code.
+     */
+    public static final class Key
+    {
+        private final String[] ids;
+
+        private final int hash;
+
+        private Key(String[] ids)
+        {
+            this.ids = ids;
+            this.hash = Arrays.hashCode(ids);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.hash == other.hash && Arrays.equals(this.ids, other.ids);
+        }
+
+        @Override
+        public String toString()
+        {
+            return Arrays.toString(this.ids);
+        }
+    }
+
+    /** The results cached for one phenotype set; only accessed while holding the cache lock. */
+    private static final class Entry
+    {
+        private List<SearchResult> matches;
+
+        /** How many matches were requested when {@link #matches} was computed. */
+        private int limit;
+
+        private List<SearchResult> differentialPhenotypes;
+
+        /** One for the entry itself, so that entries without results still count, plus the number of results. */
+        private long getWeight()
+        {
+            return 1 + (this.matches == null ? 0 : this.matches.size())
+                + (this.differentialPhenotypes == null ? 0 : this.differentialPhenotypes.size());
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.util.List;
+
+import org.phenotips.hpoa.annotation.SearchResult;
+
+/**
+ * Receives the results of a {@link Predictor#getMatches(java.util.Map, int, MatchHandler) batch match}, one phenotype
+ * set at a time, as soon as each one is scored.
+ *
+ * @version $Id$
+ */
+public interface MatchHandler
+{
+    /**
+     * Called once for each phenotype set in the batch, in no particular order. Calls may come from different threads,
+     * but are never concurrent.
+     *
+     * @param id the identifier of the phenotype set, for example a patient identifier
+     * @param matches the best matches for that phenotype set, ordered descending by score
+     */
+    void handleMatches(String id, List<SearchResult> matches);
+}
@@ -0,0 +1,239 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.util.Arrays;
+
+/**
+ * Precomputed conditional probability tables of a two layer Bayesian network, with one hidden node for each annotation
+ * (disease) and one observed node for each ontology term. Exactly one disease is assumed to be present, with a uniform
+ * prior. A term is observed when the disease causes it, or by error, with a {@code falsePositiveRate} probability. Each
+ * phenotype directly annotated to the disease is missed with a {@code falseNegativeRate} probability, and an ancestor
+ * term is a noisy-OR of its annotated descendants: with {@code k} such descendants,
+ * {@code P(off | d) = (1 - falsePositiveRate) * falseNegativeRate^k}.
+ * <p>
+ * With this model the log-likelihood of a query closure {@code Q} splits into a per disease constant, which accounts
+ * for all the terms being off, and a sum over the terms of {@code Q} annotated to the disease, of the log-odds of
+ * observing them instead of the background. The tables are stored as flat arrays: for each term, the diseases
+ * annotated with it and the corresponding log-odds, so that inference only reads the entries of the query terms.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class NoisyOrModel
+{
+    private final AnnotationIndex index;
+
+    private final double falsePositiveRate;
+
+    private final double falseNegativeRate;
+
+    /** For each term, the start of its entries in {@link #diseases} and {@link #weights}; one extra end offset. */
+    private final int[] offsets;
+
+    /** The diseases annotated with each term, sorted ascending for each term. */
+    private final int[] diseases;
+
+    /** The log-odds of observing a term given the disease, relative to observing it by error. */
+    private final double[] weights;
+
+    /** The log-likelihood of each disease when no term is observed, minus {@link #maxBase}. */
+    private final double[] base;
+
+    private final double maxBase;
+
+    /** The sum of {@code exp(base[d])}, i.e. the relative probability of the empty observation. */
+    private final double baseTotal;
+
+    /**
+     * Build the tables for a set of annotations.
+     *
+     * @param index the annotations to model
+     * @param falsePositiveRate the probability of observing a term not caused by the disease, in {@code (0, 1)}
+     * @param falseNegativeRate the probability of missing a term annotated to the disease, in {@code (0, 1)}
+     */
+    public NoisyOrModel(AnnotationIndex index, double falsePositiveRate, double falseNegativeRate)
+    {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("Invalid false positive rate: " + falsePositiveRate);
+        }
+        if (!(falseNegativeRate > 0 && falseNegativeRate < 1)) {
+            throw new IllegalArgumentException("Invalid false negative rate: " + falseNegativeRate);
+        }
+        this.index = index;
+        this.falsePositiveRate = falsePositiveRate;
+        this.falseNegativeRate = falseNegativeRate;
+
+        int termCount = index.getEngine().size();
+        int diseaseCount = index.size();
+        int[] causes = new int[termCount];
+        int[] terms = new int[termCount];
+
+        // First pass: the number of diseases annotated with each term
+        this.offsets = new int[termCount + 1];
+        for (int d = 0; d < diseaseCount; ++d) {
+            int count = collectCauses(index, d, causes, terms);
+            for (int i = 0; i < count; ++i) {
+                ++this.offsets[terms[i] + 1];
+                causes[terms[i]] = 0;
+            }
+        }
+        for (int t = 0; t < termCount; ++t) {
+            this.offsets[t + 1] += this.offsets[t];
+        }
+
+        // Second pass: fill the tables, diseases are visited in ascending order so each term's entries are sorted
+        this.diseases = new int[this.offsets[termCount]];
+        this.weights = new double[this.diseases.length];
+        int[] next = Arrays.copyOf(this.offsets, termCount);
+        double logOn = Math.log(falsePositiveRate);
+        double logOff = Math.log1p(-falsePositiveRate);
+        double logMiss = Math.log(falseNegativeRate);
+        this.base = new double[diseaseCount];
+        double max = Double.NEGATIVE_INFINITY;
+        for (int d = 0; d < diseaseCount; ++d) {
+            double missed = 0;
+            int count = collectCauses(index, d, causes, terms);
+            for (int i = 0; i < count; ++i) {
+                int term = terms[i];
+                int k = causes[term];
+                causes[term] = 0;
+                // log P(off | d) = log(1 - fp) + k * log(fn), log P(on | d) = log(1 - P(off | d))
+                double off = logOff + k * logMiss;
+                double on = Math.log(-Math.expm1(off));
+                missed += k * logMiss;
+                int position = next[term]++;
+                this.diseases[position] = d;
+                this.weights[position] = (on - off) - (logOn - logOff);
+            }
+            this.base[d] = termCount * logOff + missed;
+            max = Math.max(max, this.base[d]);
+        }
+        this.maxBase = diseaseCount == 0 ? 0 : max;
+        double total = 0;
+        for (int d = 0; d < diseaseCount; ++d) {
+            this.base[d] -= this.maxBase;
+            total += Math.exp(this.base[d]);
+        }
+        this.baseTotal = total;
+    }
+
+    public AnnotationIndex getIndex()
+    {
+        return this.index;
+    }
+
+    public double getFalsePositiveRate()
+    {
+        return this.falsePositiveRate;
+    }
+
+    public double getFalseNegativeRate()
+    {
+        return this.falseNegativeRate;
+    }
+
+    /**
+     * Compute the posterior probability of the diseases that share at least one term with a query.
+     *
+     * @param query engine indexes of the query terms, {@code -1} for unknown terms
+     * @param posteriors where to store the probability of each disease, must have one item for each disease; only the
+     *            items of the returned diseases are written
+     * @return the indexes of the diseases sharing at least one term with the query closure, in no particular order
+     */
+    public int[] infer(int[] query, double[] posteriors)
+    {
+        int[] closure = getClosure(query);
+        boolean[] touched = new boolean[posteriors.length];
+        int[] result = new int[posteriors.length];
+        int count = 0;
+        for (int term : closure) {
+            for (int i = this.offsets[term]; i < this.offsets[term + 1]; ++i) {
+                int d = this.diseases[i];
+                if (!touched[d]) {
+                    touched[d] = true;
+                    result[count++] = d;
+                    posteriors[d] = this.base[d];
+                }
+                posteriors[d] += this.weights[i];
+            }
+        }
+
+        // Normalize in log space: the untouched diseases keep their base likelihood
+        double shift = 0;
+        for (int i = 0; i < count; ++i) {
+            shift = Math.max(shift, posteriors[result[i]]);
+        }
+        double untouched = this.baseTotal;
+        double total = 0;
+        for (int i = 0; i < count; ++i) {
+            int d = result[i];
+            untouched -= Math.exp(this.base[d]);
+            posteriors[d] = Math.exp(posteriors[d] - shift);
+            total += posteriors[d];
+        }
+        total += Math.max(untouched, 0) * Math.exp(-shift);
+        for (int i = 0; i < count; ++i) {
+            posteriors[result[i]] /= total;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * The union of the ancestor closures of the query terms.
+     */
+    private int[] getClosure(int[] query)
+    {
+        MICAEngine engine = this.index.getEngine();
+        boolean[] seen = new boolean[engine.size()];
+        int[] result = new int[engine.size()];
+        int count = 0;
+        for (int term : query) {
+            for (int ancestor : engine.getAncestors(term).toArray()) {
+                if (!seen[ancestor]) {
+                    seen[ancestor] = true;
+                    result[count++] = ancestor;
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Count, for each ancestor of the minimal terms of a disease, how many of those terms it has as descendants.
+     *
+     * @param causes where to increment the counts, must be all zero
+     * @param terms where to list the terms with a non-zero count
+     * @return the number of terms with a non-zero count
+     */
+    private static int collectCauses(AnnotationIndex index, int disease, int[] causes, int[] terms)
+    {
+        MICAEngine engine = index.getEngine();
+        int count = 0;
+        for (int term : index.getAnnotationTerms(disease)) {
+            for (int ancestor : engine.getAncestors(term).toArray()) {
+                if (causes[ancestor]++ == 0) {
+                    terms[count++] = ancestor;
+                }
+            }
+        }
+        return count;
+    }
+}
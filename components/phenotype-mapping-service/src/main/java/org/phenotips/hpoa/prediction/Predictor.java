@@ -21,6 +21,7 @@
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.phenotips.hpoa.annotation.HPOAnnotation;
 import org.phenotips.hpoa.annotation.SearchResult;
@@ -38,10 +39,33 @@
      */
     public List<SearchResult> getMatches(Collection<String> phenotypes);
 
+    /**
+     * Obtains the best OMIM diseases that fit a set of phenotypes, ordered descending by a "matching" score. The result
+     * is the same as the first {@code limit} items returned by {@link #getMatches(Collection)}, but implementations may
+     * compute it without scoring all the diseases.
+     * 
+     * @param phenotypes A set of HPO ids
+     * @param limit The maximum number of results to return
+     * @return A list of at most {@code limit} {@link SearchResult}s, ordered descending by score.
+     */
+    public List<SearchResult> getMatches(Collection<String> phenotypes, int limit);
+
+    /**
+     * Find the best OMIM diseases for many phenotype sets at once, for example for all the patients of a cohort. The
+     * results for each set are the same as those returned by {@link #getMatches(Collection, int)}, but implementations
+     * may share work between the sets and score them in parallel. Results are passed to the handler as soon as they are
+     * available, and the method returns once all the sets are scored.
+     * 
+     * @param phenotypeSets the HPO ids of each phenotype set, mapped by an identifier of the set
+     * @param limit The maximum number of results to return for each set
+     * @param handler receives the results of each set
+     */
+    public void getMatches(Map<String, ? extends Collection<String>> phenotypeSets, int limit, MatchHandler handler);
+
     /**
      * Obtains a list of phenotypes that are likely to be useful in a differential diagnosis. These are basically
-     * phenotypes present only in some of the diseases matching the input phenotypes. The score reflects the reliability
-     * of the differentiation.
+     * phenotypes present only in some of the diseases matching the input phenotypes. The input phenotypes and their
+     * ancestors are never suggested. The score reflects the reliability of the differentiation.
      * 
      * @param phenotypes A set of HPO ids
      * @return A list of {@link SearchResult}s which map HPO ids to fitness scores, ordered descending by score.
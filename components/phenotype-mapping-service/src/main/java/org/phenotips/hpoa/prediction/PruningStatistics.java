@@ -0,0 +1,115 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cumulative counters describing how much work the candidate pruning saved: how many annotations were skipped because
+ * the inverted index showed they share nothing informative with the query, and how many were skipped because their
+ * score upper bound was too low to enter the requested top. Safe for concurrent updates.
+ *
+ * @version $Id$
+ */
+public class PruningStatistics
+{
+    private final AtomicLong queries = new AtomicLong();
+
+    private final AtomicLong annotations = new AtomicLong();
+
+    private final AtomicLong candidates = new AtomicLong();
+
+    private final AtomicLong scored = new AtomicLong();
+
+    /**
+     * Record the outcome of one query.
+     *
+     * @param annotationsCount the total number of annotations
+     * @param candidatesCount the number of annotations selected by the inverted index
+     * @param scoredCount the number of candidates that were actually scored
+     */
+    public void record(int annotationsCount, int candidatesCount, int scoredCount)
+    {
+        this.queries.incrementAndGet();
+        this.annotations.addAndGet(annotationsCount);
+        this.candidates.addAndGet(candidatesCount);
+        this.scored.addAndGet(scoredCount);
+    }
+
+    public long getQueries()
+    {
+        return this.queries.get();
+    }
+
+    /**
+     * @return the total number of annotations that could have been scored, across all queries
+     */
+    public long getAnnotations()
+    {
+        return this.annotations.get();
+    }
+
+    /**
+     * @return the number of annotations selected as candidates by the inverted index, across all queries
+     */
+    public long getCandidates()
+    {
+        return this.candidates.get();
+    }
+
+    /**
+     * @return the number of annotations actually scored, across all queries
+     */
+    public long getScored()
+    {
+        return this.scored.get();
+    }
+
+    /**
+     * @return the number of annotations skipped because they share no informative term with the query
+     */
+    public long getPrunedByIndex()
+    {
+        return getAnnotations() - getCandidates();
+    }
+
+    /**
+     * @return the number of candidates skipped because their score upper bound was too low
+     */
+    public long getPrunedByBound()
+    {
+        return getCandidates() - getScored();
+    }
+
+    public void reset()
+    {
+        this.queries.set(0);
+        this.annotations.set(0);
+        this.candidates.set(0);
+        this.scored.set(0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "queries: " + getQueries() + ", annotations: " + getAnnotations() + ", pruned by index: "
+            + getPrunedByIndex() + ", pruned by bound: " + getPrunedByBound() + ", scored: " + getScored();
+    }
+}
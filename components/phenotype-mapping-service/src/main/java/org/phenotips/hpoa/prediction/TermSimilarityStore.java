@@ -0,0 +1,220 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Precomputed similarity scores, {@code IC(MICA(a, b))}, for all the pairs from a fixed set of terms. Only the lower
+ * triangle of the symmetric matrix is stored, in a file that is memory-mapped so that the values are shared with the
+ * operating system cache and survive restarts.
+ * <p>
+ * File layout: a header with a magic number, the format version, the {@link MICAEngine#getFingerprint() fingerprint}
+ * of the engine used for computing the values, the number of terms and the engine indexes of those terms, followed by
+ * the matrix as big-endian floats, row by row. The matrix never lives on the heap: it is streamed to the file when
+ * computed, and memory-mapped when read.
+ * </p>
+ *
+ * @version $Id$
+ */
+public final class TermSimilarityStore
+{
+    private static final int MAGIC = 0x48505353;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int FLOAT_SIZE = 4;
+
+    /** The size of the fixed part of the header: magic number, format version, fingerprint and number of terms. */
+    private static final int HEADER_SIZE = 20;
+
+    /** The store slot of each engine term index, or {@code -1} for terms not included in the store. */
+    private final int[] slots;
+
+    private final FloatBuffer values;
+
+    private TermSimilarityStore(int[] slots, FloatBuffer values)
+    {
+        this.slots = slots;
+        this.values = values;
+    }
+
+    /**
+     * Load the store from a file, if it exists and it was computed with an identical engine, otherwise compute the
+     * similarity matrix for the requested terms and save it in that file.
+     *
+     * @param file the file where the store is persisted
+     * @param engine the engine used for computing similarity scores
+     * @param terms the engine indexes of the terms to include in a new store
+     * @return the loaded store
+     * @throws IOException if writing or mapping the file fails
+     */
+    public static TermSimilarityStore open(File file, MICAEngine engine, int[] terms) throws IOException
+    {
+        TermSimilarityStore result = load(file, engine);
+        if (result == null) {
+            write(file, engine, terms);
+            result = load(file, engine);
+        }
+        return result;
+    }
+
+    /**
+     * Load the store from a file.
+     *
+     * @param file the file where the store is persisted
+     * @param engine the engine which should have been used for computing the stored values
+     * @return the loaded store, or {@code null} if the file is missing, invalid, or was computed from different data
+     * @throws IOException if reading or mapping the file fails
+     */
+    public static TermSimilarityStore load(File file, MICAEngine engine) throws IOException
+    {
+        if (!file.isFile()) {
+            return null;
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            if (in.length() < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                || in.readLong() != engine.getFingerprint()) {
+                return null;
+            }
+            int size = in.readInt();
+            int[] slots = new int[engine.size()];
+            Arrays.fill(slots, -1);
+            for (int i = 0; i < size; ++i) {
+                int term = in.readInt();
+                if (term < 0 || term >= slots.length) {
+                    return null;
+                }
+                slots[term] = i;
+            }
+            long offset = in.getFilePointer();
+            long length = getMatrixSize(size) * FLOAT_SIZE;
+            if (in.length() < offset + length) {
+                return null;
+            }
+            FloatBuffer values = in.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length).asFloatBuffer();
+            return new TermSimilarityStore(slots, values);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Compute the similarity matrix for a set of terms and write it to a file. The values are streamed row by row, so
+     * the matrix is never held in memory.
+     *
+     * @param file the file where the store is persisted
+     * @param engine the engine used for computing similarity scores
+     * @param terms the engine indexes of the terms to include
+     * @throws IOException if writing the file fails, or if there isn't enough free disk space for it
+     */
+    public static void write(File file, MICAEngine engine, int[] terms) throws IOException
+    {
+        long matrixSize = getMatrixSize(terms.length) * FLOAT_SIZE;
+        if (matrixSize > Integer.MAX_VALUE) {
+            throw new IOException("Too many terms for a similarity store: " + terms.length);
+        }
+        long fileSize = HEADER_SIZE + (long) terms.length * FLOAT_SIZE + matrixSize;
+        if (file.getAbsoluteFile().getParentFile().getUsableSpace() < fileSize) {
+            throw new IOException("Not enough disk space for a similarity store of " + fileSize + " bytes");
+        }
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(engine.getFingerprint());
+            out.writeInt(terms.length);
+            for (int term : terms) {
+                out.writeInt(term);
+            }
+            for (int i = 0; i < terms.length; ++i) {
+                for (int j = 0; j <= i; ++j) {
+                    out.writeFloat((float) engine.getMICAIC(terms[i], terms[j]));
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to replace the similarity store " + file.getAbsolutePath());
+        }
+    }
+
+    public int size()
+    {
+        int result = 0;
+        for (int slot : this.slots) {
+            if (slot >= 0) {
+                ++result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check if similarity scores are available for a term.
+     *
+     * @param term the engine index of a term
+     * @return {@code true} if the term is part of this store
+     */
+    public boolean contains(int term)
+    {
+        return term >= 0 && term < this.slots.length && this.slots[term] >= 0;
+    }
+
+    /**
+     * Get the similarity score between two terms, which must both be {@link #contains(int) part of this store}.
+     *
+     * @param term1 the engine index of the first term
+     * @param term2 the engine index of the second term
+     * @return the information content of the MICA of the two terms
+     */
+    public float get(int term1, int term2)
+    {
+        int slot1 = this.slots[term1];
+        int slot2 = this.slots[term2];
+        if (slot1 < slot2) {
+            int tmp = slot1;
+            slot1 = slot2;
+            slot2 = tmp;
+        }
+        return this.values.get((int) getMatrixSize(slot1) + slot2);
+    }
+
+    /**
+     * The number of cells in the lower triangle of a square matrix, including the diagonal, which is also the offset
+     * of row {@code size} in the stored matrix.
+     */
+    private static long getMatrixSize(int size)
+    {
+        return (long) size * (size + 1) / 2;
+    }
+}
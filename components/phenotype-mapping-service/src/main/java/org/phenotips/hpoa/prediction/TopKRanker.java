@@ -0,0 +1,250 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.phenotips.hpoa.annotation.AnnotationTerm;
+import org.phenotips.hpoa.annotation.SearchResult;
+
+/**
+ * Finds the best {@code K} annotations matching a query without scoring and sorting all of them. The annotations are
+ * first filtered through the {@link AnnotationIndex#getCandidates(int[]) inverted index}, then split between several
+ * workers, each one keeping its best {@code K} candidates in a bounded min-heap. Candidates are visited in descending
+ * order of their {@link AnnotationIndex#getUpperBound(double[], int) score upper bound}, and as soon as the bound drops
+ * below the lowest score in a full heap, no other annotation can enter the final top, so the worker stops.
+ * <p>
+ * The results are identical to the first {@code K} items of the full ranking, including the order of equal scores.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class TopKRanker
+{
+    /** Below this many annotations, splitting the work between several threads isn't worth it. */
+    private static final int PARALLEL_THRESHOLD = 2000;
+
+    /**
+     * Tolerance for the comparison between the upper bound and the current threshold, since stored similarity scores
+     * are rounded to float precision and may slightly exceed the exact bound.
+     */
+    private static final double BOUND_TOLERANCE = 1e-6;
+
+    /** Orders candidates from the worst to the best, i.e. ascending by score, then descending by index. */
+    private static final Comparator<Candidate> WORST_FIRST = new Comparator<Candidate>()
+    {
+        @Override
+        public int compare(Candidate a, Candidate b)
+        {
+            int result = Double.compare(a.score, b.score);
+            return result != 0 ? result : b.index - a.index;
+        }
+    };
+
+    private final ExecutorService executor;
+
+    private final int parallelism;
+
+    /**
+     * Simple constructor.
+     *
+     * @param executor the executor running the workers, may be {@code null} for single-threaded ranking
+     * @param parallelism the number of workers to use for large annotation sets
+     */
+    public TopKRanker(ExecutorService executor, int parallelism)
+    {
+        this.executor = executor;
+        this.parallelism = executor == null ? 1 : Math.max(1, parallelism);
+    }
+
+    /**
+     * Find the best matches for a query.
+     *
+     * @param index the annotations to search
+     * @param query engine indexes of the query terms, {@code -1} for unknown terms
+     * @param limit the maximum number of results to return, must be positive
+     * @param statistics where to record how many annotations were pruned, may be {@code null}
+     * @return at most {@code limit} results with a positive score, ordered descending by score
+     */
+    public List<SearchResult> rank(AnnotationIndex index, int[] query, int limit, PruningStatistics statistics)
+    {
+        int[] candidates = index.sortByMaxIC(index.getCandidates(query));
+        // A term nobody is annotated with has no information content, but its ancestors may have, so each query term
+        // is bounded by its most informative ancestor, which is the first one in the engine order
+        MICAEngine engine = index.getEngine();
+        double[] queryIC = new double[query.length];
+        for (int i = 0; i < query.length; ++i) {
+            queryIC[i] = engine.getIC(engine.getAncestors(query[i]).first());
+        }
+        AtomicLong threshold = new AtomicLong(Double.doubleToLongBits(0.0));
+        AtomicInteger scored = new AtomicInteger();
+
+        int workers = candidates.length < PARALLEL_THRESHOLD ? 1 : this.parallelism;
+        List<Candidate> best = new ArrayList<Candidate>(limit * workers);
+        if (workers == 1) {
+            best.addAll(new Worker(index, query, queryIC, candidates, limit, 0, 1, threshold, scored).call());
+        } else {
+            List<Future<PriorityQueue<Candidate>>> futures = new ArrayList<Future<PriorityQueue<Candidate>>>(workers);
+            for (int i = 0; i < workers; ++i) {
+                futures.add(this.executor.submit(new Worker(index, query, queryIC, candidates, limit, i, workers,
+                    threshold, scored)));
+            }
+            try {
+                for (Future<PriorityQueue<Candidate>> future : futures) {
+                    best.addAll(future.get());
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                cancel(futures);
+                return Collections.emptyList();
+            } catch (ExecutionException ex) {
+                cancel(futures);
+                throw new IllegalStateException("Failed to rank matches", ex.getCause());
+            }
+        }
+
+        if (statistics != null) {
+            statistics.record(index.size(), candidates.length, scored.get());
+        }
+
+        Collections.sort(best, Collections.reverseOrder(WORST_FIRST));
+        List<SearchResult> result = new LinkedList<SearchResult>();
+        for (Candidate c : best.subList(0, Math.min(limit, best.size()))) {
+            AnnotationTerm o = index.getAnnotationNode(c.index);
+            result.add(new SearchResult(o.getId(), o.getName(), c.score));
+        }
+        return result;
+    }
+
+    private static void cancel(List<? extends Future<?>> futures)
+    {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /** A scored annotation. */
+    private static final class Candidate
+    {
+        private final int index;
+
+        private final double score;
+
+        Candidate(int index, double score)
+        {
+            this.index = index;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Scores every {@code stride}-th candidate in the upper bound order, starting at {@code offset}. Interleaving
+     * gives every worker a fair share of the promising annotations, so that all the heaps fill up quickly.
+     */
+    private static final class Worker implements Callable<PriorityQueue<Candidate>>
+    {
+        private final AnnotationIndex index;
+
+        private final int[] query;
+
+        private final double[] queryIC;
+
+        /** Candidate annotations, sorted descending by their upper bound. */
+        private final int[] candidates;
+
+        private final int limit;
+
+        private final int offset;
+
+        private final int stride;
+
+        /** The best known lower bound for the final {@code K}-th score, shared by all the workers. */
+        private final AtomicLong threshold;
+
+        private final AtomicInteger scored;
+
+        Worker(AnnotationIndex index, int[] query, double[] queryIC, int[] candidates, int limit, int offset,
+            int stride, AtomicLong threshold, AtomicInteger scored)
+        {
+            this.index = index;
+            this.query = query;
+            this.queryIC = queryIC;
+            this.candidates = candidates;
+            this.limit = limit;
+            this.offset = offset;
+            this.stride = stride;
+            this.threshold = threshold;
+            this.scored = scored;
+        }
+
+        @Override
+        public PriorityQueue<Candidate> call()
+        {
+            PriorityQueue<Candidate> heap = new PriorityQueue<Candidate>(this.limit + 1, WORST_FIRST);
+            int count = 0;
+            for (int i = this.offset; i < this.candidates.length; i += this.stride) {
+                int d = this.candidates[i];
+                double bound = this.index.getUpperBound(this.queryIC, d);
+                if (bound + BOUND_TOLERANCE < Double.longBitsToDouble(this.threshold.get())) {
+                    break;
+                }
+                ++count;
+                double score = this.index.asymmetricPhenotypeSimilarity(this.query, this.index.getAnnotationTerms(d));
+                if (score <= 0) {
+                    continue;
+                }
+                Candidate candidate = new Candidate(d, score);
+                if (heap.size() < this.limit) {
+                    heap.add(candidate);
+                } else if (WORST_FIRST.compare(candidate, heap.peek()) > 0) {
+                    heap.poll();
+                    heap.add(candidate);
+                } else {
+                    continue;
+                }
+                if (heap.size() == this.limit) {
+                    raiseThreshold(heap.peek().score);
+                }
+            }
+            this.scored.addAndGet(count);
+            return heap;
+        }
+
+        private void raiseThreshold(double value)
+        {
+            long current = this.threshold.get();
+            while (value > Double.longBitsToDouble(current)
+                && !this.threshold.compareAndSet(current, Double.doubleToLongBits(value))) {
+                current = this.threshold.get();
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.similarity;
+
+/**
+ * Selects the patients which may be returned by a {@link PatientSimilarityIndex similarity search}.
+ *
+ * @version $Id$
+ */
+public interface PatientFilter
+{
+    /**
+     * Check if a patient may be part of the results. Only called for patients scoring high enough to enter the results,
+     * and from the thread running the search.
+     *
+     * @param patientId the patient identifier
+     * @return {@code true} if the patient may be returned, {@code false} if it must be skipped
+     */
+    boolean accept(String patientId);
+}
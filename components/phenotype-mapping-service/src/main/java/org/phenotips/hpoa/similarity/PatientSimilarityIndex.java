@@ -0,0 +1,578 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.similarity;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.phenotips.hpoa.annotation.SearchResult;
+import org.phenotips.hpoa.ontology.Ontology;
+import org.phenotips.hpoa.prediction.MICAEngine;
+
+/**
+ * In-memory index of the phenotypes of a cohort of patients, answering "most similar patients" queries. The
+ * information content of each term is computed from its frequency in the cohort, and the similarity between two
+ * patients is the symmetric average of the best match of each term of one patient among the terms of the other one.
+ * <p>
+ * Patients are stored as a sparse patients &times; terms matrix, in compressed rows of the most specific terms of each
+ * patient, and an inverted index lists, for each informative term, the matrix entries having that term as an
+ * ancestor. Instead of comparing the query with each patient, queries walk the ancestors of the query terms once, from
+ * the most to the least informative one, so that the first time an entry is reached gives its best match. Only the
+ * patients sharing an informative ancestor with the query are ever visited. Since the remaining ancestors can only
+ * add matches valued at most at the current ancestor's information content, the walk stops as soon as enough patients
+ * are certain to score above any patient not reached yet, and only the candidates that may still enter the results
+ * are scored exactly.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class PatientSimilarityIndex
+{
+    private static final int[] EMPTY = new int[0];
+
+    private final MICAEngine engine;
+
+    private final String[] patientIds;
+
+    private final Map<String, Integer> positions;
+
+    /** For each patient, the start of its entries in {@link #terms}. */
+    private final int[] termOffsets;
+
+    /** The matrix entries: the most specific terms of each patient, as engine indexes sorted ascending. */
+    private final int[] terms;
+
+    /** The patient of each matrix entry. */
+    private final int[] entryPatients;
+
+    /** For each engine term, the start of its entries in {@link #postings}. */
+    private final int[] postingOffsets;
+
+    /** For each informative term, the matrix entries having that term as an ancestor or self, sorted ascending. */
+    private final int[] postings;
+
+    /**
+     * Build the index.
+     *
+     * @param ontology the ontology of the phenotypes
+     * @param phenotypes the present phenotypes of each patient, mapped by patient identifier
+     */
+    public PatientSimilarityIndex(Ontology ontology, Map<String, ? extends Collection<String>> phenotypes)
+    {
+        this.patientIds = phenotypes.keySet().toArray(new String[phenotypes.size()]);
+        this.positions = new HashMap<String, Integer>(this.patientIds.length * 2);
+        for (int i = 0; i < this.patientIds.length; ++i) {
+            this.positions.put(this.patientIds[i], i);
+        }
+        this.engine = new MICAEngine(ontology, countPatients(ontology, phenotypes), this.patientIds.length);
+
+        this.termOffsets = new int[this.patientIds.length + 1];
+        int[][] patientTerms = new int[this.patientIds.length][];
+        for (int p = 0; p < this.patientIds.length; ++p) {
+            patientTerms[p] = getSpecificTerms(this.engine.getIndexes(phenotypes.get(this.patientIds[p])));
+            this.termOffsets[p + 1] = this.termOffsets[p] + patientTerms[p].length;
+        }
+        this.terms = new int[this.termOffsets[this.patientIds.length]];
+        this.entryPatients = new int[this.terms.length];
+        for (int p = 0; p < this.patientIds.length; ++p) {
+            System.arraycopy(patientTerms[p], 0, this.terms, this.termOffsets[p], patientTerms[p].length);
+            Arrays.fill(this.entryPatients, this.termOffsets[p], this.termOffsets[p + 1], p);
+        }
+
+        this.postingOffsets = new int[this.engine.size() + 1];
+        this.postings = buildPostings();
+    }
+
+    public MICAEngine getEngine()
+    {
+        return this.engine;
+    }
+
+    public int size()
+    {
+        return this.patientIds.length;
+    }
+
+    public boolean contains(String patientId)
+    {
+        return this.positions.containsKey(patientId);
+    }
+
+    /**
+     * The most specific terms of a patient, i.e. its phenotypes without those implied by another phenotype.
+     *
+     * @param patientId the patient identifier
+     * @return term identifiers, empty if the patient isn't indexed
+     */
+    public List<String> getPatientTerms(String patientId)
+    {
+        Integer p = this.positions.get(patientId);
+        if (p == null) {
+            return Collections.emptyList();
+        }
+        List<String> result = new LinkedList<String>();
+        for (int i = this.termOffsets[p]; i < this.termOffsets[p + 1]; ++i) {
+            result.add(this.engine.getId(this.terms[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Compute the similarity between two indexed patients.
+     *
+     * @param patientId1 the first patient identifier
+     * @param patientId2 the second patient identifier
+     * @return the symmetric similarity score, {@code 0} if one of the patients isn't indexed
+     */
+    public double getSimilarity(String patientId1, String patientId2)
+    {
+        Integer p1 = this.positions.get(patientId1);
+        Integer p2 = this.positions.get(patientId2);
+        if (p1 == null || p2 == null) {
+            return 0;
+        }
+        return symmetricSimilarity(getTerms(p1), p2);
+    }
+
+    /**
+     * Find the patients most similar to an indexed patient.
+     *
+     * @param patientId the identifier of the reference patient, which is excluded from the results
+     * @param limit the maximum number of results to return
+     * @param filter selects the patients which may be returned, for example the ones visible to the current user, may
+     *            be {@code null}
+     * @return at most {@code limit} patients with a positive score, ordered descending by score, empty if the patient
+     *         isn't indexed
+     */
+    public List<SearchResult> getSimilarPatients(String patientId, int limit, PatientFilter filter)
+    {
+        Integer p = this.positions.get(patientId);
+        if (p == null) {
+            return new LinkedList<SearchResult>();
+        }
+        return rank(getTerms(p), p, limit, filter);
+    }
+
+    /**
+     * Find the patients most similar to a set of phenotypes.
+     *
+     * @param phenotypes HPO term identifiers
+     * @param limit the maximum number of results to return
+     * @param filter selects the patients which may be returned, for example the ones visible to the current user, may
+     *            be {@code null}
+     * @return at most {@code limit} patients with a positive score, ordered descending by score
+     */
+    public List<SearchResult> getSimilarPatients(Collection<String> phenotypes, int limit, PatientFilter filter)
+    {
+        return rank(getSpecificTerms(this.engine.getIndexes(phenotypes)), -1, limit, filter);
+    }
+
+    /**
+     * Count the patients having each term, directly or through one of its descendants.
+     */
+    private static Map<String, Integer> countPatients(Ontology ontology,
+        Map<String, ? extends Collection<String>> phenotypes)
+    {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        Map<String, Object> seen = new HashMap<String, Object>();
+        for (Collection<String> patientPhenotypes : phenotypes.values()) {
+            Object stamp = new Object();
+            for (String id : patientPhenotypes) {
+                for (String ancestor : ontology.getAncestors(id)) {
+                    if (seen.put(ancestor, stamp) != stamp) {
+                        Integer count = result.get(ancestor);
+                        result.put(ancestor, count == null ? 1 : count + 1);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Keep only the known terms not implied by another term of the set.
+     *
+     * @param indexes engine indexes, {@code -1} for unknown terms
+     * @return distinct engine indexes, sorted ascending
+     */
+    private int[] getSpecificTerms(int[] indexes)
+    {
+        int[] result = new int[indexes.length];
+        int count = 0;
+        for (int term : indexes) {
+            if (term < 0) {
+                continue;
+            }
+            boolean specific = true;
+            for (int other : indexes) {
+                if (other >= 0 && other != term && this.engine.getAncestors(other).get(term)) {
+                    specific = false;
+                    break;
+                }
+            }
+            if (specific) {
+                result[count++] = term;
+            }
+        }
+        Arrays.sort(result, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; ++i) {
+            if (unique == 0 || result[i] != result[unique - 1]) {
+                result[unique++] = result[i];
+            }
+        }
+        return unique == 0 ? EMPTY : Arrays.copyOf(result, unique);
+    }
+
+    /**
+     * Build the inverted index from the informative ancestors of each matrix entry, in two passes: first counting the
+     * entries of each term, then filling them in.
+     */
+    private int[] buildPostings()
+    {
+        int[] counts = new int[this.engine.size()];
+        for (int term : this.terms) {
+            for (int ancestor : this.engine.getAncestors(term).toArray()) {
+                if (this.engine.getIC(ancestor) > 0) {
+                    ++counts[ancestor];
+                }
+            }
+        }
+        for (int t = 0; t < counts.length; ++t) {
+            this.postingOffsets[t + 1] = this.postingOffsets[t] + counts[t];
+        }
+        int[] result = new int[this.postingOffsets[counts.length]];
+        Arrays.fill(counts, 0);
+        for (int e = 0; e < this.terms.length; ++e) {
+            for (int ancestor : this.engine.getAncestors(this.terms[e]).toArray()) {
+                if (this.engine.getIC(ancestor) > 0) {
+                    result[this.postingOffsets[ancestor] + counts[ancestor]++] = e;
+                }
+            }
+        }
+        return result;
+    }
+
+    private int[] getTerms(int patient)
+    {
+        return Arrays.copyOfRange(this.terms, this.termOffsets[patient], this.termOffsets[patient + 1]);
+    }
+
+    private List<SearchResult> rank(int[] query, int exclude, int limit, PatientFilter filter)
+    {
+        if (limit <= 0 || query.length == 0) {
+            return new LinkedList<SearchResult>();
+        }
+        Search search = new Search(query, exclude, limit, filter);
+        search.run();
+        return search.getResults();
+    }
+
+    /**
+     * The average of the two asymmetric similarities, from the query to the patient and from the patient to the query.
+     */
+    private double symmetricSimilarity(int[] query, int patient)
+    {
+        int start = this.termOffsets[patient];
+        int end = this.termOffsets[patient + 1];
+        if (query.length == 0 || start == end) {
+            return 0;
+        }
+        // Best match of each patient term, filled in the same pass as the query terms
+        double[] reverse = new double[end - start];
+        double forward = 0;
+        for (int q : query) {
+            double bestMatchIC = 0;
+            for (int i = start; i < end; ++i) {
+                double ic = this.engine.getMICAIC(q, this.terms[i]);
+                bestMatchIC = Math.max(bestMatchIC, ic);
+                reverse[i - start] = Math.max(reverse[i - start], ic);
+            }
+            forward += bestMatchIC;
+        }
+        double backward = 0;
+        for (double ic : reverse) {
+            backward += ic;
+        }
+        return (forward / query.length + backward / reverse.length) / 2;
+    }
+
+    /**
+     * The state of a similarity query. Informative ancestors of the query terms are visited in descending order of
+     * their information content. Since the first ancestor reaching a matrix entry gives its best match, visited
+     * ancestors build up a partial score for each reached patient, and no ancestor left can contribute more than the
+     * current information content. Before walking a long list of entries, the search checks whether enough patients
+     * already have a partial score higher than anything still reachable, and if so, only the patients whose upper bound
+     * can still enter the results are scored exactly.
+     */
+    private final class Search
+    {
+        /** Tolerance for the bound comparisons, since partial scores are not summed in the exact score order. */
+        private static final double TOLERANCE = 1e-9;
+
+        private static final byte UNCHECKED = 0;
+
+        private static final byte ACCEPTED = 1;
+
+        private static final byte REJECTED = 2;
+
+        private final int[] query;
+
+        private final int exclude;
+
+        private final int limit;
+
+        private final PatientFilter filter;
+
+        /** For each informative ancestor of the query, the positions of the query terms under it. */
+        private final int[][] queryTerms;
+
+        /**
+         * The reached patients, in the order they were reached. The other arrays are indexed by patient, since entries
+         * are visited in ascending order of their patient, which keeps memory accesses sequential.
+         */
+        private int[] candidates = new int[16];
+
+        private int count;
+
+        /** For each patient and query term, whether a match was found. */
+        private final boolean[] matched;
+
+        /** For each matrix entry, whether a match among the query terms was found. */
+        private final boolean[] entryMatched = new boolean[PatientSimilarityIndex.this.terms.length];
+
+        /** For each patient, the sum of the best matches of the query terms found so far. */
+        private final double[] forward = new double[PatientSimilarityIndex.this.patientIds.length];
+
+        /** For each patient, how many query terms were matched. */
+        private final int[] forwardCount = new int[PatientSimilarityIndex.this.patientIds.length];
+
+        /** For each patient, the sum of the best matches of the patient's terms found so far. */
+        private final double[] backward = new double[PatientSimilarityIndex.this.patientIds.length];
+
+        /** For each patient, how many of the patient's terms were matched; patients are reached once positive. */
+        private final int[] backwardCount = new int[PatientSimilarityIndex.this.patientIds.length];
+
+        /** The result of the access checks done so far, for each patient. */
+        private final byte[] access = new byte[PatientSimilarityIndex.this.patientIds.length];
+
+        /** No ancestor left to visit has a higher information content than this. */
+        private double remainingIC;
+
+        /** The lowest partial score among the best {@code limit} accepted candidates, once known. */
+        private double threshold;
+
+        Search(int[] query, int exclude, int limit, PatientFilter filter)
+        {
+            this.query = query;
+            this.exclude = exclude;
+            this.limit = limit;
+            this.filter = filter;
+            this.matched = new boolean[PatientSimilarityIndex.this.patientIds.length * query.length];
+            this.queryTerms = new int[PatientSimilarityIndex.this.engine.size()][];
+            for (int i = 0; i < query.length; ++i) {
+                for (int ancestor : PatientSimilarityIndex.this.engine.getAncestors(query[i]).toArray()) {
+                    if (PatientSimilarityIndex.this.engine.getIC(ancestor) > 0) {
+                        int[] previous = this.queryTerms[ancestor] == null ? EMPTY : this.queryTerms[ancestor];
+                        this.queryTerms[ancestor] = Arrays.copyOf(previous, previous.length + 1);
+                        this.queryTerms[ancestor][previous.length] = i;
+                    }
+                }
+            }
+        }
+
+        void run()
+        {
+            MICAEngine engine = PatientSimilarityIndex.this.engine;
+            int[] offsets = PatientSimilarityIndex.this.postingOffsets;
+            for (int ancestor = 0; ancestor < this.queryTerms.length; ++ancestor) {
+                if (this.queryTerms[ancestor] == null) {
+                    continue;
+                }
+                this.remainingIC = engine.getIC(ancestor);
+                if (offsets[ancestor + 1] - offsets[ancestor] > this.count && canStop()) {
+                    return;
+                }
+                visit(ancestor);
+            }
+            // All the matches are known, but the threshold still spares the exact scoring of most candidates
+            this.remainingIC = 0;
+            canStop();
+        }
+
+        List<SearchResult> getResults()
+        {
+            final double[] scores = new double[this.count];
+            Comparator<Integer> worstFirst = new Comparator<Integer>()
+            {
+                @Override
+                public int compare(Integer a, Integer b)
+                {
+                    int cmp = Double.compare(scores[a], scores[b]);
+                    return cmp != 0 ? cmp : Search.this.candidates[b] - Search.this.candidates[a];
+                }
+            };
+            PriorityQueue<Integer> best = new PriorityQueue<Integer>(this.limit + 1, worstFirst);
+            for (int c = 0; c < this.count; ++c) {
+                int p = this.candidates[c];
+                if (p == this.exclude || getUpperBound(p) + TOLERANCE < this.threshold) {
+                    continue;
+                }
+                scores[c] = symmetricSimilarity(this.query, p);
+                if (scores[c] <= 0 || (best.size() == this.limit && worstFirst.compare(c, best.peek()) <= 0)) {
+                    continue;
+                }
+                // Access checks may be expensive, so they're only done for patients that would enter the results
+                if (!isAccepted(p)) {
+                    continue;
+                }
+                best.add(c);
+                if (best.size() > this.limit) {
+                    best.poll();
+                }
+            }
+
+            List<SearchResult> result = new LinkedList<SearchResult>();
+            while (!best.isEmpty()) {
+                int c = best.poll();
+                String id = PatientSimilarityIndex.this.patientIds[this.candidates[c]];
+                result.add(0, new SearchResult(id, id, scores[c]));
+            }
+            return result;
+        }
+
+        /**
+         * Record the matches given by an ancestor to the entries it reaches.
+         */
+        private void visit(int ancestor)
+        {
+            double ic = PatientSimilarityIndex.this.engine.getIC(ancestor);
+            int[] postings = PatientSimilarityIndex.this.postings;
+            int[] entryPatients = PatientSimilarityIndex.this.entryPatients;
+            int[] terms = this.queryTerms[ancestor];
+            int width = this.query.length;
+            for (int j = PatientSimilarityIndex.this.postingOffsets[ancestor];
+                j < PatientSimilarityIndex.this.postingOffsets[ancestor + 1]; ++j) {
+                int e = postings[j];
+                int p = entryPatients[e];
+                if (!this.entryMatched[e]) {
+                    if (this.backwardCount[p] == 0) {
+                        addCandidate(p);
+                    }
+                    this.entryMatched[e] = true;
+                    this.backward[p] += ic;
+                    ++this.backwardCount[p];
+                }
+                if (this.forwardCount[p] == width) {
+                    continue;
+                }
+                for (int i : terms) {
+                    if (!this.matched[p * width + i]) {
+                        this.matched[p * width + i] = true;
+                        this.forward[p] += ic;
+                        ++this.forwardCount[p];
+                    }
+                }
+            }
+        }
+
+        private void addCandidate(int patient)
+        {
+            if (this.count == this.candidates.length) {
+                this.candidates = Arrays.copyOf(this.candidates, this.count * 2);
+            }
+            this.candidates[this.count++] = patient;
+        }
+
+        /**
+         * Check if the best {@code limit} accepted candidates have partial scores higher than what any patient can
+         * still gain, in which case patients not reached yet can't enter the results.
+         */
+        private boolean canStop()
+        {
+            if (this.count < this.limit) {
+                return false;
+            }
+            final double[] partial = new double[this.count];
+            PriorityQueue<Integer> leading = new PriorityQueue<Integer>(this.limit + 1, new Comparator<Integer>()
+            {
+                @Override
+                public int compare(Integer a, Integer b)
+                {
+                    return Double.compare(partial[a], partial[b]);
+                }
+            });
+            for (int c = 0; c < this.count; ++c) {
+                int p = this.candidates[c];
+                partial[c] = getLowerBound(p);
+                if (partial[c] <= this.remainingIC + TOLERANCE || p == this.exclude
+                    || (leading.size() == this.limit && partial[c] <= partial[leading.peek()])) {
+                    continue;
+                }
+                if (isAccepted(p)) {
+                    leading.add(c);
+                    if (leading.size() > this.limit) {
+                        leading.poll();
+                    }
+                }
+            }
+            if (leading.size() < this.limit) {
+                return false;
+            }
+            this.threshold = partial[leading.peek()];
+            return true;
+        }
+
+        /** The score of a patient counting only the matches found so far. */
+        private double getLowerBound(int p)
+        {
+            int size = PatientSimilarityIndex.this.termOffsets[p + 1] - PatientSimilarityIndex.this.termOffsets[p];
+            return (this.forward[p] / this.query.length + this.backward[p] / size) / 2;
+        }
+
+        /** The score of a patient if all the missing matches were worth the highest information content left. */
+        private double getUpperBound(int p)
+        {
+            int size = PatientSimilarityIndex.this.termOffsets[p + 1] - PatientSimilarityIndex.this.termOffsets[p];
+            double missing = (this.query.length - this.forwardCount[p]) * this.remainingIC / this.query.length
+                + (size - this.backwardCount[p]) * this.remainingIC / size;
+            return getLowerBound(p) + missing / 2;
+        }
+
+        private boolean isAccepted(int p)
+        {
+            if (this.filter == null) {
+                return true;
+            }
+            if (this.access[p] == UNCHECKED) {
+                boolean accepted = this.filter.accept(PatientSimilarityIndex.this.patientIds[p]);
+                this.access[p] = accepted ? ACCEPTED : REJECTED;
+            }
+            return this.access[p] == ACCEPTED;
+        }
+    }
+}
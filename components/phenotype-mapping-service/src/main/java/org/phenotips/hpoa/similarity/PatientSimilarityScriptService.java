@@ -0,0 +1,333 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.similarity;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.PermissionsManager;
+import org.phenotips.hpoa.annotation.SearchResult;
+import org.phenotips.hpoa.ontology.Ontology;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.script.service.ScriptService;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.slf4j.Logger;
+
+/**
+ * Finds the patients most similar to a patient or to a set of phenotypes. The present phenotypes of all the patients
+ * are read from the patients Solr core, maintained by the patient indexer, into an in-memory
+ * {@link PatientSimilarityIndex}, which is rebuilt in the background once it gets older than a few minutes. Only
+ * patients that the current user is allowed to view are returned.
+ *
+ * @version $Id$
+ */
+@Component
+@Named("patientSimilarity")
+@Singleton
+public class PatientSimilarityScriptService implements ScriptService, Initializable, Disposable
+{
+    /** How long an index is used before being rebuilt, in milliseconds. */
+    private static final long REFRESH_INTERVAL = 5 * 60 * 1000L;
+
+    /** How many patients are fetched from Solr in one request. */
+    private static final int PAGE_SIZE = 5000;
+
+    private static final String DOCUMENT_FIELD = "document";
+
+    /** The indexed fields holding present phenotypes; negative phenotypes don't count towards similarity. */
+    private static final String[] PHENOTYPE_FIELDS = { "phenotype", "prenatal_phenotype" };
+
+    /** Character used in URLs to delimit path segments. */
+    private static final String URL_PATH_SEPARATOR = "/";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    @Named("hpo")
+    private Ontology hpo;
+
+    @Inject
+    private PatientRepository patientRepository;
+
+    @Inject
+    private PermissionsManager permissions;
+
+    /** The patients Solr core. */
+    private SolrServer server;
+
+    private volatile PatientSimilarityIndex index;
+
+    /** When the current index was built, as returned by {@link System#currentTimeMillis()}. */
+    private volatile long indexTime;
+
+    /** Whether an index rebuild is queued or running. */
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    /** Runs the index rebuilds. */
+    private ExecutorService builder;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.server = new HttpSolrServer(this.getSolrLocation() + "patients/");
+        } catch (RuntimeException ex) {
+            throw new InitializationException("Invalid URL specified for the Solr server: {}");
+        }
+        this.builder = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable task)
+            {
+                Thread result = new Thread(task, "patient-similarity-indexer");
+                result.setDaemon(true);
+                return result;
+            }
+        });
+        refresh();
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.builder != null) {
+            this.builder.shutdownNow();
+        }
+    }
+
+    /**
+     * Find the patients most similar to a patient. The current user must be allowed to view the reference patient.
+     *
+     * @param patientId the identifier of the reference patient, i.e. its serialized document reference
+     * @param limit the maximum number of patients to return
+     * @return at most {@code limit} patients visible to the current user, ordered descending by their similarity, with
+     *         their external identifier as the name; empty if the patients aren't indexed yet
+     */
+    public List<SearchResult> getSimilarPatients(String patientId, int limit)
+    {
+        PatientSimilarityIndex crtIndex = getIndex();
+        AccessFilter filter = new AccessFilter();
+        if (crtIndex == null || !filter.accept(patientId)) {
+            return Collections.emptyList();
+        }
+        return filter.describe(crtIndex.getSimilarPatients(patientId, limit, filter));
+    }
+
+    /**
+     * Find the patients most similar to a set of phenotypes.
+     *
+     * @param phenotypes HPO term identifiers
+     * @param limit the maximum number of patients to return
+     * @return at most {@code limit} patients visible to the current user, ordered descending by their similarity, with
+     *         their external identifier as the name; empty if the patients aren't indexed yet
+     */
+    public List<SearchResult> getSimilarPatients(Collection<String> phenotypes, int limit)
+    {
+        PatientSimilarityIndex crtIndex = getIndex();
+        if (crtIndex == null || phenotypes == null) {
+            return Collections.emptyList();
+        }
+        AccessFilter filter = new AccessFilter();
+        return filter.describe(crtIndex.getSimilarPatients(phenotypes, limit, filter));
+    }
+
+    /**
+     * Whether patients are indexed and can be searched.
+     *
+     * @return {@code true} once the first index is built
+     */
+    public boolean isReady()
+    {
+        return this.index != null;
+    }
+
+    /**
+     * Rebuild the index in the background, for example after importing many patients. Queries keep using the current
+     * index until the new one is ready.
+     */
+    public void refresh()
+    {
+        if (!this.rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        this.builder.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    rebuild();
+                } finally {
+                    PatientSimilarityScriptService.this.rebuilding.set(false);
+                }
+            }
+        });
+    }
+
+    private PatientSimilarityIndex getIndex()
+    {
+        if (System.currentTimeMillis() - this.indexTime > REFRESH_INTERVAL) {
+            refresh();
+        }
+        return this.index;
+    }
+
+    private void rebuild()
+    {
+        long start = System.currentTimeMillis();
+        // Also when failing, so that a missing Solr core isn't queried again before the next refresh interval
+        this.indexTime = start;
+        try {
+            Map<String, Set<String>> phenotypes = fetchPhenotypes();
+            PatientSimilarityIndex newIndex = new PatientSimilarityIndex(this.hpo, phenotypes);
+            this.index = newIndex;
+            this.logger.debug("Indexed the phenotypes of {} patients in {} ms", newIndex.size(),
+                System.currentTimeMillis() - start);
+        } catch (SolrServerException ex) {
+            this.logger.warn("Failed to read the indexed patients: {}", ex.getMessage());
+        } catch (RuntimeException ex) {
+            this.logger.error("Failed to build the patient similarity index: {}", ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Read the present phenotypes of all the indexed patients, one page at a time.
+     *
+     * @return the phenotypes of each patient, mapped by the patient's document reference
+     */
+    private Map<String, Set<String>> fetchPhenotypes() throws SolrServerException
+    {
+        Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+        SolrQuery query = new SolrQuery("*:*");
+        query.setFields(DOCUMENT_FIELD);
+        for (String field : PHENOTYPE_FIELDS) {
+            query.addField(field);
+        }
+        query.addSortField(DOCUMENT_FIELD, SolrQuery.ORDER.asc);
+        query.setRows(PAGE_SIZE);
+        long total = 1;
+        for (int start = 0; start < total; start += PAGE_SIZE) {
+            query.setStart(start);
+            SolrDocumentList page = this.server.query(query).getResults();
+            total = page.getNumFound();
+            for (SolrDocument doc : page) {
+                Set<String> terms = new LinkedHashSet<String>();
+                for (String field : PHENOTYPE_FIELDS) {
+                    Collection<Object> values = doc.getFieldValues(field);
+                    if (values != null) {
+                        for (Object value : values) {
+                            terms.add(String.valueOf(value));
+                        }
+                    }
+                }
+                result.put((String) doc.getFieldValue(DOCUMENT_FIELD), terms);
+            }
+            if (page.isEmpty()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the URL where the Solr server can be reached, without any core name.
+     *
+     * @return an URL as a String
+     */
+    protected String getSolrLocation()
+    {
+        String wikiSolrUrl = this.configuration.getProperty("solr.remote.url", String.class);
+        if (StringUtils.isBlank(wikiSolrUrl)) {
+            return "http://localhost:8080/solr/";
+        }
+        return StringUtils.substringBeforeLast(StringUtils.removeEnd(wikiSolrUrl, URL_PATH_SEPARATOR),
+            URL_PATH_SEPARATOR) + URL_PATH_SEPARATOR;
+    }
+
+    /**
+     * Accepts the patients that the current user may view, remembering them so that the results can be described
+     * without loading the patients again.
+     */
+    private final class AccessFilter implements PatientFilter
+    {
+        private final AccessLevel view = PatientSimilarityScriptService.this.permissions.resolveAccessLevel("view");
+
+        private final Map<String, Patient> accepted = new HashMap<String, Patient>();
+
+        @Override
+        public boolean accept(String patientId)
+        {
+            Patient patient = PatientSimilarityScriptService.this.patientRepository.getPatientById(patientId);
+            if (patient == null || !PatientSimilarityScriptService.this.permissions.getPatientAccess(patient)
+                .hasAccessLevel(this.view)) {
+                return false;
+            }
+            this.accepted.put(patientId, patient);
+            return true;
+        }
+
+        List<SearchResult> describe(List<SearchResult> results)
+        {
+            List<SearchResult> described = new LinkedList<SearchResult>();
+            for (SearchResult result : results) {
+                Patient patient = this.accepted.get(result.getId());
+                String name = patient == null ? null : patient.getExternalId();
+                described.add(new SearchResult(result.getId(), StringUtils.defaultIfBlank(name, result.getId()),
+                    result.getScore()));
+            }
+            return described;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.utils.bitsets;
+
+import java.util.Arrays;
+
+/**
+ * Immutable compressed bitset, storing only the non-empty 64-bit words together with their position. Well suited for
+ * ancestor closures in a large ontology, where each set contains only a few dozen bits out of several thousands.
+ *
+ * @version $Id$
+ */
+public final class SparseBitSet
+{
+    /** The empty set. */
+    public static final SparseBitSet EMPTY = new SparseBitSet(new int[0], new long[0]);
+
+    private static final int ADDRESS_BITS = 6;
+
+    private static final int WORD_MASK = 63;
+
+    /** The position of each stored word, sorted ascending. */
+    private final int[] positions;
+
+    /** The non-zero words, in the same order as {@link #positions}. */
+    private final long[] words;
+
+    private SparseBitSet(int[] positions, long[] words)
+    {
+        this.positions = positions;
+        this.words = words;
+    }
+
+    /**
+     * Build a set from a list of bit indexes. The input doesn't have to be sorted, and may contain duplicates.
+     *
+     * @param indexes the bits to set, all non-negative
+     * @return a new set
+     */
+    public static SparseBitSet valueOf(int[] indexes)
+    {
+        if (indexes.length == 0) {
+            return EMPTY;
+        }
+        int[] sorted = Arrays.copyOf(indexes, indexes.length);
+        Arrays.sort(sorted);
+        int[] positions = new int[sorted.length];
+        long[] words = new long[sorted.length];
+        int count = -1;
+        for (int index : sorted) {
+            int position = index >>> ADDRESS_BITS;
+            if (count < 0 || positions[count] != position) {
+                positions[++count] = position;
+            }
+            words[count] |= 1L << (index & WORD_MASK);
+        }
+        ++count;
+        return new SparseBitSet(Arrays.copyOf(positions, count), Arrays.copyOf(words, count));
+    }
+
+    public boolean get(int index)
+    {
+        int i = Arrays.binarySearch(this.positions, index >>> ADDRESS_BITS);
+        return i >= 0 && (this.words[i] & (1L << (index & WORD_MASK))) != 0;
+    }
+
+    public boolean isEmpty()
+    {
+        return this.words.length == 0;
+    }
+
+    public int cardinality()
+    {
+        int result = 0;
+        for (long word : this.words) {
+            result += Long.bitCount(word);
+        }
+        return result;
+    }
+
+    /**
+     * Find the lowest bit that is set in this set.
+     *
+     * @return the index of the first set bit, or {@code -1} if the set is empty
+     */
+    public int first()
+    {
+        if (this.words.length == 0) {
+            return -1;
+        }
+        return (this.positions[0] << ADDRESS_BITS) + Long.numberOfTrailingZeros(this.words[0]);
+    }
+
+    /**
+     * Find the lowest bit that is set in both this set and the other set, without materializing the intersection.
+     *
+     * @param other the set to intersect with
+     * @return the index of the first common bit, or {@code -1} if the two sets are disjoint
+     */
+    public int firstCommon(SparseBitSet other)
+    {
+        int i = 0;
+        int j = 0;
+        while (i < this.positions.length && j < other.positions.length) {
+            if (this.positions[i] < other.positions[j]) {
+                ++i;
+            } else if (this.positions[i] > other.positions[j]) {
+                ++j;
+            } else {
+                long common = this.words[i] & other.words[j];
+                if (common != 0) {
+                    return (this.positions[i] << ADDRESS_BITS) + Long.numberOfTrailingZeros(common);
+                }
+                ++i;
+                ++j;
+            }
+        }
+        return -1;
+    }
+
+    public boolean intersects(SparseBitSet other)
+    {
+        return firstCommon(other) >= 0;
+    }
+
+    public SparseBitSet and(SparseBitSet other)
+    {
+        int size = Math.min(this.positions.length, other.positions.length);
+        int[] newPositions = new int[size];
+        long[] newWords = new long[size];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < this.positions.length && j < other.positions.length) {
+            if (this.positions[i] < other.positions[j]) {
+                ++i;
+            } else if (this.positions[i] > other.positions[j]) {
+                ++j;
+            } else {
+                long common = this.words[i] & other.words[j];
+                if (common != 0) {
+                    newPositions[count] = this.positions[i];
+                    newWords[count++] = common;
+                }
+                ++i;
+                ++j;
+            }
+        }
+        return count == 0 ? EMPTY : new SparseBitSet(Arrays.copyOf(newPositions, count), Arrays.copyOf(newWords,
+            count));
+    }
+
+    public SparseBitSet or(SparseBitSet other)
+    {
+        if (other.isEmpty()) {
+            return this;
+        } else if (this.isEmpty()) {
+            return other;
+        }
+        int[] newPositions = new int[this.positions.length + other.positions.length];
+        long[] newWords = new long[newPositions.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < this.positions.length || j < other.positions.length) {
+            if (j >= other.positions.length || i < this.positions.length && this.positions[i] < other.positions[j]) {
+                newPositions[count] = this.positions[i];
+                newWords[count++] = this.words[i++];
+            } else if (i >= this.positions.length || this.positions[i] > other.positions[j]) {
+                newPositions[count] = other.positions[j];
+                newWords[count++] = other.words[j++];
+            } else {
+                newPositions[count] = this.positions[i];
+                newWords[count++] = this.words[i++] | other.words[j++];
+            }
+        }
+        return new SparseBitSet(Arrays.copyOf(newPositions, count), Arrays.copyOf(newWords, count));
+    }
+
+    /**
+     * List the set bits.
+     *
+     * @return the indexes of the set bits, in ascending order
+     */
+    public int[] toArray()
+    {
+        int[] result = new int[cardinality()];
+        int count = 0;
+        for (int i = 0; i < this.words.length; ++i) {
+            long word = this.words[i];
+            while (word != 0) {
+                result[count++] = (this.positions[i] << ADDRESS_BITS) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * Arrays.hashCode(this.positions) + Arrays.hashCode(this.words);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        SparseBitSet other = (SparseBitSet) obj;
+        return Arrays.equals(this.positions, other.positions) && Arrays.equals(this.words, other.words);
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(toArray());
+    }
+}
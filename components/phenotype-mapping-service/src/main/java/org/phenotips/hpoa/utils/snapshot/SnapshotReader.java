@@ -0,0 +1,163 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.utils.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a binary snapshot written by {@link SnapshotWriter}. The file is memory-mapped, so opening it is almost free
+ * and the data is read directly from the operating system cache.
+ *
+ * @version $Id$
+ */
+public class SnapshotReader
+{
+    private static final int INT_SIZE = 4;
+
+    private final MappedByteBuffer buffer;
+
+    private String sourceVersion;
+
+    private SnapshotReader(MappedByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Open a snapshot file, checking that it is compatible with the requested data.
+     *
+     * @param file the snapshot file
+     * @param kind the expected type of data stored in the snapshot
+     * @param sourceVersion the expected version of the source data, or {@code null} to accept any version
+     * @return a reader positioned at the start of the snapshot content, or {@code null} if the file is missing, was
+     *         written with a different format, or from a different source version
+     * @throws IOException if the file cannot be read
+     */
+    public static SnapshotReader open(File file, int kind, String sourceVersion) throws IOException
+    {
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            SnapshotReader result =
+                new SnapshotReader(in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length()));
+            if (result.readInt() != SnapshotWriter.MAGIC || result.readInt() != SnapshotWriter.FORMAT_VERSION
+                || result.readInt() != kind) {
+                return null;
+            }
+            result.sourceVersion = result.readString();
+            if (sourceVersion != null && !sourceVersion.equals(result.sourceVersion)) {
+                return null;
+            }
+            return result;
+        } catch (BufferUnderflowException ex) {
+            return null;
+        } finally {
+            // The mapping stays valid after the channel is closed
+            in.close();
+        }
+    }
+
+    /**
+     * Identify a version of a source file by its size and modification date.
+     *
+     * @param file the source file
+     * @return a version string, which changes whenever the file is modified
+     */
+    public static String getFileVersion(File file)
+    {
+        return file.length() + ":" + file.lastModified();
+    }
+
+    /**
+     * The version of the source data the snapshot was written from.
+     *
+     * @return the version string stored in the header
+     */
+    public String getSourceVersion()
+    {
+        return this.sourceVersion;
+    }
+
+    public int readInt()
+    {
+        return this.buffer.getInt();
+    }
+
+    /**
+     * Read an array of ints written by {@link SnapshotWriter#writeInts(int[], int)}, without copying it.
+     *
+     * @return a read-only view over the mapped data
+     */
+    public IntBuffer readInts()
+    {
+        int length = this.buffer.getInt();
+        IntBuffer result = this.buffer.slice().asIntBuffer();
+        result.limit(length);
+        this.buffer.position(this.buffer.position() + length * INT_SIZE);
+        return result;
+    }
+
+    /**
+     * Read a string table written by {@link SnapshotWriter#writeStrings(String[], int)}.
+     *
+     * @return the decoded strings
+     */
+    public String[] readStrings()
+    {
+        int length = this.buffer.getInt();
+        int[] ends = new int[length];
+        for (int i = 0; i < length; ++i) {
+            ends[i] = this.buffer.getInt();
+        }
+        byte[] data = new byte[length > 0 ? ends[length - 1] : 0];
+        this.buffer.get(data);
+        String[] result = new String[length];
+        int start = 0;
+        for (int i = 0; i < length; ++i) {
+            result[i] = new String(data, start, ends[i] - start, SnapshotWriter.UTF8);
+            start = ends[i];
+        }
+        return result;
+    }
+
+    /**
+     * Read a string written by {@link SnapshotWriter#writeString(String)}.
+     *
+     * @return the decoded string, or {@code null} if the data is invalid
+     */
+    public String readString()
+    {
+        int length = this.buffer.getInt();
+        if (length < 0 || length > this.buffer.remaining()) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        this.buffer.get(data);
+        return new String(data, SnapshotWriter.UTF8);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.utils.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Writes a binary snapshot file, to be read back with {@link SnapshotReader}. Data is written to a temporary file,
+ * which replaces the target file only when {@link #commit() committed}, so readers never see a partially written
+ * snapshot.
+ * <p>
+ * Layout: a header with a magic number, the format version, the snapshot kind and the version of the source data,
+ * followed by the snapshot content as big-endian ints, int arrays prefixed by their length, and string tables.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class SnapshotWriter
+{
+    static final int MAGIC = 0x4850534e;
+
+    static final int FORMAT_VERSION = 2;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+
+    private final File tmp;
+
+    private final DataOutputStream out;
+
+    /**
+     * Start writing a new snapshot.
+     *
+     * @param file the target file
+     * @param kind identifies the type of data stored in the snapshot
+     * @param sourceVersion identifies the source data, a snapshot is only valid for the same source version
+     * @throws IOException if the file cannot be written
+     */
+    public SnapshotWriter(File file, int kind, String sourceVersion) throws IOException
+    {
+        this.file = file;
+        this.tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.tmp), 1 << 16));
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(FORMAT_VERSION);
+        this.out.writeInt(kind);
+        writeString(sourceVersion);
+    }
+
+    public void writeInt(int value) throws IOException
+    {
+        this.out.writeInt(value);
+    }
+
+    /**
+     * Write an array of ints, preceded by its length.
+     *
+     * @param values the values to write
+     * @param length how many values to write from the start of the array
+     * @throws IOException if writing fails
+     */
+    public void writeInts(int[] values, int length) throws IOException
+    {
+        this.out.writeInt(length);
+        for (int i = 0; i < length; ++i) {
+            this.out.writeInt(values[i]);
+        }
+    }
+
+    /**
+     * Write a table of strings: the number of strings, their end offsets in the UTF-8 encoded data, and the data.
+     *
+     * @param values the strings to write, {@code null} values are written as empty strings
+     * @param length how many strings to write from the start of the array
+     * @throws IOException if writing fails
+     */
+    public void writeStrings(String[] values, int length) throws IOException
+    {
+        byte[][] encoded = new byte[length][];
+        int offset = 0;
+        this.out.writeInt(length);
+        for (int i = 0; i < length; ++i) {
+            encoded[i] = values[i] == null ? new byte[0] : values[i].getBytes(UTF8);
+            offset += encoded[i].length;
+            this.out.writeInt(offset);
+        }
+        for (byte[] value : encoded) {
+            this.out.write(value);
+        }
+    }
+
+    /**
+     * Finish writing, replacing the target file.
+     *
+     * @throws IOException if the file cannot be replaced
+     */
+    public void commit() throws IOException
+    {
+        this.out.close();
+        if (this.file.exists() && !this.file.delete() || !this.tmp.renameTo(this.file)) {
+            this.tmp.delete();
+            throw new IOException("Failed to replace the snapshot " + this.file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Discard the snapshot, leaving the target file untouched.
+     */
+    public void abort()
+    {
+        try {
+            this.out.close();
+        } catch (IOException ex) {
+            // Nothing to do, the file is discarded anyway
+        }
+        this.tmp.delete();
+    }
+
+    /**
+     * Write a single string, as its length followed by its UTF-8 encoded data.
+     *
+     * @param value the string to write, must not be {@code null}
+     * @throws IOException if writing fails
+     */
+    public void writeString(String value) throws IOException
+    {
+        byte[] encoded = value.getBytes(UTF8);
+        this.out.writeInt(encoded.length);
+        this.out.write(encoded);
+    }
+}
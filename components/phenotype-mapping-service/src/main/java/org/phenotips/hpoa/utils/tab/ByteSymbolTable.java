@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.utils.tab;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Assigns dense integer identifiers to byte sequences, so that repeated values read by a {@link TabSeparatedScanner}
+ * can be recognized without decoding them into strings. The symbols are copied into a single byte array, and an
+ * open-addressing hash table with linear probing maps them to their identifier. Not thread safe.
+ *
+ * @version $Id$
+ */
+public final class ByteSymbolTable
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int MIN_CAPACITY = 64;
+
+    /** Marks an empty slot in the hash table; other slots hold the symbol identifier plus one. */
+    private static final int EMPTY_SLOT = 0;
+
+    /** The bytes of all the symbols, concatenated. */
+    private byte[] data = new byte[MIN_CAPACITY * 8];
+
+    /** The start of each symbol in {@link #data}; one extra end offset. */
+    private int[] offsets = new int[MIN_CAPACITY + 1];
+
+    private int[] hashes = new int[MIN_CAPACITY];
+
+    private int size;
+
+    private int[] table = new int[MIN_CAPACITY * 2];
+
+    /**
+     * Find the identifier of a symbol, adding it if it isn't in the table yet.
+     *
+     * @param bytes the buffer holding the symbol
+     * @param offset the start of the symbol in the buffer
+     * @param length the length of the symbol
+     * @return the identifier of the symbol if it was already known, or {@code -(identifier + 1)} for a new symbol
+     */
+    public int intern(byte[] bytes, int offset, int length)
+    {
+        int hash = hash(bytes, offset, length);
+        int mask = this.table.length - 1;
+        int slot = hash & mask;
+        while (this.table[slot] != EMPTY_SLOT) {
+            int symbol = this.table[slot] - 1;
+            if (this.hashes[symbol] == hash && equals(symbol, bytes, offset, length)) {
+                return symbol;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int symbol = this.size++;
+        if (this.size == this.hashes.length) {
+            this.hashes = Arrays.copyOf(this.hashes, this.size << 1);
+            this.offsets = Arrays.copyOf(this.offsets, (this.size << 1) + 1);
+        }
+        int start = this.offsets[symbol];
+        if (start + length > this.data.length) {
+            this.data = Arrays.copyOf(this.data, Math.max(this.data.length << 1, start + length));
+        }
+        System.arraycopy(bytes, offset, this.data, start, length);
+        this.offsets[symbol + 1] = start + length;
+        this.hashes[symbol] = hash;
+        this.table[slot] = symbol + 1;
+        if (this.size << 1 > this.table.length) {
+            rehash(this.table.length << 1);
+        }
+        return -(symbol + 1);
+    }
+
+    /**
+     * Intern a field of the current line of a scanner.
+     *
+     * @param scanner the scanner positioned on a line
+     * @param field the index of the field, must be less than {@link TabSeparatedScanner#getFieldCount()}
+     * @return the identifier of the symbol if it was already known, or {@code -(identifier + 1)} for a new symbol
+     * @see #intern(byte[], int, int)
+     */
+    public int intern(TabSeparatedScanner scanner, int field)
+    {
+        return intern(scanner.getBuffer(), scanner.getFieldStart(field), scanner.getFieldLength(field));
+    }
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Decode a symbol.
+     *
+     * @param symbol the identifier of the symbol
+     * @return the symbol, decoded as UTF-8
+     */
+    public String getString(int symbol)
+    {
+        return new String(this.data, this.offsets[symbol], this.offsets[symbol + 1] - this.offsets[symbol], UTF8);
+    }
+
+    private boolean equals(int symbol, byte[] bytes, int offset, int length)
+    {
+        int start = this.offsets[symbol];
+        if (this.offsets[symbol + 1] - start != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (this.data[start + i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int capacity)
+    {
+        this.table = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < this.size; ++i) {
+            int slot = this.hashes[i] & mask;
+            while (this.table[slot] != EMPTY_SLOT) {
+                slot = (slot + 1) & mask;
+            }
+            this.table[slot] = i + 1;
+        }
+    }
+
+    private static int hash(byte[] bytes, int offset, int length)
+    {
+        int h = 1;
+        for (int i = offset; i < offset + length; ++i) {
+            h = 31 * h + bytes[i];
+        }
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.utils.tab;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads a tab separated file line by line, directly from the bytes in a reusable buffer. Field boundaries are found
+ * with a single scan of each line, and fields can be compared or {@link ByteSymbolTable interned} without creating any
+ * object; only the fields actually needed as text are decoded, as UTF-8. Lines are ended by {@code \n}, with an
+ * optional {@code \r} before it. The fields of the current line are only valid until the next call to {@link #next()}.
+ * Not thread safe.
+ *
+ * @version $Id$
+ */
+public final class TabSeparatedScanner
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private static final byte SEPARATOR = '\t';
+
+    private static final byte NEW_LINE = '\n';
+
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    private final InputStream in;
+
+    private byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+
+    /** The start of the data not returned as a line yet. */
+    private int position;
+
+    /** The end of the data read into the buffer. */
+    private int limit;
+
+    private boolean endOfInput;
+
+    private int[] fieldStarts = new int[16];
+
+    private int[] fieldEnds = new int[16];
+
+    private int fieldCount;
+
+    private long bytesRead;
+
+    private long lineCount;
+
+    /**
+     * Simple constructor.
+     *
+     * @param in the data to read, not closed by the scanner
+     */
+    public TabSeparatedScanner(InputStream in)
+    {
+        this.in = in;
+    }
+
+    /**
+     * Advance to the next line.
+     *
+     * @return {@code true} if a line was read, {@code false} at the end of the input
+     * @throws IOException if reading the input fails
+     */
+    public boolean next() throws IOException
+    {
+        int scanned = this.position;
+        while (true) {
+            for (int i = scanned; i < this.limit; ++i) {
+                if (this.buffer[i] == NEW_LINE) {
+                    split(this.position, i);
+                    this.position = i + 1;
+                    return true;
+                }
+            }
+            if (this.endOfInput) {
+                if (this.position < this.limit) {
+                    split(this.position, this.limit);
+                    this.position = this.limit;
+                    return true;
+                }
+                return false;
+            }
+            scanned = this.limit - this.position;
+            fill();
+        }
+    }
+
+    public int getFieldCount()
+    {
+        return this.fieldCount;
+    }
+
+    /**
+     * The buffer holding the current line, for use with {@link #getFieldStart(int)} and {@link #getFieldLength(int)}.
+     *
+     * @return the internal buffer, which must not be modified
+     */
+    public byte[] getBuffer()
+    {
+        return this.buffer;
+    }
+
+    public int getFieldStart(int field)
+    {
+        return this.fieldStarts[field];
+    }
+
+    public int getFieldLength(int field)
+    {
+        return this.fieldEnds[field] - this.fieldStarts[field];
+    }
+
+    /**
+     * Check if a field of the current line is equal to some bytes.
+     *
+     * @param field the index of the field, must be less than {@link #getFieldCount()}
+     * @param value the expected content
+     * @return {@code true} if the field has exactly the same bytes
+     */
+    public boolean fieldEquals(int field, byte[] value)
+    {
+        return getFieldLength(field) == value.length && fieldStartsWith(field, value);
+    }
+
+    /**
+     * Check if a field of the current line starts with some bytes.
+     *
+     * @param field the index of the field, must be less than {@link #getFieldCount()}
+     * @param prefix the expected prefix
+     * @return {@code true} if the field starts with the same bytes
+     */
+    public boolean fieldStartsWith(int field, byte[] prefix)
+    {
+        if (getFieldLength(field) < prefix.length) {
+            return false;
+        }
+        int start = this.fieldStarts[field];
+        for (int i = 0; i < prefix.length; ++i) {
+            if (this.buffer[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decode a field of the current line.
+     *
+     * @param field the index of the field, must be less than {@link #getFieldCount()}
+     * @return the field content, decoded as UTF-8
+     */
+    public String getString(int field)
+    {
+        return new String(this.buffer, this.fieldStarts[field], getFieldLength(field), UTF8);
+    }
+
+    /**
+     * The number of bytes consumed so far.
+     *
+     * @return a byte count
+     */
+    public long getBytesRead()
+    {
+        return this.bytesRead;
+    }
+
+    /**
+     * The number of lines returned so far.
+     *
+     * @return a line count
+     */
+    public long getLineCount()
+    {
+        return this.lineCount;
+    }
+
+    private void split(int start, int end)
+    {
+        int lineEnd = end > start && this.buffer[end - 1] == CARRIAGE_RETURN ? end - 1 : end;
+        this.fieldCount = 0;
+        int fieldStart = start;
+        for (int i = start; i < lineEnd; ++i) {
+            if (this.buffer[i] == SEPARATOR) {
+                addField(fieldStart, i);
+                fieldStart = i + 1;
+            }
+        }
+        addField(fieldStart, lineEnd);
+        ++this.lineCount;
+    }
+
+    private void addField(int start, int end)
+    {
+        if (this.fieldCount == this.fieldStarts.length) {
+            this.fieldStarts = Arrays.copyOf(this.fieldStarts, this.fieldCount << 1);
+            this.fieldEnds = Arrays.copyOf(this.fieldEnds, this.fieldCount << 1);
+        }
+        this.fieldStarts[this.fieldCount] = start;
+        this.fieldEnds[this.fieldCount++] = end;
+    }
+
+    /**
+     * Read more data, after moving the unfinished line to the start of the buffer, or growing the buffer if that line
+     * already fills it.
+     */
+    private void fill() throws IOException
+    {
+        int pending = this.limit - this.position;
+        if (this.position > 0) {
+            System.arraycopy(this.buffer, this.position, this.buffer, 0, pending);
+        } else if (pending == this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, this.buffer.length << 1);
+        }
+        this.position = 0;
+        this.limit = pending;
+        int count = this.in.read(this.buffer, this.limit, this.buffer.length - this.limit);
+        if (count < 0) {
+            this.endOfInput = true;
+        } else {
+            this.limit += count;
+            this.bytesRead += count;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.phenotips.hpoa.annotation.AnnotationTerm;
+import org.phenotips.hpoa.annotation.OmimHPOAnnotations;
+import org.phenotips.hpoa.ontology.AbstractOntology;
+
+/**
+ * A small ontology and disease annotations shared by the tests.
+ *
+ * @version $Id$
+ */
+public final class AnnotationFixture
+{
+    /**
+     * HP:0000001 &lt;- HP:0000002 &lt;- HP:0000003, HP:0000004; HP:0000001 &lt;- HP:0000005 &lt;- HP:0000006,
+     * HP:0000007. HP:0000013 is an alternative id of HP:0000003.
+     */
+    public static final String ONTOLOGY = "[Term]\nid: HP:0000001\nname: All\n\n"
+        + "[Term]\nid: HP:0000002\nname: A\nis_a: HP:0000001 ! All\n\n"
+        + "[Term]\nid: HP:0000003\nname: A1\nalt_id: HP:0000013\nis_a: HP:0000002 ! A\n\n"
+        + "[Term]\nid: HP:0000004\nname: A2\nis_a: HP:0000002 ! A\n\n"
+        + "[Term]\nid: HP:0000005\nname: B\nis_a: HP:0000001 ! All\n\n"
+        + "[Term]\nid: HP:0000006\nname: B1\nis_a: HP:0000005 ! B\n\n"
+        + "[Term]\nid: HP:0000007\nname: B2\nis_a: HP:0000005 ! B\n";
+
+    /** OMIM:1 has A1 and A2, OMIM:2 has A1 and B1, OMIM:3 has A1 and B2, OMIM:4 has B1. */
+    public static final String ANNOTATIONS = line("1", "HP:0000003") + line("1", "HP:0000004")
+        + line("2", "HP:0000003") + line("2", "HP:0000006") + line("3", "HP:0000003") + line("3", "HP:0000007")
+        + line("4", "HP:0000006");
+
+    /** Every term whose number is a multiple of this also has an alternative identifier, see {@link #getAltId}. */
+    public static final int ALT_ID_STEP = 10;
+
+    private AnnotationFixture()
+    {
+        // Utility class
+    }
+
+    /**
+     * Load the {@link #ONTOLOGY fixture ontology}.
+     *
+     * @return the loaded ontology
+     * @throws IOException if the temporary source file cannot be written
+     */
+    public static AbstractOntology createOntology() throws IOException
+    {
+        return createOntology(ONTOLOGY);
+    }
+
+    /**
+     * Generate a random ontology, with a single root, {@code HP:0000001}, and terms having up to three parents.
+     *
+     * @param random the source of randomness, seeded by the caller so that the ontology is the same on every run
+     * @param terms the number of terms, numbered from {@code 1}
+     * @return the content of the ontology file
+     */
+    public static String randomOntology(Random random, int terms)
+    {
+        StringBuilder result = new StringBuilder("[Term]\nid: HP:0000001\nname: Term 1\n\n");
+        for (int i = 2; i <= terms; ++i) {
+            result.append("[Term]\nid: ").append(getId(i)).append("\nname: Term ").append(i).append('\n');
+            List<Integer> parents = new ArrayList<Integer>();
+            for (int j = random.nextInt(3); j >= 0; --j) {
+                int parent = 1 + random.nextInt(i - 1);
+                if (!parents.contains(parent)) {
+                    parents.add(parent);
+                    result.append("is_a: ").append(getId(parent)).append(" ! Term ").append(parent).append('\n');
+                }
+            }
+            if (i % ALT_ID_STEP == 0) {
+                result.append("alt_id: ").append(getAltId(i)).append('\n');
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Generate random diseases, annotated with the first {@code annotatedTerms} terms of a
+     * {@link #randomOntology random ontology}, so that the other terms aren't annotated with any disease. Some
+     * phenotypes are listed twice for the same disease, and some through their alternative identifier, like in the
+     * real annotation file.
+     *
+     * @param random the source of randomness, seeded by the caller so that the diseases are the same on every run
+     * @param diseases the number of diseases, numbered from {@code 1}
+     * @param annotatedTerms the number of terms that can be used, the root excluded
+     * @return the phenotypes of each disease number, in the order of the annotation file
+     */
+    public static Map<String, List<String>> randomDiseases(Random random, int diseases, int annotatedTerms)
+    {
+        Map<String, List<String>> result = new LinkedHashMap<String, List<String>>();
+        for (int d = 1; d <= diseases; ++d) {
+            List<String> phenotypes = new ArrayList<String>();
+            for (int j = random.nextInt(4); j >= 0; --j) {
+                int term = 2 + random.nextInt(annotatedTerms - 1);
+                phenotypes.add(term % ALT_ID_STEP == 0 && random.nextBoolean() ? getAltId(term) : getId(term));
+                if (random.nextInt(8) == 0) {
+                    phenotypes.add(getId(term));
+                }
+            }
+            result.put(String.valueOf(d), phenotypes);
+        }
+        return result;
+    }
+
+    /**
+     * Simulate patients of random diseases: a few of the phenotypes annotated to the disease, some of them replaced by
+     * a less specific parent, and up to two unrelated terms of the ontology.
+     *
+     * @param annotations the diseases to pick from
+     * @param random the source of randomness, seeded by the caller so that the patients are the same on every run
+     * @param patients how many patients to simulate
+     * @param diseases where to add the identifier of the disease of each patient
+     * @return the phenotypes of each patient
+     */
+    public static List<List<String>> simulatePatients(OmimHPOAnnotations annotations, Random random, int patients,
+        List<String> diseases)
+    {
+        List<AnnotationTerm> nodes = new ArrayList<AnnotationTerm>(annotations.getAnnotations());
+        List<String> terms = new ArrayList<String>(annotations.getOntology().getNodesIds());
+        Collections.sort(terms);
+        List<List<String>> result = new ArrayList<List<String>>(patients);
+        while (result.size() < patients) {
+            AnnotationTerm disease = nodes.get(random.nextInt(nodes.size()));
+            List<String> phenotypes = new ArrayList<String>(disease.getNeighbors());
+            Collections.shuffle(phenotypes, random);
+            List<String> patient = new ArrayList<String>();
+            for (String phenotype : phenotypes.subList(0, Math.min(phenotypes.size(), 2 + random.nextInt(5)))) {
+                List<String> parents = annotations.getOntology().getTerm(phenotype).getParents();
+                patient.add(random.nextInt(4) == 0 && !parents.isEmpty() ? parents.get(0) : phenotype);
+            }
+            for (int i = random.nextInt(3); i > 0; --i) {
+                patient.add(terms.get(random.nextInt(terms.size())));
+            }
+            result.add(patient);
+            diseases.add(disease.getId());
+        }
+        return result;
+    }
+
+    /**
+     * Build the content of a disease annotation file.
+     *
+     * @param diseases the phenotypes of each disease number
+     * @return one {@link #line(String, String) line} for each disease phenotype
+     */
+    public static String lines(Map<String, List<String>> diseases)
+    {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, List<String>> disease : diseases.entrySet()) {
+            for (String phenotype : disease.getValue()) {
+                result.append(line(disease.getKey(), phenotype));
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * The identifier of a generated term.
+     *
+     * @param term the number of the term
+     * @return an identifier like {@code HP:0000042}
+     */
+    public static String getId(int term)
+    {
+        return String.format("HP:%07d", term);
+    }
+
+    /**
+     * The alternative identifier of a generated term.
+     *
+     * @param term the number of the term, a multiple of {@link #ALT_ID_STEP}
+     * @return an identifier like {@code HP:1000040}
+     */
+    public static String getAltId(int term)
+    {
+        return String.format("HP:1%06d", term);
+    }
+
+    /**
+     * Load an ontology from the content of an ontology file.
+     *
+     * @param content the ontology, in the OBO format
+     * @return the loaded ontology
+     * @throws IOException if the temporary source file cannot be written
+     */
+    public static AbstractOntology createOntology(String content) throws IOException
+    {
+        File source = write(content);
+        try {
+            AbstractOntology result = new AbstractOntology()
+            {
+            };
+            result.load(source);
+            return result;
+        } finally {
+            source.delete();
+        }
+    }
+
+    /**
+     * Load disease annotations from the content of an annotation file.
+     *
+     * @param ontology the ontology used for propagating the annotations
+     * @param content lines built with {@link #line(String, String)}
+     * @return the loaded annotations
+     * @throws IOException if the temporary source file cannot be written
+     */
+    public static OmimHPOAnnotations createAnnotations(AbstractOntology ontology, String content) throws IOException
+    {
+        File source = write(content);
+        try {
+            OmimHPOAnnotations result = new OmimHPOAnnotations(ontology);
+            result.load(source);
+            return result;
+        } finally {
+            source.delete();
+        }
+    }
+
+    /**
+     * A line of the disease annotation file.
+     *
+     * @param omimId the number of the disease
+     * @param phenotypeId the annotated phenotype
+     * @return the line, including the line separator
+     */
+    public static String line(String omimId, String phenotypeId)
+    {
+        return "OMIM\t" + omimId + "\tDisease " + omimId + "\t\t" + phenotypeId + "\tOMIM:" + omimId
+            + "\tTAS\t\t\t\tO\t\t2014.01.01\tHPO:curator\n";
+    }
+
+    /**
+     * Write some content to a new temporary file, which the caller must delete.
+     *
+     * @param content the content to write
+     * @return the written file
+     * @throws IOException if writing fails
+     */
+    public static File write(String content) throws IOException
+    {
+        File result = File.createTempFile("hpoa", ".txt");
+        PrintWriter out = new PrintWriter(new FileWriter(result));
+        out.print(content);
+        out.close();
+        return result;
+    }
+}
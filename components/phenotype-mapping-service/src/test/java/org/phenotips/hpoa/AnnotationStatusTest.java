@@ -0,0 +1,109 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa;
+
+import org.phenotips.hpoa.AnnotationStatus.Origin;
+import org.phenotips.hpoa.AnnotationStatus.State;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link AnnotationStatus} transitions.
+ *
+ * @version $Id$
+ */
+public class AnnotationStatusTest
+{
+    @Test
+    public void testLoading()
+    {
+        AnnotationStatus status = AnnotationStatus.loading();
+        Assert.assertEquals(State.LOADING, status.getState());
+        Assert.assertFalse(status.isReady());
+        Assert.assertTrue(status.isRefreshing());
+        Assert.assertEquals(Origin.NONE, status.getOrigin());
+        Assert.assertNull(status.getVersion());
+        Assert.assertNull(status.getLoadDate());
+        Assert.assertNull(status.getError());
+    }
+
+    @Test
+    public void testFailedLoading()
+    {
+        AnnotationStatus status = AnnotationStatus.loading().refreshed("Not found");
+        Assert.assertEquals(State.FAILED, status.getState());
+        Assert.assertFalse(status.isReady());
+        Assert.assertFalse(status.isRefreshing());
+        Assert.assertEquals("Not found", status.getError());
+    }
+
+    @Test
+    public void testSnapshotThenUpToDate()
+    {
+        AnnotationStatus snapshot = AnnotationStatus.ready(true, Origin.SNAPSHOT, "1:2/3", 10, 5);
+        Assert.assertTrue(snapshot.isReady());
+        Assert.assertTrue(snapshot.isRefreshing());
+        Assert.assertNotNull(snapshot.getLoadDate());
+
+        AnnotationStatus refreshed = snapshot.refreshed(null);
+        Assert.assertEquals(State.READY, refreshed.getState());
+        Assert.assertFalse(refreshed.isRefreshing());
+        Assert.assertEquals(Origin.SNAPSHOT, refreshed.getOrigin());
+        Assert.assertEquals("1:2/3", refreshed.getVersion());
+        Assert.assertEquals(10, refreshed.getAnnotationsCount());
+        Assert.assertEquals(5, refreshed.getLoadTime());
+        Assert.assertEquals(snapshot.getLoadDate(), refreshed.getLoadDate());
+        Assert.assertNull(refreshed.getError());
+    }
+
+    @Test
+    public void testFailedRefreshKeepsServedAnnotations()
+    {
+        AnnotationStatus status = AnnotationStatus.ready(true, Origin.SNAPSHOT, "1:2/3", 10, 5).refreshed("Offline");
+        Assert.assertTrue(status.isReady());
+        Assert.assertFalse(status.isRefreshing());
+        Assert.assertEquals("1:2/3", status.getVersion());
+        Assert.assertEquals("Offline", status.getError());
+    }
+
+    @Test
+    public void testRetrying()
+    {
+        AnnotationStatus failed = AnnotationStatus.loading().refreshed("Not found").retrying();
+        Assert.assertEquals(State.LOADING, failed.getState());
+        Assert.assertTrue(failed.isRefreshing());
+        Assert.assertEquals("Not found", failed.getError());
+
+        AnnotationStatus served = AnnotationStatus.ready(false, Origin.SOURCE, "1:2/3", 10, 5).retrying();
+        Assert.assertEquals(State.READY, served.getState());
+        Assert.assertTrue(served.isRefreshing());
+        Assert.assertEquals("1:2/3", served.getVersion());
+    }
+
+    @Test
+    public void testLoadDateIsCopied()
+    {
+        AnnotationStatus status = AnnotationStatus.ready(false, Origin.SOURCE, "1:2/3", 10, 5);
+        long time = status.getLoadDate().getTime();
+        status.getLoadDate().setTime(0);
+        Assert.assertEquals(time, status.getLoadDate().getTime());
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.phenotips.hpoa.AnnotationStatus.Origin;
+import org.phenotips.hpoa.AnnotationStatus.State;
+import org.phenotips.hpoa.annotation.SearchResult;
+import org.phenotips.hpoa.ontology.AbstractOntology;
+import org.phenotips.hpoa.prediction.BNPredictor;
+import org.phenotips.hpoa.prediction.GeneICPredictor;
+import org.phenotips.hpoa.prediction.ICPredictor;
+
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.environment.Environment;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for the background loading of the annotations in {@link PhenotypeMappingScriptService}: the first start parses
+ * the annotation file, later starts serve the saved snapshot and only parse the file again if it changed.
+ *
+ * @version $Id$
+ */
+public class PhenotypeMappingScriptServiceTest
+{
+    private static final List<String> QUERY = Arrays.asList("HP:0000003", "HP:0000006");
+
+    private File home;
+
+    private File source;
+
+    private File geneSource;
+
+    private AbstractOntology hpo;
+
+    private final List<PhenotypeMappingScriptService> services = new ArrayList<PhenotypeMappingScriptService>();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        this.home = File.createTempFile("hpoa", "");
+        this.home.delete();
+        this.home.mkdirs();
+        this.source = AnnotationFixture.write(AnnotationFixture.ANNOTATIONS);
+        this.geneSource = AnnotationFixture.write("HP:0000003\tA1\t8192\tCLPP\n"
+            + "HP:0000006\tB1\t55344\tPLCXD1\n");
+
+        File ontologySource = AnnotationFixture.write(AnnotationFixture.ONTOLOGY);
+        // Snapshots are only used if the ontology has a version
+        this.hpo = new AbstractOntology()
+        {
+            @Override
+            public String getVersion()
+            {
+                return "1";
+            }
+        };
+        this.hpo.load(ontologySource);
+        ontologySource.delete();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        for (PhenotypeMappingScriptService service : this.services) {
+            service.dispose();
+        }
+        this.source.delete();
+        this.geneSource.delete();
+        FileUtils.deleteDirectory(this.home);
+    }
+
+    @Test
+    public void testFirstStartParsesTheSource() throws Exception
+    {
+        PhenotypeMappingScriptService service = start();
+        AnnotationStatus status = service.getStatus();
+        Assert.assertEquals(State.READY, status.getState());
+        Assert.assertEquals(Origin.SOURCE, status.getOrigin());
+        Assert.assertFalse(status.isRefreshing());
+        Assert.assertEquals(4, status.getAnnotationsCount());
+        Assert.assertNull(status.getError());
+        Assert.assertFalse(service.getMatches(QUERY).isEmpty());
+    }
+
+    @Test
+    public void testPredictionMethods() throws Exception
+    {
+        PhenotypeMappingScriptService service = start();
+        Assert.assertEquals(service.getMatches(QUERY, 2), service.getMatches(QUERY, 2, "ic"));
+        List<SearchResult> probabilities = service.getMatches(QUERY, 4, "bn");
+        Assert.assertEquals("OMIM:2", probabilities.get(0).getId());
+        double total = 0;
+        for (SearchResult result : probabilities) {
+            total += result.getScore();
+        }
+        Assert.assertEquals(1.0, total, 1e-9);
+    }
+
+    @Test
+    public void testRestartServesTheSnapshot() throws Exception
+    {
+        PhenotypeMappingScriptService first = start();
+        List<SearchResult> matches = first.getMatches(QUERY);
+
+        PhenotypeMappingScriptService second = start();
+        AnnotationStatus status = second.getStatus();
+        Assert.assertEquals(State.READY, status.getState());
+        // The source didn't change, so the snapshot is kept
+        Assert.assertEquals(Origin.SNAPSHOT, status.getOrigin());
+        Assert.assertFalse(status.isRefreshing());
+        Assert.assertEquals(first.getStatus().getVersion(), status.getVersion());
+        Assert.assertNull(status.getError());
+        Assert.assertEquals(matches, second.getMatches(QUERY));
+    }
+
+    @Test
+    public void testChangedSourceReplacesTheSnapshot() throws Exception
+    {
+        PhenotypeMappingScriptService first = start();
+
+        FileUtils.writeStringToFile(this.source, AnnotationFixture.ANNOTATIONS
+            + AnnotationFixture.line("5", "HP:0000004"));
+        this.source.setLastModified(this.source.lastModified() + 2000);
+        PhenotypeMappingScriptService second = start();
+        AnnotationStatus status = second.getStatus();
+        Assert.assertEquals(Origin.SOURCE, status.getOrigin());
+        Assert.assertEquals(5, status.getAnnotationsCount());
+        Assert.assertFalse(first.getStatus().getVersion().equals(status.getVersion()));
+    }
+
+    @Test
+    public void testMissingSourceFails() throws Exception
+    {
+        this.source.delete();
+        PhenotypeMappingScriptService service = start();
+        AnnotationStatus status = service.getStatus();
+        Assert.assertEquals(State.FAILED, status.getState());
+        Assert.assertFalse(status.isRefreshing());
+        Assert.assertNotNull(status.getError());
+        Assert.assertTrue(service.getMatches(QUERY).isEmpty());
+    }
+
+    @Test
+    public void testGenesAreLoadedAfterDiseases() throws Exception
+    {
+        PhenotypeMappingScriptService service = start();
+        AnnotationStatus status = service.getGeneStatus();
+        Assert.assertEquals(State.READY, status.getState());
+        Assert.assertEquals(Origin.SOURCE, status.getOrigin());
+        Assert.assertEquals(2, status.getAnnotationsCount());
+        Assert.assertEquals("55344", service.getGeneMatches(Arrays.asList("HP:0000006"), 1).get(0).getId());
+
+        Assert.assertEquals(Origin.SNAPSHOT, start().getGeneStatus().getOrigin());
+    }
+
+    @Test
+    public void testMissingGeneSourceFails() throws Exception
+    {
+        this.geneSource.delete();
+        PhenotypeMappingScriptService service = start();
+        Assert.assertTrue(service.getStatus().isReady());
+        AnnotationStatus status = service.getGeneStatus();
+        Assert.assertEquals(State.FAILED, status.getState());
+        Assert.assertNotNull(status.getError());
+        Assert.assertTrue(service.getGeneMatches(Arrays.asList("HP:0000006"), 1).isEmpty());
+    }
+
+    /**
+     * Start a new service reading the test annotation files, and wait for the background loading to end.
+     */
+    private PhenotypeMappingScriptService start() throws Exception
+    {
+        PhenotypeMappingScriptService result = new PhenotypeMappingScriptService()
+        {
+            @Override
+            public File getInputFileHandler(String inputLocation, boolean forceUpdate)
+            {
+                File local = inputLocation.endsWith("_genes.txt") ? PhenotypeMappingScriptServiceTest.this.geneSource
+                    : PhenotypeMappingScriptServiceTest.this.source;
+                return super.getInputFileHandler(local.toURI().toString(), forceUpdate);
+            }
+        };
+        ReflectionUtils.setFieldValue(result, "logger", LoggerFactory.getLogger(PhenotypeMappingScriptService.class));
+        ReflectionUtils.setFieldValue(result, "environment", new Environment()
+        {
+            @Override
+            public File getTemporaryDirectory()
+            {
+                return PhenotypeMappingScriptServiceTest.this.home;
+            }
+
+            @Override
+            public File getPermanentDirectory()
+            {
+                return PhenotypeMappingScriptServiceTest.this.home;
+            }
+
+            @Override
+            public URL getResource(String resourceName)
+            {
+                return null;
+            }
+
+            @Override
+            public InputStream getResourceAsStream(String resourceName)
+            {
+                return null;
+            }
+        });
+        ReflectionUtils.setFieldValue(result, "hpo", this.hpo);
+        ReflectionUtils.setFieldValue(result, "predictor", new ICPredictor());
+        ReflectionUtils.setFieldValue(result, "bayesianPredictor", new BNPredictor());
+        ReflectionUtils.setFieldValue(result, "genePredictor", new GeneICPredictor());
+        this.services.add(result);
+        result.initialize();
+        for (int i = 0; i < 1000 && (result.getStatus().isRefreshing() || result.getGeneStatus().isRefreshing()); ++i) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse("The annotations were not loaded in time", result.getStatus().isRefreshing());
+        Assert.assertFalse("The gene annotations were not loaded in time", result.getGeneStatus().isRefreshing());
+        return result;
+    }
+}
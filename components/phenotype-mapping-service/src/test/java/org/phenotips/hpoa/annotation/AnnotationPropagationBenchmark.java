@@ -0,0 +1,170 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.annotation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.phenotips.hpoa.AnnotationFixture;
+import org.phenotips.hpoa.ontology.AbstractOntology;
+import org.phenotips.hpoa.ontology.Ontology;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Times the annotation propagation on an annotation file of full size, and on its first quarter and first half, to
+ * show that the propagation time grows linearly with the number of propagated edges. The correctness of the
+ * propagation is checked by {@link AnnotationPropagationTest}.
+ * <p>
+ * Surefire only runs {@code *Test} classes, so this benchmark is skipped by the build; run it explicitly with
+ * {@code mvn test -Dtest=AnnotationPropagationBenchmark}. To use the real data, point the
+ * {@code benchmark.ontology} and {@code benchmark.annotations} system properties to {@code hp.obo} and
+ * {@code phenotype_annotation.tab}; otherwise a random ontology and annotations of the same size are generated. The
+ * propagated annotations take a lot of memory, so give the tests a large heap, for example with
+ * {@code -DargLine=-Xmx3g}, otherwise the garbage collector dominates the larger runs.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class AnnotationPropagationBenchmark
+{
+    private static final int TERMS = 13000;
+
+    private static final int DISEASES = 7000;
+
+    private static final int PHENOTYPES_PER_DISEASE = 15;
+
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void testPropagationScalesWithEdges() throws IOException
+    {
+        AbstractOntology ontology;
+        List<String> lines;
+        String ontologyPath = System.getProperty("benchmark.ontology");
+        String annotationsPath = System.getProperty("benchmark.annotations");
+        if (ontologyPath != null && annotationsPath != null) {
+            ontology = new AbstractOntology()
+            {
+            };
+            ontology.load(new File(ontologyPath));
+            lines = readLines(new File(annotationsPath));
+        } else {
+            Random random = new Random(42);
+            ontology = AnnotationFixture.createOntology(AnnotationFixture.randomOntology(random, TERMS));
+            lines = randomLines(random);
+        }
+        // Warm up
+        measure(ontology, lines);
+
+        System.out.println(String.format("%d terms, %d annotation lines", ontology.size(), lines.size()));
+        for (int parts = 4; parts >= 1; parts /= 2) {
+            measure(ontology, lines.subList(0, lines.size() / parts));
+        }
+    }
+
+    /** Load the annotations several times, timing the propagation, and print the time per propagated edge. */
+    private void measure(Ontology ontology, List<String> lines) throws IOException
+    {
+        StringBuilder content = new StringBuilder();
+        for (String line : lines) {
+            content.append(line).append('\n');
+        }
+        File source = AnnotationFixture.write(content.toString());
+        try {
+            long edges = 0;
+            long elapsed = 0;
+            for (int round = 0; round < ROUNDS; ++round) {
+                UnpropagatedAnnotations annotations = new UnpropagatedAnnotations(ontology);
+                Assert.assertTrue(annotations.load(source) > 0);
+                long start = System.nanoTime();
+                annotations.propagate();
+                elapsed += System.nanoTime() - start;
+                edges = 0;
+                for (AnnotationTerm disease : annotations.getAnnotations()) {
+                    edges += disease.getNeighborsCount();
+                }
+            }
+            System.out.println(String.format("%d lines, %d propagated edges: %.1f ms, %.0f ns/edge", lines.size(),
+                edges, elapsed / 1e6 / ROUNDS, (double) elapsed / ROUNDS / edges));
+        } finally {
+            source.delete();
+        }
+    }
+
+    private static List<String> readLines(File source) throws IOException
+    {
+        List<String> result = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new FileReader(source));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                result.add(line);
+            }
+        } finally {
+            in.close();
+        }
+        return result;
+    }
+
+    /** Annotate each disease with as many random phenotypes as the real diseases have on average. */
+    private static List<String> randomLines(Random random)
+    {
+        List<String> result = new ArrayList<String>();
+        for (int d = 1; d <= DISEASES; ++d) {
+            for (int i = 0; i < PHENOTYPES_PER_DISEASE; ++i) {
+                String phenotype = AnnotationFixture.getId(2 + random.nextInt(TERMS - 1));
+                result.add(AnnotationFixture.line(String.valueOf(d), phenotype).trim());
+            }
+        }
+        return result;
+    }
+
+    /** Annotations loaded without propagation, so that the propagation can be timed separately. */
+    private static final class UnpropagatedAnnotations extends OmimHPOAnnotations
+    {
+        private boolean enabled;
+
+        UnpropagatedAnnotations(Ontology hpo)
+        {
+            super(hpo);
+        }
+
+        @Override
+        public void propagateHPOAnnotations()
+        {
+            if (this.enabled) {
+                super.propagateHPOAnnotations();
+            }
+        }
+
+        void propagate()
+        {
+            this.enabled = true;
+            propagateHPOAnnotations();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.annotation;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.phenotips.hpoa.AnnotationFixture;
+import org.phenotips.hpoa.ontology.AbstractOntology;
+import org.phenotips.hpoa.utils.graph.IDAGNode;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the annotation propagation through the precomputed ancestor closures, checking it against a breadth-first
+ * walk up the ontology from each annotated phenotype, which is how annotations used to be propagated.
+ *
+ * @version $Id$
+ */
+public class AnnotationPropagationTest
+{
+    private static final int TERMS = 200;
+
+    private static AbstractOntology ontology;
+
+    private static Map<String, List<String>> diseases;
+
+    private static OmimHPOAnnotations annotations;
+
+    @BeforeClass
+    public static void setUp() throws IOException
+    {
+        Random random = new Random(42);
+        ontology = AnnotationFixture.createOntology(AnnotationFixture.randomOntology(random, TERMS));
+        diseases = AnnotationFixture.randomDiseases(random, 400, TERMS);
+        annotations = AnnotationFixture.createAnnotations(ontology, AnnotationFixture.lines(diseases));
+    }
+
+    @Test
+    public void testDiseasesHaveAllTheAncestorsOfTheirPhenotypes()
+    {
+        Assert.assertEquals(diseases.size(), annotations.getAnnotations().size());
+        for (Map.Entry<String, List<String>> disease : diseases.entrySet()) {
+            AnnotationTerm term = annotations.getAnnotationNode("OMIM:" + disease.getKey());
+            Assert.assertEquals(disease.getKey(), walkUp(disease.getValue()),
+                new HashSet<String>(term.getNeighbors()));
+        }
+    }
+
+    @Test
+    public void testPhenotypesHaveAllTheDiseasesOfTheirDescendants()
+    {
+        Map<String, Set<String>> expected = new HashMap<String, Set<String>>();
+        for (Map.Entry<String, List<String>> disease : diseases.entrySet()) {
+            for (String phenotype : walkUp(disease.getValue())) {
+                Set<String> phenotypeDiseases = expected.get(phenotype);
+                if (phenotypeDiseases == null) {
+                    phenotypeDiseases = new HashSet<String>();
+                    expected.put(phenotype, phenotypeDiseases);
+                }
+                phenotypeDiseases.add("OMIM:" + disease.getKey());
+            }
+        }
+        Assert.assertEquals(expected.keySet(), annotations.getHPONodesIds());
+        for (AnnotationTerm phenotype : annotations.getHPONodes()) {
+            Assert.assertEquals(phenotype.getId(), expected.get(phenotype.getId()),
+                new HashSet<String>(phenotype.getNeighbors()));
+        }
+    }
+
+    /**
+     * Walk up the ontology breadth first, following the parents of each term.
+     *
+     * @param phenotypes the annotated phenotypes, possibly alternative identifiers
+     * @return the phenotypes, with their real identifiers, and all their ancestors
+     */
+    private static Set<String> walkUp(List<String> phenotypes)
+    {
+        Set<String> result = new HashSet<String>();
+        LinkedList<String> front = new LinkedList<String>();
+        for (String phenotype : phenotypes) {
+            front.add(ontology.getRealId(phenotype));
+        }
+        while (!front.isEmpty()) {
+            String id = front.removeFirst();
+            IDAGNode node = ontology.getTerm(id);
+            if (node != null && result.add(id)) {
+                front.addAll(node.getParents());
+            }
+        }
+        return result;
+    }
+}
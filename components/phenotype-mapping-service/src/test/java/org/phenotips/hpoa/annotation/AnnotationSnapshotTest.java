@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.annotation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.phenotips.hpoa.AnnotationFixture;
+import org.phenotips.hpoa.ontology.AbstractOntology;
+import org.phenotips.hpoa.prediction.MICAEngine;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link AnnotationSnapshot}, checking that restored annotations are identical to the parsed ones.
+ *
+ * @version $Id$
+ */
+public class AnnotationSnapshotTest
+{
+    private static final String SOURCE_VERSION = "1";
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        this.file = File.createTempFile("annotations", ".bin");
+        this.file.delete();
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.file.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        Random random = new Random(42);
+        AbstractOntology ontology = AnnotationFixture.createOntology(AnnotationFixture.randomOntology(random, 200));
+        OmimHPOAnnotations parsed = AnnotationFixture.createAnnotations(ontology,
+            AnnotationFixture.lines(AnnotationFixture.randomDiseases(random, 500, 150)));
+        AnnotationSnapshot.write(this.file, SOURCE_VERSION, parsed);
+        AnnotationSnapshot snapshot = AnnotationSnapshot.read(this.file, SOURCE_VERSION);
+        Assert.assertEquals(SOURCE_VERSION, snapshot.getSourceVersion());
+        OmimHPOAnnotations restored = new OmimHPOAnnotations(ontology);
+        Assert.assertEquals(parsed.size(), restored.load(snapshot));
+
+        Assert.assertEquals(parsed.getAnnotationIds(), restored.getAnnotationIds());
+        Assert.assertEquals(parsed.getHPONodesIds(), restored.getHPONodesIds());
+        for (AnnotationTerm disease : parsed.getAnnotations()) {
+            AnnotationTerm other = restored.getAnnotationNode(disease.getId());
+            Assert.assertEquals(disease.getName(), other.getName());
+            Assert.assertEquals(new HashSet<String>(disease.getNeighbors()), new HashSet<String>(other.getNeighbors()));
+        }
+        for (AnnotationTerm phenotype : parsed.getHPONodes()) {
+            Assert.assertEquals(phenotype.getNeighborsCount(), restored.getHPONode(phenotype.getId())
+                .getNeighborsCount());
+        }
+        // Same term order and information content
+        Assert.assertEquals(new MICAEngine(ontology, parsed).getFingerprint(),
+            new MICAEngine(ontology, restored).getFingerprint());
+    }
+
+    @Test
+    public void testOtherSourceVersionIsIgnored() throws IOException
+    {
+        AbstractOntology ontology = AnnotationFixture.createOntology();
+        AnnotationSnapshot.write(this.file, SOURCE_VERSION,
+            AnnotationFixture.createAnnotations(ontology, AnnotationFixture.ANNOTATIONS));
+        Assert.assertNull(AnnotationSnapshot.read(this.file, "2"));
+        Assert.assertEquals(-1, new OmimHPOAnnotations(ontology).load((AnnotationSnapshot) null));
+    }
+}
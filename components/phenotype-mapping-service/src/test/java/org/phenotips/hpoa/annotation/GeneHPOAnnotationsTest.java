@@ -0,0 +1,116 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.annotation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.phenotips.hpoa.AnnotationFixture;
+import org.phenotips.hpoa.ontology.AbstractOntology;
+import org.phenotips.hpoa.prediction.GeneICPredictor;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for loading {@link GeneHPOAnnotations} and ranking genes.
+ *
+ * @version $Id$
+ */
+public class GeneHPOAnnotationsTest
+{
+    private static AbstractOntology ontology;
+
+    @BeforeClass
+    public static void setUp() throws IOException
+    {
+        ontology = AnnotationFixture.createOntology();
+    }
+
+    @Test
+    public void testLoadColumns() throws IOException
+    {
+        GeneHPOAnnotations genes = load("#Format: HPO-ID<tab>HPO-Name<tab>Gene-ID<tab>Gene-Name\n"
+            + "HP:0000003\tA1\t8192\tCLPP\n"
+            + "HP:0000003\tA1\t8192\tCLPP\n"
+            + "HP:0000003\tA1\t55344\tPLCXD1\n"
+            + "HP:0000005\tB\t55344\tPLCXD1\n");
+        checkGenes(genes);
+    }
+
+    @Test
+    public void testLoadGeneLists() throws IOException
+    {
+        GeneHPOAnnotations genes = load("#Format: HPO-name<tab>HPO-ID<tab>Gene-list\n"
+            + "A1 (HP:0000013)\t[CLPP(8192), PLCXD1(55344)]\n"
+            + "B (HP:0000005)\t[PLCXD1(55344)]\n");
+        checkGenes(genes);
+    }
+
+    @Test
+    public void testGeneRanking() throws IOException
+    {
+        GeneICPredictor predictor = new GeneICPredictor();
+        predictor.setAnnotation(load("HP:0000003\tA1\t8192\tCLPP\n"
+            + "HP:0000005\tB\t55344\tPLCXD1\n"));
+        List<SearchResult> results = predictor.getMatches(Arrays.asList("HP:0000005"), 1);
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals("55344", results.get(0).getId());
+        Assert.assertEquals("PLCXD1", results.get(0).getName());
+        predictor.dispose();
+    }
+
+    private static void checkGenes(GeneHPOAnnotations genes)
+    {
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("8192", "55344")), genes.getGeneIds());
+        Assert.assertEquals("CLPP", genes.getGeneNode("8192").getName());
+        Assert.assertEquals(set("HP:0000003", "HP:0000002", "HP:0000001"), neighbors(genes, "8192"));
+        Assert.assertEquals(set("HP:0000003", "HP:0000002", "HP:0000001", "HP:0000005"), neighbors(genes, "55344"));
+        Assert.assertEquals(3, genes.getGeneNode("8192").getNeighborsCount());
+        Assert.assertEquals(2, genes.getHPONode("HP:0000001").getNeighborsCount());
+    }
+
+    private static GeneHPOAnnotations load(String content) throws IOException
+    {
+        File source = AnnotationFixture.write(content);
+        try {
+            GeneHPOAnnotations result = new GeneHPOAnnotations(ontology);
+            Assert.assertTrue(result.load(source) > 0);
+            return result;
+        } finally {
+            source.delete();
+        }
+    }
+
+    private static Set<String> neighbors(GeneHPOAnnotations genes, String geneId)
+    {
+        return new HashSet<String>(genes.getGeneNode(geneId).getNeighbors());
+    }
+
+    private static Set<String> set(String... items)
+    {
+        return new HashSet<String>(Arrays.asList(items));
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.ontology;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.phenotips.hpoa.AnnotationFixture;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Measures how the throughput of {@link AbstractOntology#getAncestors(String) ancestor reads} grows with the number of
+ * reading threads, on a random ontology of the size of the HPO. Since the closures are precomputed and reads don't
+ * lock, the throughput should grow linearly up to the number of cores. The speedup depends on the machine and its
+ * load, so nothing is asserted about it, the measurements are only printed.
+ * <p>
+ * Surefire only runs {@code *Test} classes, so this benchmark is skipped by the build; run it explicitly with
+ * {@code mvn test -Dtest=AbstractOntologyBenchmark}. The system properties {@code benchmark.terms} and
+ * {@code benchmark.reads} override the size of the ontology and the number of reads done by each thread.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class AbstractOntologyBenchmark
+{
+    private static final int TERMS = Integer.getInteger("benchmark.terms", 13000);
+
+    private static final int READS_PER_THREAD = Integer.getInteger("benchmark.reads", 1000000);
+
+    @Test
+    public void testReadThroughputScales() throws Exception
+    {
+        AbstractOntology ontology =
+            AnnotationFixture.createOntology(AnnotationFixture.randomOntology(new Random(42), TERMS));
+        String[] ids = new String[TERMS];
+        for (int i = 1; i <= TERMS; ++i) {
+            ids[i - 1] = AnnotationFixture.getId(i);
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        // Warm up
+        measureThroughput(ontology, ids, 1);
+        measureThroughput(ontology, ids, cores);
+
+        double single = measureThroughput(ontology, ids, 1);
+        System.out.println(String.format("Ancestor reads on %d terms: %.0f/s on 1 thread", TERMS, single));
+        for (int threads = 2; threads <= cores; threads *= 2) {
+            report(threads, single, measureThroughput(ontology, ids, threads));
+        }
+        if (Integer.bitCount(cores) != 1) {
+            report(cores, single, measureThroughput(ontology, ids, cores));
+        }
+    }
+
+    /**
+     * Run a fixed number of reads on each of several threads.
+     *
+     * @return the number of reads per second
+     */
+    private double measureThroughput(final AbstractOntology ontology, final String[] ids, int threads)
+        throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < threads; ++t) {
+                final int seed = t;
+                results.add(executor.submit(new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call() throws Exception
+                    {
+                        Random random = new Random(seed);
+                        int found = 0;
+                        start.await();
+                        for (int i = 0; i < READS_PER_THREAD; ++i) {
+                            Set<String> ancestors = ontology.getAncestors(ids[random.nextInt(ids.length)]);
+                            // Use the result, so that the read can't be optimized away
+                            found += ancestors.contains(ids[random.nextInt(ids.length)]) ? 1 : 0;
+                        }
+                        return found;
+                    }
+                }));
+            }
+            long startTime = System.nanoTime();
+            start.countDown();
+            int found = 0;
+            for (Future<Integer> result : results) {
+                found += result.get();
+            }
+            long elapsed = System.nanoTime() - startTime;
+            Assert.assertTrue(found > 0);
+            return (double) threads * READS_PER_THREAD * 1000000000L / elapsed;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void report(int threads, double single, double parallel)
+    {
+        System.out.println(String.format("%.0f/s on %d threads, speedup %.2f", parallel, threads, parallel / single));
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.ontology;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the precomputed ancestor closures of {@link AbstractOntology}.
+ *
+ * @version $Id$
+ */
+public class AbstractOntologyTest
+{
+    private static final int TERMS = 3000;
+
+    private static final int READS_PER_THREAD = 50000;
+
+    private static File source;
+
+    private static AbstractOntology ontology;
+
+    private static String[] ids;
+
+    /** The expected closures, computed with a plain traversal. */
+    private static List<Set<String>> expected;
+
+    @BeforeClass
+    public static void setUp() throws IOException
+    {
+        source = File.createTempFile("ontology", ".obo");
+        PrintWriter out = new PrintWriter(new FileWriter(source));
+        Random random = new Random(42);
+        List<List<Integer>> parents = new ArrayList<List<Integer>>();
+        parents.add(new ArrayList<Integer>());
+        out.println("[Term]\nid: HP:0000001\nname: Term 1\n");
+        for (int i = 2; i <= TERMS; ++i) {
+            List<Integer> termParents = new ArrayList<Integer>();
+            out.println("[Term]\nid: " + getId(i) + "\nname: Term " + i);
+            for (int j = random.nextInt(3); j >= 0; --j) {
+                int parent = 1 + random.nextInt(i - 1);
+                if (!termParents.contains(parent)) {
+                    termParents.add(parent);
+                    out.println("is_a: " + getId(parent) + " ! Term " + parent);
+                }
+            }
+            if (i % 100 == 0) {
+                out.println("alt_id: " + getId(TERMS + i));
+            }
+            out.println();
+            parents.add(termParents);
+        }
+        out.close();
+
+        ontology = new AbstractOntology()
+        {
+        };
+        ontology.load(source);
+
+        ids = new String[TERMS];
+        expected = new ArrayList<Set<String>>();
+        for (int i = 1; i <= TERMS; ++i) {
+            ids[i - 1] = getId(i);
+            Set<String> closure = new HashSet<String>();
+            List<Integer> front = new ArrayList<Integer>();
+            front.add(i);
+            while (!front.isEmpty()) {
+                int term = front.remove(front.size() - 1);
+                if (closure.add(getId(term))) {
+                    front.addAll(parents.get(term - 1));
+                }
+            }
+            expected.add(closure);
+        }
+    }
+
+    @AfterClass
+    public static void tearDown()
+    {
+        source.delete();
+    }
+
+    @Test
+    public void testAncestorsMatchTraversal()
+    {
+        for (int i = 1; i <= TERMS; ++i) {
+            Assert.assertEquals(expected.get(i - 1), ontology.getAncestors(getId(i)));
+        }
+    }
+
+    @Test
+    public void testAncestorsOfAlternateId()
+    {
+        Assert.assertEquals(expected.get(99), ontology.getAncestors(getId(TERMS + 100)));
+    }
+
+    @Test
+    public void testAncestorsOfUnknownTerm()
+    {
+        Assert.assertTrue(ontology.getAncestors("HP:9999999").isEmpty());
+        Assert.assertTrue(ontology.getAncestors(null).isEmpty());
+    }
+
+    @Test
+    public void testAncestorsContainSelfAndRoot()
+    {
+        Set<String> ancestors = ontology.getAncestors(getId(TERMS));
+        Assert.assertTrue(ancestors.contains(getId(TERMS)));
+        Assert.assertTrue(ancestors.contains(ontology.getRootId()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAncestorsAreImmutable()
+    {
+        ontology.getAncestors(getId(TERMS)).add("HP:0000002");
+    }
+
+    /**
+     * Concurrent reads, which don't lock, must all see correct closures. How their throughput scales is measured by
+     * {@link AbstractOntologyBenchmark}.
+     */
+    @Test
+    public void testConcurrentReads() throws Exception
+    {
+        int threads = Math.max(Runtime.getRuntime().availableProcessors(), 4);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < threads; ++t) {
+                final int seed = t;
+                results.add(executor.submit(new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call() throws Exception
+                    {
+                        Random random = new Random(seed);
+                        int errors = 0;
+                        start.await();
+                        for (int i = 0; i < READS_PER_THREAD; ++i) {
+                            int term = random.nextInt(TERMS);
+                            Set<String> ancestors = ontology.getAncestors(ids[term]);
+                            Set<String> reference = expected.get(term);
+                            String candidate = ids[random.nextInt(TERMS)];
+                            if (ancestors.size() != reference.size()
+                                || ancestors.contains(candidate) != reference.contains(candidate)) {
+                                ++errors;
+                            }
+                        }
+                        return errors;
+                    }
+                }));
+            }
+            start.countDown();
+            int errors = 0;
+            for (Future<Integer> result : results) {
+                errors += result.get();
+            }
+            Assert.assertEquals(0, errors);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String getId(int term)
+    {
+        return String.format("HP:%07d", term);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.ontology;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.phenotips.hpoa.AnnotationFixture;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link OntologySnapshot}, checking that a restored ontology is identical to the parsed one.
+ *
+ * @version $Id$
+ */
+public class OntologySnapshotTest
+{
+    private static final String SOURCE_VERSION = "1";
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        this.file = File.createTempFile("ontology", ".bin");
+        this.file.delete();
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.file.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        AbstractOntology parsed =
+            AnnotationFixture.createOntology(AnnotationFixture.randomOntology(new Random(42), 300));
+        AbstractOntology restored = roundTrip(parsed);
+        assertSameOntology(parsed, restored);
+        Assert.assertEquals(AnnotationFixture.getId(20), restored.getRealId(AnnotationFixture.getAltId(20)));
+        Assert.assertEquals(parsed.getAncestors(AnnotationFixture.getAltId(290)),
+            restored.getAncestors(AnnotationFixture.getAltId(290)));
+    }
+
+    /** Several roots are joined under a fake root, which isn't saved and must be recreated. */
+    @Test
+    public void testRoundTripWithSeveralRoots() throws IOException
+    {
+        AbstractOntology parsed = AnnotationFixture.createOntology(AnnotationFixture.ONTOLOGY
+            + "\n[Term]\nid: HP:0000008\nname: C\n\n[Term]\nid: HP:0000009\nname: C1\nis_a: HP:0000008 ! C\n");
+        Assert.assertEquals("", parsed.getRootId());
+        AbstractOntology restored = roundTrip(parsed);
+        assertSameOntology(parsed, restored);
+        Assert.assertEquals(2, restored.getRoot().getChildren().size());
+        Assert.assertEquals(parsed.getAncestors("HP:0000009"), restored.getAncestors("HP:0000009"));
+    }
+
+    @Test
+    public void testOtherSourceVersionIsIgnored() throws IOException
+    {
+        OntologySnapshot.write(this.file, SOURCE_VERSION, AnnotationFixture.createOntology());
+        Assert.assertNull(OntologySnapshot.read(this.file, "2"));
+        Assert.assertNotNull(OntologySnapshot.read(this.file, null));
+    }
+
+    @Test
+    public void testMissingOrCorruptSnapshotIsIgnored() throws IOException
+    {
+        Assert.assertNull(OntologySnapshot.read(this.file, SOURCE_VERSION));
+        Assert.assertEquals(-1, AnnotationFixture.createOntology().load((OntologySnapshot) null));
+        AnnotationFixture.write("[Term]\nid: HP:0000001\n").renameTo(this.file);
+        Assert.assertNull(OntologySnapshot.read(this.file, SOURCE_VERSION));
+    }
+
+    private AbstractOntology roundTrip(AbstractOntology parsed) throws IOException
+    {
+        OntologySnapshot.write(this.file, SOURCE_VERSION, parsed);
+        AbstractOntology result = new AbstractOntology()
+        {
+        };
+        Assert.assertEquals(parsed.size(), result.load(OntologySnapshot.read(this.file, SOURCE_VERSION)));
+        return result;
+    }
+
+    private static void assertSameOntology(AbstractOntology expected, AbstractOntology actual)
+    {
+        Assert.assertEquals(expected.getVersion(), actual.getVersion());
+        Assert.assertEquals(expected.getRootId(), actual.getRootId());
+        Assert.assertEquals(expected.getNodesIds(), actual.getNodesIds());
+        for (OntologyTerm term : expected.getNodes()) {
+            OntologyTerm restored = actual.getTerm(term.getId());
+            Assert.assertEquals(term.getName(), restored.getName());
+            Assert.assertEquals(new HashSet<String>(term.getParents()), new HashSet<String>(restored.getParents()));
+            Assert.assertEquals(new HashSet<String>(term.getChildren()), new HashSet<String>(restored.getChildren()));
+            Assert.assertEquals(expected.getAncestors(term.getId()), actual.getAncestors(term.getId()));
+        }
+    }
+}
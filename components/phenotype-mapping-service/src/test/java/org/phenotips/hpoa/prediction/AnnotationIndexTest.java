@@ -0,0 +1,181 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.phenotips.hpoa.AnnotationFixture;
+import org.phenotips.hpoa.annotation.OmimHPOAnnotations;
+import org.phenotips.hpoa.annotation.SearchResult;
+import org.phenotips.hpoa.ontology.AbstractOntology;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link AnnotationIndex}, checking that the candidate pruning never drops a disease which the
+ * {@link ReferenceSimilarity unoptimised similarity} scores positively.
+ *
+ * @version $Id$
+ */
+public class AnnotationIndexTest
+{
+    private static final int TERMS = 120;
+
+    private static AbstractOntology ontology;
+
+    private static Map<String, List<String>> diseases;
+
+    private static OmimHPOAnnotations annotations;
+
+    private static AnnotationIndex index;
+
+    private static ReferenceSimilarity reference;
+
+    @BeforeClass
+    public static void setUp() throws IOException
+    {
+        Random random = new Random(42);
+        ontology = AnnotationFixture.createOntology(AnnotationFixture.randomOntology(random, TERMS));
+        diseases = AnnotationFixture.randomDiseases(random, 300, TERMS * 3 / 4);
+        annotations = AnnotationFixture.createAnnotations(ontology, AnnotationFixture.lines(diseases));
+        index = new AnnotationIndex(annotations);
+        reference = new ReferenceSimilarity(ontology, diseases);
+    }
+
+    @Test
+    public void testAnnotationTermsAreMinimal()
+    {
+        MICAEngine engine = index.getEngine();
+        for (int d = 0; d < index.size(); ++d) {
+            Set<String> propagated = new HashSet<String>();
+            for (String phenotype : diseases.get(index.getAnnotationNode(d).getId().substring(5))) {
+                propagated.addAll(ontology.getAncestors(phenotype));
+            }
+            Set<String> covered = new HashSet<String>();
+            for (int term : index.getAnnotationTerms(d)) {
+                covered.addAll(ontology.getAncestors(engine.getId(term)));
+                for (int other : index.getAnnotationTerms(d)) {
+                    Assert.assertTrue(other == term || !engine.getAncestors(term).get(other));
+                }
+            }
+            Assert.assertEquals(propagated, covered);
+        }
+    }
+
+    @Test
+    public void testPostingsListPropagatedAnnotations()
+    {
+        MICAEngine engine = index.getEngine();
+        for (int term = 0; term < engine.size(); ++term) {
+            List<Integer> expected = new ArrayList<Integer>();
+            for (int d = 0; d < index.size(); ++d) {
+                for (int minimal : index.getAnnotationTerms(d)) {
+                    if (engine.getAncestors(minimal).get(term)) {
+                        expected.add(d);
+                        break;
+                    }
+                }
+            }
+            int[] postings = index.getPostings(term);
+            Assert.assertEquals(expected.size(), postings.length);
+            for (int i = 0; i < postings.length; ++i) {
+                Assert.assertEquals(expected.get(i).intValue(), postings[i]);
+            }
+        }
+        Assert.assertEquals(0, index.getPostings(-1).length);
+    }
+
+    @Test
+    public void testCandidatesContainAllMatchingDiseases()
+    {
+        Random random = new Random(1);
+        for (int i = 0; i < 200; ++i) {
+            List<String> query = new ArrayList<String>();
+            for (int j = random.nextInt(4); j >= 0; --j) {
+                query.add(AnnotationFixture.getId(2 + random.nextInt(TERMS - 1)));
+            }
+            int[] indexes = index.getEngine().getIndexes(query);
+            int[] candidates = index.getCandidates(indexes);
+            double[] queryIC = getQueryIC(indexes);
+            Set<Integer> selected = new HashSet<Integer>();
+            for (int j = 0; j < candidates.length; ++j) {
+                Assert.assertTrue(j == 0 || candidates[j - 1] < candidates[j]);
+                selected.add(candidates[j]);
+            }
+            for (int d = 0; d < index.size(); ++d) {
+                String id = index.getAnnotationNode(d).getId();
+                double score = reference.asymmetricPhenotypeSimilarity(query, diseases.get(id.substring(5)));
+                Assert.assertEquals(score, index.asymmetricPhenotypeSimilarity(indexes, index.getAnnotationTerms(d)),
+                    0);
+                Assert.assertTrue("Pruned " + id + " for " + query, score <= 0 || selected.contains(d));
+                Assert.assertTrue(index.getUpperBound(queryIC, d) >= score);
+            }
+        }
+    }
+
+    @Test
+    public void testCandidatesAreSortedByMaxIC()
+    {
+        int[] order = index.sortByMaxIC(index.getCandidates(index.getEngine().getIndexes(
+            Arrays.asList(AnnotationFixture.getId(2), AnnotationFixture.getId(5), AnnotationFixture.getId(33)))));
+        for (int i = 1; i < order.length; ++i) {
+            Assert.assertTrue(index.getMaxIC(order[i - 1]) >= index.getMaxIC(order[i]));
+        }
+    }
+
+    @Test
+    public void testPredictorMatchesFullRanking()
+    {
+        ICPredictor predictor = new ICPredictor();
+        predictor.setAnnotation(annotations);
+        Random random = new Random(2);
+        for (int i = 0; i < 50; ++i) {
+            List<String> query = new ArrayList<String>();
+            for (int j = random.nextInt(4); j >= 0; --j) {
+                query.add(AnnotationFixture.getId(2 + random.nextInt(TERMS - 1)));
+            }
+            List<SearchResult> expected = reference.rank(annotations, query);
+            Assert.assertEquals(expected, predictor.computeMatches(query));
+            Assert.assertEquals(expected.subList(0, Math.min(10, expected.size())),
+                predictor.computeMatches(query, 10));
+        }
+        predictor.dispose();
+    }
+
+    /** For each query term, the information content of its most informative ancestor, as used by the ranker. */
+    private static double[] getQueryIC(int[] query)
+    {
+        MICAEngine engine = index.getEngine();
+        double[] result = new double[query.length];
+        for (int i = 0; i < query.length; ++i) {
+            result[i] = engine.getIC(engine.getAncestors(query[i]).first());
+        }
+        return result;
+    }
+}
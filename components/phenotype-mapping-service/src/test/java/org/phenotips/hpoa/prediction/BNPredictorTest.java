@@ -0,0 +1,143 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.phenotips.hpoa.AnnotationFixture;
+import org.phenotips.hpoa.annotation.OmimHPOAnnotations;
+import org.phenotips.hpoa.annotation.SearchResult;
+import org.phenotips.hpoa.ontology.AbstractOntology;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link BNPredictor noisy-OR predictor}.
+ *
+ * @version $Id$
+ */
+public class BNPredictorTest
+{
+    private static final int TOP = 20;
+
+    private static BNPredictor predictor;
+
+    @BeforeClass
+    public static void setUp() throws IOException
+    {
+        AbstractOntology ontology = AnnotationFixture.createOntology();
+        predictor = new BNPredictor();
+        predictor.setAnnotation(AnnotationFixture.createAnnotations(ontology, AnnotationFixture.line("1", "HP:0000003")
+            + AnnotationFixture.line("1", "HP:0000004") + AnnotationFixture.line("2", "HP:0000003")
+            + AnnotationFixture.line("2", "HP:0000006") + AnnotationFixture.line("3", "HP:0000006")));
+    }
+
+    @Test
+    public void testExactMatchRanksFirst()
+    {
+        List<SearchResult> results = predictor.getMatches(Arrays.asList("HP:0000003", "HP:0000004"));
+        Assert.assertEquals(3, results.size());
+        Assert.assertEquals("OMIM:1", results.get(0).getId());
+        Assert.assertEquals("OMIM:2", results.get(1).getId());
+
+        results = predictor.getMatches(Arrays.asList("HP:0000003", "HP:0000006"));
+        Assert.assertEquals("OMIM:2", results.get(0).getId());
+    }
+
+    @Test
+    public void testScoresAreProbabilities()
+    {
+        double total = 0;
+        double previous = 1;
+        for (SearchResult result : predictor.getMatches(Arrays.asList("HP:0000002", "HP:0000006"))) {
+            Assert.assertTrue(result.getScore() > 0 && result.getScore() <= previous);
+            previous = result.getScore();
+            total += result.getScore();
+        }
+        Assert.assertEquals(1.0, total, 1e-9);
+    }
+
+    @Test
+    public void testLimit()
+    {
+        List<SearchResult> all = predictor.getMatches(Arrays.asList("HP:0000003"));
+        List<SearchResult> top = predictor.getMatches(Arrays.asList("HP:0000003"), 2);
+        Assert.assertEquals(all.subList(0, 2), top);
+        Assert.assertTrue(predictor.getMatches(Arrays.asList("HP:0000003"), 0).isEmpty());
+    }
+
+    /**
+     * Simulated patients should find their disease near the top for both predictors; ranking the 60 diseases at random
+     * would put it in the top 20 only for a third of the patients.
+     */
+    @Test
+    public void testSimulatedPatientsRankTheirDisease() throws IOException
+    {
+        Random random = new Random(42);
+        OmimHPOAnnotations annotations = AnnotationFixture.createAnnotations(
+            AnnotationFixture.createOntology(AnnotationFixture.randomOntology(random, 300)),
+            AnnotationFixture.lines(AnnotationFixture.randomDiseases(random, 60, 300)));
+        List<String> diseases = new ArrayList<String>();
+        List<List<String>> patients = AnnotationFixture.simulatePatients(annotations, random, 500, diseases);
+
+        BNPredictor bn = new BNPredictor();
+        bn.setAnnotation(annotations);
+        ICPredictor ic = new ICPredictor();
+        try {
+            ic.setAnnotation(annotations);
+            int bnTop = 0;
+            int icTop = 0;
+            for (int i = 0; i < patients.size(); ++i) {
+                List<SearchResult> bnResults = bn.getMatches(patients.get(i));
+                // Every disease explaining one of the phenotypes gets a probability
+                Assert.assertTrue(getRank(bnResults, diseases.get(i)) >= 0);
+                bnTop += getRank(bnResults, diseases.get(i)) < TOP ? 1 : 0;
+                int icRank = getRank(ic.getMatches(patients.get(i), TOP), diseases.get(i));
+                icTop += icRank >= 0 ? 1 : 0;
+            }
+            Assert.assertTrue("BN top " + TOP + ": " + bnTop, bnTop > patients.size() / 2);
+            Assert.assertTrue("IC top " + TOP + ": " + icTop, icTop > patients.size() / 2);
+        } finally {
+            ic.dispose();
+        }
+    }
+
+    @Test
+    public void testUnknownTerms()
+    {
+        Assert.assertTrue(predictor.getMatches(Arrays.asList("HP:9999999")).isEmpty());
+    }
+
+    private static int getRank(List<SearchResult> results, String id)
+    {
+        for (int i = 0; i < results.size(); ++i) {
+            if (results.get(i).getId().equals(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.phenotips.hpoa.AnnotationFixture;
+import org.phenotips.hpoa.annotation.OmimHPOAnnotations;
+import org.phenotips.hpoa.annotation.SearchResult;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for {@link BatchMatcher}, comparing its results with those of single {@link ICPredictor} queries.
+ *
+ * @version $Id$
+ */
+public class BatchMatcherTest
+{
+    private static final String[] TERMS = new String[] { "HP:0000001", "HP:0000002", "HP:0000003", "HP:0000004",
+    "HP:0000005", "HP:0000006", "HP:0000007", "HP:0000013", "HP:9999999" };
+
+    private static AnnotationIndex index;
+
+    private static ICPredictor predictor;
+
+    private static ExecutorService executor;
+
+    /** Every subset of the terms, including the empty set. */
+    private static Map<String, List<String>> sets;
+
+    @BeforeClass
+    public static void setUp() throws IOException
+    {
+        OmimHPOAnnotations annotations =
+            AnnotationFixture.createAnnotations(AnnotationFixture.createOntology(), AnnotationFixture.ANNOTATIONS);
+        index = new AnnotationIndex(annotations);
+        predictor = new ICPredictor();
+        predictor.setAnnotation(annotations);
+        executor = Executors.newFixedThreadPool(3);
+        sets = new LinkedHashMap<String, List<String>>();
+        for (int mask = 0; mask < 1 << TERMS.length; ++mask) {
+            List<String> set = new ArrayList<String>();
+            for (int i = 0; i < TERMS.length; ++i) {
+                if ((mask & 1 << i) != 0) {
+                    set.add(TERMS[i]);
+                }
+            }
+            sets.put("set" + mask, set);
+        }
+    }
+
+    @AfterClass
+    public static void tearDown()
+    {
+        executor.shutdownNow();
+        predictor.dispose();
+    }
+
+    @Test
+    public void testSingleThreadedMatchesSingleQueries()
+    {
+        for (int limit = 1; limit <= 5; ++limit) {
+            check(new BatchMatcher(index, null, 1), limit);
+        }
+    }
+
+    @Test
+    public void testParallelMatchesSingleQueries()
+    {
+        for (int limit = 1; limit <= 5; ++limit) {
+            check(new BatchMatcher(index, executor, 3), limit);
+        }
+    }
+
+    @Test
+    public void testUncachedMatchesSingleQueries()
+    {
+        check(new BatchMatcher(index, executor, 3, 0), 2);
+        check(new BatchMatcher(index, null, 1, 0), 4);
+    }
+
+    @Test
+    public void testSimulatedCohortMatchesSingleQueries() throws IOException
+    {
+        Random random = new Random(42);
+        OmimHPOAnnotations annotations = AnnotationFixture.createAnnotations(
+            AnnotationFixture.createOntology(AnnotationFixture.randomOntology(random, 150)),
+            AnnotationFixture.lines(AnnotationFixture.randomDiseases(random, 300, 150)));
+        Map<String, List<String>> cohort = new LinkedHashMap<String, List<String>>();
+        for (List<String> patient : AnnotationFixture.simulatePatients(annotations, random, 1000,
+            new ArrayList<String>())) {
+            // The same order for the same terms, so that cached results are identical to computed ones
+            Collections.sort(patient);
+            cohort.put("P" + cohort.size(), patient);
+        }
+        ICPredictor cohortPredictor = new ICPredictor();
+        try {
+            cohortPredictor.setAnnotation(annotations);
+            Collector results = new Collector();
+            cohortPredictor.getMatches(cohort, 20, results);
+            Assert.assertEquals(cohort.size(), results.size());
+            for (Map.Entry<String, List<String>> patient : cohort.entrySet()) {
+                Assert.assertEquals(patient.getValue().toString(),
+                    cohortPredictor.computeMatches(patient.getValue(), 20), results.get(patient.getKey()));
+            }
+        } finally {
+            cohortPredictor.dispose();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInterruptedMatchingFails()
+    {
+        Thread.currentThread().interrupt();
+        try {
+            new BatchMatcher(index, null, 1).match(sets, 2, new Collector());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInterruptedParallelMatchingFails()
+    {
+        final Thread caller = Thread.currentThread();
+        try {
+            new BatchMatcher(index, executor, 3).match(sets, 2, new Collector()
+            {
+                private static final long serialVersionUID = 1L;
+
+                private boolean interrupted;
+
+                @Override
+                public void handleMatches(String id, List<SearchResult> matches)
+                {
+                    if (this.interrupted) {
+                        return;
+                    }
+                    // Keep the workers busy until the caller gives up and cancels them
+                    this.interrupted = true;
+                    caller.interrupt();
+                    try {
+                        Thread.sleep(10000);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    private static void check(BatchMatcher matcher, int limit)
+    {
+        Collector results = new Collector();
+        matcher.match(sets, limit, results);
+        Assert.assertEquals(sets.size(), results.size());
+        for (Map.Entry<String, List<String>> set : sets.entrySet()) {
+            // Bypass the cache, equivalent queries listing their terms in another order may differ in the last bits
+            Assert.assertEquals(set.getValue().toString(), predictor.computeMatches(set.getValue(), limit),
+                results.get(set.getKey()));
+        }
+    }
+
+    private static class Collector extends HashMap<String, List<SearchResult>> implements MatchHandler
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void handleMatches(String id, List<SearchResult> matches)
+        {
+            Assert.assertNull(put(id, matches));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.phenotips.hpoa.AnnotationFixture;
+import org.phenotips.hpoa.annotation.OmimHPOAnnotations;
+import org.phenotips.hpoa.annotation.SearchResult;
+import org.phenotips.hpoa.ontology.AbstractOntology;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Measures the throughput of {@link ICPredictor#getMatches(Map, int, MatchHandler) batch matching} on a simulated
+ * cohort of 10000 patients, compared to matching each patient separately, and checks that both give the same results.
+ * That batch matching is correct on all kinds of queries is checked by {@link BatchMatcherTest}.
+ * <p>
+ * Surefire only runs {@code *Test} classes, so this benchmark is skipped by the build; run it explicitly with
+ * {@code mvn test -Dtest=BatchMatchingBenchmark}. To use the real data, point the {@code benchmark.ontology} and
+ * {@code benchmark.annotations} system properties to {@code hp.obo} and {@code phenotype_annotation.tab}; otherwise
+ * random data of the same size is generated. {@code benchmark.patients} changes the size of the cohort.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class BatchMatchingBenchmark
+{
+    private static final int LIMIT = 20;
+
+    private static final int TERMS = 13000;
+
+    private static final int DISEASES = 7000;
+
+    private static final int PATIENTS = Integer.getInteger("benchmark.patients", 10000);
+
+    @Test
+    public void testBatchThroughput() throws IOException
+    {
+        Random random = new Random(42);
+        OmimHPOAnnotations annotations = loadAnnotations(random);
+        Map<String, List<String>> cohort = new LinkedHashMap<String, List<String>>();
+        for (List<String> patient : AnnotationFixture.simulatePatients(annotations, random, PATIENTS,
+            new ArrayList<String>())) {
+            // The same order for the same terms, so that cached results are identical to computed ones
+            Collections.sort(patient);
+            cohort.put("P" + cohort.size(), patient);
+        }
+        ICPredictor predictor = new ICPredictor();
+        try {
+            predictor.setAnnotation(annotations);
+
+            long start = System.nanoTime();
+            Map<String, List<SearchResult>> separate = new HashMap<String, List<SearchResult>>();
+            for (Map.Entry<String, List<String>> patient : cohort.entrySet()) {
+                separate.put(patient.getKey(), predictor.computeMatches(patient.getValue(), LIMIT));
+            }
+            report("separate", System.nanoTime() - start);
+
+            final Map<String, List<SearchResult>> batch = new HashMap<String, List<SearchResult>>();
+            start = System.nanoTime();
+            predictor.getMatches(cohort, LIMIT, new MatchHandler()
+            {
+                @Override
+                public void handleMatches(String id, List<SearchResult> matches)
+                {
+                    batch.put(id, matches);
+                }
+            });
+            report("batch", System.nanoTime() - start);
+
+            Assert.assertEquals(separate, batch);
+        } finally {
+            predictor.dispose();
+        }
+    }
+
+    private static void report(String mode, long nanos)
+    {
+        System.out.println(String.format("%s: %d patients in %.0f ms, %.0f patients/s", mode, PATIENTS, nanos / 1e6,
+            PATIENTS * 1e9 / nanos));
+    }
+
+    private static OmimHPOAnnotations loadAnnotations(Random random) throws IOException
+    {
+        String ontologyPath = System.getProperty("benchmark.ontology");
+        String annotationsPath = System.getProperty("benchmark.annotations");
+        if (ontologyPath != null && annotationsPath != null) {
+            AbstractOntology ontology = new AbstractOntology()
+            {
+            };
+            ontology.load(new File(ontologyPath));
+            OmimHPOAnnotations result = new OmimHPOAnnotations(ontology);
+            result.load(new File(annotationsPath));
+            return result;
+        }
+        AbstractOntology ontology = AnnotationFixture.createOntology(AnnotationFixture.randomOntology(random, TERMS));
+        return AnnotationFixture.createAnnotations(ontology,
+            AnnotationFixture.lines(AnnotationFixture.randomDiseases(random, DISEASES, TERMS)));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.phenotips.hpoa.AnnotationFixture;
+import org.phenotips.hpoa.annotation.OmimHPOAnnotations;
+import org.phenotips.hpoa.ontology.AbstractOntology;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link MICAEngine}, comparing it with the set based most informative common ancestor lookup.
+ *
+ * @version $Id$
+ */
+public class MICAEngineTest
+{
+    private static final int TERMS = 120;
+
+    private static AbstractOntology ontology;
+
+    private static Map<String, List<String>> diseases;
+
+    private static MICAEngine engine;
+
+    private static ReferenceSimilarity reference;
+
+    /** All the term identifiers, alternative and unknown identifiers included. */
+    private static List<String> ids;
+
+    @BeforeClass
+    public static void setUp() throws IOException
+    {
+        Random random = new Random(42);
+        ontology = AnnotationFixture.createOntology(AnnotationFixture.randomOntology(random, TERMS));
+        diseases = AnnotationFixture.randomDiseases(random, 200, TERMS * 3 / 4);
+        OmimHPOAnnotations annotations =
+            AnnotationFixture.createAnnotations(ontology, AnnotationFixture.lines(diseases));
+        engine = new MICAEngine(ontology, annotations);
+        reference = new ReferenceSimilarity(ontology, diseases);
+        ids = new ArrayList<String>();
+        for (int i = 1; i <= TERMS; ++i) {
+            ids.add(AnnotationFixture.getId(i));
+            if (i % AnnotationFixture.ALT_ID_STEP == 0) {
+                ids.add(AnnotationFixture.getAltId(i));
+            }
+        }
+        ids.add("HP:9999999");
+    }
+
+    @Test
+    public void testICMatchesCounts()
+    {
+        for (String id : ids) {
+            Assert.assertEquals(id, reference.getIC(id), engine.getIC(id), 0);
+        }
+        Assert.assertEquals(0, engine.getIC(AnnotationFixture.getId(TERMS)), 0);
+    }
+
+    @Test
+    public void testTermsAreOrderedByIC()
+    {
+        Assert.assertEquals(TERMS, engine.size());
+        for (int i = 1; i < engine.size(); ++i) {
+            Assert.assertTrue(engine.getIC(i - 1) >= engine.getIC(i));
+        }
+        for (int i = 0; i < engine.size(); ++i) {
+            Assert.assertEquals(i, engine.getIndex(engine.getId(i)));
+        }
+    }
+
+    @Test
+    public void testIndexOfAlternateAndUnknownIds()
+    {
+        Assert.assertEquals(engine.getIndex(AnnotationFixture.getId(20)),
+            engine.getIndex(AnnotationFixture.getAltId(20)));
+        Assert.assertEquals(-1, engine.getIndex("HP:9999999"));
+        Assert.assertEquals(-1, engine.getIndex(null));
+        Assert.assertSame(engine.getAncestors(-1), engine.getAncestors(engine.getIndex("HP:9999999")));
+        Assert.assertTrue(engine.getAncestors(-1).isEmpty());
+    }
+
+    @Test
+    public void testAncestorsMatchOntology()
+    {
+        for (int i = 0; i < engine.size(); ++i) {
+            int[] ancestors = engine.getAncestors(i).toArray();
+            Assert.assertEquals(ontology.getAncestors(engine.getId(i)).size(), ancestors.length);
+            for (int ancestor : ancestors) {
+                Assert.assertTrue(ontology.getAncestors(engine.getId(i)).contains(engine.getId(ancestor)));
+            }
+        }
+    }
+
+    @Test
+    public void testMICAMatchesSetIntersection()
+    {
+        for (String id1 : ids) {
+            for (String id2 : ids) {
+                String expected = reference.getMICAId(id1, id2);
+                Assert.assertEquals(id1 + " " + id2, expected, engine.getMICAId(id1, id2));
+                Assert.assertEquals(reference.getIC(expected),
+                    engine.getMICAIC(engine.getIndex(id1), engine.getIndex(id2)), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testFingerprint() throws IOException
+    {
+        OmimHPOAnnotations same = AnnotationFixture.createAnnotations(ontology, AnnotationFixture.lines(diseases));
+        Assert.assertEquals(engine.getFingerprint(), new MICAEngine(ontology, same).getFingerprint());
+        OmimHPOAnnotations other = AnnotationFixture.createAnnotations(ontology,
+            AnnotationFixture.lines(diseases) + AnnotationFixture.line("201", AnnotationFixture.getId(2)));
+        Assert.assertFalse(engine.getFingerprint() == new MICAEngine(ontology, other).getFingerprint());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.phenotips.hpoa.AnnotationFixture;
+import org.phenotips.hpoa.annotation.OmimHPOAnnotations;
+import org.phenotips.hpoa.annotation.SearchResult;
+import org.phenotips.hpoa.ontology.AbstractOntology;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link MatchCache memoized} predictor results.
+ *
+ * @version $Id$
+ */
+public class MatchCacheTest
+{
+    private static AbstractOntology ontology;
+
+    private static OmimHPOAnnotations annotations;
+
+    private ICPredictor predictor;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException
+    {
+        ontology = AnnotationFixture.createOntology();
+        annotations = AnnotationFixture.createAnnotations(ontology, AnnotationFixture.ANNOTATIONS);
+    }
+
+    @Before
+    public void setUp()
+    {
+        this.predictor = new ICPredictor();
+        this.predictor.setAnnotation(annotations);
+    }
+
+    @Test
+    public void testKeyIsCanonical()
+    {
+        MatchCache.Key key = MatchCache.getKey(Arrays.asList("HP:0000003", "HP:0000006"), ontology);
+        Assert.assertEquals(key, MatchCache.getKey(Arrays.asList("HP:0000006", "HP:0000003"), ontology));
+        Assert.assertEquals(key, MatchCache.getKey(Arrays.asList("HP:0000006", "HP:0000013"), ontology));
+        Assert.assertEquals(key.hashCode(),
+            MatchCache.getKey(Arrays.asList("HP:0000013", "HP:0000006"), ontology).hashCode());
+        Assert.assertFalse(key.equals(MatchCache.getKey(Arrays.asList("HP:0000003"), ontology)));
+        Assert.assertFalse(key.equals(MatchCache.getKey(Arrays.asList("HP:0000003", "HP:0000006", "HP:0000006"),
+            ontology)));
+    }
+
+    @Test
+    public void testRepeatedQueriesAreCached()
+    {
+        CacheStatistics statistics = this.predictor.getCacheStatistics();
+        List<SearchResult> matches = this.predictor.getMatches(Arrays.asList("HP:0000003", "HP:0000006"));
+        Assert.assertEquals(0, statistics.getHits());
+        Assert.assertEquals(1, statistics.getMisses());
+        Assert.assertSame(matches, this.predictor.getMatches(Arrays.asList("HP:0000006", "HP:0000013")));
+        Assert.assertEquals(1, statistics.getHits());
+        Assert.assertEquals(matches.subList(0, 2),
+            this.predictor.getMatches(Arrays.asList("HP:0000003", "HP:0000006"), 2));
+        Assert.assertEquals(2, statistics.getHits());
+        Assert.assertEquals(2.0 / 3, statistics.getHitRate(), 1e-9);
+    }
+
+    @Test
+    public void testMatchesAreSharedWithDifferentialPhenotypes()
+    {
+        CacheStatistics statistics = this.predictor.getCacheStatistics();
+        List<SearchResult> top = this.predictor.getMatches(Arrays.asList("HP:0000003"), 1);
+        Assert.assertEquals(1, top.size());
+        List<SearchResult> differential = this.predictor.getDifferentialPhenotypes(Arrays.asList("HP:0000003"));
+        // The top match isn't enough for the differential phenotypes, they need all the matches
+        Assert.assertEquals(3, statistics.getMisses());
+        Assert.assertSame(differential, this.predictor.getDifferentialPhenotypes(Arrays.asList("HP:0000013")));
+        Assert.assertEquals(this.predictor.computeMatches(Arrays.asList("HP:0000003")),
+            this.predictor.getMatches(Arrays.asList("HP:0000003")));
+        Assert.assertEquals(top, this.predictor.getMatches(Arrays.asList("HP:0000003"), 1));
+        Assert.assertEquals(3, statistics.getHits());
+        Assert.assertEquals(3, statistics.getMisses());
+    }
+
+    @Test
+    public void testDifferentialPhenotypesExcludeAncestors()
+    {
+        // All three matches have the same score; B is shared by two of them, so it differentiates less
+        List<SearchResult> differential = this.predictor.getDifferentialPhenotypes(Arrays.asList("HP:0000003"));
+        Assert.assertEquals(4, differential.size());
+        Set<String> ids = new HashSet<String>();
+        for (SearchResult result : differential) {
+            Assert.assertFalse(result.getId(), ontology.getAncestors("HP:0000003").contains(result.getId()));
+            ids.add(result.getId());
+        }
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("HP:0000004", "HP:0000005", "HP:0000006",
+            "HP:0000007")), ids);
+        Assert.assertEquals("HP:0000005", differential.get(3).getId());
+        Assert.assertEquals(differential.get(0).getScore() / 2, differential.get(3).getScore(), 1e-9);
+    }
+
+    @Test
+    public void testNewAnnotationsClearTheCache()
+    {
+        List<SearchResult> matches = this.predictor.getMatches(Arrays.asList("HP:0000003"));
+        this.predictor.setAnnotation(annotations);
+        Assert.assertNotSame(matches, this.predictor.getMatches(Arrays.asList("HP:0000003")));
+        Assert.assertEquals(matches, this.predictor.getMatches(Arrays.asList("HP:0000003")));
+        Assert.assertEquals(1, this.predictor.getCacheStatistics().getHits());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted()
+    {
+        CacheStatistics statistics = new CacheStatistics();
+        MatchCache cache = new MatchCache(10, statistics);
+        List<SearchResult> results = Collections.nCopies(4, new SearchResult("OMIM:1", "Disease 1", 1));
+        MatchCache.Key first = MatchCache.getKey(Arrays.asList("HP:0000001"), null);
+        MatchCache.Key second = MatchCache.getKey(Arrays.asList("HP:0000002"), null);
+        MatchCache.Key third = MatchCache.getKey(Arrays.asList("HP:0000003"), null);
+        cache.putMatches(first, results, Integer.MAX_VALUE);
+        cache.putMatches(second, results, Integer.MAX_VALUE);
+        Assert.assertNotNull(cache.getMatches(first, 1));
+        cache.putMatches(third, results, Integer.MAX_VALUE);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, statistics.getEvictions());
+        Assert.assertNotNull(cache.getMatches(first, 1));
+        Assert.assertNull(cache.getMatches(second, 1));
+        Assert.assertNotNull(cache.getMatches(third, 1));
+    }
+}
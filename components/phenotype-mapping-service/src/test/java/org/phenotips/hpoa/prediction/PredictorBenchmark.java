@@ -0,0 +1,134 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.phenotips.hpoa.AnnotationFixture;
+import org.phenotips.hpoa.annotation.OmimHPOAnnotations;
+import org.phenotips.hpoa.annotation.SearchResult;
+import org.phenotips.hpoa.ontology.AbstractOntology;
+
+import org.junit.Test;
+
+/**
+ * Compares the query latency of the {@link ICPredictor} and of the {@link BNPredictor} on identical simulated patients,
+ * to check that the Bayesian network is quick enough for interactive use. The match cache is bypassed, so that every
+ * query is really computed. How well both predictors rank the disease of the patients is checked by
+ * {@link BNPredictorTest}.
+ * <p>
+ * Surefire only runs {@code *Test} classes, so this benchmark is skipped by the build; run it explicitly with
+ * {@code mvn test -Dtest=PredictorBenchmark}. To use the real data, point the {@code benchmark.ontology} and
+ * {@code benchmark.annotations} system properties to {@code hp.obo} and {@code phenotype_annotation.tab}; otherwise
+ * random data of the same size is generated. {@code benchmark.patients} sets the number of simulated patients.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class PredictorBenchmark
+{
+    private static final int LIMIT = 20;
+
+    private static final int TERMS = 13000;
+
+    private static final int DISEASES = 7000;
+
+    private static final int PATIENTS = Integer.getInteger("benchmark.patients", 1000);
+
+    @Test
+    public void testQueryLatency() throws IOException
+    {
+        Random random = new Random(42);
+        OmimHPOAnnotations annotations = loadAnnotations(random);
+        List<String> diseases = new ArrayList<String>();
+        List<List<String>> patients = AnnotationFixture.simulatePatients(annotations, random, PATIENTS, diseases);
+
+        long start = System.nanoTime();
+        ICPredictor ic = new ICPredictor();
+        ic.setAnnotation(annotations);
+        System.out.println(String.format("ic: setup %.0f ms", (System.nanoTime() - start) / 1e6));
+        start = System.nanoTime();
+        BNPredictor bn = new BNPredictor();
+        bn.setAnnotation(annotations);
+        System.out.println(String.format("bn: setup %.0f ms", (System.nanoTime() - start) / 1e6));
+        try {
+            // Warm up
+            List<List<String>> warmUp = patients.subList(0, Math.min(100, patients.size()));
+            measure(ic, warmUp, diseases);
+            measure(bn, warmUp, diseases);
+
+            System.out.println("ic: " + measure(ic, patients, diseases));
+            System.out.println("bn: " + measure(bn, patients, diseases));
+        } finally {
+            ic.dispose();
+        }
+    }
+
+    /**
+     * Run each query once, timing it.
+     *
+     * @return the mean and 95th percentile latency, and how often the disease of the patient was in the top results
+     */
+    private String measure(AbstractPredictor predictor, List<List<String>> patients, List<String> diseases)
+    {
+        long[] latencies = new long[patients.size()];
+        int found = 0;
+        long total = 0;
+        for (int i = 0; i < patients.size(); ++i) {
+            long start = System.nanoTime();
+            List<SearchResult> results = predictor.computeMatches(patients.get(i), LIMIT);
+            latencies[i] = System.nanoTime() - start;
+            total += latencies[i];
+            for (SearchResult result : results) {
+                if (result.getId().equals(diseases.get(i))) {
+                    ++found;
+                    break;
+                }
+            }
+        }
+        Arrays.sort(latencies);
+        return String.format("%.2f ms/query, 95%% under %.2f ms, disease in the top %d for %.1f%% of %d patients",
+            total / 1e6 / patients.size(), latencies[latencies.length * 95 / 100] / 1e6, LIMIT,
+            100.0 * found / patients.size(), patients.size());
+    }
+
+    private static OmimHPOAnnotations loadAnnotations(Random random) throws IOException
+    {
+        String ontologyPath = System.getProperty("benchmark.ontology");
+        String annotationsPath = System.getProperty("benchmark.annotations");
+        if (ontologyPath != null && annotationsPath != null) {
+            AbstractOntology ontology = new AbstractOntology()
+            {
+            };
+            ontology.load(new File(ontologyPath));
+            OmimHPOAnnotations result = new OmimHPOAnnotations(ontology);
+            result.load(new File(annotationsPath));
+            return result;
+        }
+        AbstractOntology ontology = AnnotationFixture.createOntology(AnnotationFixture.randomOntology(random, TERMS));
+        return AnnotationFixture.createAnnotations(ontology,
+            AnnotationFixture.lines(AnnotationFixture.randomDiseases(random, DISEASES, TERMS)));
+    }
+}
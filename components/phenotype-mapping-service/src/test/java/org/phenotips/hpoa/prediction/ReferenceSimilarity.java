@@ -0,0 +1,134 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.phenotips.hpoa.annotation.AnnotationTerm;
+import org.phenotips.hpoa.annotation.HPOAnnotation;
+import org.phenotips.hpoa.annotation.SearchResult;
+import org.phenotips.hpoa.ontology.Ontology;
+
+/**
+ * The unoptimised similarity computation, with information content counted directly from the disease phenotypes and
+ * common ancestors found by intersecting ancestor sets, used as a reference by the tests of the optimised code.
+ *
+ * @version $Id$
+ */
+final class ReferenceSimilarity
+{
+    private final Ontology ontology;
+
+    /** The phenotypes of each disease, by disease identifier. */
+    private final Map<String, Set<String>> diseases = new HashMap<String, Set<String>>();
+
+    private final Map<String, Double> ic = new HashMap<String, Double>();
+
+    /**
+     * Simple constructor.
+     *
+     * @param ontology the ontology providing the ancestors of each term
+     * @param diseases the phenotypes of each disease number, as written in the annotation file
+     */
+    ReferenceSimilarity(Ontology ontology, Map<String, List<String>> diseases)
+    {
+        this.ontology = ontology;
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (Map.Entry<String, List<String>> disease : diseases.entrySet()) {
+            Set<String> phenotypes = new HashSet<String>(disease.getValue());
+            this.diseases.put("OMIM:" + disease.getKey(), phenotypes);
+            Set<String> propagated = new HashSet<String>();
+            for (String phenotype : phenotypes) {
+                propagated.addAll(ontology.getAncestors(phenotype));
+            }
+            for (String term : propagated) {
+                Integer count = counts.get(term);
+                counts.put(term, count == null ? 1 : count + 1);
+            }
+        }
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            this.ic.put(count.getKey(), -Math.log(count.getValue() / (double) diseases.size()));
+        }
+    }
+
+    public double getIC(String termId)
+    {
+        Double result = this.ic.get(this.ontology.getRealId(termId));
+        return result == null ? 0 : result;
+    }
+
+    /**
+     * The most informative common ancestor, the one with the lowest identifier if several are equally informative.
+     */
+    public String getMICAId(String termId1, String termId2)
+    {
+        Set<String> common = new HashSet<String>(this.ontology.getAncestors(termId1));
+        common.retainAll(this.ontology.getAncestors(termId2));
+        String result = null;
+        for (String ancestor : common) {
+            int comparison = result == null ? 1 : Double.compare(getIC(ancestor), getIC(result));
+            if (comparison > 0 || comparison == 0 && ancestor.compareTo(result) < 0) {
+                result = ancestor;
+            }
+        }
+        return result == null ? this.ontology.getRootId() : result;
+    }
+
+    public double asymmetricPhenotypeSimilarity(Collection<String> query, Collection<String> reference)
+    {
+        double result = 0.0;
+        for (String q : query) {
+            double bestMatchIC = 0;
+            for (String r : reference) {
+                bestMatchIC = Math.max(bestMatchIC, getIC(getMICAId(q, r)));
+            }
+            result += bestMatchIC;
+        }
+        return result / (query.size() > 0 ? query.size() : 1);
+    }
+
+    /**
+     * Score every disease and sort them, keeping the order of the loaded annotations for equal scores.
+     *
+     * @param annotations the loaded annotations, only used for the disease order and names
+     * @param query the query phenotypes
+     * @return all the diseases with a positive score, descending by score
+     */
+    public List<SearchResult> rank(HPOAnnotation annotations, List<String> query)
+    {
+        List<SearchResult> result = new ArrayList<SearchResult>();
+        for (AnnotationTerm disease : annotations.getAnnotations()) {
+            double score = asymmetricPhenotypeSimilarity(query, this.diseases.get(disease.getId()));
+            if (score > 0) {
+                result.add(new SearchResult(disease.getId(), disease.getName(), score));
+            }
+        }
+        Collections.sort(result);
+        return new LinkedList<SearchResult>(result);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.phenotips.hpoa.AnnotationFixture;
+import org.phenotips.hpoa.ontology.AbstractOntology;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the persisted {@link TermSimilarityStore}.
+ *
+ * @version $Id$
+ */
+public class TermSimilarityStoreTest
+{
+    private static AnnotationIndex index;
+
+    /** An index over different annotations, thus with different similarities. */
+    private static AnnotationIndex otherIndex;
+
+    private File file;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException
+    {
+        AbstractOntology ontology = AnnotationFixture.createOntology();
+        index = new AnnotationIndex(AnnotationFixture.createAnnotations(ontology, AnnotationFixture.ANNOTATIONS));
+        otherIndex = new AnnotationIndex(AnnotationFixture.createAnnotations(ontology,
+            AnnotationFixture.line("1", "HP:0000004") + AnnotationFixture.line("2", "HP:0000006")));
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        this.file = File.createTempFile("similarity", ".bin");
+        this.file.delete();
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.file.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        int[] terms = index.getReferenceTerms();
+        TermSimilarityStore.write(this.file, index.getEngine(), terms);
+        check(TermSimilarityStore.load(this.file, index.getEngine()), index.getEngine(), terms);
+        check(TermSimilarityStore.open(this.file, index.getEngine(), terms), index.getEngine(), terms);
+    }
+
+    @Test
+    public void testDifferentEngineForcesRebuild() throws IOException
+    {
+        Assert.assertFalse(index.getEngine().getFingerprint() == otherIndex.getEngine().getFingerprint());
+        TermSimilarityStore.write(this.file, index.getEngine(), index.getReferenceTerms());
+        Assert.assertNull(TermSimilarityStore.load(this.file, otherIndex.getEngine()));
+
+        int[] terms = otherIndex.getReferenceTerms();
+        check(TermSimilarityStore.open(this.file, otherIndex.getEngine(), terms), otherIndex.getEngine(), terms);
+        Assert.assertNull(TermSimilarityStore.load(this.file, index.getEngine()));
+    }
+
+    @Test
+    public void testTruncatedFileForcesRebuild() throws IOException
+    {
+        int[] terms = index.getReferenceTerms();
+        TermSimilarityStore.write(this.file, index.getEngine(), terms);
+        long length = this.file.length();
+        RandomAccessFile out = new RandomAccessFile(this.file, "rw");
+        out.setLength(length - 1);
+        out.close();
+        Assert.assertNull(TermSimilarityStore.load(this.file, index.getEngine()));
+
+        check(TermSimilarityStore.open(this.file, index.getEngine(), terms), index.getEngine(), terms);
+        Assert.assertEquals(length, this.file.length());
+    }
+
+    @Test
+    public void testMissingFile() throws IOException
+    {
+        Assert.assertNull(TermSimilarityStore.load(this.file, index.getEngine()));
+    }
+
+    @Test
+    public void testStoredScoresMatchComputedScores() throws IOException
+    {
+        AnnotationIndex stored = new AnnotationIndex(index.getAnnotations());
+        stored.setSimilarityStore(TermSimilarityStore.open(this.file, stored.getEngine(), stored.getReferenceTerms()));
+        MICAEngine engine = index.getEngine();
+        for (int q = 0; q < engine.size(); ++q) {
+            for (int d = 0; d < index.size(); ++d) {
+                Assert.assertEquals(index.getBestMatchIC(q, d), stored.getBestMatchIC(q, d), 1e-6);
+            }
+        }
+    }
+
+    private static void check(TermSimilarityStore store, MICAEngine engine, int[] terms)
+    {
+        Assert.assertNotNull(store);
+        Assert.assertEquals(terms.length, store.size());
+        for (int term : terms) {
+            Assert.assertTrue(store.contains(term));
+            for (int other : terms) {
+                Assert.assertEquals((float) engine.getMICAIC(term, other), store.get(term, other), 0);
+                Assert.assertEquals(store.get(term, other), store.get(other, term), 0);
+            }
+        }
+        Assert.assertFalse(store.contains(-1));
+        Assert.assertFalse(store.contains(engine.size()));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.prediction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.phenotips.hpoa.AnnotationFixture;
+import org.phenotips.hpoa.annotation.OmimHPOAnnotations;
+import org.phenotips.hpoa.annotation.SearchResult;
+import org.phenotips.hpoa.ontology.AbstractOntology;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link TopKRanker}, checking that it returns exactly the first results of the full ranking computed
+ * with the {@link ReferenceSimilarity unoptimised similarity}.
+ *
+ * @version $Id$
+ */
+public class TopKRankerTest
+{
+    private static final int TERMS = 120;
+
+    /** Enough diseases for the ranker to split the work between several workers. */
+    private static final int DISEASES = 2500;
+
+    private static final int[] LIMITS = new int[] { 1, 2, 3, 5, 10, 40 };
+
+    private static AbstractOntology ontology;
+
+    private static OmimHPOAnnotations annotations;
+
+    private static AnnotationIndex index;
+
+    private static ReferenceSimilarity reference;
+
+    private static ExecutorService executor;
+
+    @BeforeClass
+    public static void setUp() throws IOException
+    {
+        Random random = new Random(42);
+        ontology = AnnotationFixture.createOntology(AnnotationFixture.randomOntology(random, TERMS));
+        Map<String, List<String>> diseases = AnnotationFixture.randomDiseases(random, DISEASES, TERMS * 3 / 4);
+        annotations = AnnotationFixture.createAnnotations(ontology, AnnotationFixture.lines(diseases));
+        index = new AnnotationIndex(annotations);
+        reference = new ReferenceSimilarity(ontology, diseases);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterClass
+    public static void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSingleThreadedRankingIsPrefixOfFullRanking()
+    {
+        Random random = new Random(1);
+        TopKRanker ranker = new TopKRanker(null, 1);
+        for (int i = 0; i < 30; ++i) {
+            checkRanking(ranker, randomQuery(random));
+        }
+    }
+
+    @Test
+    public void testParallelRankingIsPrefixOfFullRanking()
+    {
+        TopKRanker ranker = new TopKRanker(executor, 4);
+        // General terms select most of the diseases as candidates, enough for using all the workers
+        List<String> general = Arrays.asList(AnnotationFixture.getId(2), AnnotationFixture.getId(3),
+            AnnotationFixture.getId(4), AnnotationFixture.getId(5));
+        Assert.assertTrue(index.getCandidates(index.getEngine().getIndexes(general)).length >= 2000);
+        checkRanking(ranker, general);
+
+        Random random = new Random(2);
+        for (int i = 0; i < 20; ++i) {
+            List<String> query = randomQuery(random);
+            query.addAll(general);
+            checkRanking(ranker, query);
+        }
+    }
+
+    /** Repeated terms count several times in the score, and must not break the score bound. */
+    @Test
+    public void testDuplicateQueryTerms()
+    {
+        TopKRanker ranker = new TopKRanker(null, 1);
+        checkRanking(ranker, Arrays.asList(AnnotationFixture.getId(30), AnnotationFixture.getId(30),
+            AnnotationFixture.getId(7)));
+        checkRanking(ranker, Arrays.asList(AnnotationFixture.getId(40), AnnotationFixture.getAltId(40)));
+    }
+
+    /**
+     * A term nobody is annotated with has no information content, but its ancestors do, so it still matches some
+     * diseases.
+     */
+    @Test
+    public void testUnannotatedQueryTerms()
+    {
+        TopKRanker ranker = new TopKRanker(null, 1);
+        for (int term = TERMS * 3 / 4 + 1; term <= TERMS; ++term) {
+            checkRanking(ranker, Arrays.asList(AnnotationFixture.getId(term)));
+            checkRanking(ranker, Arrays.asList(AnnotationFixture.getId(term), AnnotationFixture.getId(term - 60)));
+        }
+        checkRanking(ranker, Arrays.asList("HP:9999999", AnnotationFixture.getId(12)));
+        Assert.assertTrue(ranker.rank(index, index.getEngine().getIndexes(Arrays.asList("HP:9999999")), 5, null)
+            .isEmpty());
+    }
+
+    @Test
+    public void testStatistics()
+    {
+        PruningStatistics statistics = new PruningStatistics();
+        List<String> query = Arrays.asList(AnnotationFixture.getId(2), AnnotationFixture.getId(50));
+        int[] indexes = index.getEngine().getIndexes(query);
+        new TopKRanker(null, 1).rank(index, indexes, 3, statistics);
+        Assert.assertEquals(1, statistics.getQueries());
+        Assert.assertEquals(DISEASES, statistics.getAnnotations());
+        Assert.assertEquals(index.getCandidates(indexes).length, statistics.getCandidates());
+        Assert.assertTrue(statistics.getScored() <= statistics.getCandidates());
+    }
+
+    private static void checkRanking(TopKRanker ranker, List<String> query)
+    {
+        List<SearchResult> full = reference.rank(annotations, query);
+        int[] indexes = index.getEngine().getIndexes(query);
+        for (int limit : LIMITS) {
+            Assert.assertEquals("Query " + query + ", limit " + limit, full.subList(0, Math.min(limit, full.size())),
+                ranker.rank(index, indexes, limit, null));
+        }
+    }
+
+    /** Between one and four terms, unannotated, alternative and unknown identifiers included. */
+    private static List<String> randomQuery(Random random)
+    {
+        List<String> result = new ArrayList<String>();
+        for (int j = random.nextInt(4); j >= 0; --j) {
+            int term = 2 + random.nextInt(TERMS - 1);
+            if (term % AnnotationFixture.ALT_ID_STEP == 0 && random.nextBoolean()) {
+                result.add(AnnotationFixture.getAltId(term));
+            } else {
+                result.add(AnnotationFixture.getId(term));
+            }
+        }
+        if (random.nextInt(5) == 0) {
+            result.add(result.get(0));
+        }
+        if (random.nextInt(10) == 0) {
+            result.add("HP:9999999");
+        }
+        return result;
+    }
+}
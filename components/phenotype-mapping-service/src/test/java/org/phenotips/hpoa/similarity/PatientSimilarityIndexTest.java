@@ -0,0 +1,186 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.similarity;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.phenotips.hpoa.annotation.SearchResult;
+import org.phenotips.hpoa.ontology.AbstractOntology;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for {@link PatientSimilarityIndex}, comparing the pruned searches with an exhaustive ranking.
+ *
+ * @version $Id$
+ */
+public class PatientSimilarityIndexTest
+{
+    private static final int TERMS = 2000;
+
+    private static final int PATIENTS = 1500;
+
+    private static final int LIMIT = 10;
+
+    private static File source;
+
+    private static Map<String, List<String>> cohort;
+
+    private static PatientSimilarityIndex index;
+
+    @BeforeClass
+    public static void setUp() throws IOException
+    {
+        source = File.createTempFile("ontology", ".obo");
+        PrintWriter out = new PrintWriter(new FileWriter(source));
+        Random random = new Random(42);
+        out.println("[Term]\nid: HP:0000001\nname: Term 1\n");
+        for (int i = 2; i <= TERMS; ++i) {
+            out.println("[Term]\nid: " + getId(i) + "\nname: Term " + i);
+            out.println("is_a: " + getId(1 + random.nextInt(i - 1)));
+            if (random.nextInt(4) == 0) {
+                out.println("is_a: " + getId(1 + random.nextInt(i - 1)));
+            }
+            out.println();
+        }
+        out.close();
+
+        AbstractOntology ontology = new AbstractOntology()
+        {
+        };
+        ontology.load(source);
+
+        cohort = new LinkedHashMap<String, List<String>>();
+        for (int p = 0; p < PATIENTS; ++p) {
+            List<String> phenotypes = new ArrayList<String>();
+            for (int j = 1 + random.nextInt(8); j > 0; --j) {
+                phenotypes.add(getId(1 + random.nextInt(TERMS)));
+            }
+            if (p % 100 == 0) {
+                phenotypes.add("HP:9999999");
+            }
+            cohort.put("P" + p, phenotypes);
+        }
+        // A patient without any known phenotype
+        cohort.put("empty", new ArrayList<String>());
+        index = new PatientSimilarityIndex(ontology, cohort);
+    }
+
+    @AfterClass
+    public static void tearDown()
+    {
+        source.delete();
+    }
+
+    @Test
+    public void testSimilarPatientsMatchExhaustiveRanking()
+    {
+        for (int p = 0; p < PATIENTS; p += 7) {
+            String id = "P" + p;
+            Assert.assertEquals(rankAll(id, null), index.getSimilarPatients(id, LIMIT, null));
+        }
+    }
+
+    @Test
+    public void testFilteredResults()
+    {
+        PatientFilter odd = new PatientFilter()
+        {
+            @Override
+            public boolean accept(String patientId)
+            {
+                return patientId.startsWith("P") && Integer.parseInt(patientId.substring(1)) % 2 == 1;
+            }
+        };
+        for (int p = 0; p < PATIENTS; p += 13) {
+            String id = "P" + p;
+            List<SearchResult> results = index.getSimilarPatients(id, LIMIT, odd);
+            Assert.assertEquals(rankAll(id, odd), results);
+            for (SearchResult result : results) {
+                Assert.assertTrue(odd.accept(result.getId()));
+            }
+        }
+    }
+
+    @Test
+    public void testPhenotypeQueryMatchesPatientQuery()
+    {
+        String id = "P42";
+        List<SearchResult> byPatient = index.getSimilarPatients(id, LIMIT, null);
+        // The patient itself is the best match of its own phenotypes
+        List<SearchResult> byPhenotypes = index.getSimilarPatients(cohort.get(id), LIMIT + 1, null);
+        Assert.assertEquals(id, byPhenotypes.get(0).getId());
+        Assert.assertEquals(byPatient, byPhenotypes.subList(1, byPhenotypes.size()));
+    }
+
+    @Test
+    public void testSimilarityIsSymmetric()
+    {
+        for (int p = 0; p + 1 < PATIENTS; p += 11) {
+            String a = "P" + p;
+            String b = "P" + (p + 1);
+            Assert.assertEquals(index.getSimilarity(a, b), index.getSimilarity(b, a), 1e-9);
+        }
+    }
+
+    @Test
+    public void testUnknownAndEmptyPatients()
+    {
+        Assert.assertTrue(index.getSimilarPatients("P" + PATIENTS, LIMIT, null).isEmpty());
+        Assert.assertTrue(index.getSimilarPatients("empty", LIMIT, null).isEmpty());
+        Assert.assertTrue(index.getPatientTerms("empty").isEmpty());
+        Assert.assertEquals(0, index.getSimilarity("P1", "empty"), 0);
+        Assert.assertTrue(index.getSimilarPatients("P1", 0, null).isEmpty());
+    }
+
+    /**
+     * Score all the other patients, then sort them descending by score, keeping the index order for equal scores.
+     */
+    private static List<SearchResult> rankAll(String reference, PatientFilter filter)
+    {
+        List<SearchResult> all = new ArrayList<SearchResult>();
+        for (String other : cohort.keySet()) {
+            double score = index.getSimilarity(reference, other);
+            if (!other.equals(reference) && score > 0 && (filter == null || filter.accept(other))) {
+                all.add(new SearchResult(other, other, score));
+            }
+        }
+        // Stable sort, so equal scores keep the index order
+        Collections.sort(all);
+        return all.subList(0, Math.min(LIMIT, all.size()));
+    }
+
+    private static String getId(int term)
+    {
+        return String.format("HP:%07d", term);
+    }
+}
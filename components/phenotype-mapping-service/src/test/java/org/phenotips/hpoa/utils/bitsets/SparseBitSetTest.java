@@ -0,0 +1,107 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.utils.bitsets;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link SparseBitSet}, comparing it with {@link BitSet}.
+ *
+ * @version $Id$
+ */
+public class SparseBitSetTest
+{
+    @Test
+    public void testEmpty()
+    {
+        Assert.assertSame(SparseBitSet.EMPTY, SparseBitSet.valueOf(new int[0]));
+        Assert.assertTrue(SparseBitSet.EMPTY.isEmpty());
+        Assert.assertEquals(-1, SparseBitSet.EMPTY.first());
+        Assert.assertEquals(0, SparseBitSet.EMPTY.cardinality());
+        Assert.assertEquals(-1, SparseBitSet.EMPTY.firstCommon(SparseBitSet.valueOf(new int[] { 1 })));
+    }
+
+    @Test
+    public void testDuplicateAndUnsortedIndexes()
+    {
+        SparseBitSet set = SparseBitSet.valueOf(new int[] { 130, 3, 64, 3, 130 });
+        Assert.assertArrayEquals(new int[] { 3, 64, 130 }, set.toArray());
+        Assert.assertEquals(3, set.cardinality());
+        Assert.assertEquals(3, set.first());
+        Assert.assertEquals(SparseBitSet.valueOf(new int[] { 3, 64, 130 }), set);
+    }
+
+    /** Random sets spread over a few words with large gaps, checked against {@link BitSet}. */
+    @Test
+    public void testMatchesBitSet()
+    {
+        Random random = new Random(42);
+        for (int run = 0; run < 500; ++run) {
+            BitSet expected1 = new BitSet();
+            BitSet expected2 = new BitSet();
+            SparseBitSet set1 = randomSet(random, expected1);
+            SparseBitSet set2 = randomSet(random, expected2);
+
+            Assert.assertEquals(expected1.cardinality(), set1.cardinality());
+            Assert.assertEquals(expected1.isEmpty(), set1.isEmpty());
+            Assert.assertEquals(expected1.nextSetBit(0), set1.first());
+            for (int i = 0; i < 3100; ++i) {
+                Assert.assertEquals(expected1.get(i), set1.get(i));
+            }
+
+            BitSet and = (BitSet) expected1.clone();
+            and.and(expected2);
+            BitSet or = (BitSet) expected1.clone();
+            or.or(expected2);
+            Assert.assertEquals(and.nextSetBit(0), set1.firstCommon(set2));
+            Assert.assertEquals(and.nextSetBit(0), set2.firstCommon(set1));
+            Assert.assertEquals(expected1.intersects(expected2), set1.intersects(set2));
+            Assert.assertArrayEquals(toArray(and), set1.and(set2).toArray());
+            Assert.assertArrayEquals(toArray(or), set1.or(set2).toArray());
+            Assert.assertEquals(set1.and(set2), set2.and(set1));
+            Assert.assertEquals(set1.or(set2).hashCode(), set2.or(set1).hashCode());
+        }
+    }
+
+    private static SparseBitSet randomSet(Random random, BitSet expected)
+    {
+        int[] indexes = new int[random.nextInt(12)];
+        int base = random.nextInt(4) * 500;
+        for (int i = 0; i < indexes.length; ++i) {
+            indexes[i] = base + random.nextInt(random.nextBoolean() ? 64 : 1500);
+            expected.set(indexes[i]);
+        }
+        return SparseBitSet.valueOf(indexes);
+    }
+
+    private static int[] toArray(BitSet set)
+    {
+        int[] result = new int[set.cardinality()];
+        int count = 0;
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+            result[count++] = i;
+        }
+        return result;
+    }
+}
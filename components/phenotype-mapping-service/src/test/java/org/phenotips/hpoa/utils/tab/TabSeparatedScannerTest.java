@@ -0,0 +1,106 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.phenotips.hpoa.utils.tab;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link TabSeparatedScanner} and {@link ByteSymbolTable}.
+ *
+ * @version $Id$
+ */
+public class TabSeparatedScannerTest
+{
+    @Test
+    public void testFields() throws IOException
+    {
+        TabSeparatedScanner scanner = scanner("OMIM\t100\tDisease \u00e9\r\n\nNOT\t\t");
+        Assert.assertTrue(scanner.next());
+        Assert.assertEquals(3, scanner.getFieldCount());
+        Assert.assertTrue(scanner.fieldEquals(0, "OMIM".getBytes()));
+        Assert.assertTrue(scanner.fieldStartsWith(0, "OM".getBytes()));
+        Assert.assertFalse(scanner.fieldStartsWith(1, "1000".getBytes()));
+        Assert.assertEquals("Disease \u00e9", scanner.getString(2));
+
+        Assert.assertTrue(scanner.next());
+        Assert.assertEquals(1, scanner.getFieldCount());
+        Assert.assertEquals("", scanner.getString(0));
+
+        // The last line has no line end, and empty fields
+        Assert.assertTrue(scanner.next());
+        Assert.assertEquals(3, scanner.getFieldCount());
+        Assert.assertEquals("NOT", scanner.getString(0));
+        Assert.assertEquals(0, scanner.getFieldLength(2));
+        Assert.assertFalse(scanner.next());
+        Assert.assertEquals(3, scanner.getLineCount());
+    }
+
+    @Test
+    public void testLinesLongerThanTheBuffer() throws IOException
+    {
+        StringBuilder content = new StringBuilder();
+        for (int line = 0; line < 3; ++line) {
+            for (int i = 0; i < 50000; ++i) {
+                content.append(line).append(i).append('\t');
+            }
+            content.append("end").append(line).append('\n');
+        }
+        TabSeparatedScanner scanner = scanner(content.toString());
+        for (int line = 0; line < 3; ++line) {
+            Assert.assertTrue(scanner.next());
+            Assert.assertEquals(50001, scanner.getFieldCount());
+            Assert.assertEquals(line + "49999", scanner.getString(49999));
+            Assert.assertEquals("end" + line, scanner.getString(50000));
+        }
+        Assert.assertFalse(scanner.next());
+        Assert.assertEquals(content.length(), scanner.getBytesRead());
+    }
+
+    @Test
+    public void testSymbolTable() throws IOException
+    {
+        ByteSymbolTable symbols = new ByteSymbolTable();
+        TabSeparatedScanner scanner = scanner("a\tb\ta\n");
+        scanner.next();
+        Assert.assertEquals(-1, symbols.intern(scanner, 0));
+        Assert.assertEquals(-2, symbols.intern(scanner, 1));
+        Assert.assertEquals(0, symbols.intern(scanner, 2));
+
+        for (int i = 0; i < 10000; ++i) {
+            byte[] symbol = ("HP:" + i).getBytes();
+            Assert.assertEquals(-(i + 3), symbols.intern(symbol, 0, symbol.length));
+        }
+        for (int i = 0; i < 10000; ++i) {
+            byte[] symbol = ("xHP:" + i).getBytes();
+            Assert.assertEquals(i + 2, symbols.intern(symbol, 1, symbol.length - 1));
+            Assert.assertEquals("HP:" + i, symbols.getString(i + 2));
+        }
+        Assert.assertEquals(10002, symbols.size());
+    }
+
+    private static TabSeparatedScanner scanner(String content) throws IOException
+    {
+        return new TabSeparatedScanner(new ByteArrayInputStream(content.getBytes("UTF-8")));
+    }
+}
@@ -68,6 +68,9 @@ public abstract class AbstractSolrScriptService implements ScriptService, Initia
      */
     protected static final String ID_FIELD_NAME = "id";
 
+    /** Prefix of the cache keys of queries, which can't be confused with a term identifier. */
+    private static final String QUERY_CACHE_KEY_PREFIX = "q=";
+
     /** Character used in URLs to delimit path segments. */
     private static final String URL_PATH_SEPARATOR = "/";
 
@@ -268,18 +271,14 @@ public SolrDocumentList customSearch(final Map<String, String> searchParameters)
      */
     public SolrDocument get(final Map<String, String> fieldValues)
     {
-        String cacheKey = dumpMap(fieldValues);
-        SolrDocument result = this.cache.get(cacheKey);
-        if (result == null) {
-            SolrDocumentList all = search(fieldValues, 1, 0);
-            if (all != null && !all.isEmpty()) {
-                result = all.get(0);
-                this.cache.set(cacheKey, result);
-            } else {
-                this.cache.set(cacheKey, EMPTY_MARKER);
-            }
+        Map<String, String> queryParameters = getSolrQuery(fieldValues, 1, 0);
+        if (fieldValues.size() == 1 && fieldValues.get(ID_FIELD_NAME) != null) {
+            // Shares the cache entry of get(String), without the fallbacks that subclasses may add to it
+            return get(queryParameters, fieldValues.get(ID_FIELD_NAME));
         }
-        return (result == EMPTY_MARKER) ? null : result;
+        // Other queries are cached by the Lucene query sent to the server, which is built anyway, instead of
+        // serializing the map separately; the prefix keeps these keys apart from the identifiers
+        return get(queryParameters, QUERY_CACHE_KEY_PREFIX + queryParameters.get(CommonParams.Q));
     }
 
     /**
@@ -290,9 +289,32 @@ public SolrDocument get(final Map<String, String> fieldValues)
      */
     public SolrDocument get(final String id)
     {
-        Map<String, String> queryParameters = new HashMap<String, String>();
-        queryParameters.put(ID_FIELD_NAME, id);
-        return get(queryParameters);
+        Map<String, String> fieldValues = new HashMap<String, String>();
+        fieldValues.put(ID_FIELD_NAME, id);
+        // Identifier lookups are the most frequent, so they are cached by the identifier itself
+        return get(getSolrQuery(fieldValues, 1, 0), id);
+    }
+
+    /**
+     * Get the top hit corresponding to the specified query, going through the cache.
+     * 
+     * @param queryParameters the Solr parameters of the query, as returned by {@link #getSolrQuery(Map, int, int)}
+     * @param cacheKey the key identifying the query in the cache
+     * @return the top matching document, {@code null} if there were no matches at all
+     */
+    private SolrDocument get(final Map<String, String> queryParameters, final String cacheKey)
+    {
+        SolrDocument result = this.cache.get(cacheKey);
+        if (result == null) {
+            SolrDocumentList all = search(new MapSolrParams(queryParameters));
+            if (all != null && !all.isEmpty()) {
+                result = all.get(0);
+                this.cache.set(cacheKey, result);
+            } else {
+                this.cache.set(cacheKey, EMPTY_MARKER);
+            }
+        }
+        return (result == EMPTY_MARKER) ? null : result;
     }
 
     /**
@@ -429,21 +451,4 @@ private Map<String, String> getSolrQuery(String query, String sort, int rows, in
         result.put("spellcheck.collate", Boolean.toString(true));
         return result;
     }
-
-    /**
-     * Serialize a Map into a String.
-     *
-     * @param map the map to serialize
-     * @return a String serialization of the map
-     */
-    private String dumpMap(Map<String, ? > map)
-    {
-        StringBuilder out = new StringBuilder();
-        out.append('{');
-        for (Map.Entry<String, ? > entry : map.entrySet()) {
-            out.append(entry.getKey() + ':' + entry.getValue() + '\n');
-        }
-        out.append('}');
-        return out.toString();
-    }
 }
@@ -20,7 +20,8 @@
 package org.phenotips.solr;
 
 import java.io.IOException;
-import java.util.Collection;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -35,10 +36,8 @@
 import org.apache.commons.lang3.StringUtils;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrInputDocument;
 import org.phenotips.obo2solr.ParameterPreparer;
-import org.phenotips.obo2solr.SolrUpdateGenerator;
-import org.phenotips.obo2solr.TermData;
+import org.phenotips.obo2solr.SolrIndexer;
 import org.xwiki.component.annotation.Component;
 
 
@@ -102,34 +101,23 @@ public Set<String> getAllAncestorsAndSelfIDs(final String id)
      */
     public int index(String ontologyUrl, String fieldList)
     {
-        ParameterPreparer paramPrep = new ParameterPreparer();
-        SolrUpdateGenerator generator = new SolrUpdateGenerator();
-        Map<String, Double> fieldSelection = paramPrep.getFieldSelection(fieldList);
-        Map<String, TermData> data = generator.transform(ontologyUrl, fieldSelection);
-        if (data == null) {
+        URL url;
+        try {
+            url = new URL(ontologyUrl);
+        } catch (MalformedURLException ex) {
             return 2;
         }
-        Collection<SolrInputDocument> allTerms = new HashSet<SolrInputDocument>();
-        for (Map.Entry<String, TermData> item : data.entrySet()) {
-            SolrInputDocument doc = new SolrInputDocument();
-            for (Map.Entry<String, Collection<String>> property : item.getValue().entrySet()) {
-                String name = property.getKey();
-                for (String value : property.getValue()) {
-                    doc.addField(name, value, (fieldSelection.get(name) == null ? ParameterPreparer.DEFAULT_BOOST
-                        : fieldSelection.get(name)).floatValue());
-                }
-            }
-            allTerms.add(doc);
-        }
+        ParameterPreparer paramPrep = new ParameterPreparer();
+        Map<String, Double> fieldSelection = paramPrep.getFieldSelection(fieldList);
         try {
-            this.server.add(allTerms);
-            this.server.commit();
+            new SolrIndexer(this.server, fieldSelection).index(url);
             this.cache.removeAll();
             return 0;
         } catch (SolrServerException ex) {
             this.logger.warn("Failed to index ontology: {}", ex.getMessage());
         } catch (IOException ex) {
-            this.logger.warn("Failed to communicate with the Solr server while indexing ontology: {}", ex.getMessage());
+            this.logger.warn("Failed to read the ontology or to communicate with the Solr server while indexing it: {}",
+                ex.getMessage());
         }
         return 1;
     }
@@ -19,8 +19,8 @@
  */
 package org.phenotips.solr;
 
-import org.phenotips.obo2solr.maps.CounterMap;
-import org.phenotips.obo2solr.maps.SumMap;
+import org.phenotips.obo2solr.maps.ObjectDoubleMap;
+import org.phenotips.obo2solr.maps.ObjectIntMap;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.script.service.ScriptService;
@@ -108,8 +108,8 @@ public List<SuggestedPhenotype> getDifferentialPhenotypes(Collection<String> phe
         }
         SolrDocumentList matchingDisorders = response.getResults();
         Map<?, ?> explanations = response.getExplainMap();
-        SumMap<String> cummulativeScore = new SumMap<String>();
-        CounterMap<String> matchCounter = new CounterMap<String>();
+        ObjectDoubleMap<String> cummulativeScore = new ObjectDoubleMap<String>();
+        ObjectIntMap<String> matchCounter = new ObjectIntMap<String>();
         Set<String> allAncestors = new HashSet<String>();
         for (String phenotype : phenotypes) {
             allAncestors.addAll(hpoService.getAllAncestorsAndSelfIDs(phenotype));
@@ -123,18 +123,19 @@ public List<SuggestedPhenotype> getDifferentialPhenotypes(Collection<String> phe
                 if (allAncestors.contains(hpoId) || nphenotypes.contains(hpoId)) {
                     continue;
                 }
-                cummulativeScore.addTo((String) hpoId, (double) score);
-                matchCounter.addTo((String) hpoId);
+                cummulativeScore.addTo((String) hpoId, score);
+                matchCounter.increment((String) hpoId);
             }
         }
-        if (matchCounter.getMinValue() <= matchingDisorders.size() / 2) {
+        if (matchCounter.getMinInt() <= matchingDisorders.size() / 2) {
             for (String hpoId : cummulativeScore.keySet()) {
                 SolrDocument term = hpoService.get(hpoId);
                 if (term == null) {
                     continue;
                 }
+                int count = matchCounter.getInt(hpoId);
                 result.add(new SuggestedPhenotype(hpoId, (String) term.getFieldValue("name"),
-                    cummulativeScore.get(hpoId) / (matchCounter.get(hpoId) * matchCounter.get(hpoId))));
+                    cummulativeScore.getDouble(hpoId) / (count * count)));
             }
             Collections.sort(result);
         }